@@ -0,0 +1,299 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the orders endpoint of the Shopify Admin REST API.
+ * Orders are created at a fixed rate while the server runs and are returned
+ * newest first, paginated with page_info cursors in the Link header like the
+ * real API. Requests go through a leaky bucket of 40 calls draining 2 per second
+ * and are answered with 429 when it is full; random throttling and slow
+ * responses can be added on top.
+ *
+ * Run it standalone and set shopify.api_url to point a development server at it:
+ * java -cp benchmarks.jar eu.venxu.mineshopify.benchmarks.FakeShopifyServer --port 8089 --rate 5
+ */
+public class FakeShopifyServer {
+
+    private static final int BUCKET_SIZE = 40;
+    private static final double LEAK_PER_SECOND = 2.0;
+    private static final int FIRST_ORDER_NUMBER = 1001;
+
+    private final Options options;
+    private final Random random = new Random(42);
+    private final List<JsonObject> orders = new ArrayList<>();
+    private final Map<String, Long> createdAtByName = new HashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private long startedAt;
+    private long stoppedCreatingAt = Long.MAX_VALUE;
+    private double bucketLevel;
+    private long bucketUpdatedAt;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Settings of the stand-in.
+     */
+    public static class Options {
+        public String token = "shpat_benchmark";
+        public double ordersPerSecond = 1;
+        public int lineItems = 1;
+        public ShopifyPayloads.Shape shape = ShopifyPayloads.Shape.PROPERTIES;
+        public long latencyMillis = 50;
+        public long jitterMillis = 25;
+        public double slowRate = 0;
+        public long slowMillis = 5000;
+        public double throttleRate = 0;
+    }
+
+    /**
+     * Create the stand-in.
+     *
+     * @param options The settings of the stand-in.
+     */
+    public FakeShopifyServer(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Start serving requests and creating orders.
+     *
+     * @param port The port to listen on, 0 for a free port.
+     * @return The base URL to use as shopify.api_url.
+     * @throws IOException If the server cannot be bound.
+     */
+    public String start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/admin/api/2023-10/orders.json", this::handleOrders);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FakeShopify");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        startedAt = System.currentTimeMillis();
+        bucketUpdatedAt = System.nanoTime();
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Stop the server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Stop creating new orders. Requests are still answered with the existing ones.
+     */
+    public synchronized void stopCreatingOrders() {
+        generateOrders();
+        stoppedCreatingAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the time an order was created.
+     *
+     * @param name The name of the order, e.g. "#1001".
+     * @return The creation time in milliseconds, or -1 if the order is unknown.
+     */
+    public synchronized long getCreatedAt(String name) {
+        Long createdAt = createdAtByName.get(name);
+        return createdAt == null ? -1 : createdAt;
+    }
+
+    /**
+     * Get the number of orders created so far.
+     *
+     * @return The number of orders.
+     */
+    public synchronized int getCreatedCount() {
+        generateOrders();
+        return orders.size();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    private void handleOrders(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (!options.token.equals(exchange.getRequestHeaders().getFirst("X-Shopify-Access-Token"))) {
+                send(exchange, 401, "{\"errors\":\"[API] Invalid API key or access token\"}");
+                return;
+            }
+
+            int callsUsed = takeCall();
+            exchange.getResponseHeaders().set("X-Shopify-Shop-Api-Call-Limit", Math.min(callsUsed, BUCKET_SIZE) + "/" + BUCKET_SIZE);
+            if (callsUsed > BUCKET_SIZE || ThreadLocalRandom.current().nextDouble() < options.throttleRate) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "2.0");
+                send(exchange, 429, "{\"errors\":\"Exceeded 2 calls per second for api client. Reduce request rates to resume uninterrupted service.\"}");
+                return;
+            }
+
+            sleep(ThreadLocalRandom.current().nextDouble() < options.slowRate
+                    ? options.slowMillis
+                    : options.latencyMillis + ThreadLocalRandom.current().nextLong(options.jitterMillis + 1));
+
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            int limit = Math.max(1, Math.min(250, parseInt(query.get("limit"), 50)));
+            String body;
+            int offset = query.containsKey("page_info") ? decodeCursor(query.get("page_info")) : 0;
+            int total;
+            synchronized (this) {
+                generateOrders();
+                total = orders.size();
+                JsonArray page = new JsonArray();
+                // Newest first, like the default order of the real API
+                for (int i = total - 1 - offset; i >= 0 && page.size() < limit; i--) {
+                    page.add(orders.get(i));
+                }
+                JsonObject response = new JsonObject();
+                response.add("orders", page);
+                body = response.toString();
+            }
+            if (offset + limit < total) {
+                String next = "http://127.0.0.1:" + server.getAddress().getPort() + "/admin/api/2023-10/orders.json?limit=" + limit
+                        + "&page_info=" + encodeCursor(offset + limit);
+                exchange.getResponseHeaders().set("Link", "<" + next + ">; rel=\"next\"");
+            }
+            send(exchange, 200, body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Add a call to the leaky bucket.
+     *
+     * @return The level of the bucket including this call; above the size means throttled.
+     */
+    private synchronized int takeCall() {
+        long now = System.nanoTime();
+        bucketLevel = Math.max(0, bucketLevel - (now - bucketUpdatedAt) / 1e9 * LEAK_PER_SECOND);
+        bucketUpdatedAt = now;
+        if (bucketLevel + 1 > BUCKET_SIZE) {
+            return BUCKET_SIZE + 1;
+        }
+        bucketLevel += 1;
+        return (int) Math.ceil(bucketLevel);
+    }
+
+    /**
+     * Create the orders that are due by now. Must hold the lock.
+     */
+    private void generateOrders() {
+        long elapsed = Math.min(System.currentTimeMillis(), stoppedCreatingAt) - startedAt;
+        long due = (long) (elapsed / 1000.0 * options.ordersPerSecond);
+        while (orders.size() < due) {
+            int index = orders.size();
+            long createdAt = startedAt + (long) (index * 1000.0 / options.ordersPerSecond);
+            JsonObject order = ShopifyPayloads.order(FIRST_ORDER_NUMBER + index, options.lineItems, options.shape, random);
+            String timestamp = OffsetDateTime.ofInstant(Instant.ofEpochMilli(createdAt), ZoneOffset.UTC).toString();
+            order.addProperty("created_at", timestamp);
+            order.addProperty("processed_at", timestamp);
+            orders.add(order);
+            createdAtByName.put("#" + (FIRST_ORDER_NUMBER + index), createdAt);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(pair.substring(0, separator), URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static int parseInt(String value, int def) {
+        try {
+            return value == null ? def : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private static String encodeCursor(int offset) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("offset:" + offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int decodeCursor(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            return Integer.parseInt(decoded.substring("offset:".length()));
+        } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Run the stand-in until the process is stopped.
+     *
+     * @param args --port, --token, --rate, --line-items, --shape, --latency, --jitter, --slow-rate, --slow, --throttle-rate
+     * @throws Exception If the server cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = LoadDriver.parseArguments(args);
+        Options options = LoadDriver.readServerOptions(arguments);
+        FakeShopifyServer server = new FakeShopifyServer(options);
+        String url = server.start(Integer.parseInt(arguments.getOrDefault("port", "8089")));
+        System.out.println("Fake Shopify API listening on " + url + " with token " + options.token
+                + ", " + options.ordersPerSecond + " orders/s");
+        Thread.currentThread().join();
+    }
+}
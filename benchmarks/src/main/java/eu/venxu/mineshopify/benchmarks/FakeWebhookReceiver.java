@@ -0,0 +1,208 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process receiver for the webhooks of the plugin. Every POST is parsed like a real
+ * receiver would and the events are counted by their id, so events that were delivered
+ * more than once show up as duplicates. Requests can be slowed down and failed with 503
+ * or throttled with 429 at random, to exercise the retries and the backlog of the plugin.
+ *
+ * Run it standalone and add its URL to webhooks.urls of a development server:
+ * java -cp benchmarks.jar eu.venxu.mineshopify.benchmarks.FakeWebhookReceiver --port 8090 --failure-rate 0.2
+ */
+public class FakeWebhookReceiver {
+
+    private final Options options;
+    private final Set<String> eventIds = ConcurrentHashMap.newKeySet();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Settings of the receiver.
+     */
+    public static class Options {
+        public long latencyMillis = 20;
+        public double failureRate = 0;
+        public double throttleRate = 0;
+    }
+
+    /**
+     * Create the receiver.
+     *
+     * @param options The settings of the receiver.
+     */
+    public FakeWebhookReceiver(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Start accepting webhooks.
+     *
+     * @param port The port to listen on, 0 for a free port.
+     * @return The URL to add to webhooks.urls.
+     * @throws IOException If the server cannot be bound.
+     */
+    public String start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/webhook", this::handleWebhook);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FakeWebhook");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/webhook";
+    }
+
+    /**
+     * Stop the server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Get the number of events accepted, including duplicates.
+     *
+     * @return The number of events.
+     */
+    public long getEventCount() {
+        return events.get();
+    }
+
+    /**
+     * Get the number of distinct events accepted.
+     *
+     * @return The number of event ids.
+     */
+    public int getUniqueEventCount() {
+        return eventIds.size();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    private void handleWebhook(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405);
+                return;
+            }
+            sleep(options.latencyMillis);
+
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < options.throttleRate) {
+                failed.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 429);
+                return;
+            }
+            if (roll < options.throttleRate + options.failureRate) {
+                failed.incrementAndGet();
+                send(exchange, 503);
+                return;
+            }
+
+            try {
+                for (JsonElement event : JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("events")) {
+                    events.incrementAndGet();
+                    if (!eventIds.add(event.getAsJsonObject().get("id").getAsString())) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            } catch (RuntimeException e) {
+                send(exchange, 400);
+                return;
+            }
+            send(exchange, 204);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        try (OutputStream ignored = exchange.getResponseBody()) {
+            // No body
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the settings of the receiver from the arguments.
+     *
+     * @param arguments The parsed arguments.
+     * @param prefix The prefix of the argument names, e.g. "webhook-" in the load driver.
+     * @return The settings.
+     */
+    static Options readOptions(Map<String, String> arguments, String prefix) {
+        Options options = new Options();
+        options.latencyMillis = Long.parseLong(arguments.getOrDefault(prefix + "latency", "20"));
+        options.failureRate = Double.parseDouble(arguments.getOrDefault(prefix + "failure-rate", "0"));
+        options.throttleRate = Double.parseDouble(arguments.getOrDefault(prefix + "throttle-rate", "0"));
+        return options;
+    }
+
+    /**
+     * Run the receiver until the process is stopped and print the counts every 10 seconds.
+     *
+     * @param args --port, --latency, --failure-rate, --throttle-rate
+     * @throws Exception If the server cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = LoadDriver.parseArguments(args);
+        FakeWebhookReceiver receiver = new FakeWebhookReceiver(readOptions(arguments, ""));
+        String url = receiver.start(Integer.parseInt(arguments.getOrDefault("port", "8090")));
+        System.out.println("Fake webhook receiver listening on " + url);
+        while (true) {
+            TimeUnit.SECONDS.sleep(10);
+            System.out.println(receiver.getUniqueEventCount() + " events, " + receiver.getDuplicateCount() + " duplicates, "
+                    + receiver.getFailedCount() + " of " + receiver.getRequestCount() + " requests failed");
+        }
+    }
+}
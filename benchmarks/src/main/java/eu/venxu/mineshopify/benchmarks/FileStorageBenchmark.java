@@ -0,0 +1,48 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import eu.venxu.mineshopify.storage.FileStorage;
+import eu.venxu.mineshopify.storage.IStorage;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Runs the storage benchmarks against the YAML Orders File in a temporary folder.
+ * Every addOrder saves the whole file, so a ledger of 1M orders would not finish a
+ * single measurement iteration and is left out.
+ */
+public class FileStorageBenchmark extends StorageBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int ledgerSize;
+
+    private Path dataFolder;
+
+    @Override
+    protected IStorage createStorage() throws IOException {
+        dataFolder = Files.createTempDirectory("mineshopify-bench");
+        return new FileStorage(dataFolder.toFile());
+    }
+
+    @Override
+    protected void closeStorage() throws IOException {
+        try (Stream<Path> files = Files.walk(dataFolder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Override
+    protected int getLedgerSize() {
+        return ledgerSize;
+    }
+
+    @Override
+    protected int getSeedChunkSize() {
+        // The file is saved after every chunk, one chunk fills it with a single save
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,377 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicesManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Bukkit server without a game, so the plugin can run outside Minecraft in the load driver.
+ * Only what the plugin uses on the order path does something: the scheduler runs synchronous
+ * tasks on one thread that stands in for the main thread, with ticks of 50 ms, and asynchronous
+ * tasks on a pool. Console commands succeed and are counted. There are no players, every other
+ * call returns null, zero, false or an empty collection.
+ */
+public class HeadlessServer {
+
+    private static final long TICK_MILLIS = 50;
+
+    private final Logger logger;
+    private final ScheduledExecutorService mainThread;
+    private final ScheduledExecutorService timers;
+    private final ExecutorService asyncPool;
+    private final Map<Integer, Task> tasks = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTaskId = new AtomicInteger(1);
+    private final AtomicLong dispatchedCommands = new AtomicLong();
+    private final Server server;
+    private final BukkitScheduler scheduler;
+    private final PluginManager pluginManager;
+    private final ServicesManager servicesManager;
+    private final ConsoleCommandSender consoleSender;
+    private volatile Thread primaryThread;
+
+    /**
+     * A scheduled task of a plugin.
+     */
+    private class Task implements BukkitTask {
+        private final int id = nextTaskId.getAndIncrement();
+        private final Plugin owner;
+        private final boolean sync;
+        private volatile Future<?> future;
+        private volatile boolean cancelled;
+
+        private Task(Plugin owner, boolean sync) {
+            this.owner = owner;
+            this.sync = sync;
+        }
+
+        @Override
+        public int getTaskId() {
+            return id;
+        }
+
+        @Override
+        public Plugin getOwner() {
+            return owner;
+        }
+
+        @Override
+        public boolean isSync() {
+            return sync;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            tasks.remove(id);
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Create the server. Call {@link #install()} before the plugin is created.
+     *
+     * @param logger The logger of the server, the plugin logs through it.
+     */
+    public HeadlessServer(Logger logger) {
+        this.logger = logger;
+        this.mainThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Server thread");
+            primaryThread = thread;
+            return thread;
+        });
+        this.timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Scheduler timers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.asyncPool = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Craft Scheduler Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = proxy(BukkitScheduler.class, this::schedule);
+        this.pluginManager = proxy(PluginManager.class, (method, args) -> defaultValue(method.getReturnType()));
+        this.servicesManager = proxy(ServicesManager.class, (method, args) -> defaultValue(method.getReturnType()));
+        this.consoleSender = proxy(ConsoleCommandSender.class, this::console);
+        this.server = proxy(Server.class, this::serve);
+    }
+
+    /**
+     * Make this the server returned by {@link Bukkit#getServer()}. Can only be done once per JVM.
+     */
+    public void install() {
+        Bukkit.setServer(server);
+    }
+
+    /**
+     * Enable a plugin on the main thread, like the plugin manager of the server does.
+     *
+     * @param plugin The plugin.
+     * @throws Exception If onEnable throws.
+     */
+    public void enable(JavaPlugin plugin) throws Exception {
+        setEnabled(plugin, true);
+    }
+
+    /**
+     * Disable a plugin on the main thread. Tasks the plugin schedules meanwhile wait until onDisable returns.
+     *
+     * @param plugin The plugin.
+     * @throws Exception If onDisable throws.
+     */
+    public void disable(JavaPlugin plugin) throws Exception {
+        setEnabled(plugin, false);
+    }
+
+    /**
+     * Stop the scheduler. Tasks that are still queued are dropped.
+     */
+    public void stop() {
+        mainThread.shutdownNow();
+        timers.shutdownNow();
+        asyncPool.shutdownNow();
+    }
+
+    /**
+     * Get the server to pass to the plugin loader.
+     *
+     * @return The server.
+     */
+    public Server getServer() {
+        return server;
+    }
+
+    /**
+     * Get the number of console commands dispatched so far.
+     *
+     * @return The number of commands.
+     */
+    public long getDispatchedCommands() {
+        return dispatchedCommands.get();
+    }
+
+    private void setEnabled(JavaPlugin plugin, boolean enabled) throws Exception {
+        // JavaPluginLoader only enables plugins loaded by its own class loader
+        Method setEnabled = JavaPlugin.class.getDeclaredMethod("setEnabled", boolean.class);
+        setEnabled.setAccessible(true);
+        call(() -> setEnabled.invoke(plugin, enabled));
+    }
+
+    private <T> T call(Callable<T> callable) throws Exception {
+        try {
+            return mainThread.submit(callable).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private Object serve(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getLogger":
+                return logger;
+            case "getName":
+                return "HeadlessServer";
+            case "getVersion":
+                return "benchmark";
+            case "getBukkitVersion":
+                return "1.19.4-R0.1-SNAPSHOT";
+            case "isPrimaryThread":
+                return Thread.currentThread() == primaryThread;
+            case "getScheduler":
+                return scheduler;
+            case "getPluginManager":
+                return pluginManager;
+            case "getServicesManager":
+                return servicesManager;
+            case "getConsoleSender":
+                return consoleSender;
+            case "dispatchCommand":
+                dispatchedCommands.incrementAndGet();
+                return true;
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private Object console(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getName":
+                return "CONSOLE";
+            case "getServer":
+                return server;
+            case "isOp":
+            case "hasPermission":
+                return true;
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * Handle a call of the scheduler. The run and schedule methods are mapped by their name
+     * and arguments: the plugin first, then the task, then the delay and the period in ticks.
+     */
+    private Object schedule(Method method, Object[] args) throws Exception {
+        String name = method.getName();
+        switch (name) {
+            case "cancelTask":
+                Task task = tasks.get((Integer) args[0]);
+                if (task != null) {
+                    task.cancel();
+                }
+                return null;
+            case "cancelTasks":
+                for (Task running : new ArrayList<>(tasks.values())) {
+                    if (running.owner == args[0]) {
+                        running.cancel();
+                    }
+                }
+                return null;
+            case "isQueued":
+                return tasks.containsKey((Integer) args[0]);
+            case "getPendingTasks":
+                return new ArrayList<BukkitTask>(tasks.values());
+            case "callSyncMethod":
+                return mainThread.submit((Callable<?>) args[1]);
+            default:
+                break;
+        }
+        if (!name.startsWith("run") && !name.startsWith("schedule") || args == null || args.length < 2) {
+            return defaultValue(method.getReturnType());
+        }
+
+        boolean sync = !name.contains("Async");
+        long delay = args.length > 2 ? (Long) args[2] : 0;
+        long period = args.length > 3 ? (Long) args[3] : -1;
+        Task task = new Task((Plugin) args[0], sync);
+        Runnable body = toRunnable(args[1], task);
+        Runnable run = () -> {
+            try {
+                body.run();
+            } catch (Throwable t) {
+                logger.log(Level.WARNING, "Task #" + task.id + " for " + task.owner.getName() + " generated an exception", t);
+            }
+            if (period <= 0) {
+                tasks.remove(task.id);
+            }
+        };
+        Runnable start = sync ? run : () -> asyncPool.execute(run);
+        ScheduledExecutorService executor = sync ? mainThread : timers;
+        tasks.put(task.id, task);
+        if (period > 0) {
+            task.future = executor.scheduleAtFixedRate(start, Math.max(0, delay) * TICK_MILLIS, period * TICK_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (delay > 0) {
+            task.future = executor.schedule(start, delay * TICK_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (sync) {
+            task.future = mainThread.submit(run);
+        } else {
+            task.future = asyncPool.submit(run);
+        }
+
+        Class<?> returnType = method.getReturnType();
+        return returnType == int.class ? task.id : returnType == void.class ? null : task;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Runnable toRunnable(Object body, BukkitTask task) {
+        if (body instanceof Runnable) {
+            return (Runnable) body;
+        }
+        return () -> ((Consumer<BukkitTask>) body).accept(task);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == List.class || type == Collection.class) {
+            return Collections.emptyList();
+        }
+        if (type == Set.class) {
+            return Collections.emptySet();
+        }
+        if (type == Map.class) {
+            return Collections.emptyMap();
+        }
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        return 0;
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Exception;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + "@HeadlessServer";
+                }
+            }
+            return handler.handle(method, args);
+        };
+        return type.cast(Proxy.newProxyInstance(HeadlessServer.class.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+}
@@ -0,0 +1,366 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.Gauge;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import javax.net.ssl.SSLSession;
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives orders end to end through a {@link FakeShopifyServer} with the plugin itself running
+ * on a {@link HeadlessServer}: ShopifyManager polls on its own schedule, ParseManager extracts
+ * the username, deduplicates against the asynchronous storage with its in-flight set and the
+ * delivery ledger, and dispatches the package commands on the stand-in main thread, where
+ * failed commands go to the retry queue. Every product of the stand-in is a package with one
+ * command.
+ *
+ * The driver only sends the polls of the plugin, see {@link eu.venxu.mineshopify.shopify.ShopifyManager.Transport}. With
+ * --follow-pages it also reads older pages until one holds no new orders and hands the plugin
+ * all of them as one response; the plugin itself reads the first page only.
+ *
+ * With --webhooks every delivered order is also posted to a {@link FakeWebhookReceiver}, which
+ * counts the events and the duplicates among them.
+ *
+ * The report is taken from the metrics and order traces of the plugin: how many of the created
+ * orders were delivered and the latency from the creation of an order until its delivery, the stand-in pays orders when it creates them.
+ *
+ * java -cp benchmarks.jar eu.venxu.mineshopify.benchmarks.LoadDriver --rate 20 --duration 60 --poll-interval 5
+ */
+public class LoadDriver {
+
+    private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>;\\s*rel=\"next\"");
+    private static final String PACKAGE_COMMAND = "loadtest %player%";
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final boolean followPages;
+    private final Set<String> seenOrders = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pages = new AtomicLong();
+
+    private LoadDriver(boolean followPages) {
+        this.followPages = followPages;
+    }
+
+    /**
+     * Send a poll of the plugin. Statuses other than 200, e.g. 429, are handed to the plugin as they are.
+     *
+     * @param request The request built by ShopifyManager.
+     * @return The response, with the orders of all pages that were read.
+     */
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenCompose(response -> followPages ? readPages(request, response, response, new JsonArray())
+                        : CompletableFuture.completedFuture(countPage(response)));
+    }
+
+    /**
+     * Collect the orders of a page and read the next one while the pages hold new orders.
+     * A page that fails, e.g. throttled, ends the poll with the orders read so far.
+     */
+    private CompletableFuture<HttpResponse<String>> readPages(HttpRequest request, HttpResponse<String> first,
+                                                              HttpResponse<String> page, JsonArray orders) {
+        if (page.statusCode() != 200) {
+            return CompletableFuture.completedFuture(page == first ? first : new PagedResponse(first, orders));
+        }
+        countPage(page);
+        boolean anyNew = false;
+        for (JsonElement order : JsonParser.parseString(page.body()).getAsJsonObject().getAsJsonArray("orders")) {
+            orders.add(order);
+            anyNew |= seenOrders.add(order.getAsJsonObject().get("id").getAsString());
+        }
+
+        // Older pages only hold orders that are already known once a page has no new ones
+        Matcher matcher = NEXT_LINK.matcher(page.headers().firstValue("Link").orElse(""));
+        if (!anyNew || !matcher.find()) {
+            return CompletableFuture.completedFuture(page == first ? first : new PagedResponse(first, orders));
+        }
+        HttpRequest.Builder next = HttpRequest.newBuilder(URI.create(matcher.group(1))).GET();
+        request.headers().map().forEach((name, values) -> values.forEach(value -> next.header(name, value)));
+        return httpClient.sendAsync(next.build(), HttpResponse.BodyHandlers.ofString())
+                .thenCompose(response -> readPages(request, first, response, orders));
+    }
+
+    private HttpResponse<String> countPage(HttpResponse<String> response) {
+        if (response.statusCode() == 200) {
+            pages.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     * The first page of a poll with the orders of the following pages added to its body.
+     */
+    private static class PagedResponse implements HttpResponse<String> {
+        private final HttpResponse<String> first;
+        private final String body;
+
+        private PagedResponse(HttpResponse<String> first, JsonArray orders) {
+            this.first = first;
+            JsonObject response = new JsonObject();
+            response.add("orders", orders);
+            this.body = response.toString();
+        }
+
+        @Override
+        public int statusCode() {
+            return first.statusCode();
+        }
+
+        @Override
+        public HttpRequest request() {
+            return first.request();
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return first.previousResponse();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return first.headers();
+        }
+
+        @Override
+        public String body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return first.sslSession();
+        }
+
+        @Override
+        public URI uri() {
+            return first.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return first.version();
+        }
+    }
+
+    private static void report(FakeShopifyServer shop, FakeWebhookReceiver receiver, HeadlessServer server,
+                               MineShopify plugin, LoadDriver driver, double durationSeconds) {
+        MetricsRegistry metrics = plugin.getMetrics();
+        int created = shop.getCreatedCount();
+        long delivered = count(metrics, "orders_delivered_total");
+        System.out.println();
+        System.out.println("Orders created:     " + created);
+        System.out.println("Orders delivered:   " + delivered);
+        System.out.println("Orders missed:      " + Math.max(0, created - delivered));
+        System.out.println("Skipped as known:   " + count(metrics, "orders_deduplicated_total", "source", "storage")
+                + " by the storage, " + count(metrics, "orders_deduplicated_total", "source", "memory") + " in memory");
+        System.out.printf(Locale.ROOT, "Throughput:         %.1f orders/s%n", delivered / durationSeconds);
+        System.out.println("Commands:           " + server.getDispatchedCommands() + " dispatched, "
+                + count(metrics, "commands_failed_total") + " failed");
+        System.out.println("Polls:              " + count(metrics, "shopify_polls_total") + " (" + driver.pages.get() + " pages, "
+                + count(metrics, "shopify_poll_errors_total") + " failed)");
+        System.out.println("Throttled (429):    " + shop.getThrottledCount() + " of " + shop.getRequestCount() + " requests");
+        if (receiver != null) {
+            System.out.println("Webhook events:     " + receiver.getUniqueEventCount() + " received, " + receiver.getDuplicateCount()
+                    + " duplicates, " + receiver.getFailedCount() + " of " + receiver.getRequestCount() + " requests failed, "
+                    + count(metrics, "webhook_events_dropped_total") + " dropped");
+        }
+        long[] latencies = plugin.getTraceManager().getPercentiles(0.50, 0.95, 0.99, 1.0);
+        if (latencies != null) {
+            System.out.println("Creation to delivery:");
+            System.out.println("  p50  " + latencies[0] + " ms");
+            System.out.println("  p95  " + latencies[1] + " ms");
+            System.out.println("  p99  " + latencies[2] + " ms");
+            System.out.println("  max  " + latencies[3] + " ms");
+        }
+        System.out.println("Plugin folder:      " + plugin.getDataFolder());
+    }
+
+    private static long count(MetricsRegistry metrics, String name, String... labels) {
+        Counter counter = metrics.find(Counter.class, name, labels);
+        return counter == null ? 0 : counter.get();
+    }
+
+    private static long gauge(MetricsRegistry metrics, String name) {
+        Gauge gauge = metrics.find(Gauge.class, name);
+        return gauge == null ? 0 : gauge.get();
+    }
+
+    /**
+     * Parse arguments of the form --name value. A flag without a value is set to "true".
+     *
+     * @param args The command line arguments.
+     * @return The arguments by name without the leading dashes.
+     */
+    static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> arguments = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                arguments.put(name, args[++i]);
+            } else {
+                arguments.put(name, "true");
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Read the settings of the stand-in from the arguments.
+     *
+     * @param arguments The parsed arguments.
+     * @return The settings.
+     */
+    static FakeShopifyServer.Options readServerOptions(Map<String, String> arguments) {
+        FakeShopifyServer.Options options = new FakeShopifyServer.Options();
+        options.token = arguments.getOrDefault("token", options.token);
+        options.ordersPerSecond = Double.parseDouble(arguments.getOrDefault("rate", "1"));
+        options.lineItems = Integer.parseInt(arguments.getOrDefault("line-items", "1"));
+        options.shape = ShopifyPayloads.Shape.valueOf(arguments.getOrDefault("shape", "properties").toUpperCase(Locale.ROOT));
+        options.latencyMillis = Long.parseLong(arguments.getOrDefault("latency", "50"));
+        options.jitterMillis = Long.parseLong(arguments.getOrDefault("jitter", "25"));
+        options.slowRate = Double.parseDouble(arguments.getOrDefault("slow-rate", "0"));
+        options.slowMillis = Long.parseLong(arguments.getOrDefault("slow", "5000"));
+        options.throttleRate = Double.parseDouble(arguments.getOrDefault("throttle-rate", "0"));
+        return options;
+    }
+
+    /**
+     * Write the config.yml and packages.yml of the plugin. Keys that are not set keep the defaults of the plugin.
+     */
+    private static void writePluginFiles(File dataFolder, Map<String, String> arguments, String apiUrl, String token,
+                                         long pollInterval, int limit, String webhookUrl) throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("auto_reload", false);
+        config.set("shopify.domain", "127.0.0.1");
+        config.set("shopify.api_url", apiUrl);
+        config.set("shopify.token", token);
+        config.set("shopify.scheduler", pollInterval);
+        config.set("shopify.max_orders", limit);
+        config.set("shopify.product_sync.enabled", false);
+        // Every delivered order counts towards the percentiles
+        config.set("tracing.recent_size", Integer.MAX_VALUE);
+        config.set("shutdown.timeout", 60);
+        if (webhookUrl != null) {
+            config.set("webhooks.enabled", true);
+            config.set("webhooks.urls", Collections.singletonList(webhookUrl));
+        }
+        String storage = arguments.getOrDefault("storage", "file");
+        if (storage.equals("mysql")) {
+            config.set("storage.MySQL", true);
+            config.set("storage.host", arguments.getOrDefault("mysql-host", "localhost"));
+            config.set("storage.port", Integer.parseInt(arguments.getOrDefault("mysql-port", "3306")));
+            config.set("storage.database", arguments.getOrDefault("mysql-database", "mineshopify_load"));
+            config.set("storage.username", arguments.getOrDefault("mysql-user", "root"));
+            config.set("storage.password", arguments.getOrDefault("mysql-password", ""));
+        } else if (!storage.equals("file")) {
+            throw new IllegalArgumentException("Unknown storage " + storage + ", use file or mysql");
+        }
+        config.save(new File(dataFolder, "config.yml"));
+
+        YamlConfiguration packages = new YamlConfiguration();
+        for (String product : ShopifyPayloads.PRODUCTS) {
+            packages.set("packages." + product + ".commands", Collections.singletonList(PACKAGE_COMMAND));
+        }
+        packages.save(new File(dataFolder, "packages.yml"));
+    }
+
+    /**
+     * Run a load test.
+     *
+     * @param args --rate, --duration, --poll-interval, --limit, --storage file|mysql (with --mysql-host, --mysql-port,
+     *             --mysql-database, --mysql-user, --mysql-password), --follow-pages, --webhooks (with --webhook-latency,
+     *             --webhook-failure-rate, --webhook-throttle-rate) and the settings of the stand-in,
+     *             see {@link FakeShopifyServer#main(String[])}.
+     * @throws Exception If the test cannot be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = parseArguments(args);
+        long duration = Long.parseLong(arguments.getOrDefault("duration", "60"));
+        long pollInterval = Long.parseLong(arguments.getOrDefault("poll-interval", "5"));
+        int limit = Integer.parseInt(arguments.getOrDefault("limit", "50"));
+        boolean followPages = Boolean.parseBoolean(arguments.getOrDefault("follow-pages", "false"));
+        FakeShopifyServer.Options options = readServerOptions(arguments);
+
+        FakeShopifyServer shop = new FakeShopifyServer(options);
+        String apiUrl = shop.start(0);
+        FakeWebhookReceiver receiver = null;
+        String webhookUrl = null;
+        if (Boolean.parseBoolean(arguments.getOrDefault("webhooks", "false"))) {
+            receiver = new FakeWebhookReceiver(FakeWebhookReceiver.readOptions(arguments, "webhook-"));
+            webhookUrl = receiver.start(0);
+        }
+        File dataFolder = Files.createTempDirectory("mineshopify-load").toFile();
+        writePluginFiles(dataFolder, arguments, apiUrl, options.token, pollInterval, limit, webhookUrl);
+
+        HeadlessServer server = new HeadlessServer(Logger.getLogger("Minecraft"));
+        server.install();
+        LoadDriver driver = new LoadDriver(followPages);
+        MineShopify plugin = new MineShopify(new JavaPluginLoader(server.getServer()),
+                new PluginDescriptionFile("MineShopify", "load-test", MineShopify.class.getName()),
+                dataFolder, new File(dataFolder, "MineShopify.jar"), driver::send);
+
+        System.out.println("Load test against " + apiUrl + ": " + options.ordersPerSecond + " orders/s for " + duration
+                + " s, polling every " + pollInterval + " s with limit " + limit + (followPages ? " and following pages" : "")
+                + ", storage " + arguments.getOrDefault("storage", "file"));
+        System.out.println("Arguments: " + Arrays.toString(args));
+
+        long startedAt = System.nanoTime();
+        server.enable(plugin);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+
+        // One more poll of the plugin picks up the orders created since the previous one
+        shop.stopCreatingOrders();
+        long pollsAtStop = count(plugin.getMetrics(), "shopify_polls_total");
+        long pollDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2 * pollInterval + 10);
+        while (count(plugin.getMetrics(), "shopify_polls_total") == pollsAtStop && System.nanoTime() < pollDeadline) {
+            Thread.sleep(50);
+        }
+        // Give the webhooks of the last orders a moment, events still queued stay in the backlog of the plugin
+        long webhookDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (receiver != null && gauge(plugin.getMetrics(), "webhook_queue_length") > 0 && System.nanoTime() < webhookDeadline) {
+            Thread.sleep(50);
+        }
+        // The shutdown of the plugin delivers the orders on their way and waits for the storage writes
+        server.disable(plugin);
+        double elapsed = (System.nanoTime() - startedAt) / 1e9;
+
+        report(shop, receiver, server, plugin, driver, elapsed);
+        server.stop();
+        shop.stop();
+        if (receiver != null) {
+            receiver.stop();
+        }
+    }
+}
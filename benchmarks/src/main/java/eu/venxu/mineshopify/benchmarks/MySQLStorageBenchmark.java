@@ -0,0 +1,64 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import com.zaxxer.hikari.HikariConfig;
+import eu.venxu.mineshopify.storage.IStorage;
+import eu.venxu.mineshopify.storage.MySQLStorage;
+import org.openjdk.jmh.annotations.Param;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * Runs the storage benchmarks against MySQLStorage with different pool sizes.
+ * By default an embedded H2 database in MySQL mode is used, so the suite runs offline.
+ * Set -Dmineshopify.bench.jdbcUrl (and .user, .password) to measure a real MySQL server;
+ * the orders table of that database is dropped before every trial.
+ */
+public class MySQLStorageBenchmark extends StorageBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int ledgerSize;
+
+    @Param({"2", "10"})
+    public int poolSize;
+
+    private String jdbcUrl;
+    private String user;
+    private String password;
+
+    @Override
+    protected IStorage createStorage() throws SQLException {
+        jdbcUrl = System.getProperty("mineshopify.bench.jdbcUrl",
+                "jdbc:h2:mem:mineshopify" + System.nanoTime() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE");
+        user = System.getProperty("mineshopify.bench.user", "sa");
+        password = System.getProperty("mineshopify.bench.password", "");
+
+        // Start every trial with an empty table
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, user, password);
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS orders");
+        }
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(poolSize);
+        config.setPoolName("MineShopifyBenchmarkPool");
+        return new MySQLStorage(Logger.getLogger("MineShopify"), config);
+    }
+
+    @Override
+    protected int getLedgerSize() {
+        return ledgerSize;
+    }
+
+    @Override
+    protected void closeStorage() {
+        ((MySQLStorage) storage).closePool();
+    }
+}
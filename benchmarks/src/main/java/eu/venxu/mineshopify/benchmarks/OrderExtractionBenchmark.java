@@ -0,0 +1,61 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import com.google.gson.JsonObject;
+import eu.venxu.mineshopify.shopify.OrderExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the extraction of the username, account type and order number from
+ * one already parsed order, for every location the username can be stored in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class OrderExtractionBenchmark {
+
+    @Param({"PROPERTIES", "NOTE_ATTRIBUTES", "ATTRIBUTES_ARRAY", "ATTRIBUTES_OBJECT", "CART_ATTRIBUTES", "CUSTOMER_NOTE", "MISSING"})
+    public ShopifyPayloads.Shape shape;
+
+    @Param({"1", "5"})
+    public int lineItems;
+
+    private OrderExtractor extractor;
+    private JsonObject order;
+
+    @Setup
+    public void setup() {
+        extractor = new OrderExtractor(null);
+        order = ShopifyPayloads.order(1001, lineItems, shape, new Random(42));
+    }
+
+    @Benchmark
+    public String extractUsername() {
+        return extractor.extractUsername(order);
+    }
+
+    @Benchmark
+    public String extractAccountType() {
+        return extractor.extractAccountType(order);
+    }
+
+    @Benchmark
+    public String extractOrderId() {
+        return extractor.extractOrderId(order);
+    }
+}
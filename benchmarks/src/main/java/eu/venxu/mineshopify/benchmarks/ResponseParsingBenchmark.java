@@ -0,0 +1,68 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.venxu.mineshopify.shopify.OrderExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole poll response: parsing the body and extracting every order,
+ * the work ParseManager.parseOrders does on the main thread before any command
+ * is dispatched. Response sizes go up to the API limit of 250 orders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ResponseParsingBenchmark {
+
+    @Param({"1", "50", "250"})
+    public int orders;
+
+    @Param({"PROPERTIES", "ATTRIBUTES_OBJECT", "CUSTOMER_NOTE", "MISSING"})
+    public ShopifyPayloads.Shape shape;
+
+    @Param({"1", "5"})
+    public int lineItems;
+
+    private OrderExtractor extractor;
+    private String body;
+
+    @Setup
+    public void setup() {
+        extractor = new OrderExtractor(null);
+        body = ShopifyPayloads.response(orders, lineItems, shape, 42);
+    }
+
+    @Benchmark
+    public JsonObject parseResponse() {
+        return JsonParser.parseString(body).getAsJsonObject();
+    }
+
+    @Benchmark
+    public void parseOrders(Blackhole blackhole) {
+        JsonArray orderArray = JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("orders");
+        for (int i = 0; i < orderArray.size(); i++) {
+            JsonObject order = orderArray.get(i).getAsJsonObject();
+            blackhole.consume(extractor.extractOrderId(order));
+            blackhole.consume(extractor.extractUsername(order));
+            blackhole.consume(extractor.extractAccountType(order));
+        }
+    }
+}
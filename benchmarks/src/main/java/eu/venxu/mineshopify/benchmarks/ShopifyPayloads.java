@@ -0,0 +1,165 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+/**
+ * Generates synthetic Shopify Admin API order payloads.
+ * The orders carry the fields a real shop returns, so the extractor has to skip
+ * the same noise it skips in production. A fixed seed keeps runs comparable.
+ */
+public final class ShopifyPayloads {
+
+    /**
+     * Where the Minecraft username is stored in an order.
+     */
+    public enum Shape {
+        /** In the properties of the first line item, the most common location. */
+        PROPERTIES,
+        /** In the note_attributes array of the order. */
+        NOTE_ATTRIBUTES,
+        /** In the attributes field as an array of name/value objects. */
+        ATTRIBUTES_ARRAY,
+        /** In the attributes field as an object. */
+        ATTRIBUTES_OBJECT,
+        /** In the cart_attributes object. */
+        CART_ATTRIBUTES,
+        /** Only in the customer note as "IGN: name", the text patterns have to match. */
+        CUSTOMER_NOTE,
+        /** Nowhere, every location is checked. */
+        MISSING
+    }
+
+    private static final String[] NAMES = {"Steve", "Alex", "Notch", "Dinnerbone", "Grumm", "jeb_", "Herobrine", "Technoblade"};
+    static final String[] PRODUCTS = {"VIP Rank", "MVP Rank", "1000 Coins", "Crate Key", "Pet Bundle", "Cosmetic Pack"};
+
+    private ShopifyPayloads() {
+    }
+
+    /**
+     * Create an orders.json response body.
+     *
+     * @param orders The number of orders in the response.
+     * @param lineItems The number of line items per order.
+     * @param shape Where the username is stored.
+     * @param seed The seed of the random values.
+     * @return The response body.
+     */
+    public static String response(int orders, int lineItems, Shape shape, long seed) {
+        Random random = new Random(seed);
+        JsonArray orderArray = new JsonArray();
+        for (int i = 0; i < orders; i++) {
+            orderArray.add(order(1001 + i, lineItems, shape, random));
+        }
+        JsonObject response = new JsonObject();
+        response.add("orders", orderArray);
+        return response.toString();
+    }
+
+    /**
+     * Create a single order.
+     *
+     * @param number The order number.
+     * @param lineItems The number of line items.
+     * @param shape Where the username is stored.
+     * @param random The source of the random values.
+     * @return The order.
+     */
+    public static JsonObject order(int number, int lineItems, Shape shape, Random random) {
+        String username = NAMES[random.nextInt(NAMES.length)] + random.nextInt(1000);
+        OffsetDateTime createdAt = OffsetDateTime.of(2025, 1, 1, 12, 0, 0, 0, ZoneOffset.ofHours(1))
+                .plusSeconds(random.nextInt(86400));
+
+        JsonObject order = new JsonObject();
+        order.addProperty("id", 5_000_000_000L + number);
+        order.addProperty("order_number", number);
+        order.addProperty("name", "#" + number);
+        order.addProperty("email", "customer" + number + "@example.com");
+        order.addProperty("created_at", createdAt.toString());
+        order.addProperty("processed_at", createdAt.plusSeconds(3).toString());
+        order.addProperty("currency", "EUR");
+        order.addProperty("financial_status", "paid");
+        order.addProperty("total_price", (5 + random.nextInt(50)) + ".99");
+        order.addProperty("tags", "minecraft, webshop");
+        order.add("note", null);
+
+        JsonObject customer = new JsonObject();
+        customer.addProperty("id", 7_000_000_000L + random.nextInt(100000));
+        customer.addProperty("first_name", "Max");
+        customer.addProperty("last_name", "Mustermann");
+        customer.addProperty("email", "customer" + number + "@example.com");
+        customer.addProperty("note", shape == Shape.CUSTOMER_NOTE ? "Bitte schnell liefern. IGN: " + username : null);
+        order.add("customer", customer);
+        order.add("billing_address", address());
+        order.add("shipping_address", address());
+
+        JsonArray noteAttributes = new JsonArray();
+        noteAttributes.add(attribute("account_type", random.nextInt(5) == 0 ? "Bedrock" : "Java"));
+        noteAttributes.add(attribute("newsletter", "no"));
+        if (shape == Shape.NOTE_ATTRIBUTES) {
+            noteAttributes.add(attribute("minecraft_username", username));
+        }
+        order.add("note_attributes", noteAttributes);
+
+        if (shape == Shape.ATTRIBUTES_ARRAY) {
+            JsonArray attributes = new JsonArray();
+            attributes.add(attribute("source", "storefront"));
+            attributes.add(attribute("ign", username));
+            order.add("attributes", attributes);
+        } else if (shape == Shape.ATTRIBUTES_OBJECT) {
+            JsonObject attributes = new JsonObject();
+            attributes.addProperty("source", "storefront");
+            attributes.addProperty("username", username);
+            order.add("attributes", attributes);
+        } else if (shape == Shape.CART_ATTRIBUTES) {
+            JsonObject cartAttributes = new JsonObject();
+            cartAttributes.addProperty("source", "storefront");
+            cartAttributes.addProperty("spielername", username);
+            order.add("cart_attributes", cartAttributes);
+        }
+
+        JsonArray items = new JsonArray();
+        for (int i = 0; i < lineItems; i++) {
+            String product = PRODUCTS[random.nextInt(PRODUCTS.length)];
+            JsonObject item = new JsonObject();
+            item.addProperty("id", 9_000_000_000L + number * 10L + i);
+            item.addProperty("name", product);
+            item.addProperty("title", product);
+            item.addProperty("sku", "MC-" + product.hashCode());
+            item.addProperty("quantity", 1 + random.nextInt(3));
+            item.addProperty("price", (2 + random.nextInt(20)) + ".99");
+            item.addProperty("requires_shipping", false);
+
+            JsonArray properties = new JsonArray();
+            properties.add(attribute("gift_message", ""));
+            if (shape == Shape.PROPERTIES && i == 0) {
+                properties.add(attribute("Minecraft Username", username));
+            }
+            item.add("properties", properties);
+            items.add(item);
+        }
+        order.add("line_items", items);
+        return order;
+    }
+
+    private static JsonObject address() {
+        JsonObject address = new JsonObject();
+        address.addProperty("name", "Max Mustermann");
+        address.addProperty("address1", "Hauptstraße 1");
+        address.addProperty("city", "Berlin");
+        address.addProperty("zip", "10115");
+        address.addProperty("country_code", "DE");
+        return address;
+    }
+
+    private static JsonObject attribute(String name, String value) {
+        JsonObject attribute = new JsonObject();
+        attribute.addProperty("name", name);
+        attribute.addProperty("value", value);
+        return attribute;
+    }
+}
@@ -0,0 +1,148 @@
+package eu.venxu.mineshopify.benchmarks;
+
+import eu.venxu.mineshopify.order.Order;
+import eu.venxu.mineshopify.storage.IStorage;
+import eu.venxu.mineshopify.storage.StorageException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the two calls on the order path, checkOrder and addOrder, against a
+ * ledger that is filled with the given number of orders before the measurement.
+ * The ledger sizes are a parameter of every backend, so a backend can leave out the
+ * sizes it cannot finish.
+ * Every call is measured with one caller and with eight concurrent callers, the
+ * sample mode reports the latency percentiles next to the throughput.
+ * The ledger grows by the orders added during the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public abstract class StorageBenchmark {
+
+    private static final long FIRST_ORDER_ID = 100_000;
+    private static final long MISSING_ORDER_OFFSET = 100_000_000;
+
+    protected IStorage storage;
+    private int ledgerSize;
+    private final AtomicLong nextOrderId = new AtomicLong();
+
+    /**
+     * Create the storage under test. The connection is created by the benchmark.
+     *
+     * @return The storage.
+     * @throws Exception If the storage cannot be created.
+     */
+    protected abstract IStorage createStorage() throws Exception;
+
+    /**
+     * Close the storage and remove its data.
+     *
+     * @throws Exception If the storage cannot be closed.
+     */
+    protected abstract void closeStorage() throws Exception;
+
+    /**
+     * Get the number of orders the ledger is filled with, from the ledgerSize parameter of the backend.
+     *
+     * @return The ledger size.
+     */
+    protected abstract int getLedgerSize();
+
+    /**
+     * Get the number of orders written per addOrders call while the ledger is filled.
+     *
+     * @return The chunk size.
+     */
+    protected int getSeedChunkSize() {
+        return 10_000;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ledgerSize = getLedgerSize();
+        storage = createStorage();
+        storage.createConnection();
+
+        List<Order> chunk = new ArrayList<>();
+        for (long i = 0; i < ledgerSize; i++) {
+            chunk.add(newOrder(FIRST_ORDER_ID + i));
+            if (chunk.size() >= getSeedChunkSize()) {
+                storage.addOrders(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            storage.addOrders(chunk);
+        }
+        nextOrderId.set(FIRST_ORDER_ID + ledgerSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        closeStorage();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean checkOrderHit() throws StorageException {
+        return storage.checkOrder(existingOrderId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean checkOrderMiss() throws StorageException {
+        return storage.checkOrder(missingOrderId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addOrder() throws StorageException {
+        storage.addOrder(newOrder(nextOrderId.getAndIncrement()));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean checkOrderConcurrent() throws StorageException {
+        return storage.checkOrder(ThreadLocalRandom.current().nextBoolean() ? existingOrderId() : missingOrderId());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void addOrderConcurrent() throws StorageException {
+        storage.addOrder(newOrder(nextOrderId.getAndIncrement()));
+    }
+
+    private String existingOrderId() {
+        return String.valueOf(FIRST_ORDER_ID + ThreadLocalRandom.current().nextInt(ledgerSize));
+    }
+
+    private String missingOrderId() {
+        return String.valueOf(MISSING_ORDER_OFFSET + ThreadLocalRandom.current().nextInt(ledgerSize));
+    }
+
+    private static Order newOrder(long orderId) {
+        return new Order("Player" + (orderId % 5000), "VIP Rank", String.valueOf(orderId));
+    }
+}
@@ -1,14 +1,31 @@
 package eu.venxu.mineshopify;
 
 import eu.venxu.mineshopify.commands.CommandHandler;
+import eu.venxu.mineshopify.config.PackageCatalog;
+import eu.venxu.mineshopify.config.Settings;
+import eu.venxu.mineshopify.action.ActionManager;
+import eu.venxu.mineshopify.config.SettingsManager;
+import eu.venxu.mineshopify.dispatch.RetryManager;
+import eu.venxu.mineshopify.entitlement.EntitlementManager;
+import eu.venxu.mineshopify.history.HistoryManager;
+import eu.venxu.mineshopify.mailbox.MailboxListener;
+import eu.venxu.mineshopify.mailbox.MailboxManager;
+import eu.venxu.mineshopify.log.EventLog;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import eu.venxu.mineshopify.metrics.PrometheusExporter;
+import eu.venxu.mineshopify.notification.NotificationListener;
 import eu.venxu.mineshopify.notification.NotificationManager;
+import eu.venxu.mineshopify.profiler.TickProfiler;
 import eu.venxu.mineshopify.shopify.ParseManager;
 import eu.venxu.mineshopify.shopify.ShopifyManager;
-import eu.venxu.mineshopify.storage.MySQLStorage;
 import eu.venxu.mineshopify.storage.StorageManager;
+import eu.venxu.mineshopify.trace.TraceManager;
 import org.bukkit.Bukkit;
 import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
 import java.io.File;
 import java.util.logging.Level;
@@ -19,13 +36,58 @@ public final class MineShopify extends JavaPlugin {
     private StorageManager storageManager;
     private ParseManager parseManager;
     private NotificationManager notificationManager;
+    private HistoryManager historyManager;
+    private TraceManager traceManager;
+    private RetryManager retryManager;
+    private ActionManager actionManager;
+    private MailboxManager mailboxManager;
+    private EntitlementManager entitlementManager;
+    private TickProfiler tickProfiler;
+    private EventLog eventLog;
+    private PackageCatalog packageCatalog;
+    private SettingsManager settingsManager;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private PrometheusExporter metricsExporter;
+    private volatile FileConfiguration reloadedConfig;
+    private final ShopifyManager.Transport shopifyTransport;
     public final static String PREFIX = "§e§lMINESHOPIFY §8• §7";
 
+    /**
+     * Create the plugin, called by the plugin loader of the server.
+     */
+    public MineShopify() {
+        this.shopifyTransport = null;
+    }
+
+    /**
+     * Create the plugin outside a server, e.g. for the load driver in benchmarks/.
+     * The server that runs the tasks must be set with {@link Bukkit#setServer} before.
+     *
+     * @param loader The plugin loader of that server.
+     * @param description The description from plugin.yml.
+     * @param dataFolder The plugin folder with config.yml and packages.yml.
+     * @param file The plugin jar.
+     * @param shopifyTransport Sends the order polls instead of the HTTP client, or null.
+     */
+    public MineShopify(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file,
+                       ShopifyManager.Transport shopifyTransport) {
+        super(loader, description, dataFolder, file);
+        this.shopifyTransport = shopifyTransport;
+    }
+
     @Override
     public void onEnable() {
         // Initialize configuration
         initConfig();
         
+        // Measure the main thread time of the plugin from the start
+        tickProfiler = new TickProfiler(this);
+        tickProfiler.loadConfig();
+        settingsManager = new SettingsManager(this, this::onSettingsChanged);
+        
+        // Start the event log before the managers that write to it
+        eventLog = new EventLog(this);
+        
         // Log startup message
         logStartupMessage();
 
@@ -35,29 +97,115 @@ public final class MineShopify extends JavaPlugin {
         // Register commands
         registerCommands();
         
+        // Reload config.yml automatically when it is edited
+        settingsManager.startWatching();
+        
+        // Serve the metrics to Prometheus if enabled
+        startMetricsExporter();
+        
         // Log debug status
-        if (getConfig().getBoolean("debug", false)) {
+        if (getSettings().isDebug()) {
             getLogger().info("Debug mode is enabled. Additional logging will be shown.");
         }
     }
 
     @Override
     public void onDisable() {
-        // Close database connections if using MySQL
-        if (storageManager != null && storageManager.getStorage() instanceof MySQLStorage) {
-            MySQLStorage mysqlStorage = (MySQLStorage) storageManager.getStorage();
+        // Stop watching config.yml
+        if (settingsManager != null) {
+            settingsManager.close();
+        }
+        
+        // Finish the orders that are already on their way, then stop measuring ticks
+        long deadline = System.currentTimeMillis() + Math.max(1, getConfig().getInt("shutdown.timeout", 10)) * 1000L;
+        drainOrders(deadline);
+        if (tickProfiler != null) {
+            tickProfiler.close();
+        }
+        
+        // Stop the metrics endpoint
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
+        
+        // Save the failed commands for the next start
+        if (retryManager != null) {
+            retryManager.close();
+        }
+        
+        // Stop the expiry of timed packages, unfired expiries run after the next start
+        if (entitlementManager != null) {
+            entitlementManager.close();
+        }
+        
+        // Stop the running mailbox claims
+        if (mailboxManager != null) {
+            mailboxManager.close();
+        }
+        
+        // Send purchases still collected for a digest
+        if (notificationManager != null) {
+            notificationManager.close();
+        }
+        
+        // Write catalog edits that are not saved yet
+        if (packageCatalog != null) {
+            packageCatalog.close();
+        }
+        
+        // Wait for the pending writes and close database connections
+        if (storageManager != null) {
             try {
-                mysqlStorage.closePool();
-                getLogger().info("Database connections closed successfully.");
+                storageManager.close(Math.max(1000L, deadline - System.currentTimeMillis()));
+                getLogger().info("Storage closed successfully.");
             } catch (Exception e) {
-                getLogger().log(Level.WARNING, "Error closing database connections", e);
+                getLogger().log(Level.WARNING, "Error closing the storage", e);
             }
         }
         
+        // Write the remaining events
+        if (eventLog != null) {
+            eventLog.close();
+        }
+        
         // Log shutdown message
         logShutdownMessage();
     }
     
+    /**
+     * Stop polling and deliver the orders that are already on their way.
+     * Runs on the main thread while the plugin is being disabled; the scheduler no longer
+     * runs tasks then, so the tasks of the profiler are run here until polls, storage
+     * checks and deliveries are done or the deadline is reached.
+     * 
+     * @param deadline The time in milliseconds when the shutdown stops waiting.
+     */
+    private void drainOrders(long deadline) {
+        if (shopifyManager == null || parseManager == null || tickProfiler == null) {
+            return;
+        }
+        shopifyManager.stopPolling();
+        while (true) {
+            tickProfiler.runPendingTasks();
+            int fetches = shopifyManager.getInFlightFetches();
+            int orders = parseManager.getInFlightCount();
+            if (fetches == 0 && orders == 0 && tickProfiler.getPendingTaskCount() == 0) {
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                getLogger().warning("Shutdown timeout reached with " + fetches + " polls and " + orders
+                        + " orders still in flight, they are fetched again after the restart.");
+                return;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
     /**
      * Initialize the configuration file with defaults if it doesn't exist
      */
@@ -101,21 +249,80 @@ public final class MineShopify extends JavaPlugin {
         Bukkit.getConsoleSender().sendMessage(PREFIX + "Copyright 2025 MineShopify by Marsways Digital Services");
     }
 
+    /**
+     * Start the local HTTP endpoint for the metrics if it is enabled in config.yml.
+     */
+    private void startMetricsExporter() {
+        if (!getConfig().getBoolean("metrics.http.enabled", false)) {
+            return;
+        }
+        String host = getConfig().getString("metrics.http.host", "127.0.0.1");
+        int port = getConfig().getInt("metrics.http.port", 9225);
+        try {
+            metricsExporter = new PrometheusExporter(metrics);
+            metricsExporter.start(host, port);
+            getLogger().info("Metrics are available at http://" + host + ":" + port + "/metrics");
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "Could not start the metrics endpoint on " + host + ":" + port, e);
+            metricsExporter = null;
+        }
+    }
+    
+    /**
+     * Apply reloaded settings to the managers that keep state derived from config.yml.
+     * Runs on the main thread.
+     * 
+     * @param previous The settings before the reload.
+     * @param current The settings after the reload.
+     */
+    private void onSettingsChanged(Settings previous, Settings current) {
+        notificationManager.loadConfig();
+        tickProfiler.loadConfig();
+        eventLog.loadConfig();
+        entitlementManager.loadConfig();
+        shopifyManager.applySettings(previous, current);
+    }
+    
     /**
      * Register all the managers used in the main class.
      */
     private void registerManagers() {
         // Initialize storage first as other managers depend on it
+        // The connection is created asynchronously, so startup doesn't wait for the database
         storageManager = new StorageManager(this);
+        storageManager.initialize();
+        
+        // Load the package catalog from packages.yml
+        packageCatalog = new PackageCatalog(this);
         
         // Initialize notification manager
         notificationManager = new NotificationManager(this);
+        getServer().getPluginManager().registerEvents(new NotificationListener(notificationManager), this);
+        
+        // Initialize the order traces before the orders are fetched
+        traceManager = new TraceManager(this);
+        
+        // Retry failed package commands, including those left by the last run
+        retryManager = new RetryManager(this);
+        
+        // Expire timed packages, the expiry commands are retried like package commands
+        entitlementManager = new EntitlementManager(this);
+        
+        // Keep item rewards that don't fit into the inventory
+        mailboxManager = new MailboxManager(this);
+        getServer().getPluginManager().registerEvents(new MailboxListener(mailboxManager), this);
+        
+        // Run the typed package actions through the Bukkit API
+        actionManager = new ActionManager(this);
         
         // Initialize Shopify manager
-        shopifyManager = new ShopifyManager(this);
+        shopifyManager = new ShopifyManager(this, shopifyTransport);
         
         // Initialize parse manager last as it depends on the other managers
         parseManager = new ParseManager(this);
+        
+        // Initialize history manager for purchase lookups
+        historyManager = new HistoryManager(this);
     }
     
     /**
@@ -168,4 +375,134 @@ public final class MineShopify extends JavaPlugin {
     public NotificationManager getNotificationManager() {
         return notificationManager;
     }
+    
+    /**
+     * Get the metrics registry.
+     *
+     * @return The registry holding the counters and histograms of the plugin.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Get the configuration, the one last applied by the settings manager after a reload.
+     *
+     * @return The content of config.yml.
+     */
+    @Override
+    public FileConfiguration getConfig() {
+        FileConfiguration config = reloadedConfig;
+        return config != null ? config : super.getConfig();
+    }
+
+    /**
+     * Use an already parsed config.yml, so a reload does not read the file a second time.
+     * The defaults from the plugin jar are kept.
+     *
+     * @param config The parsed config.yml.
+     */
+    public void applyConfig(FileConfiguration config) {
+        config.setDefaults(super.getConfig().getDefaults());
+        reloadedConfig = config;
+    }
+
+    /**
+     * Get the settings manager.
+     *
+     * @return The manager that loads and watches config.yml.
+     */
+    public SettingsManager getSettingsManager() {
+        return settingsManager;
+    }
+    
+    /**
+     * Get the current settings.
+     *
+     * @return The immutable snapshot of the settings from config.yml.
+     */
+    public Settings getSettings() {
+        return settingsManager.getSettings();
+    }
+    
+    /**
+     * Get the package catalog.
+     *
+     * @return The catalog of packages configured in packages.yml.
+     */
+    public PackageCatalog getPackageCatalog() {
+        return packageCatalog;
+    }
+    
+    /**
+     * Get the history manager.
+     *
+     * @return The manager that handles purchase history lookups.
+     */
+    public HistoryManager getHistoryManager() {
+        return historyManager;
+    }
+    
+    /**
+     * Get the trace manager.
+     *
+     * @return The manager that keeps the timings of recently delivered orders.
+     */
+    public TraceManager getTraceManager() {
+        return traceManager;
+    }
+    
+    /**
+     * Get the event log.
+     *
+     * @return The structured log of the order pipeline.
+     */
+    public EventLog getEventLog() {
+        return eventLog;
+    }
+    
+    /**
+     * Get the tick profiler.
+     *
+     * @return The profiler that measures the main thread time of the plugin.
+     */
+    public TickProfiler getTickProfiler() {
+        return tickProfiler;
+    }
+    
+    /**
+     * Get the retry manager.
+     *
+     * @return The queue of failed package commands and their dead letters.
+     */
+    public RetryManager getRetryManager() {
+        return retryManager;
+    }
+    
+    /**
+     * Get the action manager.
+     *
+     * @return The runner of the typed package actions.
+     */
+    public ActionManager getActionManager() {
+        return actionManager;
+    }
+    
+    /**
+     * Get the mailbox manager.
+     *
+     * @return The mailboxes of items that could not be given.
+     */
+    public MailboxManager getMailboxManager() {
+        return mailboxManager;
+    }
+    
+    /**
+     * Get the entitlement manager.
+     *
+     * @return The expiries of the timed packages.
+     */
+    public EntitlementManager getEntitlementManager() {
+        return entitlementManager;
+    }
 }
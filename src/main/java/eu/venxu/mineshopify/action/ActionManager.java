@@ -0,0 +1,225 @@
+package eu.venxu.mineshopify.action;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.config.PackageCatalog;
+import eu.venxu.mineshopify.mailbox.MailboxManager;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.potion.PotionEffect;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the typed actions of packages directly through the Bukkit API instead of
+ * dispatching console commands, which skips the command lookup and parsing.
+ * The actions of a package are parsed once and cached until the catalog changes.
+ *
+ * Deposits go through the economy registered with Vault. Vault is looked up by
+ * reflection, so it is not needed at compile time or when no deposits are used.
+ */
+public class ActionManager {
+
+    private static final String ECONOMY_CLASS = "net.milkbowl.vault.economy.Economy";
+
+    private final MineShopify mineShopify;
+    private final Map<ActionType, Counter> executed = new EnumMap<>(ActionType.class);
+    private final Map<String, List<DeliveryAction>> cache = new HashMap<>();
+    private int cachedCatalogVersion = -1;
+    private Object economy;
+    private Method depositMethod;
+    private Method successMethod;
+    private Field errorMessage;
+    private boolean economyWarned;
+
+    /**
+     * Initialize the action manager.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public ActionManager(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        for (ActionType type : ActionType.values()) {
+            executed.put(type, metrics.counter("actions_executed_total", "Package actions run through the Bukkit API", "type", type.getLabel()));
+        }
+    }
+
+    /**
+     * Get the parsed actions of a package.
+     * Invalid entries are logged once per catalog version and skipped.
+     *
+     * @param packageName The name of the package.
+     * @return The actions in the order of packages.yml, empty if the package has none.
+     */
+    public List<DeliveryAction> getActions(String packageName) {
+        PackageCatalog catalog = mineShopify.getPackageCatalog();
+        if (catalog.getVersion() != cachedCatalogVersion) {
+            cache.clear();
+            cachedCatalogVersion = catalog.getVersion();
+        }
+        return cache.computeIfAbsent(packageName, name -> parseActions(catalog.getPackage(name), name));
+    }
+
+    /**
+     * Run an action for a purchase. Must be called on the main thread.
+     * Item and money amounts are multiplied by the quantity; all other actions run once.
+     *
+     * @param action The action to run.
+     * @param orderId The id of the Shopify order.
+     * @param playerName The name of the buyer.
+     * @param quantity The purchased quantity.
+     * @return Null if the action succeeded, otherwise the reason it failed.
+     */
+    public String execute(DeliveryAction action, String orderId, String playerName, int quantity) {
+        Player player = Bukkit.getPlayerExact(playerName);
+        executed.get(action.getType()).increment();
+        switch (action.getType()) {
+            case GIVE:
+                MailboxManager mailbox = mineShopify.getMailboxManager();
+                if (player == null) {
+                    // Items for offline players wait in the mailbox
+                    if (!mailbox.isEnabled()) {
+                        return "Player is offline";
+                    }
+                    mailbox.store(playerName, orderId, stacks(action, quantity));
+                    return null;
+                }
+                Map<Integer, ItemStack> leftover = player.getInventory().addItem(stacks(action, quantity).toArray(new ItemStack[0]));
+                if (!leftover.isEmpty()) {
+                    mailbox.store(playerName, orderId, leftover.values());
+                }
+                return null;
+            case TITLE:
+                // Titles, messages and effects are retried until the buyer is online
+                if (player == null) {
+                    return "Player is offline";
+                }
+                String subtitle = action.getSubtitle(playerName);
+                player.sendTitle(action.getText(playerName), subtitle.isEmpty() ? null : subtitle,
+                        action.getFadeIn(), action.getStay(), action.getFadeOut());
+                return null;
+            case MESSAGE:
+                if (player == null) {
+                    return "Player is offline";
+                }
+                player.sendMessage(action.getText(playerName));
+                return null;
+            case BROADCAST:
+                Bukkit.broadcastMessage(action.getText(playerName));
+                return null;
+            case EFFECT:
+                if (player == null) {
+                    return "Player is offline";
+                }
+                player.addPotionEffect(new PotionEffect(action.getEffect(), action.getDuration() * 20, action.getAmplifier()));
+                return null;
+            case DEPOSIT:
+                return deposit(player != null ? player : Bukkit.getOfflinePlayer(playerName), action.getMoney() * quantity);
+            default:
+                return mineShopify.getRetryManager().dispatch(action.getText(playerName));
+        }
+    }
+
+    /**
+     * Split the items of a give action into full stacks.
+     */
+    private static List<ItemStack> stacks(DeliveryAction action, int quantity) {
+        int remaining = action.getAmount() * quantity;
+        List<ItemStack> stacks = new ArrayList<>();
+        while (remaining > 0) {
+            ItemStack stack = new ItemStack(action.getMaterial());
+            int amount = Math.min(remaining, stack.getMaxStackSize());
+            stack.setAmount(amount);
+            stacks.add(stack);
+            remaining -= amount;
+        }
+        return stacks;
+    }
+
+    /**
+     * Deposit money through Vault.
+     *
+     * @return Null if the deposit succeeded, otherwise the reason it failed.
+     */
+    private String deposit(OfflinePlayer player, double amount) {
+        if (!lookupEconomy()) {
+            return "No economy registered with Vault";
+        }
+        try {
+            Object response = depositMethod.invoke(economy, player, amount);
+            if (!(Boolean) successMethod.invoke(response)) {
+                return "Deposit failed: " + errorMessage.get(response);
+            }
+            return null;
+        } catch (ReflectiveOperationException e) {
+            return "Deposit failed: " + e;
+        }
+    }
+
+    /**
+     * Find the economy provider when the first deposit runs.
+     * Economy plugins may register late, so the lookup is repeated until it succeeds.
+     *
+     * @return True if an economy is available.
+     */
+    private boolean lookupEconomy() {
+        if (economy != null) {
+            return true;
+        }
+        try {
+            Class<?> economyClass = Class.forName(ECONOMY_CLASS);
+            RegisteredServiceProvider<?> registration = Bukkit.getServicesManager().getRegistration(economyClass);
+            if (registration == null || registration.getProvider() == null) {
+                warnEconomy("Vault is installed but no economy plugin is registered, deposits will fail.");
+                return false;
+            }
+            depositMethod = economyClass.getMethod("depositPlayer", OfflinePlayer.class, double.class);
+            Class<?> responseClass = depositMethod.getReturnType();
+            successMethod = responseClass.getMethod("transactionSuccess");
+            errorMessage = responseClass.getField("errorMessage");
+            economy = registration.getProvider();
+            return true;
+        } catch (ClassNotFoundException e) {
+            warnEconomy("Vault is not installed, deposits will fail.");
+        } catch (ReflectiveOperationException e) {
+            warnEconomy("Unsupported Vault version, deposits will fail: " + e);
+        }
+        return false;
+    }
+
+    private void warnEconomy(String message) {
+        if (!economyWarned) {
+            economyWarned = true;
+            mineShopify.getLogger().warning(message);
+        }
+    }
+
+    private List<DeliveryAction> parseActions(ConfigurationSection packageConfig, String packageName) {
+        if (packageConfig == null || !packageConfig.isList("actions")) {
+            return Collections.emptyList();
+        }
+        List<DeliveryAction> actions = new ArrayList<>();
+        List<Map<?, ?>> entries = packageConfig.getMapList("actions");
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                actions.add(DeliveryAction.parse(entries.get(i)));
+            } catch (IllegalArgumentException e) {
+                mineShopify.getLogger().warning("Action " + (i + 1) + " of package " + packageName + " is invalid (" + e.getMessage() + ") and is skipped.");
+            }
+        }
+        return actions;
+    }
+}
@@ -0,0 +1,53 @@
+package eu.venxu.mineshopify.action;
+
+import java.util.Locale;
+
+/**
+ * The kinds of actions a package can run without going through the console.
+ */
+public enum ActionType {
+    /** Put items into the player's inventory. */
+    GIVE("give"),
+    /** Show a title and subtitle to the player. */
+    TITLE("title"),
+    /** Send a chat message to the player. */
+    MESSAGE("message"),
+    /** Send a chat message to all players. */
+    BROADCAST("broadcast"),
+    /** Give the player a potion effect. */
+    EFFECT("effect"),
+    /** Deposit money through the economy registered with Vault. */
+    DEPOSIT("deposit"),
+    /** Dispatch a console command, for everything else. */
+    COMMAND("command");
+
+    private final String label;
+
+    ActionType(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Get the name used in packages.yml and in the metrics.
+     *
+     * @return The label, e.g. "give".
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Find the type for a name from packages.yml.
+     *
+     * @param label The name of the type.
+     * @return The type, or null if it is unknown.
+     */
+    public static ActionType fromLabel(String label) {
+        for (ActionType type : values()) {
+            if (type.label.equals(label.toLowerCase(Locale.ROOT))) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
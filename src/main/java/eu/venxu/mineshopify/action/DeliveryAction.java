@@ -0,0 +1,263 @@
+package eu.venxu.mineshopify.action;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.potion.PotionEffectType;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One action of a package, parsed from packages.yml once per catalog version.
+ * Materials and effects are resolved while parsing, so running an action needs no lookups.
+ * Texts keep the %player% placeholder and have their color codes translated, commands are kept as they are.
+ */
+public class DeliveryAction {
+
+    private static final String PLACEHOLDER_PLAYER = "%player%";
+
+    private final ActionType type;
+    private final Map<?, ?> config;
+    private final String text;
+    private final String subtitle;
+    private final Material material;
+    private final PotionEffectType effect;
+    private final String name;
+    private final int amount;
+    private final double money;
+    private final int duration;
+    private final int amplifier;
+    private final int fadeIn;
+    private final int stay;
+    private final int fadeOut;
+
+    private DeliveryAction(ActionType type, Map<?, ?> config) {
+        this.type = type;
+        this.config = config;
+        this.text = type == ActionType.COMMAND ? getString(config, "command", "")
+                : color(getString(config, type == ActionType.TITLE ? "title" : "text", ""));
+        this.subtitle = color(getString(config, "subtitle", ""));
+        this.amount = Math.max(1, getInt(config, "amount", 1));
+        this.money = getDouble(config, "amount", 0);
+        this.duration = Math.max(1, getInt(config, "duration", 30));
+        this.amplifier = Math.max(0, getInt(config, "amplifier", 0));
+        this.fadeIn = getInt(config, "fade_in", 10);
+        this.stay = getInt(config, "stay", 70);
+        this.fadeOut = getInt(config, "fade_out", 20);
+
+        this.name = type == ActionType.GIVE ? getString(config, "item", "")
+                : type == ActionType.EFFECT ? stripNamespace(getString(config, "effect", "")) : null;
+        this.material = type == ActionType.GIVE ? Material.matchMaterial(name) : null;
+        this.effect = type == ActionType.EFFECT ? findEffect(name) : null;
+
+        if (type == ActionType.GIVE && (material == null || !material.isItem())) {
+            throw new IllegalArgumentException("unknown item " + name);
+        }
+        if (type == ActionType.EFFECT && effect == null) {
+            throw new IllegalArgumentException("unknown effect " + name);
+        }
+        if (type == ActionType.DEPOSIT && money <= 0) {
+            throw new IllegalArgumentException("deposit needs a positive amount");
+        }
+        if ((type == ActionType.COMMAND || type == ActionType.MESSAGE || type == ActionType.BROADCAST) && text.isEmpty()) {
+            throw new IllegalArgumentException(type.getLabel() + " needs a " + (type == ActionType.COMMAND ? "command" : "text"));
+        }
+    }
+
+    /**
+     * Parse an action from an entry of the actions list of a package.
+     *
+     * @param config The entry, with at least a type.
+     * @return The action.
+     * @throws IllegalArgumentException If the type, the item or the effect is unknown or a required field is missing.
+     */
+    public static DeliveryAction parse(Map<?, ?> config) {
+        String typeName = getString(config, "type", "");
+        ActionType type = ActionType.fromLabel(typeName);
+        if (type == null) {
+            throw new IllegalArgumentException("unknown type " + typeName);
+        }
+        return new DeliveryAction(type, config);
+    }
+
+    /**
+     * Parse an action saved with {@link #toJson()}.
+     *
+     * @param json The saved entry.
+     * @return The action.
+     * @throws IllegalArgumentException If the entry is no longer valid, e.g. the item was removed.
+     */
+    public static DeliveryAction fromJson(JsonObject json) {
+        Map<String, Object> config = new LinkedHashMap<>();
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            JsonPrimitive value = entry.getValue().getAsJsonPrimitive();
+            config.put(entry.getKey(), value.isNumber() ? value.getAsNumber() : value.isBoolean() ? (Object) value.getAsBoolean() : value.getAsString());
+        }
+        return parse(config);
+    }
+
+    /**
+     * Save the entry of the action from packages.yml, e.g. to retry it after a restart.
+     *
+     * @return The entry as JSON object.
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<?, ?> entry : config.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Number) {
+                json.addProperty(entry.getKey().toString(), (Number) value);
+            } else if (value instanceof Boolean) {
+                json.addProperty(entry.getKey().toString(), (Boolean) value);
+            } else if (value != null) {
+                json.addProperty(entry.getKey().toString(), value.toString());
+            }
+        }
+        return json;
+    }
+
+    public ActionType getType() {
+        return type;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    public PotionEffectType getEffect() {
+        return effect;
+    }
+
+    /**
+     * Get the number of items given per purchased unit.
+     *
+     * @return The amount of items.
+     */
+    public int getAmount() {
+        return amount;
+    }
+
+    /**
+     * Get the money deposited per purchased unit.
+     *
+     * @return The amount of money.
+     */
+    public double getMoney() {
+        return money;
+    }
+
+    /**
+     * Get the duration of an effect.
+     *
+     * @return The duration in seconds.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getAmplifier() {
+        return amplifier;
+    }
+
+    public int getFadeIn() {
+        return fadeIn;
+    }
+
+    public int getStay() {
+        return stay;
+    }
+
+    public int getFadeOut() {
+        return fadeOut;
+    }
+
+    /**
+     * Get the text of a message or broadcast, the title of a title or the command of a command.
+     *
+     * @param playerName The player name replacing the placeholder.
+     * @return The text.
+     */
+    public String getText(String playerName) {
+        return text.replace(PLACEHOLDER_PLAYER, playerName);
+    }
+
+    /**
+     * Get the subtitle of a title.
+     *
+     * @param playerName The player name replacing the placeholder.
+     * @return The subtitle, empty if there is none.
+     */
+    public String getSubtitle(String playerName) {
+        return subtitle.replace(PLACEHOLDER_PLAYER, playerName);
+    }
+
+    /**
+     * Render the action as the console command it replaces.
+     * Used to show a failed action in the retry queue, which retries it through the Bukkit API.
+     *
+     * @param playerName The player name.
+     * @param quantity The purchased quantity.
+     * @return The command without leading slash.
+     */
+    public String toCommand(String playerName, int quantity) {
+        switch (type) {
+            case GIVE:
+                return "give " + playerName + " " + material.name().toLowerCase(Locale.ROOT) + " " + amount * quantity;
+            case TITLE:
+                return "title " + playerName + " title " + textJson(getText(playerName));
+            case MESSAGE:
+                return "tellraw " + playerName + " " + textJson(getText(playerName));
+            case BROADCAST:
+                return "broadcast " + getText(playerName);
+            case EFFECT:
+                return "effect give " + playerName + " minecraft:" + name.toLowerCase(Locale.ROOT) + " " + duration + " " + amplifier;
+            case DEPOSIT:
+                return "deposit " + playerName + " " + money * quantity;
+            default:
+                return getText(playerName);
+        }
+    }
+
+    private static String textJson(String text) {
+        JsonObject json = new JsonObject();
+        json.addProperty("text", text);
+        return json.toString();
+    }
+
+    private static String color(String text) {
+        return ChatColor.translateAlternateColorCodes('&', text);
+    }
+
+    /**
+     * Find an effect by its Minecraft name, e.g. "jump_boost", or its Bukkit name, e.g. "JUMP".
+     */
+    private static PotionEffectType findEffect(String name) {
+        PotionEffectType effect = PotionEffectType.getByKey(NamespacedKey.minecraft(name.toLowerCase(Locale.ROOT)));
+        return effect != null ? effect : PotionEffectType.getByName(name.toUpperCase(Locale.ROOT));
+    }
+
+    private static String stripNamespace(String name) {
+        int colon = name.indexOf(':');
+        return colon >= 0 ? name.substring(colon + 1) : name;
+    }
+
+    private static String getString(Map<?, ?> config, String key, String defaultValue) {
+        Object value = config.get(key);
+        return value == null ? defaultValue : value.toString();
+    }
+
+    private static int getInt(Map<?, ?> config, String key, int defaultValue) {
+        Object value = config.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private static double getDouble(Map<?, ?> config, String key, double defaultValue) {
+        Object value = config.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+}
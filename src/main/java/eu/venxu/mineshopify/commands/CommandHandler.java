@@ -1,15 +1,33 @@
 package eu.venxu.mineshopify.commands;
 
 import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.dispatch.FailedDispatch;
+import eu.venxu.mineshopify.dispatch.RetryManager;
+import eu.venxu.mineshopify.history.HistoryPage;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.Histogram;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import eu.venxu.mineshopify.order.Order;
+import eu.venxu.mineshopify.profiler.TickProfiler;
+import eu.venxu.mineshopify.profiler.TickSample;
+import eu.venxu.mineshopify.shopify.ProductSync;
+import eu.venxu.mineshopify.shopify.ShopifyProduct;
+import eu.venxu.mineshopify.trace.OrderTrace;
+import eu.venxu.mineshopify.trace.TraceManager;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -19,7 +37,13 @@ import org.bukkit.inventory.ItemStack;
  */
 public class CommandHandler implements CommandExecutor, TabCompleter {
 
+    private static final int MAX_COMPLETIONS = 50;
+
     private final MineShopify plugin;
+    private PrefixTrie packageIndex = new PrefixTrie();
+    private PrefixTrie productIndex = new PrefixTrie();
+    private int indexedCatalogVersion = -1;
+    private int indexedProductVersion = -1;
 
     public CommandHandler(MineShopify plugin) {
         this.plugin = plugin;
@@ -27,6 +51,16 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        TickProfiler profiler = plugin.getTickProfiler();
+        profiler.begin();
+        try {
+            return handleCommand(sender, args);
+        } finally {
+            profiler.end(TickProfiler.COMMAND);
+        }
+    }
+
+    private boolean handleCommand(CommandSender sender, String[] args) {
         if (args.length == 0) {
             showHelp(sender);
             return true;
@@ -38,8 +72,15 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
                     sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
                     return true;
                 }
-                plugin.reloadConfig();
-                plugin.getNotificationManager().loadConfig();
+                List<String> errors = plugin.getSettingsManager().reload();
+                if (!errors.isEmpty()) {
+                    sender.sendMessage(ChatColor.RED + "Die config.yml enthält Fehler und wurde nicht übernommen:");
+                    for (String error : errors) {
+                        sender.sendMessage(ChatColor.GRAY + "- " + error);
+                    }
+                    return true;
+                }
+                plugin.getPackageCatalog().reload();
                 sender.sendMessage(MineShopify.PREFIX + "&aKonfiguration wurde neu geladen! 🔄");
                 return true;
                 
@@ -153,6 +194,98 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
                 deleteProduct((Player) sender, deleteProductName);
                 return true;
                 
+            case "syncproducts":
+                if (!sender.hasPermission("mineshopify.admin")) {
+                    sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
+                    return true;
+                }
+                syncProducts(sender);
+                return true;
+                
+            case "history":
+                if (!sender.hasPermission("mineshopify.admin")) {
+                    sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
+                    return true;
+                }
+                if (args.length < 2) {
+                    sender.sendMessage(MineShopify.PREFIX + "Bitte gib einen Spieler oder eine Bestellnummer an: /mineshopify history <Spieler|Bestellnummer> [Seite]");
+                    return true;
+                }
+                
+                int page = 1;
+                if (args.length >= 3) {
+                    try {
+                        page = Math.max(1, Integer.parseInt(args[2]));
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage(ChatColor.RED + "Die Seite muss eine Zahl sein.");
+                        return true;
+                    }
+                }
+                
+                showHistory(sender, args[1], page);
+                return true;
+                
+            case "trace":
+                if (!sender.hasPermission("mineshopify.admin")) {
+                    sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
+                    return true;
+                }
+                if (args.length < 2) {
+                    showTraceSummary(sender);
+                } else {
+                    showTrace(sender, args[1]);
+                }
+                return true;
+                
+            case "ticks":
+                if (!sender.hasPermission("mineshopify.admin")) {
+                    sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
+                    return true;
+                }
+                showTicks(sender);
+                return true;
+                
+            case "deadletters":
+                if (!sender.hasPermission("mineshopify.admin")) {
+                    sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
+                    return true;
+                }
+                if (args.length >= 2 && args[1].equalsIgnoreCase("replay")) {
+                    if (args.length < 3) {
+                        sender.sendMessage(MineShopify.PREFIX + "Bitte gib eine Nummer oder all an: /mineshopify deadletters replay <Nummer|all>");
+                        return true;
+                    }
+                    replayDeadLetters(sender, args[2]);
+                } else {
+                    showDeadLetters(sender);
+                }
+                return true;
+                
+            case "claim":
+                if (!sender.hasPermission("mineshopify.claim")) {
+                    sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
+                    return true;
+                }
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage("&c🚫 Dieser Befehl kann nur von Spielern ausgeführt werden!");
+                    return true;
+                }
+                plugin.getMailboxManager().claim((Player) sender);
+                return true;
+                
+            case "storage":
+                if (!sender.hasPermission("mineshopify.admin")) {
+                    sender.sendMessage("&c❌ Du hast keine Berechtigung für diesen Befehl!");
+                    return true;
+                }
+                if (args.length < 4 || !args[1].equalsIgnoreCase("migrate")) {
+                    sender.sendMessage(MineShopify.PREFIX + "Bitte gib Quelle und Ziel an: /mineshopify storage migrate <file|mysql> <file|mysql>");
+                    return true;
+                }
+                
+                migrateStorage(sender, args[2].toLowerCase(), args[3].toLowerCase());
+                return true;
+                
             default:
                 showHelp(sender);
                 return true;
@@ -161,13 +294,25 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
 
     private void showHelp(CommandSender sender) {
         sender.sendMessage(ChatColor.GOLD + "=== MineShopify Hilfe ===");
+        if (sender.hasPermission("mineshopify.claim")) {
+            sender.sendMessage(ChatColor.YELLOW + "/mineshopify claim " + ChatColor.GRAY + "- Holt die Gegenstände aus deinem Postfach ab");
+        }
+        if (!sender.hasPermission("mineshopify.admin")) {
+            return;
+        }
         sender.sendMessage(ChatColor.YELLOW + "/mineshopify reload " + ChatColor.GRAY + "- Lädt die Konfiguration neu");
         sender.sendMessage(ChatColor.YELLOW + "/mineshopify status " + ChatColor.GRAY + "- Zeigt den Status des Plugins");
-        sender.sendMessage(ChatColor.YELLOW + "/mineshopify convertproduct <Produktname> " + ChatColor.GRAY + "- Konvertiert ein Produkt in das config.yml Format");
+        sender.sendMessage(ChatColor.YELLOW + "/mineshopify convertproduct <Produktname> " + ChatColor.GRAY + "- Konvertiert ein Produkt in das packages.yml Format");
         sender.sendMessage(ChatColor.YELLOW + "/mineshopify addcommand <Produktname> <Befehl> " + ChatColor.GRAY + "- Fügt einen Befehl zu einem Produkt hinzu");
         sender.sendMessage(ChatColor.YELLOW + "/mineshopify removecommand <Produktname> <Index> " + ChatColor.GRAY + "- Entfernt einen Befehl von einem Produkt");
         sender.sendMessage(ChatColor.YELLOW + "/mineshopify deleteproduct <Produktname> " + ChatColor.GRAY + "- Löscht ein Produkt aus der Konfiguration");
         sender.sendMessage(ChatColor.YELLOW + "/mineshopify listproducts " + ChatColor.GRAY + "- Listet alle konfigurierten Produkte auf");
+        sender.sendMessage(ChatColor.YELLOW + "/mineshopify syncproducts " + ChatColor.GRAY + "- Synchronisiert die Produkte aus Shopify");
+        sender.sendMessage(ChatColor.YELLOW + "/mineshopify history <Spieler|Bestellnummer> [Seite] " + ChatColor.GRAY + "- Zeigt die Käufe eines Spielers oder einer Bestellung");
+        sender.sendMessage(ChatColor.YELLOW + "/mineshopify trace [Bestellnummer] " + ChatColor.GRAY + "- Zeigt, wie lange die Lieferung einer Bestellung gedauert hat");
+        sender.sendMessage(ChatColor.YELLOW + "/mineshopify ticks " + ChatColor.GRAY + "- Zeigt die Ticks, in denen das Plugin den Hauptthread am längsten belegt hat");
+        sender.sendMessage(ChatColor.YELLOW + "/mineshopify deadletters [replay <Nummer|all>] " + ChatColor.GRAY + "- Zeigt fehlgeschlagene Befehle oder führt sie erneut aus");
+        sender.sendMessage(ChatColor.YELLOW + "/mineshopify storage migrate <Quelle> <Ziel> " + ChatColor.GRAY + "- Migriert alle Bestellungen zwischen Datei und MySQL");
     }
 
     private void showStatus(CommandSender sender) {
@@ -179,42 +324,256 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
         boolean hasToken = plugin.getConfig().getString("shopify.token", "").length() > 10;
         sender.sendMessage(ChatColor.YELLOW + "Shopify Domain: " + ChatColor.WHITE + domain);
         sender.sendMessage(ChatColor.YELLOW + "API Token: " + (hasToken ? ChatColor.GREEN + "Konfiguriert" : ChatColor.RED + "Nicht konfiguriert"));
+        ProductSync productSync = plugin.getShopifyManager().getProductSync();
+        if (productSync.getLastSync() > 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Shopify-Produkte: " + ChatColor.WHITE + productSync.getProducts().size()
+                    + ChatColor.GRAY + " (synchronisiert " + new SimpleDateFormat("dd.MM.yyyy HH:mm").format(new Date(productSync.getLastSync())) + ")");
+        }
         
         // Storage Status
         boolean usingMySQL = plugin.getConfig().getBoolean("storage.MySQL", false);
         sender.sendMessage(ChatColor.YELLOW + "Speicher-Typ: " + ChatColor.WHITE + (usingMySQL ? "MySQL" : "Datei"));
+        boolean storageReady = plugin.getStorageManager().isReady();
+        sender.sendMessage(ChatColor.YELLOW + "Speicher bereit: " + (storageReady ? ChatColor.GREEN + "Ja" : ChatColor.RED + "Nein"));
+        if (plugin.getConfig().getBoolean("storage.retention.enabled", false)) {
+            sender.sendMessage(ChatColor.YELLOW + "Archivierte Bestellungen: " + ChatColor.WHITE + plugin.getStorageManager().getArchivedOrders().size());
+        }
         
         // Debug Status
-        boolean debugEnabled = plugin.getConfig().getBoolean("debug", false);
+        boolean debugEnabled = plugin.getSettings().isDebug();
         sender.sendMessage(ChatColor.YELLOW + "Debug-Modus: " + (debugEnabled ? ChatColor.GREEN + "Aktiviert" : ChatColor.RED + "Deaktiviert"));
         
         // Notification Status
         boolean notificationsEnabled = plugin.getConfig().getBoolean("notifications.enabled", true);
         sender.sendMessage(ChatColor.YELLOW + "Benachrichtigungen: " + (notificationsEnabled ? ChatColor.GREEN + "Aktiviert" : ChatColor.RED + "Deaktiviert"));
+        
+        showMetrics(sender);
+    }
+    
+    /**
+     * Shows a live summary of the metrics since the server start.
+     * 
+     * @param sender The command sender
+     */
+    private void showMetrics(CommandSender sender) {
+        MetricsRegistry metrics = plugin.getMetrics();
+        Histogram pollDuration = metrics.find(Histogram.class, "shopify_poll_duration_seconds");
+        Counter pollErrors = metrics.find(Counter.class, "shopify_poll_errors_total");
+        if (pollDuration != null && pollErrors != null) {
+            sender.sendMessage(ChatColor.YELLOW + "Abfragen: " + ChatColor.WHITE + pollDuration.getCount()
+                    + ChatColor.GRAY + " (Ø " + formatMillis(pollDuration.getMean()) + ", p95 " + formatMillis(pollDuration.getQuantile(0.95))
+                    + ", Fehler " + pollErrors.get() + ")");
+        }
+        
+        Counter seen = metrics.find(Counter.class, "orders_seen_total");
+        Counter delivered = metrics.find(Counter.class, "orders_delivered_total");
+        Counter skippedInMemory = metrics.find(Counter.class, "orders_deduplicated_total", "source", "memory");
+        Counter skippedInStorage = metrics.find(Counter.class, "orders_deduplicated_total", "source", "storage");
+        Counter commands = metrics.find(Counter.class, "commands_dispatched_total");
+        if (seen != null && delivered != null && skippedInMemory != null && skippedInStorage != null && commands != null) {
+            long skipped = skippedInMemory.get() + skippedInStorage.get();
+            long hitRate = seen.get() == 0 ? 0 : skipped * 100 / seen.get();
+            sender.sendMessage(ChatColor.YELLOW + "Bestellungen: " + ChatColor.WHITE + delivered.get() + " geliefert"
+                    + ChatColor.GRAY + " (" + seen.get() + " gelesen, " + hitRate + "% bereits bekannt, " + commands.get() + " Befehle)");
+        }
+        
+        long[] percentiles = plugin.getTraceManager().getPercentiles(0.5, 0.95, 0.99);
+        if (percentiles != null) {
+            sender.sendMessage(ChatColor.YELLOW + "Zahlung bis Lieferung: " + ChatColor.GRAY + "p50 " + formatDuration(percentiles[0])
+                    + ", p95 " + formatDuration(percentiles[1]) + ", p99 " + formatDuration(percentiles[2]));
+        }
+        
+        Histogram storageChecks = metrics.find(Histogram.class, "storage_operation_duration_seconds", "operation", "check");
+        Histogram storageWrites = metrics.find(Histogram.class, "storage_operation_duration_seconds", "operation", "write");
+        if (storageChecks != null && storageWrites != null) {
+            sender.sendMessage(ChatColor.YELLOW + "Speicher: " + ChatColor.GRAY + "Prüfen Ø " + formatMillis(storageChecks.getMean())
+                    + ", Schreiben Ø " + formatMillis(storageWrites.getMean()) + " (p95 " + formatMillis(storageWrites.getQuantile(0.95)) + ")");
+        }
+    }
+    
+    /**
+     * Shows the payment to delivery percentiles and the slowest recent orders.
+     * 
+     * @param sender The command sender
+     */
+    private void showTraceSummary(CommandSender sender) {
+        TraceManager traceManager = plugin.getTraceManager();
+        sender.sendMessage(ChatColor.GOLD + "=== MineShopify Lieferzeiten ===");
+        long[] percentiles = traceManager.getPercentiles(0.5, 0.95, 0.99);
+        if (percentiles == null) {
+            sender.sendMessage(ChatColor.RED + "Seit dem Start wurden noch keine Bestellungen geliefert.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Zahlung bis Lieferung " + ChatColor.GRAY + "(letzte " + traceManager.getRecentCount() + " Bestellungen): "
+                + ChatColor.WHITE + "p50 " + formatDuration(percentiles[0]) + ", p95 " + formatDuration(percentiles[1]) + ", p99 " + formatDuration(percentiles[2]));
+        
+        sender.sendMessage(ChatColor.YELLOW + "Langsamste Bestellungen:");
+        for (OrderTrace trace : traceManager.getSlowest(5)) {
+            sender.sendMessage(ChatColor.GRAY + "- " + ChatColor.YELLOW + trace.getOrderId() + ChatColor.GRAY + ": "
+                    + ChatColor.WHITE + formatDuration(trace.getPaymentToDelivery()));
+        }
+        sender.sendMessage(ChatColor.GRAY + "Verwende /mineshopify trace <Bestellnummer> für die einzelnen Schritte.");
+    }
+    
+    /**
+     * Shows the stage timings of a recently delivered order.
+     * 
+     * @param sender The command sender
+     * @param orderId The Shopify order id
+     */
+    private void showTrace(CommandSender sender, String orderId) {
+        OrderTrace trace = plugin.getTraceManager().find(orderId);
+        if (trace == null) {
+            sender.sendMessage(ChatColor.RED + "Für die Bestellung " + orderId + " liegt kein Trace vor. Es werden nur kürzlich gelieferte Bestellungen gespeichert.");
+            return;
+        }
+        
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+        sender.sendMessage(ChatColor.GOLD + "=== Bestellung " + trace.getOrderId() + " ===");
+        if (trace.getCreatedAt() > 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Erstellt: " + ChatColor.WHITE + dateFormat.format(new Date(trace.getCreatedAt())));
+        }
+        if (trace.getPaidAt() > 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Bezahlt: " + ChatColor.WHITE + dateFormat.format(new Date(trace.getPaidAt())));
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Geliefert: " + ChatColor.WHITE + dateFormat.format(new Date(trace.getDeliveredAt())));
+        long latency = trace.getPaymentToDelivery();
+        if (latency >= 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Zahlung bis Lieferung: " + ChatColor.WHITE + formatDuration(latency));
+        }
+        for (OrderTrace.Stage stage : OrderTrace.Stage.values()) {
+            long duration = trace.getDuration(stage);
+            sender.sendMessage(ChatColor.GRAY + "- " + stage.getDisplayName() + ": "
+                    + (duration < 0 ? ChatColor.RED + "ausstehend" : ChatColor.WHITE + formatMillis(duration / 1_000_000_000.0)));
+        }
+    }
+    
+    /**
+     * Shows the main thread time of the plugin in the profiler window and the worst ticks.
+     * 
+     * @param sender The command sender
+     */
+    private void showTicks(CommandSender sender) {
+        TickProfiler profiler = plugin.getTickProfiler();
+        if (!profiler.isEnabled()) {
+            sender.sendMessage(ChatColor.RED + "Der Tick-Profiler ist deaktiviert (profiler.enabled in der config.yml).");
+            return;
+        }
+        
+        List<TickSample> samples = profiler.getSamples();
+        long total = samples.stream().mapToLong(TickSample::getTotalNanos).sum();
+        sender.sendMessage(ChatColor.GOLD + "=== Hauptthread (letzte " + profiler.getWindowSize() / 20 + " s) ===");
+        sender.sendMessage(ChatColor.YELLOW + "Gesamt: " + ChatColor.WHITE + formatNanos(total) + ChatColor.GRAY + " in "
+                + samples.size() + " von " + profiler.getWindowSize() + " Ticks, Budget " + formatNanos(profiler.getBudgetNanos())
+                + " pro Tick, " + profiler.getBudgetExceeded() + "x überschritten seit dem Start");
+        if (samples.isEmpty()) {
+            return;
+        }
+        
+        sender.sendMessage(ChatColor.YELLOW + "Nach Quelle: " + ChatColor.GRAY + profiler.getSourceTotals().stream()
+                .map(source -> source.getKey() + " " + ChatColor.WHITE + formatNanos(source.getValue()) + ChatColor.GRAY)
+                .collect(Collectors.joining(", ")));
+        
+        sender.sendMessage(ChatColor.YELLOW + "Langsamste Ticks:");
+        long now = System.currentTimeMillis();
+        for (TickSample sample : profiler.getWorstTicks(5)) {
+            String causes = sample.getSources().stream()
+                    .map(source -> source.getKey() + " " + formatNanos(source.getValue()))
+                    .collect(Collectors.joining(", "));
+            sender.sendMessage(ChatColor.GRAY + "- vor " + (now - sample.getEndedAt()) / 1000 + " s: "
+                    + (sample.getTotalNanos() > profiler.getBudgetNanos() ? ChatColor.RED : ChatColor.WHITE) + formatNanos(sample.getTotalNanos())
+                    + ChatColor.GRAY + " (" + causes + ")");
+        }
+    }
+    
+    /**
+     * Formats a duration in nanoseconds as milliseconds with two decimals.
+     * 
+     * @param nanos The duration in nanoseconds
+     * @return The formatted duration, e.g. "0,42 ms"
+     */
+    private String formatNanos(long nanos) {
+        return String.format(Locale.GERMAN, "%.2f ms", nanos / 1_000_000.0);
+    }
+    
+    /**
+     * Formats a duration in milliseconds for chat, e.g. "850 ms", "12,4 s" or "3 min 5 s".
+     * 
+     * @param millis The duration in milliseconds
+     * @return The formatted duration
+     */
+    private String formatDuration(long millis) {
+        if (millis < 1000) {
+            return millis + " ms";
+        }
+        if (millis < 60_000) {
+            return String.format(Locale.GERMAN, "%.1f s", millis / 1000.0);
+        }
+        return (millis / 60_000) + " min " + (millis % 60_000 / 1000) + " s";
+    }
+    
+    /**
+     * Formats a duration in seconds as milliseconds.
+     * 
+     * @param seconds The duration in seconds
+     * @return The formatted duration, e.g. "12 ms"
+     */
+    private String formatMillis(double seconds) {
+        return Math.round(seconds * 1000) + " ms";
     }
 
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (args.length == 1) {
-            List<String> completions = Arrays.asList("reload", "status", "convertproduct", "addcommand", "removecommand", "deleteproduct", "listproducts");
+            List<String> completions = sender.hasPermission("mineshopify.admin")
+                    ? Arrays.asList("reload", "status", "convertproduct", "addcommand", "removecommand", "deleteproduct", "listproducts", "syncproducts", "history", "trace", "ticks", "deadletters", "claim", "storage")
+                    : Arrays.asList("claim");
             return completions.stream()
                     .filter(c -> c.startsWith(args[0].toLowerCase()))
                     .collect(Collectors.toList());
-        } else if (args.length == 2 && (args[0].equalsIgnoreCase("convertproduct") || 
-                                       args[0].equalsIgnoreCase("addcommand") || 
+        } else if (!sender.hasPermission("mineshopify.admin")) {
+            // Package and product names are only completed for admins
+            return new ArrayList<>();
+        } else if (args.length >= 2 && args[0].equalsIgnoreCase("convertproduct")) {
+            // Product names may contain spaces, complete the whole name and return the part from the current word on
+            String typed = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+            int wordStart = typed.lastIndexOf(' ') + 1;
+            refreshCompletionIndex();
+            List<String> completions = new ArrayList<>();
+            for (PrefixTrie index : Arrays.asList(packageIndex, productIndex)) {
+                for (String name : index.complete(typed, MAX_COMPLETIONS)) {
+                    completions.add(name.substring(wordStart));
+                }
+            }
+            return completions;
+        } else if (args.length == 2 && (args[0].equalsIgnoreCase("addcommand") || 
                                        args[0].equalsIgnoreCase("removecommand") ||
                                        args[0].equalsIgnoreCase("deleteproduct"))) {
-            // Get all package names from config for tab completion
-            if (plugin.getConfig().contains("packages")) {
-                return plugin.getConfig().getConfigurationSection("packages").getKeys(false).stream()
-                        .filter(c -> c.toLowerCase().startsWith(args[1].toLowerCase()))
-                        .collect(Collectors.toList());
+            // Get package names from the catalog for tab completion
+            refreshCompletionIndex();
+            return packageIndex.complete(args[1], MAX_COMPLETIONS);
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("deadletters")) {
+            return "replay".startsWith(args[1].toLowerCase()) ? Arrays.asList("replay") : new ArrayList<>();
+        } else if (args.length == 3 && args[0].equalsIgnoreCase("deadletters") && args[1].equalsIgnoreCase("replay")) {
+            List<String> ids = new ArrayList<>();
+            ids.add("all");
+            for (FailedDispatch dispatch : plugin.getRetryManager().getDeadLetters()) {
+                ids.add(String.valueOf(dispatch.getId()));
             }
+            return ids.stream()
+                    .filter(c -> c.startsWith(args[2].toLowerCase()))
+                    .collect(Collectors.toList());
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("storage")) {
+            return "migrate".startsWith(args[1].toLowerCase()) ? Arrays.asList("migrate") : new ArrayList<>();
+        } else if ((args.length == 3 || args.length == 4) && args[0].equalsIgnoreCase("storage")) {
+            return Arrays.asList("file", "mysql").stream()
+                    .filter(c -> c.startsWith(args[args.length - 1].toLowerCase()))
+                    .collect(Collectors.toList());
         } else if (args.length == 3 && args[0].equalsIgnoreCase("removecommand")) {
             // Get command indices for the specified product
             String productName = args[1];
-            if (plugin.getConfig().contains("packages." + productName)) {
-                List<String> commands = plugin.getConfig().getStringList("packages." + productName + ".commands");
+            if (plugin.getPackageCatalog().contains(productName)) {
+                List<String> commands = plugin.getPackageCatalog().getCommands(productName);
                 List<String> indices = new ArrayList<>();
                 for (int i = 0; i < commands.size(); i++) {
                     indices.add(String.valueOf(i));
@@ -228,7 +587,93 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
     }
     
     /**
-     * Converts a product to the config.yml format and shows the result to the player.
+     * Rebuilds the completion indexes if the package catalog or the synced products changed.
+     * Packages are indexed by name, Shopify products by the line item names of their
+     * variants, as long as they are not configured as a package yet.
+     */
+    private void refreshCompletionIndex() {
+        ProductSync productSync = plugin.getShopifyManager().getProductSync();
+        int catalogVersion = plugin.getPackageCatalog().getVersion();
+        int productVersion = productSync.getVersion();
+        if (catalogVersion == indexedCatalogVersion && productVersion == indexedProductVersion) {
+            return;
+        }
+        
+        PrefixTrie packages = new PrefixTrie();
+        for (String packageName : plugin.getPackageCatalog().getPackageNames()) {
+            packages.add(packageName);
+        }
+        PrefixTrie products = new PrefixTrie();
+        for (ShopifyProduct product : productSync.getProducts()) {
+            for (ShopifyProduct.Variant variant : product.getVariants()) {
+                String name = variant.getLineItemName(product);
+                if (!plugin.getPackageCatalog().contains(name)) {
+                    products.add(name);
+                }
+            }
+        }
+        packageIndex = packages;
+        productIndex = products;
+        indexedCatalogVersion = catalogVersion;
+        indexedProductVersion = productVersion;
+    }
+    
+    /**
+     * Starts a product sync from Shopify and reports the result.
+     * 
+     * @param sender The command sender
+     */
+    private void syncProducts(CommandSender sender) {
+        sender.sendMessage(MineShopify.PREFIX + "Synchronisiere Produkte aus Shopify...");
+        ProductSync productSync = plugin.getShopifyManager().getProductSync();
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            boolean synced = productSync.sync();
+            plugin.getTickProfiler().runTask(TickProfiler.COMMAND, () -> {
+                if (synced) {
+                    sender.sendMessage(MineShopify.PREFIX + ChatColor.GREEN + productSync.getProducts().size() + " Produkte synchronisiert.");
+                } else {
+                    sender.sendMessage(ChatColor.RED + "Die Produkte konnten nicht synchronisiert werden. Details stehen in der Konsole.");
+                }
+            });
+        });
+    }
+    
+    /**
+     * Creates packages for a synced Shopify product that is not configured yet.
+     * A product with several variants gets one package per variant, since Shopify
+     * names the line items of an order after the variant.
+     * 
+     * @param player The player executing the command
+     * @param productName The title, SKU or id of the product or variant
+     * @return The name of the created package, or null if nothing was created
+     */
+    private String mapSyncedProduct(Player player, String productName) {
+        ProductSync productSync = plugin.getShopifyManager().getProductSync();
+        ShopifyProduct.Variant variant = productSync.findVariant(productName);
+        ShopifyProduct product = variant != null ? productSync.productOf(variant) : productSync.findProduct(productName);
+        if (product == null) {
+            return null;
+        }
+        
+        List<ShopifyProduct.Variant> variants = variant != null ? Arrays.asList(variant) : product.getVariants();
+        String firstCreated = null;
+        for (ShopifyProduct.Variant mapped : variants) {
+            String packageName = mapped.getLineItemName(product);
+            if (plugin.getPackageCatalog().contains(packageName)) {
+                continue;
+            }
+            plugin.getPackageCatalog().setCommands(packageName, new ArrayList<>());
+            player.sendMessage(ChatColor.GREEN + "Produkt '" + packageName + "' aus Shopify übernommen"
+                    + ChatColor.GRAY + " (ID " + mapped.getId() + (mapped.getSku().isEmpty() ? "" : ", SKU " + mapped.getSku()) + ")");
+            if (firstCreated == null) {
+                firstCreated = packageName;
+            }
+        }
+        return firstCreated;
+    }
+    
+    /**
+     * Converts a product to the packages.yml format and shows the result to the player.
      * 
      * @param player The player executing the command
      * @param productName The name of the product to convert
@@ -236,13 +681,22 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
     private void convertProduct(Player player, String productName) {
         player.sendMessage(MineShopify.PREFIX + "Konvertiere Produkt: " + ChatColor.YELLOW + productName);
         
+        // Create the package in one step if the name belongs to a synced Shopify product
+        if (!plugin.getPackageCatalog().contains(productName)) {
+            String mappedName = mapSyncedProduct(player, productName);
+            if (mappedName != null) {
+                player.sendMessage(ChatColor.YELLOW + "Verwende /mineshopify addcommand " + mappedName + " <Befehl> um Befehle hinzuzufügen.");
+                return;
+            }
+        }
+        
         // Check if the product already exists in the configuration
         boolean productExists = false;
         List<String> existingCommands = new ArrayList<>();
         
-        if (plugin.getConfig().contains("packages." + productName)) {
+        if (plugin.getPackageCatalog().contains(productName)) {
             productExists = true;
-            existingCommands = plugin.getConfig().getStringList("packages." + productName + ".commands");
+            existingCommands = plugin.getPackageCatalog().getCommands(productName);
             player.sendMessage(ChatColor.YELLOW + "Produkt existiert bereits in der Konfiguration.");
         }
         
@@ -264,7 +718,7 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
         
         // Show the YAML configuration to the player
         player.sendMessage(ChatColor.GOLD + "=== Produkt Konfiguration ===");
-        player.sendMessage(ChatColor.GRAY + "Füge folgendes in deine config.yml unter dem 'packages:' Abschnitt ein:");
+        player.sendMessage(ChatColor.GRAY + "Füge folgendes in deine packages.yml unter dem 'packages:' Abschnitt ein:");
         player.sendMessage(ChatColor.WHITE + yamlConfig.toString());
         
         // Show additional instructions
@@ -279,7 +733,8 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
     }
     
     /**
-     * Adds a command to a product in the config.yml.
+     * Adds a command to a product in the packages.yml.
+     * The file is saved asynchronously.
      * 
      * @param player The player executing the command
      * @param productName The name of the product
@@ -289,20 +744,18 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
         player.sendMessage(MineShopify.PREFIX + "Füge Befehl zu Produkt hinzu: " + ChatColor.YELLOW + productName);
         
         // Check if the product exists in the configuration
-        if (!plugin.getConfig().contains("packages." + productName)) {
+        if (!plugin.getPackageCatalog().contains(productName)) {
             // Create new product with this command
             List<String> commands = new ArrayList<>();
             commands.add(command);
-            plugin.getConfig().set("packages." + productName + ".commands", commands);
-            plugin.saveConfig();
+            plugin.getPackageCatalog().setCommands(productName, commands);
             
             player.sendMessage(ChatColor.GREEN + "Neues Produkt '" + productName + "' mit Befehl erstellt: " + command);
         } else {
             // Add command to existing product
-            List<String> commands = plugin.getConfig().getStringList("packages." + productName + ".commands");
+            List<String> commands = plugin.getPackageCatalog().getCommands(productName);
             commands.add(command);
-            plugin.getConfig().set("packages." + productName + ".commands", commands);
-            plugin.saveConfig();
+            plugin.getPackageCatalog().setCommands(productName, commands);
             
             player.sendMessage(ChatColor.GREEN + "Befehl zu Produkt '" + productName + "' hinzugefügt: " + command);
         }
@@ -312,21 +765,21 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
     }
     
     /**
-     * Lists all products configured in the config.yml file.
+     * Lists all products configured in the packages.yml file.
      * 
      * @param sender The command sender
      */
     private void listProducts(CommandSender sender) {
         sender.sendMessage(ChatColor.GOLD + "=== Konfigurierte Produkte ===");
         
-        if (!plugin.getConfig().contains("packages") || plugin.getConfig().getConfigurationSection("packages").getKeys(false).isEmpty()) {
+        if (plugin.getPackageCatalog().getPackageNames().isEmpty()) {
             sender.sendMessage(ChatColor.RED + "Keine Produkte konfiguriert.");
             return;
         }
         
         // Get all products from config
-        for (String productName : plugin.getConfig().getConfigurationSection("packages").getKeys(false)) {
-            List<String> commands = plugin.getConfig().getStringList("packages." + productName + ".commands");
+        for (String productName : plugin.getPackageCatalog().getPackageNames()) {
+            List<String> commands = plugin.getPackageCatalog().getCommands(productName);
             sender.sendMessage(ChatColor.YELLOW + productName + ChatColor.GRAY + " (§f" + commands.size() + "§7 Befehle)");
             
             // Always show commands with indices
@@ -341,7 +794,8 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
     }
     
     /**
-     * Removes a command from a product in the config.yml.
+     * Removes a command from a product in the packages.yml.
+     * The file is saved asynchronously.
      * 
      * @param player The player executing the command
      * @param productName The name of the product
@@ -351,13 +805,13 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
         player.sendMessage(MineShopify.PREFIX + "Entferne Befehl von Produkt: " + ChatColor.YELLOW + productName);
         
         // Check if the product exists in the configuration
-        if (!plugin.getConfig().contains("packages." + productName)) {
+        if (!plugin.getPackageCatalog().contains(productName)) {
             player.sendMessage(ChatColor.RED + "Produkt '" + productName + "' existiert nicht in der Konfiguration.");
             return;
         }
         
         // Get commands for the product
-        List<String> commands = plugin.getConfig().getStringList("packages." + productName + ".commands");
+        List<String> commands = plugin.getPackageCatalog().getCommands(productName);
         
         // Check if the command index is valid
         if (commandIndex < 0 || commandIndex >= commands.size()) {
@@ -369,9 +823,8 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
         String removedCommand = commands.get(commandIndex);
         commands.remove(commandIndex);
         
-        // Update the config
-        plugin.getConfig().set("packages." + productName + ".commands", commands);
-        plugin.saveConfig();
+        // Update the catalog
+        plugin.getPackageCatalog().setCommands(productName, commands);
         
         player.sendMessage(ChatColor.GREEN + "Befehl von Produkt '" + productName + "' entfernt: " + removedCommand);
         
@@ -380,7 +833,155 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
     }
     
     /**
-     * Deletes a product from the config.yml.
+     * Shows a page of the purchase history of a player or an order.
+     * The lookup runs asynchronously; the result is sent on the main thread.
+     * 
+     * @param sender The command sender
+     * @param query The player name or order id
+     * @param page The page to show, starting at 1
+     */
+    private void showHistory(CommandSender sender, String query, int page) {
+        if (!plugin.getStorageManager().isReady()) {
+            sender.sendMessage(ChatColor.RED + "Der Speicher ist noch nicht bereit. Bitte versuche es gleich erneut.");
+            return;
+        }
+        
+        plugin.getHistoryManager().lookup(query, page).whenComplete((result, error) ->
+                plugin.getTickProfiler().runTask(TickProfiler.COMMAND, () -> {
+                    if (error != null) {
+                        plugin.getLogger().log(Level.WARNING, "History lookup for " + query + " failed", error);
+                        sender.sendMessage(ChatColor.RED + "Die Kaufhistorie konnte nicht geladen werden. Bitte versuche es später erneut.");
+                        return;
+                    }
+                    sendHistoryPage(sender, result);
+                }));
+    }
+    
+    /**
+     * Sends a page of the purchase history to a command sender.
+     * 
+     * @param sender The command sender
+     * @param result The loaded page
+     */
+    private void sendHistoryPage(CommandSender sender, HistoryPage result) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm");
+        String title = result.isOrderLookup() ? "Bestellung " + result.getQuery() : "Käufe von " + result.getQuery();
+        sender.sendMessage(ChatColor.GOLD + "=== " + title + " (Seite " + result.getPage() + ") ===");
+        
+        if (result.getOrders().isEmpty()) {
+            if (result.isArchived()) {
+                sender.sendMessage(ChatColor.YELLOW + "Die Bestellung wurde verarbeitet und ist bereits archiviert.");
+            } else {
+                sender.sendMessage(ChatColor.RED + (result.getPage() > 1 ? "Keine weiteren Einträge." : "Keine Käufe gefunden."));
+            }
+            return;
+        }
+        
+        for (Order order : result.getOrders()) {
+            sender.sendMessage(ChatColor.GRAY + dateFormat.format(new Date(order.getCreatedAt())) + " "
+                    + ChatColor.YELLOW + order.getOrderId() + ChatColor.GRAY + " | "
+                    + ChatColor.WHITE + order.getPackageName() + ChatColor.GRAY + " | "
+                    + ChatColor.WHITE + order.getUsername());
+        }
+        
+        if (result.hasNextPage()) {
+            sender.sendMessage(ChatColor.GRAY + "Verwende /mineshopify history " + result.getQuery() + " " + (result.getPage() + 1) + " für die nächste Seite.");
+        }
+    }
+    
+    /**
+     * Shows the failed commands waiting for a retry and the dead letters.
+     * 
+     * @param sender The command sender
+     */
+    private void showDeadLetters(CommandSender sender) {
+        RetryManager retryManager = plugin.getRetryManager();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm");
+        List<FailedDispatch> queued = retryManager.getQueued();
+        List<FailedDispatch> deadLetters = retryManager.getDeadLetters();
+        sender.sendMessage(ChatColor.GOLD + "=== Fehlgeschlagene Befehle ===");
+        
+        if (!queued.isEmpty()) {
+            long now = System.currentTimeMillis();
+            sender.sendMessage(ChatColor.YELLOW + "Warten auf Wiederholung: " + ChatColor.WHITE + queued.size());
+            for (FailedDispatch dispatch : queued.subList(0, Math.min(5, queued.size()))) {
+                sender.sendMessage(ChatColor.GRAY + "#" + dispatch.getId() + " " + ChatColor.WHITE + dispatch.getCommand()
+                        + ChatColor.GRAY + " | Versuch " + (dispatch.getAttempts() + 1) + " in "
+                        + formatDuration(Math.max(0, dispatch.getNextAttemptAt() - now)));
+            }
+        }
+        
+        if (deadLetters.isEmpty()) {
+            sender.sendMessage(ChatColor.GREEN + "Keine aufgegebenen Befehle.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Aufgegeben: " + ChatColor.WHITE + deadLetters.size());
+        for (FailedDispatch dispatch : deadLetters.subList(Math.max(0, deadLetters.size() - 10), deadLetters.size())) {
+            sender.sendMessage(ChatColor.GRAY + "#" + dispatch.getId() + " " + dateFormat.format(new Date(dispatch.getFirstFailedAt())) + " "
+                    + ChatColor.YELLOW + dispatch.getOrderId() + ChatColor.GRAY + " | "
+                    + ChatColor.WHITE + dispatch.getPlayerName() + ChatColor.GRAY + " | "
+                    + ChatColor.WHITE + dispatch.getCommand());
+            sender.sendMessage(ChatColor.GRAY + "   " + dispatch.getAttempts() + " Versuche, zuletzt: " + ChatColor.RED + dispatch.getLastError());
+        }
+        sender.sendMessage(ChatColor.GRAY + "Verwende /mineshopify deadletters replay <Nummer|all>, nachdem die Ursache behoben ist.");
+    }
+    
+    /**
+     * Moves dead letters back into the retry queue.
+     * 
+     * @param sender The command sender
+     * @param target The number of the dead letter or "all"
+     */
+    private void replayDeadLetters(CommandSender sender, String target) {
+        Integer id = null;
+        if (!target.equalsIgnoreCase("all")) {
+            try {
+                id = Integer.parseInt(target.startsWith("#") ? target.substring(1) : target);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(ChatColor.RED + "Die Nummer muss eine Zahl oder all sein.");
+                return;
+            }
+        }
+        
+        int replayed = plugin.getRetryManager().replay(id);
+        if (replayed == 0) {
+            sender.sendMessage(ChatColor.RED + "Kein passender aufgegebener Befehl gefunden.");
+        } else {
+            sender.sendMessage(MineShopify.PREFIX + "§a" + replayed + " Befehl(e) werden in der nächsten Sekunde erneut ausgeführt.");
+        }
+    }
+    
+    /**
+     * Starts a migration of all orders between two storage backends.
+     * 
+     * @param sender The command sender who receives the progress reports
+     * @param from The source backend ("file" or "mysql")
+     * @param to The target backend ("file" or "mysql")
+     */
+    private void migrateStorage(CommandSender sender, String from, String to) {
+        List<String> types = Arrays.asList("file", "mysql");
+        if (!types.contains(from) || !types.contains(to)) {
+            sender.sendMessage(ChatColor.RED + "Unbekannter Speicher-Typ. Erlaubt sind: file, mysql");
+            return;
+        }
+        if (from.equals(to)) {
+            sender.sendMessage(ChatColor.RED + "Quelle und Ziel müssen unterschiedlich sein.");
+            return;
+        }
+        if (!plugin.getStorageManager().isReady()) {
+            sender.sendMessage(ChatColor.RED + "Der Speicher ist noch nicht bereit. Bitte versuche es gleich erneut.");
+            return;
+        }
+        if (!plugin.getStorageManager().startMigration(sender, from, to)) {
+            sender.sendMessage(ChatColor.RED + "Es läuft bereits eine Migration.");
+            return;
+        }
+        sender.sendMessage(MineShopify.PREFIX + "Migration wird im Hintergrund gestartet. Der Fortschritt wird regelmäßig angezeigt.");
+    }
+    
+    /**
+     * Deletes a product from the packages.yml.
+     * The file is saved asynchronously.
      * 
      * @param player The player executing the command
      * @param productName The name of the product to delete
@@ -389,18 +990,17 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
         player.sendMessage(MineShopify.PREFIX + "Lösche Produkt: " + ChatColor.YELLOW + productName);
         
         // Check if the product exists in the configuration
-        if (!plugin.getConfig().contains("packages." + productName)) {
+        if (!plugin.getPackageCatalog().contains(productName)) {
             player.sendMessage(ChatColor.RED + "Produkt '" + productName + "' existiert nicht in der Konfiguration.");
             return;
         }
         
         // Get commands for the product to show what will be deleted
-        List<String> commands = plugin.getConfig().getStringList("packages." + productName + ".commands");
+        List<String> commands = plugin.getPackageCatalog().getCommands(productName);
         player.sendMessage(ChatColor.YELLOW + "Das Produkt hat " + commands.size() + " Befehle, die gelöscht werden.");
         
         // Delete the product
-        plugin.getConfig().set("packages." + productName, null);
-        plugin.saveConfig();
+        plugin.getPackageCatalog().remove(productName);
         
         player.sendMessage(ChatColor.GREEN + "Produkt '" + productName + "' wurde erfolgreich aus der Konfiguration gelöscht.");
         
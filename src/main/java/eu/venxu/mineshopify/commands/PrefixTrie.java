@@ -0,0 +1,80 @@
+package eu.venxu.mineshopify.commands;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive prefix index used for tab completion.
+ * The trie is built once when its source changes and only read afterwards,
+ * so a keystroke costs a walk down the typed prefix instead of a scan over all names.
+ */
+public class PrefixTrie {
+
+    private final Node root = new Node();
+
+    /**
+     * Add a value to the index.
+     *
+     * @param value The value, returned in its original case.
+     */
+    public void add(String value) {
+        Node node = root;
+        for (char c : value.toLowerCase(Locale.ROOT).toCharArray()) {
+            node = node.children.computeIfAbsent(c, key -> new Node());
+        }
+        if (node.values == null) {
+            node.values = new ArrayList<>(1);
+        }
+        if (!node.values.contains(value)) {
+            node.values.add(value);
+        }
+    }
+
+    /**
+     * Find the values starting with a prefix, ignoring case.
+     *
+     * @param prefix The typed prefix.
+     * @param limit The maximum number of values to return.
+     * @return The matching values in alphabetical order.
+     */
+    public List<String> complete(String prefix, int limit) {
+        List<String> matches = new ArrayList<>();
+        Node node = root;
+        for (char c : prefix.toLowerCase(Locale.ROOT).toCharArray()) {
+            node = node.children.get(c);
+            if (node == null) {
+                return matches;
+            }
+        }
+
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty() && matches.size() < limit) {
+            Node current = stack.pop();
+            if (current.values != null) {
+                for (String value : current.values) {
+                    if (matches.size() == limit) {
+                        break;
+                    }
+                    matches.add(value);
+                }
+            }
+            // Push in reverse so children are visited in alphabetical order
+            List<Node> children = new ArrayList<>(current.children.values());
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+        return matches;
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new TreeMap<>();
+        private List<String> values;
+    }
+}
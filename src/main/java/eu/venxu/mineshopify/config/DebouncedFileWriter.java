@@ -0,0 +1,109 @@
+package eu.venxu.mineshopify.config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a file on a background thread, at most once per delay.
+ * Every call replaces the pending content, so a burst of edits results in a single
+ * write of the latest state. The content is written to a temporary file first and
+ * then moved over the target, so a crash during a save never leaves a partial file.
+ */
+public class DebouncedFileWriter {
+
+    private final File file;
+    private final long delayMillis;
+    private final Logger logger;
+    private final ScheduledExecutorService executor;
+    private final Object writeLock = new Object();
+    private String pendingContent;
+    private boolean scheduled;
+
+    /**
+     * Create a writer for the given file.
+     *
+     * @param file The file that is written.
+     * @param delayMillis The time in milliseconds changes are collected before they are written.
+     * @param logger The logger write failures are reported to.
+     */
+    public DebouncedFileWriter(File file, long delayMillis, Logger logger) {
+        this.file = file;
+        this.delayMillis = delayMillis;
+        this.logger = logger;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MineShopify-Writer-" + file.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedule the content to be written. Replaces content that has not been written yet.
+     *
+     * @param content The complete new content of the file.
+     */
+    public synchronized void write(String content) {
+        pendingContent = content;
+        if (!scheduled) {
+            scheduled = true;
+            executor.schedule(this::writePending, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write pending content immediately on the calling thread.
+     */
+    public void flush() {
+        writePending();
+    }
+
+    /**
+     * Write pending content and stop the background thread.
+     */
+    public void close() {
+        executor.shutdown();
+        flush();
+    }
+
+    private void writePending() {
+        synchronized (writeLock) {
+            String content;
+            synchronized (this) {
+                content = pendingContent;
+                pendingContent = null;
+                scheduled = false;
+            }
+            if (content == null) {
+                return;
+            }
+            try {
+                writeAtomically(content);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to save " + file.getName(), e);
+            }
+        }
+    }
+
+    private void writeAtomically(String content) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package eu.venxu.mineshopify.config;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.profiler.TickProfiler;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * The packages sold in the Shopify store and the commands executed for them.
+ * The catalog lives in packages.yml, separate from config.yml, and edits are
+ * saved asynchronously through a {@link DebouncedFileWriter}.
+ */
+public class PackageCatalog {
+
+    private static final String FILE_NAME = "packages.yml";
+    private static final String ROOT = "packages";
+    private static final long SAVE_DELAY = 1000;
+
+    private final MineShopify mineShopify;
+    private final File catalogFile;
+    private final DebouncedFileWriter writer;
+    private YamlConfiguration catalog = new YamlConfiguration();
+    private int version;
+
+    /**
+     * Load the package catalog, creating packages.yml if it does not exist yet.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public PackageCatalog(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        this.catalogFile = new File(mineShopify.getDataFolder(), FILE_NAME);
+        this.writer = new DebouncedFileWriter(catalogFile, SAVE_DELAY, mineShopify.getLogger());
+        createCatalogFile();
+        reload();
+    }
+
+    /**
+     * Reload packages.yml from disk. Edits that were not saved yet are written first.
+     */
+    public void reload() {
+        writer.flush();
+        catalog = YamlConfiguration.loadConfiguration(catalogFile);
+        version++;
+    }
+
+    /**
+     * Get a counter that changes whenever the catalog changes.
+     * Used to detect when derived indexes have to be rebuilt.
+     *
+     * @return The version of the catalog.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the names of all configured packages.
+     *
+     * @return The package names in the order of the file.
+     */
+    public Set<String> getPackageNames() {
+        ConfigurationSection packages = catalog.getConfigurationSection(ROOT);
+        return packages == null ? Collections.emptySet() : packages.getKeys(false);
+    }
+
+    /**
+     * Check if a package is configured.
+     *
+     * @param packageName The name of the package.
+     * @return True if the package exists in the catalog.
+     */
+    public boolean contains(String packageName) {
+        return getPackage(packageName) != null;
+    }
+
+    /**
+     * Get the configuration of a package.
+     *
+     * @param packageName The name of the package.
+     * @return The configuration section of the package, or null if it does not exist.
+     */
+    public ConfigurationSection getPackage(String packageName) {
+        ConfigurationSection packages = catalog.getConfigurationSection(ROOT);
+        return packages == null ? null : packages.getConfigurationSection(packageName);
+    }
+
+    /**
+     * Get the commands of a package.
+     *
+     * @param packageName The name of the package.
+     * @return A modifiable copy of the commands, empty if the package does not exist.
+     */
+    public List<String> getCommands(String packageName) {
+        ConfigurationSection packageConfig = getPackage(packageName);
+        return packageConfig == null ? new ArrayList<>() : new ArrayList<>(packageConfig.getStringList("commands"));
+    }
+
+    /**
+     * Replace the commands of a package, creating the package if needed, and schedule a save.
+     *
+     * @param packageName The name of the package.
+     * @param commands The new commands.
+     */
+    public void setCommands(String packageName, List<String> commands) {
+        ConfigurationSection packages = catalog.getConfigurationSection(ROOT);
+        if (packages == null) {
+            packages = catalog.createSection(ROOT);
+        }
+        ConfigurationSection packageConfig = packages.getConfigurationSection(packageName);
+        if (packageConfig == null) {
+            packageConfig = packages.createSection(packageName);
+        }
+        packageConfig.set("commands", commands);
+        save();
+    }
+
+    /**
+     * Remove a package and schedule a save.
+     *
+     * @param packageName The name of the package.
+     */
+    public void remove(String packageName) {
+        ConfigurationSection packages = catalog.getConfigurationSection(ROOT);
+        if (packages != null) {
+            packages.set(packageName, null);
+            save();
+        }
+    }
+
+    /**
+     * Write pending edits and stop the writer thread.
+     */
+    public void close() {
+        writer.close();
+    }
+
+    /**
+     * Snapshot the catalog on the calling thread and hand it to the background writer.
+     */
+    private void save() {
+        version++;
+        mineShopify.getTickProfiler().run(TickProfiler.CATALOG_SAVE, () -> writer.write(catalog.saveToString()));
+    }
+
+    /**
+     * Create packages.yml on the first start. Packages configured in config.yml
+     * by earlier versions are moved over, otherwise the example catalog is used.
+     */
+    private void createCatalogFile() {
+        if (catalogFile.exists()) {
+            return;
+        }
+        ConfigurationSection legacyPackages = mineShopify.getConfig().getConfigurationSection(ROOT);
+        if (legacyPackages == null) {
+            mineShopify.saveResource(FILE_NAME, false);
+            return;
+        }
+
+        YamlConfiguration migrated = new YamlConfiguration();
+        for (String packageName : legacyPackages.getKeys(false)) {
+            migrated.set(ROOT + "." + packageName + ".commands", legacyPackages.getStringList(packageName + ".commands"));
+        }
+        try {
+            migrated.save(catalogFile);
+            mineShopify.getLogger().info("Moved " + legacyPackages.getKeys(false).size() + " packages from config.yml to " + FILE_NAME
+                    + ". The packages section in config.yml is no longer used and can be removed.");
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to create " + FILE_NAME, e);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package eu.venxu.mineshopify.config;
+
+import eu.venxu.mineshopify.log.EventCategory;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Immutable snapshot of the settings read on hot paths, built once per load of config.yml.
+ * Readers fetch the current snapshot once and use it for the whole operation,
+ * so a reload in between never mixes old and new values.
+ */
+public final class Settings {
+
+    /**
+     * Upper limit of orders per request enforced by the Shopify REST API.
+     */
+    private static final int SHOPIFY_MAX_LIMIT = 250;
+
+    private final boolean debug;
+    private final boolean autoReload;
+    private final String shopifyDomain;
+    private final String shopifyToken;
+    private final String apiUrl;
+    private final int pollInterval;
+    private final int maxOrders;
+    private final int daysToCheck;
+    private final int storageTimeout;
+    private final boolean ledgerEnabled;
+    private final boolean ledgerSync;
+    private final int ledgerCompactAfter;
+    private final int historyPageSize;
+    private final int historyCacheSize;
+    private final int historyCacheTtl;
+    private final boolean mailboxEnabled;
+    private final double mailboxClaimBudgetMs;
+    private final int mailboxPageSize;
+    private final int retryMaxAttempts;
+    private final int retryInitialDelay;
+    private final int retryMaxDelay;
+    private final boolean eventLogEnabled;
+    private final Map<EventCategory, Level> eventLogLevels = new EnumMap<>(EventCategory.class);
+    private final int eventLogMaxFileSize;
+    private final int eventLogMaxFiles;
+    private final int eventLogBufferSize;
+
+    /**
+     * Read all settings, adding a message to the errors for every invalid value.
+     */
+    private Settings(ConfigurationSection config, List<String> errors) {
+        debug = readBoolean(config, "debug", false, errors);
+        autoReload = readBoolean(config, "auto_reload", true, errors);
+        shopifyDomain = config.getString("shopify.domain", "").trim();
+        shopifyToken = config.getString("shopify.token", "").trim();
+        pollInterval = readInt(config, "shopify.scheduler", 60, 5, Integer.MAX_VALUE, errors);
+        maxOrders = readInt(config, "shopify.max_orders", 50, 1, SHOPIFY_MAX_LIMIT, errors);
+        daysToCheck = readInt(config, "shopify.days_to_check", 1, 1, 365, errors);
+
+        if (shopifyDomain.contains("://") || shopifyDomain.contains("/")) {
+            errors.add("shopify.domain must be the bare domain without https:// or a path, e.g. my-shop.myshopify.com");
+        }
+        String url = config.getString("shopify.api_url", "").trim();
+        if (url.isEmpty()) {
+            url = "https://" + shopifyDomain;
+        } else if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            errors.add("shopify.api_url must start with http:// or https://, e.g. http://127.0.0.1:8089");
+        } else if (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        apiUrl = url;
+
+        storageTimeout = readInt(config, "storage.async.timeout", 10, 1, Integer.MAX_VALUE, errors);
+        ledgerEnabled = readBoolean(config, "storage.ledger.enabled", true, errors);
+        ledgerSync = readBoolean(config, "storage.ledger.sync", false, errors);
+        ledgerCompactAfter = readInt(config, "storage.ledger.compact_after", 10000, 100, Integer.MAX_VALUE, errors);
+
+        historyPageSize = readInt(config, "history.page_size", 8, 1, Integer.MAX_VALUE, errors);
+        historyCacheSize = readInt(config, "history.cache_size", 32, 1, Integer.MAX_VALUE, errors);
+        historyCacheTtl = readInt(config, "history.cache_ttl", 30, 0, Integer.MAX_VALUE, errors);
+
+        mailboxEnabled = readBoolean(config, "mailbox.enabled", true, errors);
+        mailboxClaimBudgetMs = readDouble(config, "mailbox.claim_budget_ms", 1.0, 0, 50, errors);
+        mailboxPageSize = readInt(config, "mailbox.page_size", 100, 1, Integer.MAX_VALUE, errors);
+
+        retryMaxAttempts = readInt(config, "retries.max_attempts", 5, 1, Integer.MAX_VALUE, errors);
+        retryInitialDelay = readInt(config, "retries.initial_delay", 10, 1, Integer.MAX_VALUE, errors);
+        retryMaxDelay = Math.max(retryInitialDelay, readInt(config, "retries.max_delay", 600, 1, Integer.MAX_VALUE, errors));
+
+        eventLogEnabled = readBoolean(config, "event_log.enabled", true, errors);
+        for (EventCategory category : EventCategory.values()) {
+            eventLogLevels.put(category, readLevel(config, "event_log.levels." + category.getLabel(), Level.INFO, errors));
+        }
+        eventLogMaxFileSize = readInt(config, "event_log.max_file_size", 10, 1, Integer.MAX_VALUE, errors);
+        eventLogMaxFiles = readInt(config, "event_log.max_files", 10, 1, Integer.MAX_VALUE, errors);
+        eventLogBufferSize = readInt(config, "event_log.buffer_size", 4096, 64, Integer.MAX_VALUE, errors);
+    }
+
+    /**
+     * Build and validate a snapshot from a configuration.
+     *
+     * @param config The configuration to read, usually the content of config.yml.
+     * @return The settings.
+     * @throws SettingsException If one or more values are invalid.
+     */
+    public static Settings load(ConfigurationSection config) throws SettingsException {
+        List<String> errors = new ArrayList<>();
+        Settings settings = new Settings(config, errors);
+        if (!errors.isEmpty()) {
+            throw new SettingsException(errors);
+        }
+        return settings;
+    }
+
+    /**
+     * Create a snapshot with the default values, used when config.yml is invalid at startup.
+     *
+     * @return The default settings.
+     */
+    public static Settings defaults() {
+        return new Settings(new YamlConfiguration(), new ArrayList<>());
+    }
+
+    private static boolean readBoolean(ConfigurationSection config, String path, boolean def, List<String> errors) {
+        if (config.contains(path) && !config.isBoolean(path)) {
+            errors.add(path + " must be true or false");
+            return def;
+        }
+        return config.getBoolean(path, def);
+    }
+
+    private static int readInt(ConfigurationSection config, String path, int def, int min, int max, List<String> errors) {
+        if (config.contains(path) && !config.isInt(path)) {
+            errors.add(path + " must be a whole number");
+            return def;
+        }
+        int value = config.getInt(path, def);
+        if (value < min || value > max) {
+            errors.add(path + " must be between " + min + " and " + max + " (is " + value + ")");
+            return def;
+        }
+        return value;
+    }
+
+    private static double readDouble(ConfigurationSection config, String path, double def, double min, double max, List<String> errors) {
+        if (config.contains(path) && !config.isDouble(path) && !config.isInt(path)) {
+            errors.add(path + " must be a number");
+            return def;
+        }
+        double value = config.getDouble(path, def);
+        if (value < min || value > max) {
+            errors.add(path + " must be between " + min + " and " + max + " (is " + value + ")");
+            return def;
+        }
+        return value;
+    }
+
+    private static Level readLevel(ConfigurationSection config, String path, Level def, List<String> errors) {
+        String name = config.getString(path, def.getName());
+        try {
+            return Level.parse(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            errors.add(path + " must be a log level like INFO, FINE or WARNING (is " + name + ")");
+            return def;
+        }
+    }
+
+    /**
+     * Check if debug logging is enabled.
+     *
+     * @return True if debug mode is enabled.
+     */
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Check if config.yml is reloaded automatically when it changes on disk.
+     *
+     * @return True if the file is watched.
+     */
+    public boolean isAutoReload() {
+        return autoReload;
+    }
+
+    /**
+     * Get the domain of the Shopify store.
+     *
+     * @return The domain, empty if not configured.
+     */
+    public String getShopifyDomain() {
+        return shopifyDomain;
+    }
+
+    /**
+     * Get the Shopify Admin API token.
+     *
+     * @return The token, empty if not configured.
+     */
+    public String getShopifyToken() {
+        return shopifyToken;
+    }
+
+    /**
+     * Get the base URL of the Admin API, https:// and the domain unless shopify.api_url overrides it.
+     *
+     * @return The URL without a trailing slash, e.g. https://my-shop.myshopify.com.
+     */
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Get the time between two order polls.
+     *
+     * @return The poll interval in seconds.
+     */
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Get the maximum number of orders fetched per poll.
+     *
+     * @return The request limit.
+     */
+    public int getMaxOrders() {
+        return maxOrders;
+    }
+
+    /**
+     * Get the number of days in the past orders are fetched for.
+     *
+     * @return The number of days.
+     */
+    public int getDaysToCheck() {
+        return daysToCheck;
+    }
+
+    /**
+     * Get the time after which a storage read is abandoned.
+     *
+     * @return The timeout in seconds.
+     */
+    public int getStorageTimeout() {
+        return storageTimeout;
+    }
+
+    /**
+     * Check if deliveries are recorded in the delivery ledger.
+     * Only read when the storage is set up.
+     *
+     * @return True if the ledger is enabled.
+     */
+    public boolean isLedgerEnabled() {
+        return ledgerEnabled;
+    }
+
+    /**
+     * Check if every ledger append is forced to disk.
+     *
+     * @return True if the ledger syncs after each append.
+     */
+    public boolean isLedgerSync() {
+        return ledgerSync;
+    }
+
+    /**
+     * Get the number of ledger appends after which the ledger is compacted.
+     *
+     * @return The number of appends.
+     */
+    public int getLedgerCompactAfter() {
+        return ledgerCompactAfter;
+    }
+
+    /**
+     * Get the number of orders on one page of /mineshopify history.
+     *
+     * @return The page size.
+     */
+    public int getHistoryPageSize() {
+        return historyPageSize;
+    }
+
+    /**
+     * Get the number of players whose history is cached.
+     *
+     * @return The cache size.
+     */
+    public int getHistoryCacheSize() {
+        return historyCacheSize;
+    }
+
+    /**
+     * Get the time a cached history is used.
+     *
+     * @return The time in seconds.
+     */
+    public int getHistoryCacheTtl() {
+        return historyCacheTtl;
+    }
+
+    /**
+     * Check if undeliverable items go to the mailbox.
+     *
+     * @return True if the mailbox is enabled.
+     */
+    public boolean isMailboxEnabled() {
+        return mailboxEnabled;
+    }
+
+    /**
+     * Get the main thread time a claim may use per tick.
+     *
+     * @return The budget in milliseconds.
+     */
+    public double getMailboxClaimBudgetMs() {
+        return mailboxClaimBudgetMs;
+    }
+
+    /**
+     * Get the number of mailbox entries loaded at once.
+     *
+     * @return The page size.
+     */
+    public int getMailboxPageSize() {
+        return mailboxPageSize;
+    }
+
+    /**
+     * Get the number of attempts before a failed dispatch is given up.
+     *
+     * @return The maximum number of attempts.
+     */
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    /**
+     * Get the delay before the first retry of a failed dispatch.
+     *
+     * @return The delay in seconds.
+     */
+    public int getRetryInitialDelay() {
+        return retryInitialDelay;
+    }
+
+    /**
+     * Get the longest delay between two retries, at least the initial delay.
+     *
+     * @return The delay in seconds.
+     */
+    public int getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    /**
+     * Check if events are written to logs/events.jsonl.
+     *
+     * @return True if the event log file is enabled.
+     */
+    public boolean isEventLogEnabled() {
+        return eventLogEnabled;
+    }
+
+    /**
+     * Get the level from which events of a category are recorded.
+     *
+     * @param category The category.
+     * @return The level, INFO unless configured.
+     */
+    public Level getEventLogLevel(EventCategory category) {
+        return eventLogLevels.get(category);
+    }
+
+    /**
+     * Get the size at which the event log is rotated.
+     *
+     * @return The size in MB.
+     */
+    public int getEventLogMaxFileSize() {
+        return eventLogMaxFileSize;
+    }
+
+    /**
+     * Get the number of rotated event log files that are kept.
+     *
+     * @return The number of files.
+     */
+    public int getEventLogMaxFiles() {
+        return eventLogMaxFiles;
+    }
+
+    /**
+     * Get the number of events buffered for the event log writer.
+     *
+     * @return The buffer size.
+     */
+    public int getEventLogBufferSize() {
+        return eventLogBufferSize;
+    }
+}
@@ -0,0 +1,31 @@
+package eu.venxu.mineshopify.config;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when config.yml contains values that cannot be used.
+ */
+public class SettingsException extends Exception {
+
+    private final List<String> errors;
+
+    /**
+     * Create an exception for the given validation errors.
+     *
+     * @param errors The problems found in the configuration.
+     */
+    public SettingsException(List<String> errors) {
+        super(String.join("; ", errors));
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Get the problems found in the configuration.
+     *
+     * @return The validation errors.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
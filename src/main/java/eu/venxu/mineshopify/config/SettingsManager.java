@@ -0,0 +1,220 @@
+package eu.venxu.mineshopify.config;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.profiler.TickProfiler;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+/**
+ * Publishes the current {@link Settings} snapshot through a single volatile reference.
+ * config.yml is watched for changes while auto_reload is enabled, a changed file is parsed
+ * and validated on the watcher thread and only swapped in on the main thread if it is valid.
+ * The parsed file also replaces the configuration of the plugin, so it is read only once.
+ * Invalid files are reported and the last good snapshot stays active.
+ */
+public class SettingsManager {
+
+    private static final String FILE_NAME = "config.yml";
+    private static final long SETTLE_DELAY = 500;
+
+    private final MineShopify mineShopify;
+    private final File configFile;
+    private final BiConsumer<Settings, Settings> changeListener;
+    private volatile Settings settings;
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    /**
+     * Build the first snapshot from the loaded config.yml.
+     *
+     * @param mineShopify The main plugin instance.
+     * @param changeListener Called on the main thread with the old and new settings after a reload.
+     */
+    public SettingsManager(MineShopify mineShopify, BiConsumer<Settings, Settings> changeListener) {
+        this.mineShopify = mineShopify;
+        this.configFile = new File(mineShopify.getDataFolder(), FILE_NAME);
+        this.changeListener = changeListener;
+        try {
+            settings = Settings.load(mineShopify.getConfig());
+        } catch (SettingsException e) {
+            for (String error : e.getErrors()) {
+                mineShopify.getLogger().severe("Invalid setting in " + FILE_NAME + ": " + error);
+            }
+            mineShopify.getLogger().severe("Using default settings until " + FILE_NAME + " is fixed.");
+            settings = Settings.defaults();
+        }
+    }
+
+    /**
+     * Get the current settings snapshot.
+     *
+     * @return The settings.
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Reload config.yml from disk. Must be called on the main thread.
+     * If the file cannot be parsed or contains invalid values, nothing is changed.
+     *
+     * @return The problems found, empty if the new settings are active.
+     */
+    public List<String> reload() {
+        try {
+            YamlConfiguration config = parse();
+            Settings loaded = Settings.load(config);
+            apply(config, loaded);
+            return Collections.emptyList();
+        } catch (SettingsException e) {
+            return e.getErrors();
+        }
+    }
+
+    /**
+     * Start watching config.yml for changes if auto_reload is enabled.
+     */
+    public void startWatching() {
+        if (!settings.isAutoReload() || watcherThread != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            mineShopify.getDataFolder().toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Could not watch " + FILE_NAME + " for changes, use /mineshopify reload instead", e);
+            return;
+        }
+        WatchService service = watchService;
+        watcherThread = new Thread(() -> watch(service), "MineShopify-ConfigWatcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * Stop watching config.yml.
+     */
+    public void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+                // Nothing left to clean up
+            }
+        }
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+        }
+        watchService = null;
+        watcherThread = null;
+    }
+
+    private void watch(WatchService service) {
+        long lastModified = configFile.lastModified();
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean configChanged = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path && FILE_NAME.equals(event.context().toString())) {
+                        configChanged = true;
+                    }
+                }
+                key.reset();
+                if (!configChanged) {
+                    continue;
+                }
+
+                // Editors save in several steps, wait until the file has settled
+                Thread.sleep(SETTLE_DELAY);
+                WatchKey pending;
+                while ((pending = service.poll(SETTLE_DELAY, TimeUnit.MILLISECONDS)) != null) {
+                    pending.pollEvents();
+                    pending.reset();
+                }
+                if (configFile.lastModified() == lastModified) {
+                    continue;
+                }
+                lastModified = configFile.lastModified();
+                reloadFromWatcher();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The plugin is disabled
+        }
+    }
+
+    /**
+     * Validate the changed file on the watcher thread and swap it in on the main thread.
+     */
+    private void reloadFromWatcher() {
+        YamlConfiguration config;
+        Settings loaded;
+        try {
+            config = parse();
+            loaded = Settings.load(config);
+        } catch (SettingsException e) {
+            for (String error : e.getErrors()) {
+                mineShopify.getLogger().warning("Invalid setting in " + FILE_NAME + ": " + error);
+            }
+            mineShopify.getLogger().warning(FILE_NAME + " changed but was not applied, the previous settings stay active.");
+            return;
+        }
+        if (!mineShopify.isEnabled()) {
+            return;
+        }
+        mineShopify.getTickProfiler().runTask(TickProfiler.SETTINGS, () -> {
+            apply(config, loaded);
+            mineShopify.getLogger().info(FILE_NAME + " changed on disk and was reloaded.");
+        });
+    }
+
+    /**
+     * Read config.yml without touching the configuration the plugin currently uses.
+     *
+     * @return The parsed file.
+     * @throws SettingsException If the file cannot be read or is not valid YAML.
+     */
+    private YamlConfiguration parse() throws SettingsException {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(configFile);
+        } catch (IOException e) {
+            throw new SettingsException(Collections.singletonList("could not read " + FILE_NAME + ": " + e.getMessage()));
+        } catch (InvalidConfigurationException e) {
+            throw new SettingsException(Collections.singletonList(FILE_NAME + " is not valid YAML: " + e.getMessage()));
+        }
+        return config;
+    }
+
+    /**
+     * Swap in the parsed configuration, publish the new snapshot, start or stop watching
+     * if auto_reload changed and notify the listener. Runs on the main thread.
+     */
+    private void apply(YamlConfiguration config, Settings loaded) {
+        mineShopify.applyConfig(config);
+        Settings previous = settings;
+        settings = loaded;
+        if (loaded.isAutoReload() && !previous.isAutoReload()) {
+            startWatching();
+        } else if (!loaded.isAutoReload() && previous.isAutoReload()) {
+            close();
+        }
+        changeListener.accept(previous, loaded);
+    }
+}
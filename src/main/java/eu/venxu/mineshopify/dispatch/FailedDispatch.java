@@ -0,0 +1,181 @@
+package eu.venxu.mineshopify.dispatch;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A package command or action that failed, with the context needed to run it again.
+ * The command is stored rendered, so later edits of the package don't change it.
+ * A failed action also keeps its entry from packages.yml and the quantity, so it is
+ * retried through the Bukkit API; its command is only shown to admins then.
+ */
+public class FailedDispatch {
+
+    private final int id;
+    private final String command;
+    private final String orderId;
+    private final String packageName;
+    private final String playerName;
+    private final long firstFailedAt;
+    private JsonObject action;
+    private int quantity;
+    private int attempts;
+    private long nextAttemptAt;
+    private String lastError;
+
+    FailedDispatch(int id, String command, String orderId, String packageName, String playerName, long firstFailedAt) {
+        this.id = id;
+        this.command = command;
+        this.orderId = orderId;
+        this.packageName = packageName;
+        this.playerName = playerName;
+        this.firstFailedAt = firstFailedAt;
+    }
+
+    /**
+     * Get the number admins use to replay the dispatch.
+     *
+     * @return The id, unique within the retry queue and the dead letters.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the command with all placeholders replaced.
+     *
+     * @return The command without leading slash.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    /**
+     * Get the action that failed.
+     *
+     * @return The entry of the action from packages.yml, or null if a console command failed.
+     */
+    public JsonObject getAction() {
+        return action;
+    }
+
+    /**
+     * Get the purchased quantity the action runs with.
+     *
+     * @return The quantity, 0 for console commands.
+     */
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Keep the action a dispatch replaces, so it is retried natively.
+     *
+     * @param action The entry of the action from packages.yml.
+     * @param quantity The purchased quantity.
+     */
+    void setAction(JsonObject action, int quantity) {
+        this.action = action;
+        this.quantity = quantity;
+    }
+
+    /**
+     * Get the time the command failed for the first time.
+     *
+     * @return The time in milliseconds.
+     */
+    public long getFirstFailedAt() {
+        return firstFailedAt;
+    }
+
+    /**
+     * Get the number of failed dispatches, including the first one.
+     *
+     * @return The number of attempts.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Get the time of the next retry.
+     *
+     * @return The time in milliseconds.
+     */
+    public long getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    /**
+     * Get the reason of the last failure.
+     *
+     * @return The error message.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Record a failed attempt.
+     *
+     * @param error The reason of the failure.
+     * @param nextAttemptAt The time of the next retry in milliseconds.
+     */
+    void failed(String error, long nextAttemptAt) {
+        this.attempts++;
+        this.lastError = error;
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    /**
+     * Reset the attempts for a replay of a dead letter.
+     *
+     * @param nextAttemptAt The time of the replay in milliseconds.
+     */
+    void reset(long nextAttemptAt) {
+        this.attempts = 0;
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("command", command);
+        json.addProperty("orderId", orderId);
+        json.addProperty("packageName", packageName);
+        json.addProperty("playerName", playerName);
+        json.addProperty("firstFailedAt", firstFailedAt);
+        json.addProperty("attempts", attempts);
+        json.addProperty("nextAttemptAt", nextAttemptAt);
+        json.addProperty("lastError", lastError);
+        if (action != null) {
+            json.add("action", action);
+            json.addProperty("quantity", quantity);
+        }
+        return json;
+    }
+
+    static FailedDispatch fromJson(JsonObject json) {
+        FailedDispatch dispatch = new FailedDispatch(json.get("id").getAsInt(), json.get("command").getAsString(),
+                json.get("orderId").getAsString(), json.get("packageName").getAsString(),
+                json.get("playerName").getAsString(), json.get("firstFailedAt").getAsLong());
+        dispatch.attempts = json.get("attempts").getAsInt();
+        dispatch.nextAttemptAt = json.get("nextAttemptAt").getAsLong();
+        dispatch.lastError = json.has("lastError") && !json.get("lastError").isJsonNull() ? json.get("lastError").getAsString() : null;
+        if (json.has("action") && json.get("action").isJsonObject()) {
+            dispatch.setAction(json.getAsJsonObject("action"), json.get("quantity").getAsInt());
+        }
+        return dispatch;
+    }
+}
@@ -0,0 +1,318 @@
+package eu.venxu.mineshopify.dispatch;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.action.DeliveryAction;
+import eu.venxu.mineshopify.config.Settings;
+import eu.venxu.mineshopify.config.DebouncedFileWriter;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import eu.venxu.mineshopify.profiler.TickProfiler;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+
+/**
+ * Retries package commands that failed with an exponential backoff.
+ * A command fails if it throws or if the server reports it as unknown or unsuccessful.
+ * After the configured number of attempts it becomes a dead letter, which admins can
+ * list and replay with /mineshopify deadletters. Both lists are saved in the plugin folder
+ * and survive restarts. New failures are saved at once, later changes are debounced.
+ */
+public class RetryManager {
+
+    private static final long SAVE_DELAY = 1000L;
+
+    private final MineShopify mineShopify;
+    private final PriorityQueue<FailedDispatch> queue = new PriorityQueue<>(Comparator.comparingLong(FailedDispatch::getNextAttemptAt));
+    private final List<FailedDispatch> deadLetters = new ArrayList<>();
+    private final DebouncedFileWriter queueWriter;
+    private final DebouncedFileWriter deadLetterWriter;
+    private final Counter retriesSucceeded;
+    private final Counter retriesFailed;
+    private final Counter deadLettered;
+    private int nextId = 1;
+    private BukkitTask retryTask;
+
+    /**
+     * Load the saved retries and dead letters and start retrying.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public RetryManager(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        File queueFile = new File(mineShopify.getDataFolder(), "retry-queue.json");
+        File deadLetterFile = new File(mineShopify.getDataFolder(), "dead-letters.json");
+        load(queueFile, queue);
+        load(deadLetterFile, deadLetters);
+        this.queueWriter = new DebouncedFileWriter(queueFile, SAVE_DELAY, mineShopify.getLogger());
+        this.deadLetterWriter = new DebouncedFileWriter(deadLetterFile, SAVE_DELAY, mineShopify.getLogger());
+
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        this.retriesSucceeded = metrics.counter("dispatch_retries_total", "Retries of failed package commands", "result", "success");
+        this.retriesFailed = metrics.counter("dispatch_retries_total", "Retries of failed package commands", "result", "failure");
+        this.deadLettered = metrics.counter("dispatch_dead_letters_total", "Package commands given up after the last retry");
+        metrics.gauge("dispatch_retry_queue_length", "Failed package commands waiting for a retry", this::getQueuedCount);
+        metrics.gauge("dispatch_dead_letters", "Package commands waiting for a manual replay", this::getDeadLetterCount);
+
+        if (!queue.isEmpty() || !deadLetters.isEmpty()) {
+            mineShopify.getLogger().warning(queue.size() + " failed commands are waiting for a retry, "
+                    + deadLetters.size() + " are dead letters (/mineshopify deadletters).");
+        }
+        this.retryTask = Bukkit.getScheduler().runTaskTimer(mineShopify,
+                () -> mineShopify.getTickProfiler().run(TickProfiler.RETRY, this::retryDue), 20L, 20L);
+    }
+
+    /**
+     * Dispatch a command as the console.
+     * Must be called on the main thread.
+     *
+     * @param command The command with all placeholders replaced.
+     * @return Null if the command succeeded, otherwise the reason it failed.
+     */
+    public String dispatch(String command) {
+        TickProfiler profiler = mineShopify.getTickProfiler();
+        profiler.begin();
+        try {
+            if (!Bukkit.dispatchCommand(Bukkit.getServer().getConsoleSender(), command)) {
+                return "Unknown command or the command failed";
+            }
+            return null;
+        } catch (Exception e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        } finally {
+            profiler.end(TickProfiler.DISPATCH);
+        }
+    }
+
+    /**
+     * Queue a command that failed during a delivery for its first retry.
+     * The retry queue is written before this returns: the delivery is committed in the
+     * ledger right after, so a crash must not lose the only record of the command.
+     *
+     * @param command The command with all placeholders replaced.
+     * @param orderId The order the command belongs to.
+     * @param packageName The package the command belongs to.
+     * @param playerName The player the command was dispatched for.
+     * @param error The reason the command failed.
+     */
+    public synchronized void failed(String command, String orderId, String packageName, String playerName, String error) {
+        long now = System.currentTimeMillis();
+        FailedDispatch dispatch = new FailedDispatch(nextId++, command, orderId, packageName, playerName, now);
+        dispatch.failed(error, now + backoff(1));
+        mineShopify.getLogger().warning("Command \"" + command + "\" for order " + orderId + " failed (" + error + "), retry #"
+                + dispatch.getId() + " in " + backoff(1) / 1000 + " s.");
+        schedule(dispatch);
+        save();
+        queueWriter.flush();
+        deadLetterWriter.flush();
+    }
+
+    /**
+     * Queue an action that failed during a delivery for its first retry.
+     * The action is retried through the Bukkit API, e.g. a deposit through Vault again.
+     *
+     * @param action The action that failed.
+     * @param quantity The purchased quantity.
+     * @param orderId The order the action belongs to.
+     * @param packageName The package the action belongs to.
+     * @param playerName The player the action ran for.
+     * @param error The reason the action failed.
+     */
+    public synchronized void failed(DeliveryAction action, int quantity, String orderId, String packageName, String playerName, String error) {
+        long now = System.currentTimeMillis();
+        FailedDispatch dispatch = new FailedDispatch(nextId++, action.toCommand(playerName, quantity), orderId, packageName, playerName, now);
+        dispatch.setAction(action.toJson(), quantity);
+        dispatch.failed(error, now + backoff(1));
+        mineShopify.getLogger().warning(action.getType().getLabel() + " action for order " + orderId + " failed (" + error + "), retry #"
+                + dispatch.getId() + " in " + backoff(1) / 1000 + " s.");
+        schedule(dispatch);
+        save();
+        queueWriter.flush();
+        deadLetterWriter.flush();
+    }
+
+    /**
+     * Move dead letters back into the retry queue with their attempts reset.
+     * They are dispatched within the next second.
+     *
+     * @param id The id of the dead letter, or null for all of them.
+     * @return The number of replayed dead letters.
+     */
+    public synchronized int replay(Integer id) {
+        long now = System.currentTimeMillis();
+        int replayed = 0;
+        Iterator<FailedDispatch> iterator = deadLetters.iterator();
+        while (iterator.hasNext()) {
+            FailedDispatch dispatch = iterator.next();
+            if (id == null || dispatch.getId() == id) {
+                iterator.remove();
+                dispatch.reset(now);
+                queue.add(dispatch);
+                replayed++;
+            }
+        }
+        if (replayed > 0) {
+            save();
+        }
+        return replayed;
+    }
+
+    /**
+     * Get the commands waiting for a retry.
+     *
+     * @return The retries, next one first.
+     */
+    public synchronized List<FailedDispatch> getQueued() {
+        List<FailedDispatch> queued = new ArrayList<>(queue);
+        queued.sort(queue.comparator());
+        return queued;
+    }
+
+    /**
+     * Get the commands given up after the last retry.
+     *
+     * @return The dead letters, oldest first.
+     */
+    public synchronized List<FailedDispatch> getDeadLetters() {
+        return new ArrayList<>(deadLetters);
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    public synchronized int getDeadLetterCount() {
+        return deadLetters.size();
+    }
+
+    /**
+     * Stop retrying and save both lists. Queued retries continue after the next start.
+     */
+    public void close() {
+        if (retryTask != null) {
+            retryTask.cancel();
+            retryTask = null;
+        }
+        queueWriter.close();
+        deadLetterWriter.close();
+    }
+
+    /**
+     * Dispatch every retry that is due. Runs once per second on the main thread.
+     */
+    private synchronized void retryDue() {
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        while (!queue.isEmpty() && queue.peek().getNextAttemptAt() <= now) {
+            FailedDispatch dispatch = queue.poll();
+            changed = true;
+            String error = dispatch.getAction() != null ? execute(dispatch) : dispatch(dispatch.getCommand());
+            if (error == null) {
+                retriesSucceeded.increment();
+                mineShopify.getLogger().info("Retry #" + dispatch.getId() + " of \"" + dispatch.getCommand() + "\" for order "
+                        + dispatch.getOrderId() + " succeeded.");
+                continue;
+            }
+            retriesFailed.increment();
+            dispatch.failed(error, now + backoff(dispatch.getAttempts() + 1));
+            schedule(dispatch);
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Run a failed action again through the action manager.
+     *
+     * @return Null if the action succeeded, otherwise the reason it failed.
+     */
+    private String execute(FailedDispatch dispatch) {
+        DeliveryAction action;
+        try {
+            action = DeliveryAction.fromJson(dispatch.getAction());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return "Invalid action: " + e.getMessage();
+        }
+        TickProfiler profiler = mineShopify.getTickProfiler();
+        profiler.begin();
+        try {
+            return mineShopify.getActionManager().execute(action, dispatch.getOrderId(), dispatch.getPlayerName(), dispatch.getQuantity());
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        } finally {
+            profiler.end(TickProfiler.DISPATCH);
+        }
+    }
+
+    /**
+     * Queue a failed dispatch, or move it to the dead letters after its last attempt.
+     */
+    private void schedule(FailedDispatch dispatch) {
+        if (dispatch.getAttempts() < mineShopify.getSettings().getRetryMaxAttempts()) {
+            queue.add(dispatch);
+            return;
+        }
+        deadLetters.add(dispatch);
+        deadLettered.increment();
+        mineShopify.getLogger().severe("Command \"" + dispatch.getCommand() + "\" for order " + dispatch.getOrderId() + " failed "
+                + dispatch.getAttempts() + " times (" + dispatch.getLastError() + "), giving up. Use /mineshopify deadletters replay "
+                + dispatch.getId() + " after fixing the cause.");
+    }
+
+    /**
+     * Get the delay before an attempt: the initial delay, doubled for every further attempt.
+     *
+     * @param attempt The number of the attempt that failed, starting at 1.
+     * @return The delay in milliseconds.
+     */
+    private long backoff(int attempt) {
+        Settings settings = mineShopify.getSettings();
+        long maxDelay = settings.getRetryMaxDelay() * 1000L;
+        long delay = (settings.getRetryInitialDelay() * 1000L) << Math.min(attempt - 1, 30);
+        return delay <= 0 ? maxDelay : Math.min(maxDelay, delay);
+    }
+
+    private void save() {
+        queueWriter.write(toJson(queue));
+        deadLetterWriter.write(toJson(deadLetters));
+    }
+
+    private static String toJson(Collection<FailedDispatch> dispatches) {
+        JsonArray array = new JsonArray();
+        for (FailedDispatch dispatch : dispatches) {
+            array.add(dispatch.toJson());
+        }
+        return array.toString();
+    }
+
+    private void load(File file, Collection<FailedDispatch> target) {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            for (JsonElement element : JsonParser.parseString(content).getAsJsonArray()) {
+                FailedDispatch dispatch = FailedDispatch.fromJson(element.getAsJsonObject());
+                target.add(dispatch);
+                nextId = Math.max(nextId, dispatch.getId() + 1);
+            }
+        } catch (IOException | RuntimeException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to load " + file.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package eu.venxu.mineshopify.entitlement;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * A timed package of a player that runs its expiry commands once its time is up.
+ * The commands are stored rendered, so later edits of the package don't change them.
+ */
+public class Entitlement {
+
+    private final String id;
+    private final String username;
+    private final String packageName;
+    private final String orderId;
+    private final long expiresAt;
+    private final List<String> commands;
+
+    /**
+     * Create a new entitlement.
+     *
+     * @param username The name of the player.
+     * @param packageName The name of the timed package.
+     * @param orderId The id of the Shopify order that granted or renewed it.
+     * @param expiresAt The time of the expiry in milliseconds.
+     * @param commands The expiry commands with all placeholders replaced.
+     */
+    public Entitlement(String username, String packageName, String orderId, long expiresAt, List<String> commands) {
+        this(UUID.randomUUID().toString(), username, packageName, orderId, expiresAt, commands);
+    }
+
+    private Entitlement(String id, String username, String packageName, String orderId, long expiresAt, List<String> commands) {
+        this.id = id;
+        this.username = username;
+        this.packageName = packageName;
+        this.orderId = orderId;
+        this.expiresAt = expiresAt;
+        this.commands = Collections.unmodifiableList(new ArrayList<>(commands));
+    }
+
+    /**
+     * Get the key shared by all grants of the same package to the same player.
+     *
+     * @param username The name of the player, case insensitive.
+     * @param packageName The name of the package.
+     * @return The key of the entitlement.
+     */
+    public static String key(String username, String packageName) {
+        return username.toLowerCase(Locale.ROOT) + "/" + packageName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key(username, packageName);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Get the time of the expiry.
+     *
+     * @return The time in milliseconds.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Get the commands dispatched on expiry.
+     *
+     * @return The commands without leading slash.
+     */
+    public List<String> getCommands() {
+        return commands;
+    }
+
+    /**
+     * Serialize the entitlement, e.g. into its day file or the delivery ledger.
+     *
+     * @return The entitlement as a JSON object.
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("username", username);
+        json.addProperty("packageName", packageName);
+        json.addProperty("orderId", orderId);
+        json.addProperty("expiresAt", expiresAt);
+        JsonArray commandArray = new JsonArray();
+        for (String command : commands) {
+            commandArray.add(command);
+        }
+        json.add("commands", commandArray);
+        return json;
+    }
+
+    static Entitlement fromJson(JsonObject json) {
+        List<String> commands = new ArrayList<>();
+        for (JsonElement command : json.getAsJsonArray("commands")) {
+            commands.add(command.getAsString());
+        }
+        return new Entitlement(json.get("id").getAsString(), json.get("username").getAsString(),
+                json.get("packageName").getAsString(), json.get("orderId").getAsString(),
+                json.get("expiresAt").getAsLong(), commands);
+    }
+}
@@ -0,0 +1,479 @@
+package eu.venxu.mineshopify.entitlement;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.dispatch.RetryManager;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import eu.venxu.mineshopify.profiler.TickProfiler;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import com.google.gson.JsonObject;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Tracks timed packages, e.g. a rank for 30 days, and dispatches their expiry commands
+ * once the time is up. Buying a package again while it is active extends it.
+ *
+ * Entitlements are kept in files per day of their expiry. Only the days up to tomorrow
+ * are loaded, off the main thread, into a hierarchical timing wheel, so the cost per tick
+ * does not depend on the number of active entitlements. Due entitlements fire in batches
+ * that stop once the tick budget is used up.
+ *
+ * The wheel and the index in memory are changed on the main thread only. The files are
+ * read and written in order by one background thread, so a day is never read before the
+ * grants queued for it are written.
+ */
+public class EntitlementManager {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long LOAD_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final String PLACEHOLDER_PLAYER = "%player%";
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final MineShopify mineShopify;
+    private final EntitlementStore store;
+    private final ExecutorService io;
+    private final TimingWheel<Entitlement> wheel;
+    private final Map<String, Long> index;
+    private final Set<Long> unloadedDays;
+    private final Set<Long> loadedDays = new HashSet<>();
+    private final Map<Long, List<Entitlement>> loadingDays = new HashMap<>();
+    private final Map<Long, Integer> remaining = new HashMap<>();
+    private final Map<Long, List<String>> fired = new HashMap<>();
+    private final Queue<Entitlement> due = new ArrayDeque<>();
+    private final Counter granted;
+    private final Counter renewed;
+    private final Counter expired;
+    private final Counter superseded;
+    private long budgetNanos;
+    private long nextLoadAttempt;
+    private BukkitTask tickTask;
+
+    /**
+     * Read the index of the active entitlements and start the wheel.
+     * The entitlements themselves are loaded by the first ticks.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public EntitlementManager(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        this.store = new EntitlementStore(new File(mineShopify.getDataFolder(), "entitlements"));
+        this.wheel = new TimingWheel<>(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        Map<String, Long> activeIndex;
+        try {
+            activeIndex = store.readIndex();
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to read the entitlement index, renewals start from now", e);
+            activeIndex = new HashMap<>();
+        }
+        this.index = activeIndex;
+        this.unloadedDays = new TreeSet<>(store.listDays());
+        this.io = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MineShopify-Entitlements");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        this.granted = metrics.counter("entitlements_granted_total", "Timed packages granted", "type", "new");
+        this.renewed = metrics.counter("entitlements_granted_total", "Timed packages granted", "type", "renewal");
+        this.expired = metrics.counter("entitlements_expired_total", "Timed packages whose expiry commands were dispatched");
+        this.superseded = metrics.counter("entitlements_superseded_total", "Expiries skipped because the package was renewed");
+        metrics.gauge("entitlements_active", "Timed packages that have not expired yet", index::size);
+        metrics.gauge("entitlements_scheduled", "Entitlements loaded into the timing wheel", () -> wheel.size() + due.size());
+
+        loadConfig();
+        this.tickTask = Bukkit.getScheduler().runTaskTimer(mineShopify,
+                () -> mineShopify.getTickProfiler().run(TickProfiler.ENTITLEMENT, this::tick), 1L, 1L);
+    }
+
+    /**
+     * Load the tick budget from config.yml.
+     */
+    public void loadConfig() {
+        budgetNanos = Math.max(0, (long) (mineShopify.getConfig().getDouble("entitlements.budget_ms", 1.0) * 1_000_000L));
+    }
+
+    /**
+     * Create the entitlement a delivered line item grants or renews, without granting it yet.
+     * Must be called on the main thread, right before {@link #grant(Entitlement)}, so it is
+     * recorded in the delivery ledger together with the line item.
+     * A renewal extends the running entitlement by the duration times the quantity.
+     *
+     * @param packageConfig The configuration of the package.
+     * @param playerName The name of the buyer.
+     * @param packageName The name of the package.
+     * @param orderId The id of the Shopify order.
+     * @param quantity The purchased quantity.
+     * @return The entitlement, or null if the package has no duration.
+     */
+    public Entitlement prepare(ConfigurationSection packageConfig, String playerName, String packageName, String orderId, int quantity) {
+        String durationText = packageConfig.getString("duration");
+        if (durationText == null) {
+            return null;
+        }
+        long duration = parseDuration(durationText);
+        List<String> expiryCommands = packageConfig.getStringList("expiry_commands");
+        if (duration <= 0 || expiryCommands.isEmpty()) {
+            mineShopify.getLogger().warning("Package " + packageName + " needs a duration like 30d and expiry_commands to expire, it is delivered without expiry.");
+            return null;
+        }
+
+        String key = Entitlement.key(playerName, packageName);
+        long now = System.currentTimeMillis();
+        Long current = index.get(key);
+        long start = current != null && current > now ? current : now;
+        List<String> commands = new ArrayList<>();
+        for (String command : expiryCommands) {
+            commands.add(command.replace(PLACEHOLDER_PLAYER, playerName));
+        }
+        return new Entitlement(playerName, packageName, orderId, start + duration * quantity, commands);
+    }
+
+    /**
+     * Grant an entitlement from {@link #prepare}. Must be called on the main thread.
+     * The entitlement is scheduled at once and written off the main thread.
+     *
+     * @param entitlement The entitlement.
+     * @return Completes once the entitlement is written; the delivery ledger commits the line item after it.
+     */
+    public CompletableFuture<Void> grant(Entitlement entitlement) {
+        Long current = index.get(entitlement.getKey());
+        (current != null && current > System.currentTimeMillis() ? renewed : granted).increment();
+        long day = day(entitlement.getExpiresAt());
+        schedule(day, entitlement);
+        return write(day, entitlement, false);
+    }
+
+    /**
+     * Grant an entitlement of a line item the last run dispatched but did not commit in the delivery ledger.
+     * Must be called on the main thread. Does nothing if the entitlement was written before the shutdown.
+     *
+     * @param record The entitlement as recorded in the delivery ledger.
+     */
+    public void restore(JsonObject record) {
+        Entitlement entitlement = Entitlement.fromJson(record);
+        long day = day(entitlement.getExpiresAt());
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.contains(day, entitlement.getId());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, io).whenComplete((written, e) -> mineShopify.getTickProfiler().runTask(TickProfiler.ENTITLEMENT, () -> {
+            if (tickTask == null) {
+                return;
+            }
+            if (e != null) {
+                mineShopify.getLogger().log(Level.SEVERE, "Failed to restore the entitlement of " + entitlement.getUsername() + " for "
+                        + entitlement.getPackageName() + " (order " + entitlement.getOrderId() + "), it will not expire", e);
+                return;
+            }
+            // A written entitlement is in its day file and loaded from there, it only misses the index record
+            if (!written) {
+                granted.increment();
+                schedule(day, entitlement);
+            }
+            write(day, entitlement, written);
+            mineShopify.getLogger().warning("Restored the entitlement of " + entitlement.getUsername() + " for "
+                    + entitlement.getPackageName() + " (order " + entitlement.getOrderId() + ") that was not saved before the last shutdown.");
+        }));
+    }
+
+    /**
+     * Stop the wheel, save the fired entitlements and wait for the queued writes.
+     * Unfired entitlements are loaded again after the next start.
+     */
+    public void close() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        writeFired();
+        io.execute(() -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                mineShopify.getLogger().log(Level.WARNING, "Failed to close the entitlement index", e);
+            }
+        });
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                mineShopify.getLogger().warning("Entitlement writes did not finish in time, the delivery ledger restores the missing grants on the next start.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parse a duration like 30d, 12h, 90m, 45s or 2w. A number without unit means days.
+     *
+     * @param text The duration.
+     * @return The duration in milliseconds, or -1 if it is not valid.
+     */
+    static long parseDuration(String text) {
+        String value = text.trim().toLowerCase(Locale.ROOT);
+        if (value.isEmpty()) {
+            return -1;
+        }
+        TimeUnit unit = TimeUnit.DAYS;
+        long factor = 1;
+        switch (value.charAt(value.length() - 1)) {
+            case 's':
+                unit = TimeUnit.SECONDS;
+                break;
+            case 'm':
+                unit = TimeUnit.MINUTES;
+                break;
+            case 'h':
+                unit = TimeUnit.HOURS;
+                break;
+            case 'w':
+                factor = 7;
+                break;
+            case 'd':
+                break;
+            default:
+                return Character.isDigit(value.charAt(value.length() - 1)) ? parseAmount(value, unit, factor) : -1;
+        }
+        return parseAmount(value.substring(0, value.length() - 1).trim(), unit, factor);
+    }
+
+    private static long parseAmount(String amount, TimeUnit unit, long factor) {
+        try {
+            return unit.toMillis(Long.parseLong(amount) * factor);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Advance the wheel, load the days that come into reach and fire due entitlements
+     * until the budget of this tick is used up, at least one per tick.
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        wheel.advance(TimeUnit.MILLISECONDS.toSeconds(now), due::add);
+        loadDays(now);
+
+        long start = System.nanoTime();
+        while (!due.isEmpty()) {
+            fire(due.poll());
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+        writeFired();
+        deletePassedDays(now);
+    }
+
+    /**
+     * Read the days up to tomorrow that are not loaded yet off the main thread.
+     * Days before today are overdue after a downtime and fire right after loading.
+     */
+    private void loadDays(long now) {
+        if (unloadedDays.isEmpty() || now < nextLoadAttempt) {
+            return;
+        }
+        long lastDay = day(now) + 1;
+        Iterator<Long> iterator = unloadedDays.iterator();
+        while (iterator.hasNext()) {
+            long day = iterator.next();
+            if (day > lastDay) {
+                break;
+            }
+            iterator.remove();
+            loadingDays.put(day, new ArrayList<>());
+            io.execute(() -> {
+                try {
+                    List<Entitlement> entitlements = store.readDay(day);
+                    mineShopify.getTickProfiler().runTask(TickProfiler.ENTITLEMENT, () -> install(day, entitlements));
+                } catch (IOException | RuntimeException e) {
+                    mineShopify.getLogger().log(Level.SEVERE, "Failed to load the entitlements expiring on day " + day + ", retrying in a minute", e);
+                    mineShopify.getTickProfiler().runTask(TickProfiler.ENTITLEMENT, () -> {
+                        // Entitlements granted meanwhile are in the file as well
+                        loadingDays.remove(day);
+                        unloadedDays.add(day);
+                        nextLoadAttempt = System.currentTimeMillis() + LOAD_RETRY_MILLIS;
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Put the entitlements of a loaded day into the wheel, together with those granted while it was read.
+     */
+    private void install(long day, List<Entitlement> entitlements) {
+        if (tickTask == null) {
+            return;
+        }
+        List<Entitlement> grantedMeanwhile = loadingDays.remove(day);
+        loadedDays.add(day);
+        Set<String> ids = new HashSet<>();
+        for (Entitlement entitlement : entitlements) {
+            ids.add(entitlement.getId());
+            add(day, entitlement);
+        }
+        if (grantedMeanwhile != null) {
+            for (Entitlement entitlement : grantedMeanwhile) {
+                if (!ids.contains(entitlement.getId())) {
+                    add(day, entitlement);
+                }
+            }
+        }
+    }
+
+    /**
+     * Put a new entitlement into the wheel if its day is loaded; otherwise it waits in its file.
+     */
+    private void schedule(long day, Entitlement entitlement) {
+        if (loadedDays.contains(day)) {
+            add(day, entitlement);
+        } else if (loadingDays.containsKey(day)) {
+            loadingDays.get(day).add(entitlement);
+        } else {
+            unloadedDays.add(day);
+        }
+    }
+
+    private void add(long day, Entitlement entitlement) {
+        remaining.merge(day, 1, Integer::sum);
+        wheel.add(TimeUnit.MILLISECONDS.toSeconds(entitlement.getExpiresAt()), entitlement);
+    }
+
+    /**
+     * Dispatch the expiry commands unless the package was renewed meanwhile.
+     * Failed commands are handed to the retry queue.
+     */
+    private void fire(Entitlement entitlement) {
+        Long latest = index.get(entitlement.getKey());
+        if (latest != null && latest > entitlement.getExpiresAt()) {
+            superseded.increment();
+        } else {
+            RetryManager retryManager = mineShopify.getRetryManager();
+            for (String command : entitlement.getCommands()) {
+                String error = retryManager.dispatch(command);
+                if (error != null) {
+                    retryManager.failed(command, entitlement.getOrderId(), entitlement.getPackageName(), entitlement.getUsername(), error);
+                }
+            }
+            expired.increment();
+            if (latest != null) {
+                index.remove(entitlement.getKey());
+                writeIndex(entitlement.getKey(), null).exceptionally(e -> {
+                    mineShopify.getLogger().log(Level.WARNING, "Failed to update the entitlement index", e);
+                    return null;
+                });
+            }
+        }
+        long day = day(entitlement.getExpiresAt());
+        fired.computeIfAbsent(day, d -> new ArrayList<>()).add(entitlement.getId());
+        remaining.merge(day, -1, Integer::sum);
+    }
+
+    /**
+     * Queue the write of an entitlement and of its index record. A restored entitlement that is
+     * already in its day file only gets the index record.
+     */
+    private CompletableFuture<Void> write(long day, Entitlement entitlement, boolean written) {
+        String key = entitlement.getKey();
+        index.merge(key, entitlement.getExpiresAt(), Math::max);
+        CompletableFuture<Void> grant = written ? CompletableFuture.completedFuture(null) : run(() -> store.writeGrant(day, entitlement));
+        return CompletableFuture.allOf(grant, writeIndex(key, index.get(key))).whenComplete((v, e) -> {
+            if (e != null) {
+                mineShopify.getLogger().log(Level.SEVERE, "Failed to save the entitlement of " + entitlement.getUsername() + " for "
+                        + entitlement.getPackageName() + " (order " + entitlement.getOrderId() + "), it is restored from the delivery ledger on the next start", e);
+            }
+        });
+    }
+
+    /**
+     * Queue an index record. Must be called on the main thread, as it copies the index if the file is compacted.
+     */
+    private CompletableFuture<Void> writeIndex(String key, Long expiresAt) {
+        if (store.shouldCompact(index.size())) {
+            Map<String, Long> snapshot = new HashMap<>(index);
+            return run(() -> store.compactIndex(snapshot));
+        }
+        return run(() -> store.writeIndex(key, expiresAt));
+    }
+
+    private void writeFired() {
+        for (Map.Entry<Long, List<String>> entry : fired.entrySet()) {
+            long day = entry.getKey();
+            List<String> ids = entry.getValue();
+            run(() -> store.writeFired(day, ids)).exceptionally(e -> {
+                // The entitlements fire again after the next start
+                mineShopify.getLogger().log(Level.WARNING, "Failed to mark " + ids.size() + " entitlements as expired", e);
+                return null;
+            });
+        }
+        fired.clear();
+    }
+
+    /**
+     * Delete the files of the loaded days before today once every entitlement in them has fired.
+     */
+    private void deletePassedDays(long now) {
+        long today = day(now);
+        Iterator<Long> iterator = loadedDays.iterator();
+        while (iterator.hasNext()) {
+            long day = iterator.next();
+            if (day >= today || remaining.getOrDefault(day, 0) > 0) {
+                continue;
+            }
+            iterator.remove();
+            remaining.remove(day);
+            // A file that is left is read after the next start and holds only fired entitlements
+            run(() -> store.deleteDay(day)).exceptionally(e -> {
+                mineShopify.getLogger().log(Level.WARNING, "Failed to delete the entitlements of day " + day, e);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Run a file operation on the entitlement thread, after the operations queued before.
+     */
+    private CompletableFuture<Void> run(IoTask task) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, io);
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private static long day(long millis) {
+        return Math.floorDiv(millis, DAY_MILLIS);
+    }
+}
@@ -0,0 +1,280 @@
+package eu.venxu.mineshopify.entitlement;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The files of the entitlements in the entitlements folder of the plugin.
+ *
+ * Entitlements are appended to one file per day of their expiry, named after the
+ * epoch day, so only the days around the current time have to be read. Expired
+ * entitlements are marked by a fired record in the same file, and the file is deleted
+ * once its day has passed and every entitlement in it has fired.
+ *
+ * index.log holds the newest expiry per player and package, which renewals extend and
+ * which tells a renewed entitlement from the one it replaced. It is compacted to the
+ * active entries once it has grown to twice their number.
+ *
+ * The writes are made by a single thread, see {@link EntitlementManager}.
+ */
+class EntitlementStore {
+
+    private static final String INDEX_FILE = "index.log";
+    private static final String BUCKET_SUFFIX = ".log";
+
+    private final File folder;
+    private final File indexFile;
+    private FileOutputStream indexOut;
+    private volatile int indexRecords;
+
+    /**
+     * Create the store in the given folder.
+     *
+     * @param folder The entitlements folder.
+     */
+    EntitlementStore(File folder) {
+        this.folder = folder;
+        this.indexFile = new File(folder, INDEX_FILE);
+    }
+
+    /**
+     * Read the newest expiry of every active entitlement.
+     *
+     * @return The expiries in milliseconds by entitlement key.
+     * @throws IOException If the index can't be read.
+     */
+    Map<String, Long> readIndex() throws IOException {
+        Map<String, Long> index = new HashMap<>();
+        indexRecords = 0;
+        for (JsonObject record : readRecords(indexFile)) {
+            String key = record.get("key").getAsString();
+            if (record.has("expiresAt")) {
+                index.put(key, record.get("expiresAt").getAsLong());
+            } else {
+                index.remove(key);
+            }
+            indexRecords++;
+        }
+        return index;
+    }
+
+    /**
+     * Check if the index file has grown to twice the active entries and should be compacted.
+     * Safe to call from any thread.
+     *
+     * @param active The number of active entitlements.
+     * @return True if the next change should be written by {@link #compactIndex(Map)}.
+     */
+    boolean shouldCompact(int active) {
+        return indexRecords >= Math.max(1000, active * 2);
+    }
+
+    /**
+     * Record the newest expiry of an entitlement, or its removal.
+     *
+     * @param key The entitlement key.
+     * @param expiresAt The expiry in milliseconds, or null once the entitlement has expired.
+     * @throws IOException If the record can't be written.
+     */
+    void writeIndex(String key, Long expiresAt) throws IOException {
+        JsonObject record = new JsonObject();
+        record.addProperty("key", key);
+        if (expiresAt != null) {
+            record.addProperty("expiresAt", expiresAt);
+        }
+        if (indexOut == null) {
+            folder.mkdirs();
+            indexOut = new FileOutputStream(indexFile, true);
+        }
+        // One write per record, so a crash tears at most the last line
+        indexOut.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+        indexRecords++;
+    }
+
+    /**
+     * Get the days that have an entitlement file.
+     *
+     * @return The epoch days, earliest first.
+     */
+    Set<Long> listDays() {
+        Set<Long> days = new TreeSet<>();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(BUCKET_SUFFIX) && !name.equals(INDEX_FILE));
+        if (files == null) {
+            return days;
+        }
+        for (File file : files) {
+            try {
+                days.add(Long.parseLong(file.getName().substring(0, file.getName().length() - BUCKET_SUFFIX.length())));
+            } catch (NumberFormatException ignored) {
+                // Not an entitlement file
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Read the entitlements of a day that have not fired yet.
+     * Safe to call off the main thread while entitlements are appended.
+     *
+     * @param day The epoch day of the expiries.
+     * @return The entitlements in the order they were granted.
+     * @throws IOException If the file can't be read.
+     */
+    List<Entitlement> readDay(long day) throws IOException {
+        Map<String, Entitlement> entitlements = new LinkedHashMap<>();
+        Set<String> fired = new HashSet<>();
+        for (JsonObject record : readRecords(dayFile(day))) {
+            if (record.has("fired")) {
+                fired.add(record.get("fired").getAsString());
+            } else {
+                Entitlement entitlement = Entitlement.fromJson(record);
+                entitlements.put(entitlement.getId(), entitlement);
+            }
+        }
+        entitlements.keySet().removeAll(fired);
+        return new ArrayList<>(entitlements.values());
+    }
+
+    /**
+     * Check if an entitlement was written to the file of its day, fired or not.
+     *
+     * @param day The epoch day of the expiry.
+     * @param id The id of the entitlement.
+     * @return True if the file holds the entitlement.
+     * @throws IOException If the file can't be read.
+     */
+    boolean contains(long day, String id) throws IOException {
+        for (JsonObject record : readRecords(dayFile(day))) {
+            if (record.has("id") && id.equals(record.get("id").getAsString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Append a granted entitlement to the file of its day.
+     *
+     * @param day The epoch day of the expiry.
+     * @param entitlement The entitlement.
+     * @throws IOException If the entitlement can't be written.
+     */
+    void writeGrant(long day, Entitlement entitlement) throws IOException {
+        append(day, entitlement.toJson().toString());
+    }
+
+    /**
+     * Mark entitlements of a day as fired, so they are not loaded again.
+     *
+     * @param day The epoch day of the expiries.
+     * @param ids The ids of the fired entitlements.
+     * @throws IOException If the records can't be written.
+     */
+    void writeFired(long day, List<String> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        StringBuilder records = new StringBuilder();
+        for (String id : ids) {
+            JsonObject record = new JsonObject();
+            record.addProperty("fired", id);
+            records.append(record).append('\n');
+        }
+        records.setLength(records.length() - 1);
+        append(day, records.toString());
+    }
+
+    /**
+     * Delete the file of a day whose entitlements have all fired.
+     *
+     * @param day The epoch day.
+     * @throws IOException If the file can't be deleted.
+     */
+    void deleteDay(long day) throws IOException {
+        Files.deleteIfExists(dayFile(day).toPath());
+    }
+
+    /**
+     * Write the index file from scratch and close it.
+     *
+     * @param index The active entitlements.
+     * @throws IOException If the index can't be written.
+     */
+    void compactIndex(Map<String, Long> index) throws IOException {
+        close();
+        folder.mkdirs();
+        File tempFile = new File(folder, INDEX_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                JsonObject record = new JsonObject();
+                record.addProperty("key", entry.getKey());
+                record.addProperty("expiresAt", entry.getValue());
+                writer.write(record.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexRecords = index.size();
+    }
+
+    /**
+     * Close the index file.
+     *
+     * @throws IOException If the file can't be closed.
+     */
+    void close() throws IOException {
+        if (indexOut != null) {
+            indexOut.close();
+            indexOut = null;
+        }
+    }
+
+    private void append(long day, String records) throws IOException {
+        folder.mkdirs();
+        try (FileOutputStream out = new FileOutputStream(dayFile(day), true)) {
+            out.write((records + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private File dayFile(long day) {
+        return new File(folder, day + BUCKET_SUFFIX);
+    }
+
+    private static List<JsonObject> readRecords(File file) throws IOException {
+        List<JsonObject> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    records.add(JsonParser.parseString(line).getAsJsonObject());
+                } catch (RuntimeException ignored) {
+                    // A torn last line after a crash, or a line that is still being appended
+                }
+            }
+        }
+        return records;
+    }
+}
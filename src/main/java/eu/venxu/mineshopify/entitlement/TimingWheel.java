@@ -0,0 +1,162 @@
+package eu.venxu.mineshopify.entitlement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel with a resolution of one second.
+ * Three levels of 64 slots cover 64 seconds, about 68 minutes and about 72 hours;
+ * values due later wait in an overflow list. Adding a value and advancing by one
+ * second are O(1), values move to a finer level when their slot comes up.
+ *
+ * Not thread safe, the entitlement manager uses it on the main thread only.
+ *
+ * @param <T> The type of the scheduled values.
+ */
+class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 3;
+    private static final long HORIZON = 1L << (BITS * LEVELS);
+
+    private final List<List<Entry<T>>> slots = new ArrayList<>();
+    private final List<Entry<T>> overflow = new ArrayList<>();
+    private final List<T> expired = new ArrayList<>();
+    private long cursor;
+    private int size;
+
+    private static class Entry<T> {
+        private final long due;
+        private final T value;
+
+        private Entry(long due, T value) {
+            this.due = due;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Create an empty wheel.
+     *
+     * @param now The current time in seconds.
+     */
+    TimingWheel(long now) {
+        this.cursor = now;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedule a value. Values that are already due are handed out by the next {@link #advance}.
+     *
+     * @param due The time the value is due in seconds.
+     * @param value The value.
+     */
+    void add(long due, T value) {
+        size++;
+        place(new Entry<>(due, value));
+    }
+
+    /**
+     * Move the wheel to the given time and hand out every value that is due.
+     *
+     * @param now The current time in seconds.
+     * @param consumer Receives the due values, oldest slot first.
+     */
+    void advance(long now, Consumer<T> consumer) {
+        if (now - cursor >= HORIZON) {
+            // The clock jumped further than the wheel spans, place everything again
+            List<Entry<T>> entries = new ArrayList<>(overflow);
+            overflow.clear();
+            for (List<Entry<T>> slot : slots) {
+                entries.addAll(slot);
+                slot.clear();
+            }
+            cursor = now;
+            for (Entry<T> entry : entries) {
+                place(entry);
+            }
+        }
+        emit(consumer);
+        while (cursor <= now) {
+            if ((cursor & MASK) == 0) {
+                long middle = cursor >> BITS;
+                if ((middle & MASK) == 0) {
+                    long top = middle >> BITS;
+                    if ((top & MASK) == 0) {
+                        List<Entry<T>> waiting = new ArrayList<>(overflow);
+                        overflow.clear();
+                        for (Entry<T> entry : waiting) {
+                            place(entry);
+                        }
+                    }
+                    cascade(2, (int) (top & MASK));
+                }
+                cascade(1, (int) (middle & MASK));
+            }
+            List<Entry<T>> slot = slot(0, (int) (cursor & MASK));
+            for (Entry<T> entry : slot) {
+                expired.add(entry.value);
+            }
+            slot.clear();
+            cursor++;
+            emit(consumer);
+        }
+    }
+
+    /**
+     * Get the number of values that have not been handed out yet.
+     *
+     * @return The number of scheduled values.
+     */
+    int size() {
+        return size;
+    }
+
+    private void place(Entry<T> entry) {
+        long delta = entry.due - cursor;
+        if (delta < 0) {
+            expired.add(entry.value);
+        } else if (delta < SLOTS) {
+            slot(0, (int) (entry.due & MASK)).add(entry);
+        } else if (delta < 1L << (BITS * 2)) {
+            slot(1, (int) ((entry.due >> BITS) & MASK)).add(entry);
+        } else if (delta < HORIZON) {
+            slot(2, (int) ((entry.due >> (BITS * 2)) & MASK)).add(entry);
+        } else {
+            overflow.add(entry);
+        }
+    }
+
+    private void cascade(int level, int index) {
+        List<Entry<T>> slot = slot(level, index);
+        if (slot.isEmpty()) {
+            return;
+        }
+        List<Entry<T>> entries = new ArrayList<>(slot);
+        slot.clear();
+        for (Entry<T> entry : entries) {
+            place(entry);
+        }
+    }
+
+    private void emit(Consumer<T> consumer) {
+        if (expired.isEmpty()) {
+            return;
+        }
+        List<T> values = new ArrayList<>(expired);
+        expired.clear();
+        size -= values.size();
+        for (T value : values) {
+            consumer.accept(value);
+        }
+    }
+
+    private List<Entry<T>> slot(int level, int index) {
+        return slots.get(level * SLOTS + index);
+    }
+}
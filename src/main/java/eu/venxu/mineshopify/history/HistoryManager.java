@@ -0,0 +1,139 @@
+package eu.venxu.mineshopify.history;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.order.Order;
+import eu.venxu.mineshopify.storage.IAsyncStorage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the purchase history of a player or a single Shopify order.
+ * Player histories are loaded page by page with keyset pagination; the orders
+ * loaded so far are kept in a small LRU cache, so browsing the pages of the
+ * same query only reads the pages that have not been loaded yet.
+ */
+public class HistoryManager {
+
+    private final MineShopify mineShopify;
+    private final Map<String, CachedHistory> cache;
+
+    /**
+     * Initialize the history manager.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public HistoryManager(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedHistory>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedHistory> eldest) {
+                return size() > mineShopify.getSettings().getHistoryCacheSize();
+            }
+        });
+    }
+
+    /**
+     * Look up a page of the purchase history.
+     * Queries that look like an order number ("#1001" or "1001") are looked up
+     * as order first and as player if no order was found.
+     *
+     * @param query The name of a player or a Shopify order id.
+     * @param page The page to load, starting at 1.
+     * @return A future completing with the requested page.
+     */
+    public CompletableFuture<HistoryPage> lookup(String query, int page) {
+        IAsyncStorage storage = mineShopify.getStorageManager().getAsyncStorage();
+        boolean archived = mineShopify.getStorageManager().getArchivedOrders().contains(query);
+        if (query.startsWith("#") || query.chars().allMatch(Character::isDigit)) {
+            return storage.findOrdersByOrderId(query).thenCompose(orders -> {
+                if (!orders.isEmpty() || archived) {
+                    return CompletableFuture.completedFuture(HistoryPage.of(query, true, archived, orders, page, getPageSize()));
+                }
+                return lookupPlayer(storage, query, page);
+            });
+        }
+        return lookupPlayer(storage, query, page);
+    }
+
+    /**
+     * Drop all cached histories, e.g. after the storage has changed.
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    private CompletableFuture<HistoryPage> lookupPlayer(IAsyncStorage storage, String username, int page) {
+        int pageSize = getPageSize();
+        int needed = page * pageSize;
+        String key = username.toLowerCase();
+
+        CachedHistory cached = cache.get(key);
+        if (cached == null || cached.isExpired(getCacheTtl())) {
+            cached = new CachedHistory();
+            cache.put(key, cached);
+        }
+        CachedHistory history = cached;
+        return history.load(storage, username, needed)
+                .thenApply(orders -> HistoryPage.of(username, false, false, orders, page, pageSize, history.isComplete()));
+    }
+
+    private int getPageSize() {
+        return mineShopify.getSettings().getHistoryPageSize();
+    }
+
+    private long getCacheTtl() {
+        return TimeUnit.SECONDS.toMillis(mineShopify.getSettings().getHistoryCacheTtl());
+    }
+
+    /**
+     * The orders of one player loaded so far, newest first.
+     */
+    private static final class CachedHistory {
+
+        private final long createdAt = System.currentTimeMillis();
+        private final List<Order> orders = new ArrayList<>();
+        private boolean complete;
+
+        boolean isExpired(long ttl) {
+            return System.currentTimeMillis() - createdAt > ttl;
+        }
+
+        synchronized boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Make sure at least {@code needed} orders are loaded, continuing after the last loaded order.
+         */
+        CompletableFuture<List<Order>> load(IAsyncStorage storage, String username, int needed) {
+            Order after;
+            int missing;
+            synchronized (this) {
+                if (complete || orders.size() >= needed) {
+                    return CompletableFuture.completedFuture(new ArrayList<>(orders));
+                }
+                after = orders.isEmpty() ? null : orders.get(orders.size() - 1);
+                missing = needed - orders.size();
+            }
+            return storage.findOrdersByUsername(username, after, missing).thenApply(loaded -> {
+                synchronized (this) {
+                    // Another lookup may have loaded the same page in the meantime
+                    Order last = orders.isEmpty() ? null : orders.get(orders.size() - 1);
+                    if (last == after) {
+                        orders.addAll(loaded);
+                        if (loaded.size() < missing) {
+                            complete = true;
+                        }
+                    }
+                    return new ArrayList<>(orders);
+                }
+            });
+        }
+    }
+}
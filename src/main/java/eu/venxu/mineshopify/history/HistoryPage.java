@@ -0,0 +1,70 @@
+package eu.venxu.mineshopify.history;
+
+import eu.venxu.mineshopify.order.Order;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a purchase history lookup.
+ */
+public class HistoryPage {
+
+    private final String query;
+    private final boolean orderLookup;
+    private final boolean archived;
+    private final List<Order> orders;
+    private final int page;
+    private final boolean hasNextPage;
+
+    private HistoryPage(String query, boolean orderLookup, boolean archived, List<Order> orders, int page, boolean hasNextPage) {
+        this.query = query;
+        this.orderLookup = orderLookup;
+        this.archived = archived;
+        this.orders = orders;
+        this.page = page;
+        this.hasNextPage = hasNextPage;
+    }
+
+    /**
+     * Cut a page out of a list containing all orders of the query.
+     */
+    static HistoryPage of(String query, boolean orderLookup, boolean archived, List<Order> orders, int page, int pageSize) {
+        return of(query, orderLookup, archived, orders, page, pageSize, true);
+    }
+
+    /**
+     * Cut a page out of the orders loaded so far.
+     * If not all orders have been loaded yet, there is a next page as long as this page is full.
+     */
+    static HistoryPage of(String query, boolean orderLookup, boolean archived, List<Order> orders, int page, int pageSize, boolean complete) {
+        int from = Math.min(orders.size(), (page - 1) * pageSize);
+        int to = Math.min(orders.size(), from + pageSize);
+        boolean hasNextPage = orders.size() > to || (!complete && to - from == pageSize);
+        return new HistoryPage(query, orderLookup, archived, Collections.unmodifiableList(orders.subList(from, to)), page, hasNextPage);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean isOrderLookup() {
+        return orderLookup;
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public boolean hasNextPage() {
+        return hasNextPage;
+    }
+}
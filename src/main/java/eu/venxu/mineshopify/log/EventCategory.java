@@ -0,0 +1,30 @@
+package eu.venxu.mineshopify.log;
+
+/**
+ * The parts of the plugin that write to the event log. Every category has its own level.
+ */
+public enum EventCategory {
+    /** Polling the Shopify API. */
+    FETCH("fetch"),
+    /** Reading orders from a response and extracting the username. */
+    PARSE("parse"),
+    /** Reading and writing the order storage. */
+    STORAGE("storage"),
+    /** Executing package commands and notifying about purchases. */
+    DISPATCH("dispatch");
+
+    private final String label;
+
+    EventCategory(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Get the name used in config.yml and in the log file.
+     *
+     * @return The label, e.g. "fetch".
+     */
+    public String getLabel() {
+        return label;
+    }
+}
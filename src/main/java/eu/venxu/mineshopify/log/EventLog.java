@@ -0,0 +1,339 @@
+package eu.venxu.mineshopify.log;
+
+import com.google.gson.JsonObject;
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.config.Settings;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Structured diagnostics of the order pipeline, written as JSON lines on a background thread.
+ * Callers check the level of their category before anything is built: messages and fields
+ * are passed as suppliers and only evaluated if the event is recorded. Recorded events go
+ * into a bounded ring buffer that drops the oldest events when the writer falls behind.
+ * The file logs/events.jsonl is rotated daily or at a size limit and compressed with gzip.
+ *
+ * In debug mode every event is recorded and also written to the console, like the
+ * debug output of earlier versions.
+ */
+public class EventLog {
+
+    private static final String FILE_NAME = "events.jsonl";
+    private static final int BATCH_SIZE = 256;
+
+    private final MineShopify mineShopify;
+    private final File logFolder;
+    private final Counter dropped;
+    private final Counter written;
+    private final int[] thresholds = new int[EventCategory.values().length];
+    private final int[] fileThresholds = new int[EventCategory.values().length];
+    private volatile BlockingQueue<Event> buffer;
+    private volatile boolean echo;
+    private volatile long maxFileSize;
+    private volatile int maxFiles;
+    private volatile boolean running = true;
+    private final Thread writerThread;
+    private BufferedWriter out;
+    private File currentFile;
+    private long currentSize;
+    private LocalDate currentDay;
+
+    /**
+     * A recorded event. The message is built by the caller, the JSON line by the writer.
+     */
+    private static class Event {
+        private final long time;
+        private final EventCategory category;
+        private final Level level;
+        private final String name;
+        private final String message;
+        private final JsonObject fields;
+
+        private Event(EventCategory category, Level level, String name, String message, JsonObject fields) {
+            this.time = System.currentTimeMillis();
+            this.category = category;
+            this.level = level;
+            this.name = name;
+            this.message = message;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Initialize the event log and start the writer thread.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public EventLog(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        this.logFolder = new File(mineShopify.getDataFolder(), "logs");
+        this.currentFile = new File(logFolder, FILE_NAME);
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        this.dropped = metrics.counter("event_log_dropped_total", "Events dropped because the event log buffer was full or the file could not be written");
+        this.written = metrics.counter("event_log_written_total", "Events written to the event log");
+        metrics.gauge("event_log_buffer_length", "Events waiting to be written to the event log", () -> buffer.size());
+
+        loadConfig();
+        this.writerThread = new Thread(this::writeLoop, "MineShopify-EventLog");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Load the levels and the file settings from config.yml.
+     * The buffer is replaced when its size changes; events still in the old buffer are written first.
+     */
+    public void loadConfig() {
+        Settings settings = mineShopify.getSettings();
+        boolean debug = settings.isDebug();
+        boolean fileEnabled = settings.isEventLogEnabled();
+        echo = debug;
+        for (EventCategory category : EventCategory.values()) {
+            Level level = settings.getEventLogLevel(category);
+            // Debug mode echoes everything to the console but does not flood the file
+            fileThresholds[category.ordinal()] = fileEnabled ? level.intValue() : Level.OFF.intValue();
+            thresholds[category.ordinal()] = debug ? Level.ALL.intValue() : fileThresholds[category.ordinal()];
+        }
+        maxFileSize = settings.getEventLogMaxFileSize() * 1024L * 1024L;
+        maxFiles = settings.getEventLogMaxFiles();
+
+        int bufferSize = settings.getEventLogBufferSize();
+        BlockingQueue<Event> previous = buffer;
+        if (previous == null || previous.remainingCapacity() + previous.size() != bufferSize) {
+            BlockingQueue<Event> replacement = new ArrayBlockingQueue<>(bufferSize);
+            if (previous != null) {
+                previous.drainTo(replacement, bufferSize);
+            }
+            buffer = replacement;
+        }
+    }
+
+    /**
+     * Check whether events of a category and level are recorded.
+     * Use this to skip building diagnostics that need more than one supplier.
+     *
+     * @param category The category of the event.
+     * @param level The level of the event.
+     * @return True if the event would be recorded.
+     */
+    public boolean isLoggable(EventCategory category, Level level) {
+        return level.intValue() >= thresholds[category.ordinal()];
+    }
+
+    /**
+     * Record an event. The message is only built if the event is recorded.
+     *
+     * @param category The category of the event.
+     * @param level The level of the event.
+     * @param name The name of the event, e.g. "response".
+     * @param message The supplier of the message.
+     */
+    public void log(EventCategory category, Level level, String name, Supplier<String> message) {
+        if (isLoggable(category, level)) {
+            record(new Event(category, level, name, message.get(), null));
+        }
+    }
+
+    /**
+     * Record an event with structured fields. Message and fields are only built if the event is recorded.
+     *
+     * @param category The category of the event.
+     * @param level The level of the event.
+     * @param name The name of the event, e.g. "response".
+     * @param message The supplier of the message.
+     * @param fields Adds the fields of the event to the JSON object.
+     */
+    public void log(EventCategory category, Level level, String name, Supplier<String> message, Consumer<JsonObject> fields) {
+        if (isLoggable(category, level)) {
+            JsonObject json = new JsonObject();
+            fields.accept(json);
+            record(new Event(category, level, name, message.get(), json));
+        }
+    }
+
+    /**
+     * Write the buffered events and stop the writer thread.
+     */
+    public void close() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void record(Event event) {
+        BlockingQueue<Event> queue = buffer;
+        // Ring buffer: make room by dropping the oldest events
+        while (!queue.offer(event)) {
+            if (queue.poll() != null) {
+                dropped.increment();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Event> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !buffer.isEmpty()) {
+            try {
+                Event first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch, BATCH_SIZE - 1);
+                    write(batch);
+                } else if (out != null) {
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts the wait, the loop ends once the buffer is empty
+                running = false;
+            } catch (IOException e) {
+                mineShopify.getLogger().log(Level.WARNING, "Could not write the event log " + currentFile.getPath(), e);
+                closeFile();
+            } finally {
+                batch.clear();
+            }
+        }
+        closeFile();
+    }
+
+    /**
+     * Write a batch of events. If the file can't be written, the events not written yet are
+     * dropped and counted, so a broken disk can't make the writer hold on to them.
+     */
+    private void write(List<Event> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                write(batch.get(i));
+            } catch (IOException e) {
+                dropped.add(batch.size() - i);
+                throw e;
+            }
+        }
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    private void write(Event event) throws IOException {
+        if (echo) {
+            mineShopify.getLogger().log(event.level.intValue() >= Level.INFO.intValue() ? event.level : Level.INFO,
+                    "[" + event.category.getLabel() + "] " + event.message);
+        }
+        if (event.level.intValue() < fileThresholds[event.category.ordinal()]) {
+            return;
+        }
+        openFile(event.time);
+        String line = toJson(event) + "\n";
+        out.write(line);
+        currentSize += line.length();
+        written.increment();
+    }
+
+    private static String toJson(Event event) {
+        JsonObject json = new JsonObject();
+        json.addProperty("time", Instant.ofEpochMilli(event.time).toString());
+        json.addProperty("level", event.level.getName());
+        json.addProperty("category", event.category.getLabel());
+        json.addProperty("event", event.name);
+        json.addProperty("message", event.message);
+        if (event.fields != null) {
+            for (String key : event.fields.keySet()) {
+                json.add(key, event.fields.get(key));
+            }
+        }
+        return json.toString();
+    }
+
+    /**
+     * Open the log file, rotating the current one first if the day changed or it is full.
+     */
+    private void openFile(long time) throws IOException {
+        LocalDate day = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate();
+        if (out != null && (!day.equals(currentDay) || currentSize >= maxFileSize)) {
+            closeFile();
+            rotate();
+        }
+        if (out == null) {
+            if (!logFolder.exists() && !logFolder.mkdirs()) {
+                throw new IOException("Could not create " + logFolder.getPath());
+            }
+            // A file left from an earlier start is rotated like a running one
+            if (currentFile.exists() && (currentFile.length() >= maxFileSize
+                    || !day.equals(Instant.ofEpochMilli(currentFile.lastModified()).atZone(ZoneId.systemDefault()).toLocalDate()))) {
+                rotate();
+            }
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(currentFile, true), StandardCharsets.UTF_8));
+            currentSize = currentFile.length();
+            currentDay = day;
+        }
+    }
+
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Could not close the event log " + currentFile.getPath(), e);
+        }
+        out = null;
+    }
+
+    /**
+     * Compress the current file to events-yyyy-MM-dd-HHmmss.jsonl.gz and delete the oldest rotated files.
+     */
+    private void rotate() throws IOException {
+        if (!currentFile.exists()) {
+            return;
+        }
+        String stamp = new SimpleDateFormat("yyyy-MM-dd-HHmmss").format(new Date());
+        File rotated = new File(logFolder, "events-" + stamp + ".jsonl.gz");
+        try (InputStream in = new FileInputStream(currentFile);
+             OutputStream gzip = new GZIPOutputStream(new FileOutputStream(rotated))) {
+            in.transferTo(gzip);
+        }
+        if (!currentFile.delete()) {
+            throw new IOException("Could not delete " + currentFile.getPath() + " after rotating it");
+        }
+
+        File[] files = logFolder.listFiles((dir, name) -> name.startsWith("events-") && name.endsWith(".jsonl.gz"));
+        if (files != null && files.length > maxFiles) {
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            for (int i = 0; i < files.length - maxFiles; i++) {
+                if (!files[i].delete()) {
+                    mineShopify.getLogger().warning("Could not delete the old event log " + files[i].getName());
+                }
+            }
+        }
+    }
+}
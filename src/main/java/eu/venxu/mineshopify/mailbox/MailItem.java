@@ -0,0 +1,87 @@
+package eu.venxu.mineshopify.mailbox;
+
+import java.util.UUID;
+
+/**
+ * An item reward waiting in the mailbox of a player.
+ * The item is stored once as a serialized ItemStack with an amount of one, and the
+ * amount is kept next to it, so a reward of many stacks takes a single entry.
+ */
+public class MailItem {
+
+    private final UUID id;
+    private final String username;
+    private final String orderId;
+    private final byte[] item;
+    private final long createdAt;
+    private int amount;
+
+    /**
+     * Create a new entry for the mailbox.
+     *
+     * @param username The name of the player the item belongs to.
+     * @param orderId The id of the Shopify order the item was bought with.
+     * @param item The serialized item with an amount of one.
+     * @param amount The number of items.
+     */
+    public MailItem(String username, String orderId, byte[] item, int amount) {
+        this(UUID.randomUUID(), username, orderId, item, amount, System.currentTimeMillis());
+    }
+
+    /**
+     * Create an entry read from the storage.
+     *
+     * @param id The id of the entry.
+     * @param username The name of the player the item belongs to.
+     * @param orderId The id of the Shopify order the item was bought with.
+     * @param item The serialized item with an amount of one.
+     * @param amount The number of items.
+     * @param createdAt The time the entry was created in milliseconds.
+     */
+    public MailItem(UUID id, String username, String orderId, byte[] item, int amount, long createdAt) {
+        this.id = id;
+        this.username = username;
+        this.orderId = orderId;
+        this.item = item;
+        this.amount = amount;
+        this.createdAt = createdAt;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Get the item as serialized by {@link MailboxManager}.
+     *
+     * @return The serialized item with an amount of one.
+     */
+    public byte[] getItem() {
+        return item;
+    }
+
+    /**
+     * Get the number of items that have not been claimed yet.
+     *
+     * @return The amount, zero once the entry is fully claimed.
+     */
+    public int getAmount() {
+        return amount;
+    }
+
+    void setAmount(int amount) {
+        this.amount = amount;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,123 @@
+package eu.venxu.mineshopify.mailbox;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Local file of mailbox entries that could not be written to the storage.
+ * Every line holds one entry as a JSON object. The entries keep their id, so
+ * writing one to the storage twice does not duplicate it.
+ */
+class MailJournal {
+
+    private final File journalFile;
+
+    /**
+     * Create a journal backed by the given file.
+     *
+     * @param journalFile The file the journal is written to.
+     */
+    MailJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Append entries to the end of the journal.
+     *
+     * @param items The entries to append.
+     * @throws IOException If the journal cannot be written.
+     */
+    void append(Collection<MailItem> items) throws IOException {
+        journalFile.getParentFile().mkdirs();
+        try (BufferedWriter writer = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (MailItem item : items) {
+                writer.write(toJson(item).toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Read all entries in the journal. Lines that cannot be parsed are skipped.
+     *
+     * @return The entries in the order they were written.
+     * @throws IOException If the journal cannot be read.
+     */
+    List<MailItem> readAll() throws IOException {
+        List<MailItem> items = new ArrayList<>();
+        if (!journalFile.exists()) {
+            return items;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    items.add(fromJson(JsonParser.parseString(line).getAsJsonObject()));
+                } catch (RuntimeException ignored) {
+                    // A torn last line after a crash, the items of that write were still dropped or logged
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Replace the journal content with the given entries.
+     *
+     * @param items The entries that are still not in the storage.
+     * @throws IOException If the journal cannot be written.
+     */
+    void rewrite(Collection<MailItem> items) throws IOException {
+        if (items.isEmpty()) {
+            Files.deleteIfExists(journalFile.toPath());
+            return;
+        }
+        File tempFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (MailItem item : items) {
+                writer.write(toJson(item).toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile.toPath(), journalFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static JsonObject toJson(MailItem item) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", item.getId().toString());
+        json.addProperty("username", item.getUsername());
+        json.addProperty("orderId", item.getOrderId());
+        json.addProperty("item", Base64.getEncoder().encodeToString(item.getItem()));
+        json.addProperty("amount", item.getAmount());
+        json.addProperty("createdAt", item.getCreatedAt());
+        return json;
+    }
+
+    private static MailItem fromJson(JsonObject json) {
+        return new MailItem(UUID.fromString(json.get("id").getAsString()),
+                json.get("username").getAsString(),
+                json.get("orderId").getAsString(),
+                Base64.getDecoder().decode(json.get("item").getAsString()),
+                json.get("amount").getAsInt(),
+                json.get("createdAt").getAsLong());
+    }
+}
@@ -0,0 +1,28 @@
+package eu.venxu.mineshopify.mailbox;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+/**
+ * Reminds players of the items waiting in their mailbox when they join.
+ */
+public class MailboxListener implements Listener {
+
+    private final MailboxManager mailboxManager;
+
+    /**
+     * Create a listener for the given mailbox manager.
+     *
+     * @param mailboxManager The mailbox manager to ask.
+     */
+    public MailboxListener(MailboxManager mailboxManager) {
+        this.mailboxManager = mailboxManager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        mailboxManager.notifyPending(event.getPlayer());
+    }
+}
@@ -0,0 +1,560 @@
+package eu.venxu.mineshopify.mailbox;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.config.Settings;
+import eu.venxu.mineshopify.log.EventCategory;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import eu.venxu.mineshopify.profiler.TickProfiler;
+import eu.venxu.mineshopify.storage.IAsyncStorage;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Keeps item rewards that could not be put into the inventory of a player, because the
+ * inventory was full or the player was offline, in a mailbox in the active storage.
+ * Similar items are merged into one entry with an amount. Entries that can't be written
+ * to the storage are kept in mailbox-pending.log and written again every minute.
+ *
+ * Players take their items out with /mineshopify claim. The mailbox is loaded page by page
+ * and handed out on the main thread in batches that stop once the tick budget of the claim
+ * is used up, so a large mailbox is spread over several ticks. Each batch first writes the
+ * lowered amounts to the storage and only hands out the items once that write succeeded,
+ * so a slow or failing storage can never hand out an item twice.
+ */
+public class MailboxManager {
+
+    private static final long RETRY_INTERVAL = 1200L;
+
+    private final MineShopify mineShopify;
+    private final Map<UUID, Claim> claims = new HashMap<>();
+    private final MailJournal journal;
+    private final Counter itemsStored;
+    private final Counter itemsClaimed;
+    private final Counter itemsDropped;
+    private final BukkitTask retryTask;
+    private int pendingEntries;
+    private boolean retrying;
+
+    /**
+     * Initialize the mailbox manager.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public MailboxManager(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        this.journal = new MailJournal(new File(mineShopify.getDataFolder(), "mailbox-pending.log"));
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        this.itemsStored = metrics.counter("mailbox_items_stored_total", "Items put into a mailbox because the inventory was full or the player offline");
+        this.itemsClaimed = metrics.counter("mailbox_items_claimed_total", "Items taken out of a mailbox with /mineshopify claim");
+        this.itemsDropped = metrics.counter("mailbox_items_dropped_total", "Items dropped at the player because the mailbox was unavailable");
+        metrics.gauge("mailbox_pending_entries", "Mailbox entries waiting in mailbox-pending.log for the storage", () -> pendingEntries);
+
+        try {
+            pendingEntries = journal.readAll().size();
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to read mailbox-pending.log", e);
+        }
+        this.retryTask = Bukkit.getScheduler().runTaskTimer(mineShopify,
+                () -> mineShopify.getTickProfiler().run(TickProfiler.MAILBOX, this::retryPending), RETRY_INTERVAL, RETRY_INTERVAL);
+    }
+
+    /**
+     * Check if undeliverable items go to the mailbox.
+     *
+     * @return True if the mailbox is enabled.
+     */
+    public boolean isEnabled() {
+        return mineShopify.getSettings().isMailboxEnabled();
+    }
+
+    /**
+     * Put items into the mailbox of a player. Must be called on the main thread.
+     * If the mailbox is disabled, the items are dropped at the player instead. If the
+     * storage can't take them, they are kept in mailbox-pending.log until it can.
+     *
+     * @param playerName The name of the player.
+     * @param orderId The id of the Shopify order the items were bought with.
+     * @param items The items that could not be given.
+     */
+    public void store(String playerName, String orderId, Collection<ItemStack> items) {
+        if (!isEnabled()) {
+            drop(playerName, orderId, items);
+            return;
+        }
+
+        List<MailItem> entries;
+        try {
+            entries = toMailItems(playerName, orderId, items);
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Failed to serialize the items of order " + orderId + " for the mailbox", e);
+            drop(playerName, orderId, items);
+            return;
+        }
+        IAsyncStorage storage = mineShopify.getStorageManager().getAsyncStorage();
+        if (storage == null) {
+            keep(playerName, orderId, entries, items);
+            return;
+        }
+        storage.addMailItems(entries).whenComplete((result, error) ->
+                mineShopify.getTickProfiler().runTask(TickProfiler.MAILBOX, () -> {
+                    if (error != null) {
+                        // Writes are never abandoned, so a failed write did not store the entries
+                        mineShopify.getLogger().log(Level.WARNING, "Failed to put the items of order " + orderId + " into the mailbox of "
+                                + playerName + ", they are kept in mailbox-pending.log", error);
+                        keep(playerName, orderId, entries, items);
+                        return;
+                    }
+                    int amount = entries.stream().mapToInt(MailItem::getAmount).sum();
+                    itemsStored.add(amount);
+                    Player player = Bukkit.getPlayerExact(playerName);
+                    if (player != null) {
+                        player.sendMessage(MineShopify.PREFIX + ChatColor.YELLOW + "📦 " + amount + " Gegenstände liegen in deinem Postfach. Hole sie mit "
+                                + ChatColor.WHITE + "/mineshopify claim" + ChatColor.YELLOW + " ab.");
+                    }
+                }));
+    }
+
+    /**
+     * Tell a player who just joined about the items waiting in the mailbox.
+     *
+     * @param player The player who joined.
+     */
+    public void notifyPending(Player player) {
+        IAsyncStorage storage = mineShopify.getStorageManager().getAsyncStorage();
+        if (!isEnabled() || storage == null) {
+            return;
+        }
+        storage.getMailItems(player.getName(), 1).whenComplete((items, error) ->
+                mineShopify.getTickProfiler().runTask(TickProfiler.MAILBOX, () -> {
+                    if (error == null && !items.isEmpty() && player.isOnline()) {
+                        player.sendMessage(MineShopify.PREFIX + ChatColor.YELLOW + "📦 In deinem Postfach liegen Gegenstände. Hole sie mit "
+                                + ChatColor.WHITE + "/mineshopify claim" + ChatColor.YELLOW + " ab.");
+                    }
+                }));
+    }
+
+    /**
+     * Start handing out the mailbox of a player. Must be called on the main thread.
+     *
+     * @param player The player claiming the items.
+     */
+    public void claim(Player player) {
+        if (!isEnabled()) {
+            player.sendMessage(ChatColor.RED + "Das Postfach ist deaktiviert.");
+            return;
+        }
+        if (!mineShopify.getStorageManager().isReady()) {
+            player.sendMessage(ChatColor.RED + "Der Speicher ist noch nicht bereit. Bitte versuche es gleich erneut.");
+            return;
+        }
+        if (claims.containsKey(player.getUniqueId())) {
+            player.sendMessage(ChatColor.RED + "Deine Gegenstände werden bereits abgeholt.");
+            return;
+        }
+        Claim claim = new Claim(player);
+        claims.put(player.getUniqueId(), claim);
+        claim.loadPage();
+    }
+
+    /**
+     * Stop all running claims and the retries of mailbox-pending.log.
+     * Batches whose amounts are already being written are still handed out.
+     */
+    public void close() {
+        retryTask.cancel();
+        for (Claim claim : new ArrayList<>(claims.values())) {
+            claim.cancelTask();
+        }
+        claims.clear();
+    }
+
+    /**
+     * Keep entries the storage could not take in mailbox-pending.log.
+     * Only if that fails too, the items are dropped at the player.
+     */
+    private void keep(String playerName, String orderId, List<MailItem> entries, Collection<ItemStack> items) {
+        try {
+            journal.append(entries);
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to write the items of order " + orderId + " to mailbox-pending.log", e);
+            drop(playerName, orderId, items);
+            return;
+        }
+        pendingEntries += entries.size();
+        Player player = Bukkit.getPlayerExact(playerName);
+        if (player != null) {
+            player.sendMessage(MineShopify.PREFIX + ChatColor.YELLOW + "📦 Deine Gegenstände werden in dein Postfach gelegt, sobald der Speicher verfügbar ist.");
+        }
+    }
+
+    /**
+     * Write the entries of mailbox-pending.log to the storage. The entries keep their ids,
+     * so an entry that reached the storage before is not duplicated.
+     */
+    private void retryPending() {
+        IAsyncStorage storage = mineShopify.getStorageManager().getAsyncStorage();
+        if (pendingEntries == 0 || retrying || storage == null) {
+            return;
+        }
+        List<MailItem> entries;
+        try {
+            entries = journal.readAll();
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Failed to read mailbox-pending.log", e);
+            return;
+        }
+        retrying = true;
+        storage.addMailItems(entries).whenComplete((result, error) ->
+                mineShopify.getTickProfiler().runTask(TickProfiler.MAILBOX, () -> {
+                    retrying = false;
+                    if (error != null) {
+                        mineShopify.getEventLog().log(EventCategory.STORAGE, Level.WARNING, "mailbox_pending",
+                                () -> entries.size() + " mailbox entries are still waiting in mailbox-pending.log: " + error.getMessage());
+                        return;
+                    }
+                    Set<UUID> written = new HashSet<>();
+                    for (MailItem entry : entries) {
+                        written.add(entry.getId());
+                        itemsStored.add(entry.getAmount());
+                    }
+                    try {
+                        // Entries appended while the write was running stay in the file
+                        List<MailItem> remaining = journal.readAll();
+                        remaining.removeIf(entry -> written.contains(entry.getId()));
+                        journal.rewrite(remaining);
+                        pendingEntries = remaining.size();
+                    } catch (IOException e) {
+                        mineShopify.getLogger().log(Level.WARNING, "Failed to update mailbox-pending.log, its entries are written again", e);
+                    }
+                    mineShopify.getLogger().info("Moved " + entries.size() + " mailbox entries from mailbox-pending.log into the storage.");
+                }));
+    }
+
+    /**
+     * Merge similar items and serialize each kind once with an amount of one.
+     */
+    private static List<MailItem> toMailItems(String playerName, String orderId, Collection<ItemStack> items) throws IOException {
+        List<ItemStack> kinds = new ArrayList<>();
+        List<Integer> amounts = new ArrayList<>();
+        for (ItemStack item : items) {
+            int kind = 0;
+            while (kind < kinds.size() && !kinds.get(kind).isSimilar(item)) {
+                kind++;
+            }
+            if (kind == kinds.size()) {
+                kinds.add(item);
+                amounts.add(0);
+            }
+            amounts.set(kind, amounts.get(kind) + item.getAmount());
+        }
+        List<MailItem> entries = new ArrayList<>();
+        for (int i = 0; i < kinds.size(); i++) {
+            ItemStack single = kinds.get(i).clone();
+            single.setAmount(1);
+            entries.add(new MailItem(playerName, orderId, serialize(single), amounts.get(i)));
+        }
+        return entries;
+    }
+
+    private static byte[] serialize(ItemStack item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BukkitObjectOutputStream out = new BukkitObjectOutputStream(bytes)) {
+            out.writeObject(item);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ItemStack deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (BukkitObjectInputStream in = new BukkitObjectInputStream(new ByteArrayInputStream(data))) {
+            return (ItemStack) in.readObject();
+        }
+    }
+
+    /**
+     * Drop items at the player, or log them for a manual replacement if the player is offline.
+     */
+    private void drop(String playerName, String orderId, Collection<ItemStack> items) {
+        Player player = Bukkit.getPlayerExact(playerName);
+        for (ItemStack item : items) {
+            if (player == null) {
+                mineShopify.getLogger().severe("Could not deliver " + item.getAmount() + "x " + item.getType() + " of order " + orderId
+                        + " to " + playerName + ", the player is offline and the mailbox is unavailable.");
+                continue;
+            }
+            player.getWorld().dropItemNaturally(player.getLocation(), item);
+            itemsDropped.add(item.getAmount());
+        }
+    }
+
+    /**
+     * Put items into a copy of the inventory contents, filling similar stacks first like addItem.
+     *
+     * @param contents The copied storage contents of the inventory, changed in place.
+     * @param single The item with an amount of one.
+     * @param amount The number of items to put.
+     * @return The number of items that fit.
+     */
+    private static int fit(ItemStack[] contents, ItemStack single, int amount) {
+        int maxStackSize = Math.max(1, single.getMaxStackSize());
+        int left = amount;
+        for (int i = 0; i < contents.length && left > 0; i++) {
+            ItemStack slot = contents[i];
+            if (slot != null && slot.getType() != Material.AIR && slot.isSimilar(single) && slot.getAmount() < maxStackSize) {
+                int added = Math.min(left, maxStackSize - slot.getAmount());
+                slot.setAmount(slot.getAmount() + added);
+                left -= added;
+            }
+        }
+        for (int i = 0; i < contents.length && left > 0; i++) {
+            if (contents[i] == null || contents[i].getType() == Material.AIR) {
+                int added = Math.min(left, maxStackSize);
+                contents[i] = single.clone();
+                contents[i].setAmount(added);
+                left -= added;
+            }
+        }
+        return amount - left;
+    }
+
+    /**
+     * Split an amount of an item into full stacks.
+     */
+    private static ItemStack[] stacks(ItemStack single, int amount) {
+        List<ItemStack> stacks = new ArrayList<>();
+        int remaining = amount;
+        while (remaining > 0) {
+            ItemStack stack = single.clone();
+            int stackAmount = Math.min(remaining, Math.max(1, stack.getMaxStackSize()));
+            stack.setAmount(stackAmount);
+            stacks.add(stack);
+            remaining -= stackAmount;
+        }
+        return stacks.toArray(new ItemStack[0]);
+    }
+
+    /**
+     * Items taken out of a mailbox entry by a claim, handed out once the storage has the lowered amount.
+     */
+    private static class Reservation {
+        private final MailItem entry;
+        private final ItemStack single;
+        private final int amount;
+
+        private Reservation(MailItem entry, ItemStack single, int amount) {
+            this.entry = entry;
+            this.single = single;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * A running claim of one player. Lives on the main thread.
+     */
+    private class Claim {
+        private final UUID playerId;
+        private final String username;
+        private final int pageSize;
+        private final long claimBudgetNanos;
+        private List<MailItem> page;
+        private int index;
+        private int claimed;
+        private int claimedOnPage;
+        private boolean full;
+        private BukkitTask task;
+
+        private Claim(Player player) {
+            this.playerId = player.getUniqueId();
+            this.username = player.getName();
+            Settings settings = mineShopify.getSettings();
+            this.pageSize = settings.getMailboxPageSize();
+            this.claimBudgetNanos = (long) (settings.getMailboxClaimBudgetMs() * 1_000_000L);
+        }
+
+        /**
+         * Load the next page of the mailbox and hand it out over the following ticks.
+         */
+        private void loadPage() {
+            mineShopify.getStorageManager().getAsyncStorage().getMailItems(username, pageSize).whenComplete((items, error) ->
+                    mineShopify.getTickProfiler().runTask(TickProfiler.MAILBOX, () -> {
+                        if (claims.get(playerId) != this) {
+                            return;
+                        }
+                        if (error != null) {
+                            mineShopify.getLogger().log(Level.WARNING, "Failed to load the mailbox of " + username, error);
+                            finish(ChatColor.RED + "Dein Postfach konnte nicht geladen werden. Bitte versuche es später erneut.");
+                            return;
+                        }
+                        if (items.isEmpty()) {
+                            finish(claimed == 0 ? ChatColor.YELLOW + "Dein Postfach ist leer."
+                                    : ChatColor.GREEN + "Du hast " + claimed + " Gegenstände aus deinem Postfach abgeholt.");
+                            return;
+                        }
+                        page = items;
+                        index = 0;
+                        claimedOnPage = 0;
+                        scheduleBatch();
+                    }));
+        }
+
+        private void scheduleBatch() {
+            task = Bukkit.getScheduler().runTask(mineShopify,
+                    () -> mineShopify.getTickProfiler().run(TickProfiler.MAILBOX, this::reserve));
+        }
+
+        /**
+         * Take as many items out of the page as fit into the inventory until the budget of
+         * this tick is used up, at least one entry per tick, and write the lowered amounts.
+         */
+        private void reserve() {
+            task = null;
+            Player player = Bukkit.getPlayer(playerId);
+            if (player == null) {
+                claims.remove(playerId);
+                return;
+            }
+            ItemStack[] contents = player.getInventory().getStorageContents();
+            for (int i = 0; i < contents.length; i++) {
+                contents[i] = contents[i] == null ? null : contents[i].clone();
+            }
+            long start = System.nanoTime();
+            List<Reservation> reservations = new ArrayList<>();
+            List<MailItem> changed = new ArrayList<>();
+            do {
+                MailItem entry = page.get(index);
+                ItemStack single = read(entry);
+                if (single != null) {
+                    int amount = fit(contents, single, entry.getAmount());
+                    if (amount > 0) {
+                        entry.setAmount(entry.getAmount() - amount);
+                        reservations.add(new Reservation(entry, single, amount));
+                        changed.add(entry);
+                    }
+                    if (entry.getAmount() > 0) {
+                        // The inventory is full, the rest stays in the mailbox
+                        full = true;
+                        break;
+                    }
+                }
+                index++;
+            } while (index < page.size() && System.nanoTime() - start < claimBudgetNanos);
+
+            if (reservations.isEmpty()) {
+                endPage();
+                return;
+            }
+            mineShopify.getStorageManager().getAsyncStorage().updateMailItems(changed).whenComplete((result, error) ->
+                    mineShopify.getTickProfiler().runTask(TickProfiler.MAILBOX, () -> {
+                        if (error != null) {
+                            // Nothing was handed out, the entries keep their amounts in the storage
+                            mineShopify.getLogger().log(Level.WARNING, "Failed to write the claimed mailbox items of " + username
+                                    + ", they stay in the mailbox", error);
+                            if (claims.get(playerId) == this) {
+                                finish(ChatColor.RED + "Dein Postfach konnte nicht gespeichert werden. Bitte versuche es später erneut.");
+                            }
+                            return;
+                        }
+                        // The items are out of the storage now and are handed out even if the claim was stopped
+                        handOut(reservations);
+                        if (claims.get(playerId) != this) {
+                            return;
+                        }
+                        if (full || index >= page.size()) {
+                            endPage();
+                        } else {
+                            scheduleBatch();
+                        }
+                    }));
+        }
+
+        /**
+         * Put reserved items into the inventory. Items that don't fit anymore, e.g. because the
+         * player picked something up meanwhile or went offline, go back into the mailbox.
+         */
+        private void handOut(List<Reservation> reservations) {
+            Player player = Bukkit.getPlayer(playerId);
+            for (Reservation reservation : reservations) {
+                int left = reservation.amount;
+                if (player != null) {
+                    left = 0;
+                    for (ItemStack leftover : player.getInventory().addItem(stacks(reservation.single, reservation.amount)).values()) {
+                        left += leftover.getAmount();
+                    }
+                }
+                int given = reservation.amount - left;
+                claimed += given;
+                claimedOnPage += given;
+                itemsClaimed.add(given);
+                if (left > 0) {
+                    full = true;
+                    store(username, reservation.entry.getOrderId(), Arrays.asList(stacks(reservation.single, left)));
+                }
+            }
+        }
+
+        /**
+         * Read the item of an entry.
+         *
+         * @return The item with an amount of one, or null if the entry can't be read and is skipped.
+         */
+        private ItemStack read(MailItem entry) {
+            try {
+                return deserialize(entry.getItem());
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                mineShopify.getLogger().log(Level.WARNING, "Skipping mailbox entry " + entry.getId() + " of " + username + ", it can't be read", e);
+                return null;
+            }
+        }
+
+        /**
+         * Continue with the next page or finish the claim.
+         */
+        private void endPage() {
+            // Unreadable entries stay in the mailbox, so only continue if this page handed out anything
+            boolean morePages = !full && page.size() >= pageSize && index >= page.size() && claimedOnPage > 0;
+            if (morePages && Bukkit.getPlayer(playerId) != null) {
+                loadPage();
+                return;
+            }
+            finish(full ? ChatColor.YELLOW + "Dein Inventar ist voll. Du hast " + claimed
+                    + " Gegenstände abgeholt, der Rest bleibt im Postfach. Mach Platz und verwende erneut /mineshopify claim."
+                    : ChatColor.GREEN + "Du hast " + claimed + " Gegenstände aus deinem Postfach abgeholt.");
+        }
+
+        private void finish(String message) {
+            claims.remove(playerId);
+            Player player = Bukkit.getPlayer(playerId);
+            if (player != null) {
+                player.sendMessage(MineShopify.PREFIX + message);
+            }
+        }
+
+        private void cancelTask() {
+            if (task != null) {
+                task.cancel();
+                task = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package eu.venxu.mineshopify.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Backed by a striped LongAdder,
+ * so concurrent increments from many threads do not contend on a single value.
+ */
+public class Counter implements Metric {
+
+    private final String name;
+    private final String help;
+    private final String labels;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name, String help, String labels) {
+        this.name = name;
+        this.help = help;
+        this.labels = labels;
+    }
+
+    /**
+     * Increment the counter by one.
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Increment the counter.
+     *
+     * @param amount The amount to add.
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * Get the current count.
+     *
+     * @return The sum of all increments.
+     */
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getLabels() {
+        return labels;
+    }
+
+    @Override
+    public String getHelp() {
+        return help;
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder out) {
+        out.append(name).append(labels).append(' ').append(value.sum()).append('\n');
+    }
+}
@@ -0,0 +1,55 @@
+package eu.venxu.mineshopify.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value that is read when the metrics are exported, e.g. the length of a queue.
+ */
+public class Gauge implements Metric {
+
+    private final String name;
+    private final String help;
+    private final String labels;
+    private final LongSupplier supplier;
+
+    Gauge(String name, String help, String labels, LongSupplier supplier) {
+        this.name = name;
+        this.help = help;
+        this.labels = labels;
+        this.supplier = supplier;
+    }
+
+    /**
+     * Read the current value.
+     *
+     * @return The value of the gauge.
+     */
+    public long get() {
+        return supplier.getAsLong();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getLabels() {
+        return labels;
+    }
+
+    @Override
+    public String getHelp() {
+        return help;
+    }
+
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder out) {
+        out.append(name).append(labels).append(' ').append(supplier.getAsLong()).append('\n');
+    }
+}
@@ -0,0 +1,167 @@
+package eu.venxu.mineshopify.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of observed values over fixed buckets.
+ * Recording a value is a binary search over the bucket bounds and two striped
+ * increments, so it never allocates. Latencies are recorded in nanoseconds
+ * and exported in seconds.
+ */
+public class Histogram implements Metric {
+
+    /**
+     * Bucket bounds for latencies in nanoseconds, from 1 ms to 60 s.
+     */
+    public static final long[] LATENCY_BUCKETS = {
+            1_000_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L,
+            500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L, 30_000_000_000L, 60_000_000_000L
+    };
+
+    /**
+     * Bucket bounds for latencies in nanoseconds that include waiting for the next poll, from 1 s to 1 h.
+     */
+    public static final long[] DELIVERY_BUCKETS = {
+            1_000_000_000L, 5_000_000_000L, 10_000_000_000L, 30_000_000_000L, 60_000_000_000L, 120_000_000_000L,
+            300_000_000_000L, 600_000_000_000L, 1_800_000_000_000L, 3_600_000_000_000L
+    };
+
+    /**
+     * Bucket bounds for main thread time per tick in nanoseconds, from 0.1 ms to the whole 50 ms tick.
+     */
+    public static final long[] TICK_BUCKETS = {
+            100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L
+    };
+
+    /**
+     * Bucket bounds for small counts, e.g. orders per poll.
+     */
+    public static final long[] COUNT_BUCKETS = {0, 1, 2, 5, 10, 25, 50, 100, 250};
+
+    private final String name;
+    private final String help;
+    private final String labels;
+    private final long[] bounds;
+    private final double scale;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+    private final LongAdder count = new LongAdder();
+
+    Histogram(String name, String help, String labels, long[] bounds, double scale) {
+        this.name = name;
+        this.help = help;
+        this.labels = labels;
+        this.bounds = bounds.clone();
+        this.scale = scale;
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value The value, in nanoseconds for latency histograms.
+     */
+    public void observe(long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        buckets[index].increment();
+        sum.add(value);
+        count.increment();
+    }
+
+    /**
+     * Record the time elapsed since a start time.
+     *
+     * @param startNanos The start time from {@link System#nanoTime()}.
+     */
+    public void observeSince(long startNanos) {
+        observe(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the mean of the recorded values in the exported unit.
+     *
+     * @return The mean, seconds for latency histograms, 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long total = count.sum();
+        return total == 0 ? 0 : sum.sum() * scale / total;
+    }
+
+    /**
+     * Estimate a quantile from the buckets in the exported unit.
+     * The result is the upper bound of the bucket that contains the quantile.
+     *
+     * @param quantile The quantile between 0 and 1, e.g. 0.95.
+     * @return The estimated value, or the highest bound if it lies in the overflow bucket.
+     */
+    public double getQuantile(double quantile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return bounds[i] * scale;
+            }
+        }
+        return bounds[bounds.length - 1] * scale;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getLabels() {
+        return labels;
+    }
+
+    @Override
+    public String getHelp() {
+        return help;
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder out) {
+        String labelPrefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket").append(labelPrefix).append("le=\"").append(format(bounds[i] * scale)).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(name).append("_bucket").append(labelPrefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum").append(labels).append(' ').append(format(sum.sum() * scale)).append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
@@ -0,0 +1,42 @@
+package eu.venxu.mineshopify.metrics;
+
+/**
+ * A named value that can be written in the Prometheus text format.
+ */
+public interface Metric {
+
+    /**
+     * Get the metric name without labels.
+     *
+     * @return The name, e.g. mineshopify_orders_seen_total.
+     */
+    String getName();
+
+    /**
+     * Get the labels of the metric.
+     *
+     * @return The labels in the Prometheus format, e.g. {operation="check"}, or an empty string.
+     */
+    String getLabels();
+
+    /**
+     * Get the help text of the metric.
+     *
+     * @return The description written as # HELP line.
+     */
+    String getHelp();
+
+    /**
+     * Get the Prometheus type of the metric.
+     *
+     * @return counter, gauge or histogram.
+     */
+    String getType();
+
+    /**
+     * Append the samples of this metric in the Prometheus text format.
+     *
+     * @param out The builder to write to.
+     */
+    void writeSamples(StringBuilder out);
+}
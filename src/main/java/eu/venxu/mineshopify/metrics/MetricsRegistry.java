@@ -0,0 +1,154 @@
+package eu.venxu.mineshopify.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the metrics of the plugin. Metrics are registered once, usually when a manager
+ * is created, and the returned instance is kept in a field, so recording a value never
+ * involves a lookup. Registering the same name and labels again returns the existing metric.
+ */
+public class MetricsRegistry {
+
+    private static final String PREFIX = "mineshopify_";
+    private static final double NANOS_TO_SECONDS = 1e-9;
+
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    /**
+     * Get or register a counter.
+     *
+     * @param name The name without the mineshopify_ prefix, ending in _total.
+     * @param help The description of the counter.
+     * @param labels Label name and value pairs, e.g. "operation", "check".
+     * @return The counter.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return register(new Counter(PREFIX + name, help, formatLabels(labels)));
+    }
+
+    /**
+     * Get or register a gauge.
+     *
+     * @param name The name without the mineshopify_ prefix.
+     * @param help The description of the gauge.
+     * @param supplier Supplies the current value when the metrics are exported.
+     * @param labels Label name and value pairs.
+     * @return The gauge.
+     */
+    public Gauge gauge(String name, String help, LongSupplier supplier, String... labels) {
+        return register(new Gauge(PREFIX + name, help, formatLabels(labels), supplier));
+    }
+
+    /**
+     * Get or register a latency histogram. Values are recorded in nanoseconds and exported in seconds.
+     *
+     * @param name The name without the mineshopify_ prefix, ending in _seconds.
+     * @param help The description of the histogram.
+     * @param labels Label name and value pairs.
+     * @return The histogram.
+     */
+    public Histogram latency(String name, String help, String... labels) {
+        return register(new Histogram(PREFIX + name, help, formatLabels(labels), Histogram.LATENCY_BUCKETS, NANOS_TO_SECONDS));
+    }
+
+    /**
+     * Get or register a latency histogram with custom buckets in nanoseconds.
+     *
+     * @param name The name without the mineshopify_ prefix, ending in _seconds.
+     * @param help The description of the histogram.
+     * @param bounds The upper bounds of the buckets in nanoseconds, e.g. {@link Histogram#DELIVERY_BUCKETS}.
+     * @param labels Label name and value pairs.
+     * @return The histogram.
+     */
+    public Histogram latency(String name, String help, long[] bounds, String... labels) {
+        return register(new Histogram(PREFIX + name, help, formatLabels(labels), bounds, NANOS_TO_SECONDS));
+    }
+
+    /**
+     * Get or register a histogram with custom buckets.
+     *
+     * @param name The name without the mineshopify_ prefix.
+     * @param help The description of the histogram.
+     * @param bounds The upper bounds of the buckets in ascending order.
+     * @param labels Label name and value pairs.
+     * @return The histogram.
+     */
+    public Histogram histogram(String name, String help, long[] bounds, String... labels) {
+        return register(new Histogram(PREFIX + name, help, formatLabels(labels), bounds, 1));
+    }
+
+    /**
+     * Find a registered metric.
+     *
+     * @param type The expected type of the metric.
+     * @param name The name without the mineshopify_ prefix.
+     * @param labels Label name and value pairs.
+     * @param <T> The type of the metric.
+     * @return The metric, or null if no metric of that type is registered under the name and labels.
+     */
+    public <T extends Metric> T find(Class<T> type, String name, String... labels) {
+        Metric metric;
+        synchronized (metrics) {
+            metric = metrics.get(PREFIX + name + formatLabels(labels));
+        }
+        return type.isInstance(metric) ? type.cast(metric) : null;
+    }
+
+    /**
+     * Write all metrics in the Prometheus text exposition format.
+     *
+     * @return The exported metrics.
+     */
+    public String export() {
+        List<Metric> snapshot;
+        synchronized (metrics) {
+            snapshot = new ArrayList<>(metrics.values());
+        }
+        // Samples of one name must be grouped below a single HELP and TYPE line
+        Map<String, List<Metric>> byName = new LinkedHashMap<>();
+        for (Metric metric : snapshot) {
+            byName.computeIfAbsent(metric.getName(), key -> new ArrayList<>()).add(metric);
+        }
+        StringBuilder out = new StringBuilder(4096);
+        for (List<Metric> group : byName.values()) {
+            Metric first = group.get(0);
+            out.append("# HELP ").append(first.getName()).append(' ').append(first.getHelp()).append('\n');
+            out.append("# TYPE ").append(first.getName()).append(' ').append(first.getType()).append('\n');
+            for (Metric metric : group) {
+                metric.writeSamples(out);
+            }
+        }
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T register(T metric) {
+        String key = metric.getName() + metric.getLabels();
+        synchronized (metrics) {
+            Metric existing = metrics.get(key);
+            if (existing != null) {
+                return (T) existing;
+            }
+            metrics.put(key, metric);
+            return metric;
+        }
+    }
+
+    private static String formatLabels(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return out.append('}').toString();
+    }
+}
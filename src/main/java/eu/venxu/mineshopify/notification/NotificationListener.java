@@ -0,0 +1,34 @@
+package eu.venxu.mineshopify.notification;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Keeps the online recipients of the notification manager up to date.
+ */
+public class NotificationListener implements Listener {
+
+    private final NotificationManager notificationManager;
+
+    /**
+     * Create a listener for the given notification manager.
+     *
+     * @param notificationManager The notification manager to update.
+     */
+    public NotificationListener(NotificationManager notificationManager) {
+        this.notificationManager = notificationManager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        notificationManager.updateRecipient(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        notificationManager.removeRecipient(event.getPlayer());
+    }
+}
@@ -1,23 +1,62 @@
 package eu.venxu.mineshopify.notification;
 
 import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.metrics.Counter;
 import eu.venxu.mineshopify.order.Order;
+import eu.venxu.mineshopify.profiler.TickProfiler;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 /**
  * Manages notifications for the MineShopify plugin.
+ * The online recipients are tracked by join and quit events, so sending a
+ * notification only iterates the players that actually receive it.
+ * In digest mode purchases are collected for a configurable window and every
+ * recipient gets one summary message, limited to one per minimum interval.
  */
 public class NotificationManager {
 
+    /**
+     * Players with this permission receive notifications in addition to the configured recipients.
+     */
+    public static final String NOTIFY_PERMISSION = "mineshopify.notify";
+
     private final MineShopify mineShopify;
+    private final Set<Player> onlineRecipients = ConcurrentHashMap.newKeySet();
     private boolean enabled;
-    private List<String> recipients;
+    private Set<String> recipients = new HashSet<>();
     private String notificationMessage;
+    private String consoleMessage;
+    
+    private boolean digestEnabled;
+    private boolean coalesceBroadcasts;
+    private long digestMinInterval;
+    private int digestMaxPackages;
+    private int digestSummarySize;
+    private String digestMessage;
+    private String digestConsoleMessage;
+    private String digestMoreFormat;
+    private String broadcastDigestMessage;
+    private PurchaseDigest pendingDigest;
+    private PurchaseDigest pendingBroadcasts;
+    private final Map<Player, PurchaseDigest> deferredDigests = new HashMap<>();
+    private final Map<Player, Long> lastDigestAt = new HashMap<>();
+    private BukkitTask digestTask;
+    private WebhookNotifier webhookNotifier;
+    private final Counter notificationsSent;
+    private final Counter digestsSent;
 
     /**
      * Initialize the notification manager.
@@ -26,6 +65,11 @@ public class NotificationManager {
      */
     public NotificationManager(MineShopify mineShopify) {
         this.mineShopify = mineShopify;
+        this.notificationsSent = mineShopify.getMetrics().counter("notifications_sent_total", "Purchase notifications sent to players");
+        this.digestsSent = mineShopify.getMetrics().counter("notification_digests_sent_total", "Purchase digests sent to players");
+        mineShopify.getMetrics().gauge("notification_recipients_online", "Notification recipients currently online", onlineRecipients::size);
+        mineShopify.getMetrics().gauge("webhook_queue_length", "Webhook events waiting to be delivered",
+                () -> webhookNotifier == null ? 0 : webhookNotifier.getQueuedCount());
         loadConfig();
     }
 
@@ -35,11 +79,28 @@ public class NotificationManager {
     public void loadConfig() {
         try {
             enabled = mineShopify.getConfig().getBoolean("notifications.enabled", true);
-            recipients = mineShopify.getConfig().getStringList("notifications.recipients");
-            notificationMessage = mineShopify.getConfig().getString("notifications.message", 
+            Set<String> configuredRecipients = new HashSet<>();
+            for (String recipient : mineShopify.getConfig().getStringList("notifications.recipients")) {
+                configuredRecipients.add(recipient.toLowerCase(Locale.ROOT));
+            }
+            recipients = configuredRecipients;
+            
+            // Translate the template once, only the placeholders are replaced per order
+            String template = mineShopify.getConfig().getString("notifications.message", 
                     "&a[MineShopify] &e%player% &7hat &6%package% &7gekauft! (Bestellung: &e%order_id%&7)");
+            notificationMessage = ChatColor.translateAlternateColorCodes('&', template);
+            consoleMessage = ChatColor.stripColor(notificationMessage);
             
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
+            refreshRecipients();
+            loadDigestConfig();
+            
+            // Restart the webhook notifier, the new one loads the backlog once the old one has written it
+            CompletableFuture<Void> previousClosed = webhookNotifier != null
+                    ? webhookNotifier.close() : CompletableFuture.completedFuture(null);
+            webhookNotifier = new WebhookNotifier(mineShopify);
+            webhookNotifier.start(previousClosed);
+            
+            if (mineShopify.getSettings().isDebug()) {
                 mineShopify.getLogger().info("Notification system initialized. Enabled: " + enabled);
             }
         } catch (Exception e) {
@@ -48,36 +109,207 @@ public class NotificationManager {
         }
     }
 
+    /**
+     * Load the digest settings and restart the digest task.
+     * Purchases collected with the previous settings are sent first.
+     */
+    private void loadDigestConfig() {
+        if (digestTask != null) {
+            digestTask.cancel();
+            digestTask = null;
+            flushDigests();
+        }
+        
+        digestEnabled = mineShopify.getConfig().getBoolean("notifications.digest.enabled", false);
+        coalesceBroadcasts = digestEnabled && mineShopify.getConfig().getBoolean("notifications.digest.coalesce_broadcasts", false);
+        long window = Math.max(1, mineShopify.getConfig().getLong("notifications.digest.window", 10));
+        digestMinInterval = Math.max(0, mineShopify.getConfig().getLong("notifications.digest.min_interval", 30)) * 1000L;
+        digestMaxPackages = Math.max(1, mineShopify.getConfig().getInt("notifications.digest.max_packages", 50));
+        digestSummarySize = Math.max(1, mineShopify.getConfig().getInt("notifications.digest.summary_size", 5));
+        digestMessage = ChatColor.translateAlternateColorCodes('&', mineShopify.getConfig().getString("notifications.digest.message",
+                "&6[&e&lSHOP&6] &e%count% &7purchases in the last &e%seconds%s&7: &6%summary%"));
+        digestConsoleMessage = ChatColor.stripColor(digestMessage);
+        digestMoreFormat = ChatColor.translateAlternateColorCodes('&', mineShopify.getConfig().getString("notifications.digest.more",
+                "&7 and %count% more"));
+        broadcastDigestMessage = ChatColor.translateAlternateColorCodes('&', mineShopify.getConfig().getString("notifications.digest.broadcast_message",
+                "&6[&e&lSHOP&6] &e%count% &7purchases in the last &e%seconds%s&7: &6%summary%&7! 🎉"));
+        pendingDigest = new PurchaseDigest(digestMaxPackages);
+        pendingBroadcasts = new PurchaseDigest(digestMaxPackages);
+        deferredDigests.clear();
+        
+        if (digestEnabled) {
+            digestTask = new BukkitRunnable() {
+                @Override
+                public void run() {
+                    mineShopify.getTickProfiler().run(TickProfiler.DIGEST, () -> flushDigests());
+                }
+            }.runTaskTimer(mineShopify, window * 20L, window * 20L);
+        }
+    }
+
     /**
      * Send a notification about a new order to configured recipients.
      *
      * @param order The order that was processed.
      */
     public void sendOrderNotification(Order order) {
-        if (!enabled || order == null) {
+        if (order == null) {
+            return;
+        }
+        if (webhookNotifier != null) {
+            webhookNotifier.sendOrderEvent(order);
+        }
+        if (!enabled) {
             return;
         }
 
-        String message = notificationMessage
-                .replace("%player%", order.getUsername())
-                .replace("%package%", order.getPackageName())
-                .replace("%order_id%", order.getOrderId());
-        
-        // Translate color codes
-        message = ChatColor.translateAlternateColorCodes('&', message);
+        // Collect the purchase for the next digest instead of sending it right away
+        if (digestEnabled) {
+            pendingDigest.add(order.getPackageName(), 1);
+            return;
+        }
         
         // Send to console
-        mineShopify.getLogger().info(ChatColor.stripColor(message));
+        mineShopify.getLogger().info(applyPlaceholders(consoleMessage, order));
+        
+        if (onlineRecipients.isEmpty()) {
+            return;
+        }
+        
+        // Send to recipients that are online
+        String message = applyPlaceholders(notificationMessage, order);
+        for (Player player : onlineRecipients) {
+            player.sendMessage(message);
+            notificationsSent.increment();
+        }
+    }
+
+    /**
+     * Collect a purchase for the next broadcast digest if broadcast coalescing is enabled.
+     * Broadcast commands of the package are then skipped when the package is delivered.
+     *
+     * @param packageName The name of the purchased package.
+     * @return True if the purchase was collected and the broadcast must not be executed.
+     */
+    public boolean coalesceBroadcast(String packageName) {
+        if (!coalesceBroadcasts) {
+            return false;
+        }
+        pendingBroadcasts.add(packageName, 1);
+        return true;
+    }
+
+    /**
+     * Cancel the digest task, send the purchases that are still collected
+     * and persist the undelivered webhook events.
+     */
+    public void close() {
+        if (digestTask != null) {
+            digestTask.cancel();
+            digestTask = null;
+        }
+        flushDigests();
+        if (webhookNotifier != null) {
+            webhookNotifier.closeAndWait();
+        }
+    }
+
+    /**
+     * Send the collected purchases to every online recipient whose rate limit allows it.
+     * Recipients that received a digest recently keep collecting until their next one.
+     * Runs on the main thread.
+     */
+    private void flushDigests() {
+        long now = System.currentTimeMillis();
+        PurchaseDigest digest = pendingDigest;
+        if (!digest.isEmpty()) {
+            pendingDigest = new PurchaseDigest(digestMaxPackages);
+            mineShopify.getLogger().info(formatDigest(digestConsoleMessage, digest));
+        }
         
-        // Send to configured players if they are online
-        for (String recipient : recipients) {
-            Player player = Bukkit.getPlayerExact(recipient);
-            if (player != null && player.isOnline()) {
-                player.sendMessage(message);
+        for (Player player : onlineRecipients) {
+            PurchaseDigest recipientDigest = deferredDigests.get(player);
+            if (!digest.isEmpty()) {
+                if (recipientDigest == null) {
+                    recipientDigest = new PurchaseDigest(digestMaxPackages);
+                    deferredDigests.put(player, recipientDigest);
+                }
+                recipientDigest.merge(digest);
             }
+            if (recipientDigest == null) {
+                continue;
+            }
+            
+            Long lastSent = lastDigestAt.get(player);
+            if (lastSent != null && now - lastSent < digestMinInterval) {
+                continue;
+            }
+            player.sendMessage(formatDigest(digestMessage, recipientDigest));
+            digestsSent.increment();
+            lastDigestAt.put(player, now);
+            deferredDigests.remove(player);
+        }
+        
+        if (!pendingBroadcasts.isEmpty()) {
+            PurchaseDigest broadcasts = pendingBroadcasts;
+            pendingBroadcasts = new PurchaseDigest(digestMaxPackages);
+            Bukkit.broadcastMessage(formatDigest(broadcastDigestMessage, broadcasts));
+        }
+    }
+
+    private String formatDigest(String template, PurchaseDigest digest) {
+        return template
+                .replace("%count%", String.valueOf(digest.getTotal()))
+                .replace("%seconds%", String.valueOf(digest.getAgeSeconds()))
+                .replace("%summary%", digest.summarize(digestSummarySize, digestMoreFormat));
+    }
+
+    /**
+     * Add or remove a player from the online recipients, depending on whether
+     * they are a configured recipient or have the notify permission.
+     *
+     * @param player The player that joined or whose permissions changed.
+     */
+    public void updateRecipient(Player player) {
+        if (isRecipient(player)) {
+            onlineRecipients.add(player);
+        } else {
+            removeRecipient(player);
         }
     }
 
+    /**
+     * Remove a player from the online recipients.
+     *
+     * @param player The player that left the server.
+     */
+    public void removeRecipient(Player player) {
+        onlineRecipients.remove(player);
+        deferredDigests.remove(player);
+        lastDigestAt.remove(player);
+    }
+
+    /**
+     * Rebuild the online recipients from the players currently online.
+     */
+    private void refreshRecipients() {
+        onlineRecipients.clear();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            updateRecipient(player);
+        }
+    }
+
+    private boolean isRecipient(Player player) {
+        return recipients.contains(player.getName().toLowerCase(Locale.ROOT)) || player.hasPermission(NOTIFY_PERMISSION);
+    }
+
+    private String applyPlaceholders(String template, Order order) {
+        return template
+                .replace("%player%", order.getUsername())
+                .replace("%package%", order.getPackageName())
+                .replace("%order_id%", order.getOrderId());
+    }
+
     /**
      * Check if notifications are enabled.
      *
@@ -0,0 +1,126 @@
+package eu.venxu.mineshopify.notification;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts purchases per package until they are sent as one digest message.
+ * The number of distinct packages is capped, purchases of further packages
+ * are only counted, so the buffer stays bounded during large sales.
+ */
+public class PurchaseDigest {
+
+    private final int maxPackages;
+    private final Map<String, Integer> counts = new LinkedHashMap<>();
+    private int otherCount;
+    private int total;
+    private long startedAt;
+
+    /**
+     * Create an empty digest.
+     *
+     * @param maxPackages The maximum number of distinct packages that are tracked by name.
+     */
+    public PurchaseDigest(int maxPackages) {
+        this.maxPackages = maxPackages;
+    }
+
+    /**
+     * Count purchases of a package.
+     *
+     * @param packageName The name of the purchased package.
+     * @param amount The number of purchases.
+     */
+    public void add(String packageName, int amount) {
+        if (total == 0) {
+            startedAt = System.currentTimeMillis();
+        }
+        total += amount;
+        if (counts.containsKey(packageName) || counts.size() < maxPackages) {
+            counts.merge(packageName, amount, Integer::sum);
+        } else {
+            otherCount += amount;
+        }
+    }
+
+    /**
+     * Add all purchases of another digest to this one.
+     *
+     * @param other The digest to merge.
+     */
+    public void merge(PurchaseDigest other) {
+        if (other.isEmpty()) {
+            return;
+        }
+        long otherStartedAt = other.startedAt;
+        for (Map.Entry<String, Integer> entry : other.counts.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+        total += other.otherCount;
+        otherCount += other.otherCount;
+        startedAt = Math.min(startedAt, otherStartedAt);
+    }
+
+    /**
+     * Check if no purchases were counted.
+     *
+     * @return True if the digest is empty.
+     */
+    public boolean isEmpty() {
+        return total == 0;
+    }
+
+    /**
+     * Get the number of purchases in the digest.
+     *
+     * @return The total number of purchases.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the number of seconds since the first purchase in the digest.
+     *
+     * @return The age of the digest in seconds, at least 1.
+     */
+    public long getAgeSeconds() {
+        return Math.max(1, (System.currentTimeMillis() - startedAt) / 1000);
+    }
+
+    /**
+     * Summarize the most purchased packages, e.g. "5× VIP Rank, 3× Coins".
+     *
+     * @param limit The maximum number of packages listed by name.
+     * @param moreFormat The text appended for the remaining purchases, %count% is replaced.
+     * @return The summary.
+     */
+    public String summarize(int limit, String moreFormat) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+
+        StringBuilder summary = new StringBuilder();
+        int listed = 0;
+        for (Map.Entry<String, Integer> entry : entries) {
+            if (listed == limit) {
+                break;
+            }
+            if (listed > 0) {
+                summary.append(", ");
+            }
+            summary.append(entry.getValue()).append("× ").append(entry.getKey());
+            listed += 1;
+        }
+
+        int remaining = total;
+        for (int i = 0; i < listed; i++) {
+            remaining -= entries.get(i).getValue();
+        }
+        if (remaining > 0) {
+            summary.append(moreFormat.replace("%count%", String.valueOf(remaining)));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,470 @@
+package eu.venxu.mineshopify.notification;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.order.Order;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/**
+ * Posts order events as JSON to the configured webhook endpoints.
+ * Events are queued per endpoint and sent in batches from a dedicated thread, never
+ * from the main thread. Failed batches are retried with exponential backoff, and the
+ * bounded backlog of every endpoint is persisted so it survives a restart.
+ * Delivery is at least once, receivers can deduplicate events by their id.
+ *
+ * The backlog file is a journal: every dispatch round appends the new events and the ids
+ * of the events that left the backlog, and the file is only rewritten once it holds twice
+ * the records of the backlog.
+ */
+public class WebhookNotifier {
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 2;
+
+    private final MineShopify mineShopify;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final File backlogFolder;
+    private HttpClient httpClient;
+    private ScheduledExecutorService dispatcher;
+    private int batchSize;
+    private int backlogSize;
+    private long initialBackoff;
+    private long maxBackoff;
+    private Duration requestTimeout;
+    private final Counter eventsDelivered;
+    private final Counter eventsDropped;
+    private final Counter requestsFailed;
+
+    /**
+     * Create the webhook notifier. Endpoints are read by {@link #start()}.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public WebhookNotifier(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        this.backlogFolder = new File(mineShopify.getDataFolder(), "webhooks");
+        this.eventsDelivered = mineShopify.getMetrics().counter("webhook_events_delivered_total", "Webhook events accepted by an endpoint");
+        this.eventsDropped = mineShopify.getMetrics().counter("webhook_events_dropped_total", "Webhook events dropped because the backlog was full or the endpoint rejected them");
+        this.requestsFailed = mineShopify.getMetrics().counter("webhook_requests_failed_total", "Webhook requests that will be retried");
+    }
+
+    /**
+     * Read the endpoints from config.yml and start the dispatcher, which loads their backlogs
+     * first. Does nothing if webhooks are disabled or no endpoint is configured.
+     *
+     * @param previousClosed Completes once the notifier this one replaces has written its
+     *                       backlogs, the backlogs are loaded after that.
+     */
+    public void start(CompletableFuture<Void> previousClosed) {
+        if (!mineShopify.getConfig().getBoolean("webhooks.enabled", false)) {
+            return;
+        }
+
+        batchSize = Math.max(1, mineShopify.getConfig().getInt("webhooks.batch_size", 20));
+        backlogSize = Math.max(batchSize, mineShopify.getConfig().getInt("webhooks.backlog_size", 10000));
+        initialBackoff = Math.max(1, mineShopify.getConfig().getLong("webhooks.initial_backoff", 1)) * 1000L;
+        maxBackoff = Math.max(initialBackoff, mineShopify.getConfig().getLong("webhooks.max_backoff", 300) * 1000L);
+        requestTimeout = Duration.ofSeconds(Math.max(1, mineShopify.getConfig().getInt("webhooks.timeout", 10)));
+        int maxConcurrency = Math.max(1, mineShopify.getConfig().getInt("webhooks.max_concurrency", 2));
+        long flushInterval = Math.max(100, mineShopify.getConfig().getLong("webhooks.flush_interval", 1000));
+
+        for (String url : mineShopify.getConfig().getStringList("webhooks.urls")) {
+            try {
+                endpoints.add(new Endpoint(URI.create(url), maxConcurrency,
+                        new File(backlogFolder, "backlog-" + Integer.toHexString(url.hashCode()) + ".jsonl")));
+            } catch (IllegalArgumentException e) {
+                mineShopify.getLogger().warning("Ignoring invalid webhook URL: " + url);
+            }
+        }
+        if (endpoints.isEmpty()) {
+            return;
+        }
+
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(requestTimeout)
+                .build();
+        dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MineShopify-Webhooks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Events queued before the backlogs are loaded are sent after them
+        previousClosed.whenCompleteAsync((ignored, error) -> {
+            for (Endpoint endpoint : endpoints) {
+                try {
+                    endpoint.loadBacklog();
+                } catch (IOException e) {
+                    mineShopify.getLogger().log(Level.WARNING, "Failed to read the webhook backlog of " + endpoint.uri, e);
+                }
+            }
+            dispatcher.scheduleWithFixedDelay(this::dispatch, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }, dispatcher);
+    }
+
+    /**
+     * Queue an event about a processed order for every endpoint.
+     * Only adds the event to in-memory queues, so it is cheap to call on the main thread.
+     *
+     * @param order The order that was processed.
+     */
+    public void sendOrderEvent(Order order) {
+        if (endpoints.isEmpty()) {
+            return;
+        }
+        JsonObject event = new JsonObject();
+        event.addProperty("id", order.getId().toString());
+        event.addProperty("type", "order.processed");
+        event.addProperty("order_id", order.getOrderId());
+        event.addProperty("player", order.getUsername());
+        event.addProperty("package", order.getPackageName());
+        event.addProperty("created_at", order.getCreatedAt());
+        for (Endpoint endpoint : endpoints) {
+            endpoint.offer(event);
+        }
+    }
+
+    /**
+     * Get the number of events waiting to be delivered over all endpoints.
+     *
+     * @return The number of queued events.
+     */
+    public int getQueuedCount() {
+        int queued = 0;
+        for (Endpoint endpoint : endpoints) {
+            queued += endpoint.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stop the dispatcher and persist the events that were not delivered yet, without waiting.
+     * Batches still in flight stay in the backlog and may be delivered twice.
+     *
+     * @return Completes once the backlogs are written.
+     */
+    public CompletableFuture<Void> close() {
+        if (dispatcher == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // Runs after the current dispatch round, the periodic rounds are cancelled by the shutdown
+        CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+            for (Endpoint endpoint : endpoints) {
+                endpoint.saveBacklog();
+            }
+        }, dispatcher);
+        dispatcher.shutdown();
+        return closed;
+    }
+
+    /**
+     * Close the notifier and wait until the backlogs are written, for the shutdown of the plugin.
+     */
+    public void closeAndWait() {
+        try {
+            close().get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            mineShopify.getLogger().warning("Webhook backlogs were not written in time, events queued since the last "
+                    + "dispatch round may be lost.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            mineShopify.getLogger().log(Level.WARNING, "Failed to write the webhook backlogs", e);
+        }
+    }
+
+    /**
+     * Send batches to every endpoint that is not backing off and has a free slot.
+     * Runs on the dispatcher thread.
+     */
+    private void dispatch() {
+        long now = System.currentTimeMillis();
+        for (Endpoint endpoint : endpoints) {
+            while (now >= endpoint.nextAttemptAt && endpoint.permits.tryAcquire()) {
+                List<JsonObject> batch = endpoint.takeBatch(batchSize);
+                if (batch.isEmpty()) {
+                    endpoint.permits.release();
+                    break;
+                }
+                send(endpoint, batch);
+            }
+            endpoint.saveBacklog();
+        }
+    }
+
+    private void send(Endpoint endpoint, List<JsonObject> batch) {
+        JsonArray events = new JsonArray();
+        for (JsonObject event : batch) {
+            events.add(event);
+        }
+        JsonObject payload = new JsonObject();
+        payload.add("events", events);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(endpoint.uri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("User-Agent", "MineShopify/" + mineShopify.getDescription().getVersion())
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString(), StandardCharsets.UTF_8))
+                .build();
+
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            try {
+                if (error == null && response.statusCode() / 100 == 2) {
+                    endpoint.succeeded(batch);
+                    eventsDelivered.add(batch.size());
+                } else if (error == null && response.statusCode() / 100 == 4 && response.statusCode() != 408 && response.statusCode() != 429) {
+                    // The endpoint rejects the payload, retrying would not change the answer
+                    endpoint.succeeded(batch);
+                    eventsDropped.add(batch.size());
+                    mineShopify.getLogger().warning("Webhook " + endpoint.uri + " rejected " + batch.size()
+                            + " events with status " + response.statusCode() + ", dropping them.");
+                } else {
+                    long delay = endpoint.failed(batch);
+                    requestsFailed.increment();
+                    if (mineShopify.getSettings().isDebug()) {
+                        String reason = error != null ? error.toString() : "status " + response.statusCode();
+                        mineShopify.getLogger().info("Webhook " + endpoint.uri + " failed (" + reason + "), retrying in " + delay + " ms.");
+                    }
+                }
+            } finally {
+                endpoint.permits.release();
+            }
+        });
+    }
+
+    /**
+     * A webhook URL with its own queue, backoff state and concurrency limit.
+     */
+    private final class Endpoint {
+
+        private final URI uri;
+        private final Semaphore permits;
+        private final File backlogFile;
+        private final Deque<JsonObject> pending = new ArrayDeque<>();
+        private final List<JsonObject> inFlight = new ArrayList<>();
+        private final List<JsonObject> unsavedEvents = new ArrayList<>();
+        private final List<String> unsavedRemovals = new ArrayList<>();
+        private volatile long nextAttemptAt;
+        private int failures;
+        private int dropped;
+        private int journalRecords;
+        private boolean loaded;
+        private boolean rewrite;
+
+        private Endpoint(URI uri, int maxConcurrency, File backlogFile) {
+            this.uri = uri;
+            this.permits = new Semaphore(maxConcurrency);
+            this.backlogFile = backlogFile;
+        }
+
+        private synchronized void offer(JsonObject event) {
+            if (pending.size() + inFlight.size() >= backlogSize && !pending.isEmpty()) {
+                // Keep the backlog bounded, the oldest events are the least useful
+                drop(pending.pollFirst());
+            }
+            pending.addLast(event);
+            unsavedEvents.add(event);
+        }
+
+        private void drop(JsonObject event) {
+            unsavedRemovals.add(event.get("id").getAsString());
+            eventsDropped.increment();
+            if (dropped++ == 0) {
+                mineShopify.getLogger().warning("Webhook backlog of " + uri + " is full, dropping the oldest events.");
+            }
+        }
+
+        private synchronized List<JsonObject> takeBatch(int size) {
+            List<JsonObject> batch = new ArrayList<>(Math.min(size, pending.size()));
+            while (batch.size() < size && !pending.isEmpty()) {
+                batch.add(pending.pollFirst());
+            }
+            inFlight.addAll(batch);
+            return batch;
+        }
+
+        private synchronized void succeeded(List<JsonObject> batch) {
+            inFlight.removeAll(batch);
+            for (JsonObject event : batch) {
+                unsavedRemovals.add(event.get("id").getAsString());
+            }
+            failures = 0;
+            dropped = 0;
+        }
+
+        private synchronized long failed(List<JsonObject> batch) {
+            inFlight.removeAll(batch);
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                pending.addFirst(batch.get(i));
+            }
+            failures++;
+            long delay = Math.min(maxBackoff, initialBackoff << Math.min(failures - 1, 20));
+            // Add up to 20% jitter, so endpoints that failed together don't retry together
+            delay += ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+            nextAttemptAt = System.currentTimeMillis() + delay;
+            return delay;
+        }
+
+        private synchronized int size() {
+            return pending.size() + inFlight.size();
+        }
+
+        /**
+         * Replay the journal and put the events that were not delivered before the events queued since the start.
+         */
+        private void loadBacklog() throws IOException {
+            Map<String, JsonObject> events = new LinkedHashMap<>();
+            int records = 0;
+            if (backlogFile.exists()) {
+                try (BufferedReader reader = Files.newBufferedReader(backlogFile.toPath(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        try {
+                            JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                            if (record.has("removed")) {
+                                for (JsonElement id : record.getAsJsonArray("removed")) {
+                                    events.remove(id.getAsString());
+                                    records++;
+                                }
+                            } else {
+                                events.put(record.get("id").getAsString(), record);
+                                records++;
+                            }
+                        } catch (RuntimeException ignored) {
+                            // A torn last line after a crash, nothing to recover from it
+                        }
+                    }
+                }
+            }
+
+            synchronized (this) {
+                List<JsonObject> restored = new ArrayList<>(events.values());
+                for (int i = restored.size() - 1; i >= 0; i--) {
+                    pending.addFirst(restored.get(i));
+                }
+                while (size() > backlogSize && !pending.isEmpty()) {
+                    drop(pending.pollFirst());
+                }
+                journalRecords = records;
+                loaded = true;
+            }
+            if (!events.isEmpty()) {
+                mineShopify.getLogger().info(events.size() + " webhook events for " + uri + " loaded from the backlog.");
+            }
+        }
+
+        /**
+         * Append the events queued and the ids of the events removed since the last write to the backlog file.
+         * Once the file holds twice the records of the backlog, it is replaced atomically with the remaining
+         * events instead, so a crash keeps either the old or the new backlog.
+         */
+        private void saveBacklog() {
+            List<JsonObject> events;
+            List<String> removed;
+            boolean compact;
+            synchronized (this) {
+                if (unsavedEvents.isEmpty() && unsavedRemovals.isEmpty() && !rewrite) {
+                    return;
+                }
+                int records = journalRecords + unsavedEvents.size() + unsavedRemovals.size();
+                // The file is only replaced once it was read, an unread backlog would be lost
+                compact = loaded && (rewrite || records >= Math.max(1000, size() * 2));
+                if (compact) {
+                    events = new ArrayList<>(inFlight);
+                    events.addAll(pending);
+                    removed = new ArrayList<>();
+                    journalRecords = events.size();
+                } else {
+                    events = new ArrayList<>(unsavedEvents);
+                    removed = new ArrayList<>(unsavedRemovals);
+                    journalRecords = records;
+                }
+                unsavedEvents.clear();
+                unsavedRemovals.clear();
+                rewrite = false;
+            }
+            try {
+                if (compact) {
+                    rewriteBacklog(events);
+                } else {
+                    appendBacklog(events, removed);
+                }
+            } catch (IOException e) {
+                mineShopify.getLogger().log(Level.WARNING, "Failed to write the webhook backlog of " + uri, e);
+                synchronized (this) {
+                    // The changes of this round are lost from the file, the next write replaces it
+                    rewrite = true;
+                }
+            }
+        }
+
+        private void appendBacklog(List<JsonObject> events, List<String> removed) throws IOException {
+            backlogFolder.mkdirs();
+            try (BufferedWriter writer = Files.newBufferedWriter(backlogFile.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (JsonObject event : events) {
+                    writer.write(event.toString());
+                    writer.newLine();
+                }
+                if (!removed.isEmpty()) {
+                    JsonArray ids = new JsonArray();
+                    removed.forEach(ids::add);
+                    JsonObject record = new JsonObject();
+                    record.add("removed", ids);
+                    writer.write(record.toString());
+                    writer.newLine();
+                }
+            }
+        }
+
+        private void rewriteBacklog(List<JsonObject> events) throws IOException {
+            if (events.isEmpty()) {
+                Files.deleteIfExists(backlogFile.toPath());
+                return;
+            }
+            backlogFolder.mkdirs();
+            File tempFile = new File(backlogFolder, backlogFile.getName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                for (JsonObject event : events) {
+                    writer.write(event.toString());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile.toPath(), backlogFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -8,12 +8,22 @@ public class Order {
     private final String username;
     private final String packageName;
     private final String orderId;
+    private final long createdAt;
 
     public Order(String username, String packageName, String orderId) {
-        this.id = UUID.randomUUID();
+        this(UUID.randomUUID(), username, packageName, orderId);
+    }
+
+    public Order(UUID id, String username, String packageName, String orderId) {
+        this(id, username, packageName, orderId, System.currentTimeMillis());
+    }
+
+    public Order(UUID id, String username, String packageName, String orderId, long createdAt) {
+        this.id = id;
         this.username = username;
         this.packageName = packageName;
         this.orderId = orderId;
+        this.createdAt = createdAt;
     }
 
     public UUID getId() {
@@ -31,4 +41,8 @@ public class Order {
     public String getOrderId() {
         return orderId;
     }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
 }
@@ -0,0 +1,332 @@
+package eu.venxu.mineshopify.profiler;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.Histogram;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the main thread time of the plugin per server tick.
+ * Every main thread entry point runs in a section named after its source; nested
+ * sections are subtracted from the enclosing one, so the sources of a tick add up
+ * to its total. The ticks of a rolling window are kept to show the worst ones, and
+ * a warning is logged when a tick exceeds the configured budget.
+ *
+ * Scheduled tasks wait in a queue of the profiler until the scheduler runs them. The
+ * scheduler stops running tasks once the plugin is disabled, so the shutdown runs the
+ * remaining ones itself with {@link #runPendingTasks()}.
+ */
+public class TickProfiler {
+
+    public static final String PARSE = "parse";
+    public static final String DELIVERY = "delivery";
+    public static final String DISPATCH = "dispatch";
+    public static final String RETRY = "retry";
+    public static final String MAILBOX = "mailbox";
+    public static final String ENTITLEMENT = "entitlement";
+    public static final String NOTIFICATION = "notification";
+    public static final String DIGEST = "digest";
+    public static final String COMMAND = "command";
+    public static final String CATALOG_SAVE = "catalog save";
+    public static final String SETTINGS = "settings";
+
+    private static final int MAX_DEPTH = 16;
+    private static final int WARN_SOURCES = 3;
+
+    private final MineShopify mineShopify;
+    private final Histogram tickDuration;
+    private final Counter budgetExceeded;
+    private final long[] sectionStarts = new long[MAX_DEPTH];
+    private final long[] sectionChildren = new long[MAX_DEPTH];
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private int depth;
+    private Map<String, Long> currentSources = new HashMap<>();
+    private long currentTotal;
+    private long tick;
+    private TickSample[] window = new TickSample[0];
+    private boolean enabled;
+    private long budgetNanos;
+    private long warnInterval;
+    private long lastWarning;
+    private BukkitTask tickTask;
+
+    /**
+     * Initialize the profiler.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public TickProfiler(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        this.tickDuration = metrics.latency("main_thread_tick_seconds",
+                "Main thread time of the plugin in ticks where it did any work", Histogram.TICK_BUCKETS);
+        this.budgetExceeded = metrics.counter("main_thread_budget_exceeded_total",
+                "Ticks in which the plugin used more main thread time than the budget");
+    }
+
+    /**
+     * Load the settings from config.yml and start or stop the tick task.
+     * The window is cleared when its size changes.
+     */
+    public void loadConfig() {
+        enabled = mineShopify.getConfig().getBoolean("profiler.enabled", true);
+        int windowSize = Math.max(20, mineShopify.getConfig().getInt("profiler.window", 1200));
+        budgetNanos = Math.max(0, (long) (mineShopify.getConfig().getDouble("profiler.budget_ms", 5.0) * 1_000_000L));
+        warnInterval = Math.max(0, mineShopify.getConfig().getLong("profiler.warn_interval", 60)) * 1000L;
+        if (window.length != windowSize) {
+            window = new TickSample[windowSize];
+        }
+
+        if (enabled && tickTask == null) {
+            tickTask = Bukkit.getScheduler().runTaskTimer(mineShopify, this::endTick, 1L, 1L);
+        } else if (!enabled && tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+            depth = 0;
+            currentSources = new HashMap<>();
+            currentTotal = 0;
+        }
+    }
+
+    /**
+     * Stop the tick task.
+     */
+    public void close() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+    }
+
+    /**
+     * Run a task in a section. Calls from other threads than the main thread run unmeasured.
+     *
+     * @param source The source the time is attributed to.
+     * @param task The task to run.
+     */
+    public void run(String source, Runnable task) {
+        begin();
+        try {
+            task.run();
+        } finally {
+            end(source);
+        }
+    }
+
+    /**
+     * Schedule a task on the main thread that runs in a section.
+     * Tasks scheduled while the plugin is being disabled wait for {@link #runPendingTasks()}.
+     *
+     * @param source The source the time is attributed to.
+     * @param task The task to run.
+     */
+    public void runTask(String source, Runnable task) {
+        pendingTasks.add(() -> run(source, task));
+        try {
+            // Every scheduled run takes one task, so the tasks run in the order they were added
+            Bukkit.getScheduler().runTask(mineShopify, this::runNextTask);
+        } catch (IllegalPluginAccessException e) {
+            // The plugin is disabled, the shutdown runs the task
+        }
+    }
+
+    /**
+     * Run all scheduled tasks that are still waiting, including tasks they schedule.
+     * Must be called on the main thread.
+     *
+     * @return The number of tasks that ran.
+     */
+    public int runPendingTasks() {
+        int count = 0;
+        while (runNextTask()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of scheduled tasks that have not run yet.
+     *
+     * @return The number of waiting tasks.
+     */
+    public int getPendingTaskCount() {
+        return pendingTasks.size();
+    }
+
+    /**
+     * Create an executor that runs tasks on the main thread in a section.
+     *
+     * @param source The source the time is attributed to.
+     * @return The executor.
+     */
+    public Executor mainThreadExecutor(String source) {
+        return task -> runTask(source, task);
+    }
+
+    /**
+     * Start a section. Must be followed by {@link #end(String)} in a finally block.
+     */
+    public void begin() {
+        if (!enabled || !Bukkit.isPrimaryThread()) {
+            return;
+        }
+        if (depth < MAX_DEPTH) {
+            sectionStarts[depth] = System.nanoTime();
+            sectionChildren[depth] = 0;
+        }
+        depth++;
+    }
+
+    /**
+     * End the section started last.
+     *
+     * @param source The source the time of the section is attributed to.
+     */
+    public void end(String source) {
+        if (!enabled || !Bukkit.isPrimaryThread() || depth == 0) {
+            return;
+        }
+        depth--;
+        if (depth >= MAX_DEPTH) {
+            // Too deeply nested, the enclosing section keeps the time
+            return;
+        }
+        long elapsed = System.nanoTime() - sectionStarts[depth];
+        if (depth > 0) {
+            sectionChildren[depth - 1] += elapsed;
+        } else {
+            currentTotal += elapsed;
+        }
+        currentSources.merge(source, elapsed - sectionChildren[depth], Long::sum);
+    }
+
+    /**
+     * Get the busy ticks of the window.
+     *
+     * @return The ticks in which the plugin used main thread time, oldest first.
+     */
+    public List<TickSample> getSamples() {
+        List<TickSample> samples = new ArrayList<>();
+        long first = Math.max(0, tick - window.length);
+        for (long i = first; i < tick; i++) {
+            TickSample sample = window[(int) (i % window.length)];
+            if (sample != null && sample.getTick() == i) {
+                samples.add(sample);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Get the ticks of the window with the highest main thread time.
+     *
+     * @param limit The maximum number of ticks.
+     * @return The ticks, worst first.
+     */
+    public List<TickSample> getWorstTicks(int limit) {
+        return getSamples().stream()
+                .sorted(Comparator.comparingLong(TickSample::getTotalNanos).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Sum the time of every source over the window.
+     *
+     * @return The sources with the highest time first.
+     */
+    public List<Map.Entry<String, Long>> getSourceTotals() {
+        Map<String, Long> totals = new HashMap<>();
+        for (TickSample sample : getSamples()) {
+            for (Map.Entry<String, Long> source : sample.getSources()) {
+                totals.merge(source.getKey(), source.getValue(), Long::sum);
+            }
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(totals.entrySet());
+        entries.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        return entries;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getWindowSize() {
+        return window.length;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    public long getBudgetExceeded() {
+        return budgetExceeded.get();
+    }
+
+    /**
+     * Close the current tick. Runs once per tick from the scheduler, so sections that
+     * run in the same scheduler pass may be counted in the neighbouring tick.
+     */
+    private void endTick() {
+        TickSample sample = null;
+        if (currentTotal > 0) {
+            sample = new TickSample(tick, System.currentTimeMillis(), currentTotal, currentSources);
+            tickDuration.observe(currentTotal);
+            if (budgetNanos > 0 && currentTotal > budgetNanos) {
+                budgetExceeded.increment();
+                warnBudgetExceeded(sample);
+            }
+            currentSources = new HashMap<>();
+            currentTotal = 0;
+        }
+        window[(int) (tick % window.length)] = sample;
+        tick++;
+    }
+
+    private boolean runNextTask() {
+        Runnable task = pendingTasks.poll();
+        if (task == null) {
+            return false;
+        }
+        try {
+            task.run();
+        } catch (Exception e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Error in a scheduled MineShopify task", e);
+        }
+        return true;
+    }
+
+    private void warnBudgetExceeded(TickSample sample) {
+        long now = System.currentTimeMillis();
+        if (now - lastWarning < warnInterval) {
+            return;
+        }
+        lastWarning = now;
+        String causes = sample.getSources().stream()
+                .limit(WARN_SOURCES)
+                .map(source -> source.getKey() + " " + formatMillis(source.getValue()))
+                .collect(Collectors.joining(", "));
+        mineShopify.getLogger().warning("MineShopify used " + formatMillis(sample.getTotalNanos()) + " of the main thread in one tick, the budget is "
+                + formatMillis(budgetNanos) + " (" + causes + "). Use /mineshopify ticks for details.");
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,62 @@
+package eu.venxu.mineshopify.profiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The main thread time MineShopify used in one server tick, split by the source that caused it.
+ */
+public class TickSample {
+
+    private final long tick;
+    private final long endedAt;
+    private final long totalNanos;
+    private final Map<String, Long> sources;
+
+    TickSample(long tick, long endedAt, long totalNanos, Map<String, Long> sources) {
+        this.tick = tick;
+        this.endedAt = endedAt;
+        this.totalNanos = totalNanos;
+        this.sources = sources;
+    }
+
+    /**
+     * Get the number of the tick, counted since the profiler started.
+     *
+     * @return The tick number.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Get the time the tick ended.
+     *
+     * @return The time in milliseconds.
+     */
+    public long getEndedAt() {
+        return endedAt;
+    }
+
+    /**
+     * Get the main thread time of the plugin in this tick.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Get the time of every source, excluding the time of sources nested in it.
+     *
+     * @return The sources with the highest time first.
+     */
+    public List<Map.Entry<String, Long>> getSources() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(sources.entrySet());
+        entries.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        return entries;
+    }
+}
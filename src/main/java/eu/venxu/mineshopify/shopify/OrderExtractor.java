@@ -0,0 +1,545 @@
+package eu.venxu.mineshopify.shopify;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import eu.venxu.mineshopify.log.EventCategory;
+import eu.venxu.mineshopify.log.EventLog;
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Reads the order number, the Minecraft username and the account type from a Shopify order.
+ * The extractor does not depend on Bukkit, so it can be benchmarked and used outside of a server.
+ * The steps of the username search are traced as FINE events of the parse category, which are
+ * only built when that level is recorded.
+ */
+public class OrderExtractor {
+
+    private static final String FIELD_ORDER_NUMBER = "order_number";
+    private static final String FIELD_NOTE_ATTRIBUTES = "note_attributes";
+    private static final String FIELD_VALUE = "value";
+    private static final String FIELD_LINE_ITEMS = "line_items";
+
+    private final EventLog eventLog;
+
+    /**
+     * Create an extractor.
+     * 
+     * @param eventLog The event log the username search is traced to, or null to trace nothing.
+     */
+    public OrderExtractor(EventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    /**
+     * Trace a step of the username search. The message is only built if it is recorded.
+     * 
+     * @param message The supplier of the message.
+     */
+    private void trace(Supplier<String> message) {
+        if (eventLog != null) {
+            eventLog.log(EventCategory.PARSE, Level.FINE, "username_search", message);
+        }
+    }
+    
+    /**
+     * Extract the order number, falling back to the id, name and order_id fields.
+     * 
+     * @param orderJson The order JSON object
+     * @return The order ID, or null if the order has none
+     */
+    public String extractOrderId(JsonObject orderJson) {
+        // Extract order ID - try different fields that might contain the order number
+        String orderId = null;
+        
+        // Try order_number first (standard field)
+        orderId = getStringFromJson(orderJson, FIELD_ORDER_NUMBER);
+        
+        // If not found, try id field
+        if (orderId == null) {
+            orderId = getStringFromJson(orderJson, "id");
+        }
+        
+        // If not found, try name field
+        if (orderId == null) {
+            orderId = getStringFromJson(orderJson, "name");
+        }
+        
+        // If still not found, try order_id field
+        if (orderId == null) {
+            orderId = getStringFromJson(orderJson, "order_id");
+        }
+        
+        return orderId;
+    }
+    
+    /**
+     * Extract username from various possible locations in the order JSON.
+     * 
+     * @param orderJson The order JSON object
+     * @return The extracted username or null if not found
+     */
+    public String extractUsername(JsonObject orderJson) {
+        String username = null;
+        
+        // Debug-Ausgabe der gesamten Bestellung, wenn Debug aktiviert ist
+        trace(() -> {
+            String json = orderJson.toString();
+            return "Extracting username from order: " + json.substring(0, Math.min(200, json.length())) + "...";
+        });
+        
+        // Try to find username in line item properties first (most common location)
+        if (orderJson.has(FIELD_LINE_ITEMS)) {
+            JsonArray lineItems = getJsonArrayFromJson(orderJson, FIELD_LINE_ITEMS);
+            if (lineItems != null && lineItems.size() > 0) {
+                for (int i = 0; i < lineItems.size(); i++) {
+                    JsonObject lineItem = lineItems.get(i).getAsJsonObject();
+                    
+                    // Check for properties array
+                    if (lineItem.has("properties")) {
+                        JsonArray properties = getJsonArrayFromJson(lineItem, "properties");
+                        if (properties != null) {
+                            for (int j = 0; j < properties.size(); j++) {
+                                JsonObject property = properties.get(j).getAsJsonObject();
+                                String name = getStringFromJson(property, "name");
+                                String value = getStringFromJson(property, "value");
+                                
+                                trace(() -> "Checking line item property: name=" + name + ", value=" + value);
+                                
+                                if (name != null && value != null && !value.isEmpty()) {
+                                    // Erweiterte Liste von möglichen Feldnamen für den Benutzernamen
+                                    if (name.equalsIgnoreCase("username") || 
+                                        name.equalsIgnoreCase("minecraft username") || 
+                                        name.equalsIgnoreCase("minecraft_username") ||
+                                        name.equalsIgnoreCase("minecraft-username") ||
+                                        name.equalsIgnoreCase("mc username") ||
+                                        name.equalsIgnoreCase("mc-username") ||
+                                        name.equalsIgnoreCase("mc_username") ||
+                                        name.equalsIgnoreCase("ign") ||
+                                        name.equalsIgnoreCase("spielername") ||
+                                        name.equalsIgnoreCase("player") ||
+                                        name.equalsIgnoreCase("player_name") ||
+                                        name.equalsIgnoreCase("player-name") ||
+                                        name.equalsIgnoreCase("playername")) {
+                                        
+                                        trace(() -> "Found username in line item property: " + value);
+                                        return value;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    
+                    // Check for properties as direct fields
+                    if (lineItem.has("properties_username")) {
+                        String value = getStringFromJson(lineItem, "properties_username");
+                        if (value != null && !value.isEmpty()) {
+                            trace(() -> "Found username in properties_username field: " + value);
+                            return value;
+                        }
+                    }
+                    
+                    // Check for other common property field names
+                    String[] possiblePropertyFields = {
+                        "properties_minecraft_username", "properties_mc_username", 
+                        "properties_ign", "properties_spielername", "properties_player",
+                        "properties_player_name", "properties_playername"
+                    };
+                    
+                    for (String field : possiblePropertyFields) {
+                        if (lineItem.has(field)) {
+                            String value = getStringFromJson(lineItem, field);
+                            if (value != null && !value.isEmpty()) {
+                                trace(() -> "Found username in field " + field + ": " + value);
+                                return value;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        
+        // Try note attributes
+        JsonArray noteAttributes = getJsonArrayFromJson(orderJson, FIELD_NOTE_ATTRIBUTES);
+        if (noteAttributes != null && noteAttributes.size() > 0) {
+            for (int i = 0; i < noteAttributes.size(); i++) {
+                JsonObject attribute = noteAttributes.get(i).getAsJsonObject();
+                String name = getStringFromJson(attribute, "name");
+                String value = getStringFromJson(attribute, FIELD_VALUE);
+                
+                trace(() -> "Checking note attribute: name=" + name + ", value=" + value);
+                
+                if (name != null && value != null && !value.isEmpty()) {
+                    // Erweiterte Liste von möglichen Feldnamen für den Benutzernamen
+                    if (name.equalsIgnoreCase("username") || 
+                        name.equalsIgnoreCase("minecraft username") || 
+                        name.equalsIgnoreCase("minecraft_username") ||
+                        name.equalsIgnoreCase("minecraft-username") ||
+                        name.equalsIgnoreCase("mc username") ||
+                        name.equalsIgnoreCase("mc-username") ||
+                        name.equalsIgnoreCase("mc_username") ||
+                        name.equalsIgnoreCase("ign") ||
+                        name.equalsIgnoreCase("spielername") ||
+                        name.equalsIgnoreCase("player") ||
+                        name.equalsIgnoreCase("player_name") ||
+                        name.equalsIgnoreCase("player-name") ||
+                        name.equalsIgnoreCase("playername")) {
+                        
+                        trace(() -> "Found username in note attribute: " + value);
+                        return value;
+                    }
+                }
+            }
+        }
+        
+        // Try customer object
+        if (orderJson.has("customer")) {
+            // Prüfe, ob das Element ein JsonObject ist
+            JsonElement customerElement = orderJson.get("customer");
+            if (customerElement != null && !customerElement.isJsonNull() && customerElement.isJsonObject()) {
+                JsonObject customer = customerElement.getAsJsonObject();
+                
+                // Check customer note
+                if (customer.has("note")) {
+                    String note = getStringFromJson(customer, "note");
+                    if (note != null && !note.isEmpty()) {
+                        trace(() -> "Found customer note: " + note);
+                        // Try to extract username from note
+                        String extractedName = extractUsernameFromText(note);
+                        if (extractedName != null) {
+                            return extractedName;
+                        }
+                    }
+                }
+                
+                // Check other customer fields
+                String[] customerFields = {"first_name", "last_name", "email", "phone"};
+                for (String field : customerFields) {
+                    if (customer.has(field)) {
+                        String value = getStringFromJson(customer, field);
+                        trace(() -> "Found customer." + field + ": " + value);
+                    }
+                }
+            } else {
+                trace(() -> "customer is not a valid JsonObject");
+            }
+        }
+        
+        // Try note field directly
+        if (orderJson.has("note")) {
+            String note = getStringFromJson(orderJson, "note");
+            if (note != null && !note.isEmpty()) {
+                trace(() -> "Found potential username in order note: " + note);
+                return note;
+            }
+        }
+        
+        // Try attributes array
+        if (orderJson.has("attributes")) {
+            JsonElement attributesElement = orderJson.get("attributes");
+            
+            trace(() -> "attributes type: " + attributesElement.getClass().getName() + ", content: " + attributesElement);
+            
+            // Prüfe, ob attributes ein JsonArray ist (Standard-Format)
+            if (attributesElement.isJsonArray()) {
+                JsonArray attributes = attributesElement.getAsJsonArray();
+                if (attributes != null && attributes.size() > 0) {
+                    for (int i = 0; i < attributes.size(); i++) {
+                        JsonObject attribute = attributes.get(i).getAsJsonObject();
+                        String name = getStringFromJson(attribute, "name");
+                        String value = getStringFromJson(attribute, FIELD_VALUE);
+                        
+                        trace(() -> "Checking attribute: name=" + name + ", value=" + value);
+                        
+                        if (name != null && value != null && !value.isEmpty()) {
+                            // Erweiterte Liste von möglichen Feldnamen für den Benutzernamen
+                            if (name.equalsIgnoreCase("username") || 
+                                name.equalsIgnoreCase("minecraft username") || 
+                                name.equalsIgnoreCase("minecraft_username") ||
+                                name.equalsIgnoreCase("minecraft-username") ||
+                                name.equalsIgnoreCase("mc username") ||
+                                name.equalsIgnoreCase("mc-username") ||
+                                name.equalsIgnoreCase("mc_username") ||
+                                name.equalsIgnoreCase("ign") ||
+                                name.equalsIgnoreCase("spielername") ||
+                                name.equalsIgnoreCase("player") ||
+                                name.equalsIgnoreCase("player_name") ||
+                                name.equalsIgnoreCase("player-name") ||
+                                name.equalsIgnoreCase("playername")) {
+                                
+                                trace(() -> "Found username in attribute: " + value);
+                                return value;
+                            }
+                        }
+                    }
+                }
+            } 
+            // Prüfe, ob attributes ein JsonObject ist (alternatives Format)
+            else if (attributesElement.isJsonObject()) {
+                JsonObject attributesObj = attributesElement.getAsJsonObject();
+                
+                trace(() -> "attributes keys: " + attributesObj.keySet());
+                
+                // Direkt nach 'username' suchen (wie im HTML-Formular definiert)
+                if (attributesObj.has("username")) {
+                    String value = getStringFromJson(attributesObj, "username");
+                    if (value != null && !value.isEmpty()) {
+                        trace(() -> "Found username in attributes.username: " + value);
+                        return value;
+                    }
+                }
+                
+                // Andere mögliche Feldnamen prüfen
+                String[] possibleFields = {"minecraft_username", "minecraft-username", "mc_username", "ign", "spielername"};
+                for (String field : possibleFields) {
+                    if (attributesObj.has(field)) {
+                        String value = getStringFromJson(attributesObj, field);
+                        if (value != null && !value.isEmpty()) {
+                            trace(() -> "Found username in attributes." + field + ": " + value);
+                            return value;
+                        }
+                    }
+                }
+            }
+        }
+        
+        // Try cart_attributes
+        if (orderJson.has("cart_attributes")) {
+            // Prüfe, ob das Element ein JsonObject ist
+            JsonElement cartAttributesElement = orderJson.get("cart_attributes");
+            if (cartAttributesElement != null && !cartAttributesElement.isJsonNull()) {
+                // Detaillierte Debug-Ausgabe für cart_attributes
+                trace(() -> "cart_attributes type: " + cartAttributesElement.getClass().getName() + ", content: " + cartAttributesElement);
+                
+                if (cartAttributesElement.isJsonObject()) {
+                    JsonObject cartAttributes = cartAttributesElement.getAsJsonObject();
+                    
+                    // Debug-Ausgabe aller Schlüssel
+                    trace(() -> "cart_attributes keys: " + cartAttributes.keySet());
+                    
+                    // Direkt nach 'username' suchen (wie im HTML-Formular definiert)
+                    if (cartAttributes.has("username")) {
+                        String value = getStringFromJson(cartAttributes, "username");
+                        if (value != null && !value.isEmpty()) {
+                            trace(() -> "Found username in cart_attributes.username: " + value);
+                            return value;
+                        }
+                    }
+                    
+                    // Andere mögliche Feldnamen prüfen
+                    String[] possibleFields = {"minecraft_username", "minecraft-username", "mc_username", "ign", "spielername"};
+                    for (String field : possibleFields) {
+                        if (cartAttributes.has(field)) {
+                            String value = getStringFromJson(cartAttributes, field);
+                            if (value != null && !value.isEmpty()) {
+                                trace(() -> "Found username in cart_attributes." + field + ": " + value);
+                                return value;
+                            }
+                        }
+                    }
+                } else {
+                    trace(() -> "cart_attributes is not a JsonObject but: " + cartAttributesElement.getClass().getName());
+                }
+            } else {
+                trace(() -> "cart_attributes is null or JsonNull");
+            }
+        }
+        
+        // Try shipping_address and billing_address
+        String[] addressTypes = {"shipping_address", "billing_address"};
+        for (String addressType : addressTypes) {
+            if (orderJson.has(addressType)) {
+                // Prüfe, ob das Element ein JsonObject ist
+                JsonElement addressElement = orderJson.get(addressType);
+                if (addressElement != null && !addressElement.isJsonNull() && addressElement.isJsonObject()) {
+                    JsonObject address = addressElement.getAsJsonObject();
+                    if (address.has("name")) {
+                        String name = getStringFromJson(address, "name");
+                        trace(() -> "Found name in " + addressType + ": " + name);
+                    }
+                } else {
+                    trace(() -> addressType + " is not a valid JsonObject");
+                }
+            }
+        }
+        
+        // Als letzten Versuch, prüfe auf Tags
+        if (orderJson.has("tags")) {
+            String tags = getStringFromJson(orderJson, "tags");
+            if (tags != null && !tags.isEmpty()) {
+                trace(() -> "Order tags: " + tags);
+            }
+        }
+        
+        trace(() -> "Could not find username in order");
+        return null;
+    }
+    
+    /**
+     * Extract the account type ("Java" or "Bedrock") from the note attributes or line item properties.
+     * 
+     * @param orderJson The order JSON object
+     * @return The account type, "Java" if none is specified
+     */
+    public String extractAccountType(JsonObject orderJson) {
+        String accountType = "Java"; // Default to Java if not specified
+        
+        // Try to find account type in various locations
+        // First check note_attributes
+        JsonArray noteAttributes = getJsonArrayFromJson(orderJson, FIELD_NOTE_ATTRIBUTES);
+        if (noteAttributes != null && noteAttributes.size() > 0) {
+            for (int i = 0; i < noteAttributes.size(); i++) {
+                JsonObject attribute = noteAttributes.get(i).getAsJsonObject();
+                String name = getStringFromJson(attribute, "name");
+                String value = getStringFromJson(attribute, FIELD_VALUE);
+                
+                if (name != null && value != null && !value.isEmpty() && name.equalsIgnoreCase("account_type")) {
+                    accountType = value;
+                    break;
+                }
+            }
+        }
+        
+        // Then check line item properties for account type
+        if (orderJson.has(FIELD_LINE_ITEMS)) {
+            JsonArray lineItems = getJsonArrayFromJson(orderJson, FIELD_LINE_ITEMS);
+            if (lineItems != null && lineItems.size() > 0) {
+                for (int i = 0; i < lineItems.size(); i++) {
+                    JsonObject lineItem = lineItems.get(i).getAsJsonObject();
+                    if (lineItem.has("properties")) {
+                        JsonArray properties = getJsonArrayFromJson(lineItem, "properties");
+                        if (properties != null && properties.size() > 0) {
+                            for (int j = 0; j < properties.size(); j++) {
+                                JsonObject property = properties.get(j).getAsJsonObject();
+                                String name = getStringFromJson(property, "name");
+                                String value = getStringFromJson(property, "value");
+                                
+                                if (name != null && value != null && !value.isEmpty() && 
+                                    (name.equalsIgnoreCase("account_type") || name.equalsIgnoreCase("minecraft_account_type"))) {
+                                    accountType = value;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        
+        return accountType;
+    }
+    
+    /**
+     * Versucht, einen Benutzernamen aus einem Text zu extrahieren.
+     * 
+     * @param text Der Text, aus dem der Benutzername extrahiert werden soll
+     * @return Der extrahierte Benutzername oder null, wenn keiner gefunden wurde
+     */
+    private String extractUsernameFromText(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        
+        // Versuche, einen Benutzernamen zu finden, der typischerweise 3-16 Zeichen lang ist
+        // und nur Buchstaben, Zahlen und Unterstriche enthält
+        
+        // Prüfe auf Muster wie "username: xyz" oder "ign: xyz"
+        String[] patterns = {"username[\\s]*:[\\s]*([\\w]{3,16})", 
+                           "ign[\\s]*:[\\s]*([\\w]{3,16})", 
+                           "minecraft[\\s]*:[\\s]*([\\w]{3,16})",
+                           "spielername[\\s]*:[\\s]*([\\w]{3,16})",
+                           "mc[\\s]*:[\\s]*([\\w]{3,16})"};
+        
+        for (String pattern : patterns) {
+            java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern, java.util.regex.Pattern.CASE_INSENSITIVE);
+            java.util.regex.Matcher m = p.matcher(text);
+            if (m.find()) {
+                String username = m.group(1);
+                trace(() -> "Extracted username '" + username + "' from text using pattern: " + pattern);
+                return username;
+            }
+        }
+        
+        // Wenn kein Muster gefunden wurde, prüfe, ob der Text selbst ein gültiger Benutzername sein könnte
+        if (text.matches("^[\\w]{3,16}$")) {
+            trace(() -> "Text itself appears to be a valid username: " + text);
+            return text;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Safely extract a string from a JSON object.
+     * 
+     * @param json The JSON object.
+     * @param key The key to extract.
+     * @return The string value, or null if not found or not a string.
+     */
+    static String getStringFromJson(JsonObject json, String key) {
+        try {
+            if (json.has(key)) {
+                JsonElement element = json.get(key);
+                if (element.isJsonPrimitive()) {
+                    JsonPrimitive primitive = element.getAsJsonPrimitive();
+                    if (primitive.isString()) {
+                        return primitive.getAsString();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Silently handle and return null
+        }
+        return null;
+    }
+    
+    /**
+     * Safely extract a JSON array from a JSON object.
+     * 
+     * @param json The JSON object.
+     * @param key The key to extract.
+     * @return The JSON array, or null if not found or not an array.
+     */
+    static JsonArray getJsonArrayFromJson(JsonObject json, String key) {
+        try {
+            if (json.has(key)) {
+                JsonElement element = json.get(key);
+                if (element.isJsonArray()) {
+                    return element.getAsJsonArray();
+                }
+            }
+        } catch (Exception e) {
+            // Silently handle and return null
+        }
+        return null;
+    }
+    
+    /**
+     * Safely extract an integer from a JSON object.
+     * 
+     * @param json The JSON object.
+     * @param key The key to extract.
+     * @param defaultValue The default value if extraction fails.
+     * @return The integer value, or the default value if not found or not an integer.
+     */
+    static int getIntFromJson(JsonObject json, String key, int defaultValue) {
+        try {
+            if (json.has(key)) {
+                JsonElement element = json.get(key);
+                if (element.isJsonPrimitive()) {
+                    JsonPrimitive primitive = element.getAsJsonPrimitive();
+                    if (primitive.isNumber()) {
+                        return primitive.getAsInt();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Silently handle and return default
+        }
+        return defaultValue;
+    }
+}
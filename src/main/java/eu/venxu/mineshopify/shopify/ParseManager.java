@@ -5,33 +5,66 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.action.ActionManager;
+import eu.venxu.mineshopify.action.ActionType;
+import eu.venxu.mineshopify.action.DeliveryAction;
+import eu.venxu.mineshopify.entitlement.Entitlement;
+import eu.venxu.mineshopify.dispatch.RetryManager;
+import eu.venxu.mineshopify.log.EventCategory;
+import eu.venxu.mineshopify.log.EventLog;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.Histogram;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
 import eu.venxu.mineshopify.order.Order;
+import eu.venxu.mineshopify.profiler.TickProfiler;
+import eu.venxu.mineshopify.storage.DeliveryLedger;
+import eu.venxu.mineshopify.storage.StorageException;
+import eu.venxu.mineshopify.trace.OrderTrace;
+import eu.venxu.mineshopify.trace.TraceManager;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
-import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 
 public class ParseManager {
 
     private final MineShopify mineShopify;
     private final Map<String, Long> processedOrderTimestamps;
-    private final Map<String, ConfigurationSection> packageCache;
+    private final Set<String> inFlightOrders;
+    private final Executor mainThreadExecutor;
+    private final OrderExtractor extractor;
+    private final EventLog eventLog;
+    private final DeliveryLedger ledger;
+    
+    // Metrics are registered once and recorded without lookups
+    private final Counter ordersSeen;
+    private final Counter ordersSkippedInMemory;
+    private final Counter ordersSkippedInStorage;
+    private final Counter ordersDelivered;
+    private final Counter lineItemsDelivered;
+    private final Counter commandsDispatched;
+    private final Counter commandsFailed;
+    private final Histogram parseDuration;
     
     // Constants for JSON field names to avoid typos and improve maintainability
     private static final String FIELD_ERRORS = "errors";
     private static final String FIELD_ORDERS = "orders";
-    private static final String FIELD_ORDER_NUMBER = "order_number";
-    private static final String FIELD_NOTE_ATTRIBUTES = "note_attributes";
-    private static final String FIELD_VALUE = "value";
     private static final String FIELD_LINE_ITEMS = "line_items";
     private static final String FIELD_NAME = "name";
     private static final String FIELD_QUANTITY = "quantity";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_CREATED_AT = "created_at";
+    private static final String FIELD_PROCESSED_AT = "processed_at";
     private static final String PLACEHOLDER_PLAYER = "%player%";
 
     /**
@@ -42,7 +75,21 @@ public class ParseManager {
     public ParseManager(MineShopify mineShopify) {
         this.mineShopify = mineShopify;
         this.processedOrderTimestamps = new ConcurrentHashMap<>();
-        this.packageCache = new HashMap<>();
+        this.inFlightOrders = ConcurrentHashMap.newKeySet();
+        this.mainThreadExecutor = mineShopify.getTickProfiler().mainThreadExecutor(TickProfiler.DELIVERY);
+        this.eventLog = mineShopify.getEventLog();
+        this.ledger = mineShopify.getStorageManager().getDeliveryLedger();
+        this.extractor = new OrderExtractor(eventLog);
+        
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        this.ordersSeen = metrics.counter("orders_seen_total", "Orders read from Shopify responses");
+        this.ordersSkippedInMemory = metrics.counter("orders_deduplicated_total", "Orders skipped because they were already processed", "source", "memory");
+        this.ordersSkippedInStorage = metrics.counter("orders_deduplicated_total", "Orders skipped because they were already processed", "source", "storage");
+        this.ordersDelivered = metrics.counter("orders_delivered_total", "Orders delivered to players");
+        this.lineItemsDelivered = metrics.counter("line_items_delivered_total", "Line items delivered to players");
+        this.commandsDispatched = metrics.counter("commands_dispatched_total", "Package commands dispatched to the console");
+        this.commandsFailed = metrics.counter("commands_failed_total", "Package commands that threw an exception or were reported as failed");
+        this.parseDuration = metrics.latency("parse_duration_seconds", "Main thread time spent parsing a Shopify response");
     }
 
     /**
@@ -78,15 +125,17 @@ public class ParseManager {
             return;
         }
         
-        // Log order count if debug is enabled
-        if (mineShopify.getConfig().getBoolean("debug", false)) {
-            mineShopify.getLogger().info("Processing " + orderArray.size() + " orders from Shopify.");
-        }
+        // Log order count
+        int orderCount = orderArray.size();
+        eventLog.log(EventCategory.PARSE, Level.FINE, "orders", () -> "Processing " + orderCount + " orders from Shopify.");
         
         // Process each order
+        long requestedAt = mineShopify.getShopifyManager().getResponseRequestedAt();
+        long receivedAt = mineShopify.getShopifyManager().getResponseReceivedAt();
+        long parseStart = System.nanoTime();
         for (int i = 0; i < orderArray.size(); i++) {
             try {
-                processOrder(orderArray.get(i).getAsJsonObject());
+                processOrder(orderArray.get(i).getAsJsonObject(), requestedAt, receivedAt, parseStart);
             } catch (Exception e) {
                 mineShopify.getLogger().log(Level.SEVERE, "Error processing order at index " + i, e);
             }
@@ -94,510 +143,142 @@ public class ParseManager {
         
         // Clean up old processed order timestamps (older than 30 days)
         cleanupProcessedOrders();
-    }
-    
-    /**
-     * Extract username from various possible locations in the order JSON.
-     * 
-     * @param orderJson The order JSON object
-     * @return The extracted username or null if not found
-     */
-    private String extractUsername(JsonObject orderJson) {
-        String username = null;
-        
-        // Debug-Ausgabe der gesamten Bestellung, wenn Debug aktiviert ist
-        if (mineShopify.getConfig().getBoolean("debug", false)) {
-            mineShopify.getLogger().info("Extracting username from order: " + 
-                orderJson.toString().substring(0, Math.min(200, orderJson.toString().length())) + "...");
-        }
-        
-        // Try to find username in line item properties first (most common location)
-        if (orderJson.has(FIELD_LINE_ITEMS)) {
-            JsonArray lineItems = getJsonArrayFromJson(orderJson, FIELD_LINE_ITEMS);
-            if (lineItems != null && lineItems.size() > 0) {
-                for (int i = 0; i < lineItems.size(); i++) {
-                    JsonObject lineItem = lineItems.get(i).getAsJsonObject();
-                    
-                    // Check for properties array
-                    if (lineItem.has("properties")) {
-                        JsonArray properties = getJsonArrayFromJson(lineItem, "properties");
-                        if (properties != null) {
-                            for (int j = 0; j < properties.size(); j++) {
-                                JsonObject property = properties.get(j).getAsJsonObject();
-                                String name = getStringFromJson(property, "name");
-                                String value = getStringFromJson(property, "value");
-                                
-                                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                    mineShopify.getLogger().info("Checking line item property: name=" + name + ", value=" + value);
-                                }
-                                
-                                if (name != null && value != null && !value.isEmpty()) {
-                                    // Erweiterte Liste von möglichen Feldnamen für den Benutzernamen
-                                    if (name.equalsIgnoreCase("username") || 
-                                        name.equalsIgnoreCase("minecraft username") || 
-                                        name.equalsIgnoreCase("minecraft_username") ||
-                                        name.equalsIgnoreCase("minecraft-username") ||
-                                        name.equalsIgnoreCase("mc username") ||
-                                        name.equalsIgnoreCase("mc-username") ||
-                                        name.equalsIgnoreCase("mc_username") ||
-                                        name.equalsIgnoreCase("ign") ||
-                                        name.equalsIgnoreCase("spielername") ||
-                                        name.equalsIgnoreCase("player") ||
-                                        name.equalsIgnoreCase("player_name") ||
-                                        name.equalsIgnoreCase("player-name") ||
-                                        name.equalsIgnoreCase("playername")) {
-                                        
-                                        if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                            mineShopify.getLogger().info("Found username in line item property: " + value);
-                                        }
-                                        return value;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    
-                    // Check for properties as direct fields
-                    if (lineItem.has("properties_username")) {
-                        String value = getStringFromJson(lineItem, "properties_username");
-                        if (value != null && !value.isEmpty()) {
-                            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                mineShopify.getLogger().info("Found username in properties_username field: " + value);
-                            }
-                            return value;
-                        }
-                    }
-                    
-                    // Check for other common property field names
-                    String[] possiblePropertyFields = {
-                        "properties_minecraft_username", "properties_mc_username", 
-                        "properties_ign", "properties_spielername", "properties_player",
-                        "properties_player_name", "properties_playername"
-                    };
-                    
-                    for (String field : possiblePropertyFields) {
-                        if (lineItem.has(field)) {
-                            String value = getStringFromJson(lineItem, field);
-                            if (value != null && !value.isEmpty()) {
-                                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                    mineShopify.getLogger().info("Found username in field " + field + ": " + value);
-                                }
-                                return value;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        
-        // Try note attributes
-        JsonArray noteAttributes = getJsonArrayFromJson(orderJson, FIELD_NOTE_ATTRIBUTES);
-        if (noteAttributes != null && noteAttributes.size() > 0) {
-            for (int i = 0; i < noteAttributes.size(); i++) {
-                JsonObject attribute = noteAttributes.get(i).getAsJsonObject();
-                String name = getStringFromJson(attribute, "name");
-                String value = getStringFromJson(attribute, FIELD_VALUE);
-                
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("Checking note attribute: name=" + name + ", value=" + value);
-                }
-                
-                if (name != null && value != null && !value.isEmpty()) {
-                    // Erweiterte Liste von möglichen Feldnamen für den Benutzernamen
-                    if (name.equalsIgnoreCase("username") || 
-                        name.equalsIgnoreCase("minecraft username") || 
-                        name.equalsIgnoreCase("minecraft_username") ||
-                        name.equalsIgnoreCase("minecraft-username") ||
-                        name.equalsIgnoreCase("mc username") ||
-                        name.equalsIgnoreCase("mc-username") ||
-                        name.equalsIgnoreCase("mc_username") ||
-                        name.equalsIgnoreCase("ign") ||
-                        name.equalsIgnoreCase("spielername") ||
-                        name.equalsIgnoreCase("player") ||
-                        name.equalsIgnoreCase("player_name") ||
-                        name.equalsIgnoreCase("player-name") ||
-                        name.equalsIgnoreCase("playername")) {
-                        
-                        if (mineShopify.getConfig().getBoolean("debug", false)) {
-                            mineShopify.getLogger().info("Found username in note attribute: " + value);
-                        }
-                        return value;
-                    }
-                }
-            }
-        }
-        
-        // Try customer object
-        if (orderJson.has("customer")) {
-            // Prüfe, ob das Element ein JsonObject ist
-            JsonElement customerElement = orderJson.get("customer");
-            if (customerElement != null && !customerElement.isJsonNull() && customerElement.isJsonObject()) {
-                JsonObject customer = customerElement.getAsJsonObject();
-                
-                // Check customer note
-                if (customer.has("note")) {
-                    String note = getStringFromJson(customer, "note");
-                    if (note != null && !note.isEmpty()) {
-                        if (mineShopify.getConfig().getBoolean("debug", false)) {
-                            mineShopify.getLogger().info("Found customer note: " + note);
-                        }
-                        // Try to extract username from note
-                        String extractedName = extractUsernameFromText(note);
-                        if (extractedName != null) {
-                            return extractedName;
-                        }
-                    }
-                }
-                
-                // Check other customer fields
-                String[] customerFields = {"first_name", "last_name", "email", "phone"};
-                for (String field : customerFields) {
-                    if (customer.has(field)) {
-                        String value = getStringFromJson(customer, field);
-                        if (mineShopify.getConfig().getBoolean("debug", false)) {
-                            mineShopify.getLogger().info("Found customer." + field + ": " + value);
-                        }
-                    }
-                }
-            } else if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("customer is not a valid JsonObject");
-            }
-        }
-        
-        // Try note field directly
-        if (orderJson.has("note")) {
-            String note = getStringFromJson(orderJson, "note");
-            if (note != null && !note.isEmpty()) {
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("Found potential username in order note: " + note);
-                }
-                return note;
-            }
-        }
-        
-        // Try attributes array
-        if (orderJson.has("attributes")) {
-            JsonElement attributesElement = orderJson.get("attributes");
-            
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("attributes type: " + attributesElement.getClass().getName());
-                mineShopify.getLogger().info("attributes content: " + attributesElement.toString());
-            }
-            
-            // Prüfe, ob attributes ein JsonArray ist (Standard-Format)
-            if (attributesElement.isJsonArray()) {
-                JsonArray attributes = attributesElement.getAsJsonArray();
-                if (attributes != null && attributes.size() > 0) {
-                    for (int i = 0; i < attributes.size(); i++) {
-                        JsonObject attribute = attributes.get(i).getAsJsonObject();
-                        String name = getStringFromJson(attribute, "name");
-                        String value = getStringFromJson(attribute, FIELD_VALUE);
-                        
-                        if (mineShopify.getConfig().getBoolean("debug", false)) {
-                            mineShopify.getLogger().info("Checking attribute: name=" + name + ", value=" + value);
-                        }
-                        
-                        if (name != null && value != null && !value.isEmpty()) {
-                            // Erweiterte Liste von möglichen Feldnamen für den Benutzernamen
-                            if (name.equalsIgnoreCase("username") || 
-                                name.equalsIgnoreCase("minecraft username") || 
-                                name.equalsIgnoreCase("minecraft_username") ||
-                                name.equalsIgnoreCase("minecraft-username") ||
-                                name.equalsIgnoreCase("mc username") ||
-                                name.equalsIgnoreCase("mc-username") ||
-                                name.equalsIgnoreCase("mc_username") ||
-                                name.equalsIgnoreCase("ign") ||
-                                name.equalsIgnoreCase("spielername") ||
-                                name.equalsIgnoreCase("player") ||
-                                name.equalsIgnoreCase("player_name") ||
-                                name.equalsIgnoreCase("player-name") ||
-                                name.equalsIgnoreCase("playername")) {
-                                
-                                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                    mineShopify.getLogger().info("Found username in attribute: " + value);
-                                }
-                                return value;
-                            }
-                        }
-                    }
-                }
-            } 
-            // Prüfe, ob attributes ein JsonObject ist (alternatives Format)
-            else if (attributesElement.isJsonObject()) {
-                JsonObject attributesObj = attributesElement.getAsJsonObject();
-                
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("attributes keys: " + attributesObj.keySet());
-                }
-                
-                // Direkt nach 'username' suchen (wie im HTML-Formular definiert)
-                if (attributesObj.has("username")) {
-                    String value = getStringFromJson(attributesObj, "username");
-                    if (value != null && !value.isEmpty()) {
-                        if (mineShopify.getConfig().getBoolean("debug", false)) {
-                            mineShopify.getLogger().info("Found username in attributes.username: " + value);
-                        }
-                        return value;
-                    }
-                }
-                
-                // Andere mögliche Feldnamen prüfen
-                String[] possibleFields = {"minecraft_username", "minecraft-username", "mc_username", "ign", "spielername"};
-                for (String field : possibleFields) {
-                    if (attributesObj.has(field)) {
-                        String value = getStringFromJson(attributesObj, field);
-                        if (value != null && !value.isEmpty()) {
-                            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                mineShopify.getLogger().info("Found username in attributes." + field + ": " + value);
-                            }
-                            return value;
-                        }
-                    }
-                }
-            }
-        }
-        
-        // Try cart_attributes
-        if (orderJson.has("cart_attributes")) {
-            // Prüfe, ob das Element ein JsonObject ist
-            JsonElement cartAttributesElement = orderJson.get("cart_attributes");
-            if (cartAttributesElement != null && !cartAttributesElement.isJsonNull()) {
-                // Detaillierte Debug-Ausgabe für cart_attributes
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("cart_attributes type: " + cartAttributesElement.getClass().getName());
-                    mineShopify.getLogger().info("cart_attributes content: " + cartAttributesElement.toString());
-                }
-                
-                if (cartAttributesElement.isJsonObject()) {
-                    JsonObject cartAttributes = cartAttributesElement.getAsJsonObject();
-                    
-                    // Debug-Ausgabe aller Schlüssel
-                    if (mineShopify.getConfig().getBoolean("debug", false)) {
-                        mineShopify.getLogger().info("cart_attributes keys: " + cartAttributes.keySet());
-                    }
-                    
-                    // Direkt nach 'username' suchen (wie im HTML-Formular definiert)
-                    if (cartAttributes.has("username")) {
-                        String value = getStringFromJson(cartAttributes, "username");
-                        if (value != null && !value.isEmpty()) {
-                            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                mineShopify.getLogger().info("Found username in cart_attributes.username: " + value);
-                            }
-                            return value;
-                        }
-                    }
-                    
-                    // Andere mögliche Feldnamen prüfen
-                    String[] possibleFields = {"minecraft_username", "minecraft-username", "mc_username", "ign", "spielername"};
-                    for (String field : possibleFields) {
-                        if (cartAttributes.has(field)) {
-                            String value = getStringFromJson(cartAttributes, field);
-                            if (value != null && !value.isEmpty()) {
-                                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                    mineShopify.getLogger().info("Found username in cart_attributes." + field + ": " + value);
-                                }
-                                return value;
-                            }
-                        }
-                    }
-                } else if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("cart_attributes is not a JsonObject but: " + cartAttributesElement.getClass().getName());
-                }
-            } else if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("cart_attributes is null or JsonNull");
-            }
-        }
-        
-        // Try shipping_address and billing_address
-        String[] addressTypes = {"shipping_address", "billing_address"};
-        for (String addressType : addressTypes) {
-            if (orderJson.has(addressType)) {
-                // Prüfe, ob das Element ein JsonObject ist
-                JsonElement addressElement = orderJson.get(addressType);
-                if (addressElement != null && !addressElement.isJsonNull() && addressElement.isJsonObject()) {
-                    JsonObject address = addressElement.getAsJsonObject();
-                    if (address.has("name")) {
-                        String name = getStringFromJson(address, "name");
-                        if (mineShopify.getConfig().getBoolean("debug", false)) {
-                            mineShopify.getLogger().info("Found name in " + addressType + ": " + name);
-                        }
-                    }
-                } else if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info(addressType + " is not a valid JsonObject");
-                }
-            }
-        }
-        
-        // Als letzten Versuch, prüfe auf Tags
-        if (orderJson.has("tags")) {
-            String tags = getStringFromJson(orderJson, "tags");
-            if (tags != null && !tags.isEmpty()) {
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("Order tags: " + tags);
-                }
-            }
-        }
-        
-        if (mineShopify.getConfig().getBoolean("debug", false)) {
-            mineShopify.getLogger().warning("Could not find username in order");
-        }
-        return null;
+        parseDuration.observeSince(parseStart);
     }
     
     /**
      * Process a single order from the Shopify API.
+     * The dedupe check runs on the storage executor; the order is delivered
+     * on the main thread once it is known to be new.
      * 
      * @param orderJson The JSON object representing the order.
+     * @param requestedAt The time the poll was sent, from {@link System#nanoTime()}.
+     * @param receivedAt The time the response was received.
+     * @param parseStart The time the main thread started parsing the response.
      */
-    private void processOrder(JsonObject orderJson) {
+    private void processOrder(JsonObject orderJson, long requestedAt, long receivedAt, long parseStart) {
         try {
             // Log the order JSON for debugging
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("Processing order: " + orderJson.toString().substring(0, Math.min(200, orderJson.toString().length())) + "...");
+            if (eventLog.isLoggable(EventCategory.PARSE, Level.FINEST)) {
+                eventLog.log(EventCategory.PARSE, Level.FINEST, "order", () -> "Processing order: " + preview(orderJson, 200));
                 
                 // Durchsuche alle Felder nach möglichen Benutzernamen
                 searchAllFieldsForUsername(orderJson, "");
             }
             
             // Extract order ID - try different fields that might contain the order number
-            String orderId = null;
-            
-            // Try order_number first (standard field)
-            orderId = getStringFromJson(orderJson, FIELD_ORDER_NUMBER);
-            
-            // If not found, try id field
-            if (orderId == null) {
-                orderId = getStringFromJson(orderJson, "id");
-            }
-            
-            // If not found, try name field
-            if (orderId == null) {
-                orderId = getStringFromJson(orderJson, "name");
-            }
-            
-            // If still not found, try order_id field
-            if (orderId == null) {
-                orderId = getStringFromJson(orderJson, "order_id");
-            }
+            String orderId = extractor.extractOrderId(orderJson);
             
             if (orderId == null) {
                 mineShopify.getLogger().warning("Order missing order number, skipping. Available fields: " + orderJson.keySet());
                 return;
             }
             
-            // Check if we've already processed this order
-            if (mineShopify.getStorageManager().getStorage().checkOrder(orderId)) {
-                // Order already processed, skip
+            // Skip orders processed in this session or still waiting for the storage
+            ordersSeen.increment();
+            if (processedOrderTimestamps.containsKey(orderId) || !inFlightOrders.add(orderId)) {
+                ordersSkippedInMemory.increment();
                 return;
             }
             
+            // Trace the order from the poll until it is stored
+            OrderTrace trace = mineShopify.getTraceManager().start(orderId, OrderExtractor.getStringFromJson(orderJson, FIELD_CREATED_AT),
+                    OrderExtractor.getStringFromJson(orderJson, FIELD_PROCESSED_AT), requestedAt);
+            trace.mark(OrderTrace.Stage.FETCH, receivedAt);
+            trace.mark(OrderTrace.Stage.QUEUE, parseStart);
+            trace.mark(OrderTrace.Stage.EXTRACT);
+            
+            // Check the storage without blocking the tick and deliver on the main thread
+            String checkedOrderId = orderId;
+            mineShopify.getStorageManager().getAsyncStorage().checkOrder(orderId)
+                    .thenAcceptAsync(exists -> {
+                        try {
+                            // Orders interrupted mid-delivery are stored but still have line items to deliver
+                            if (exists && !ledger.isOpen(checkedOrderId)) {
+                                // Order already processed, remember it to skip the storage next time
+                                ordersSkippedInStorage.increment();
+                                processedOrderTimestamps.put(checkedOrderId, System.currentTimeMillis());
+                            } else {
+                                trace.mark(OrderTrace.Stage.DEDUPE);
+                                deliverOrder(orderJson, checkedOrderId, trace);
+                            }
+                        } finally {
+                            inFlightOrders.remove(checkedOrderId);
+                        }
+                    }, mainThreadExecutor)
+                    .exceptionally(e -> {
+                        inFlightOrders.remove(checkedOrderId);
+                        if (e.getCause() instanceof StorageException) {
+                            // The storage can't tell if the order is new, e.g. during a MySQL outage it already reported
+                            eventLog.log(EventCategory.STORAGE, Level.WARNING, "check_failed",
+                                    () -> e.getCause().getMessage() + " It will be retried with the next fetch.");
+                        } else {
+                            mineShopify.getLogger().log(Level.SEVERE, "Failed to check order " + checkedOrderId + ", it will be retried with the next fetch", e);
+                        }
+                        return null;
+                    });
+            
+        } catch (Exception e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Error processing order", e);
+        }
+    }
+    
+    /**
+     * Deliver an order that has not been processed before.
+     * Must be called on the main thread.
+     * 
+     * @param orderJson The JSON object representing the order.
+     * @param orderId The order ID.
+     * @param trace The trace of the order.
+     */
+    private void deliverOrder(JsonObject orderJson, String orderId, OrderTrace trace) {
+        try {
             // Log the entire order JSON for debugging
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("Full order JSON for order " + orderId + ": " + orderJson.toString());
+            if (eventLog.isLoggable(EventCategory.PARSE, Level.FINEST)) {
+                eventLog.log(EventCategory.PARSE, Level.FINEST, "order_json", () -> "Full order JSON for order " + orderId,
+                        fields -> fields.add("order", orderJson));
                 
                 // Detaillierte Debug-Ausgabe für wichtige Felder
-                if (orderJson.has("attributes")) {
-                    mineShopify.getLogger().info("Order " + orderId + " has 'attributes' field: " + orderJson.get("attributes"));
-                } else {
-                    mineShopify.getLogger().info("Order " + orderId + " has NO 'attributes' field");
-                }
-                
-                if (orderJson.has("cart_attributes")) {
-                    mineShopify.getLogger().info("Order " + orderId + " has 'cart_attributes' field: " + orderJson.get("cart_attributes"));
-                } else {
-                    mineShopify.getLogger().info("Order " + orderId + " has NO 'cart_attributes' field");
-                }
-                
-                if (orderJson.has("note_attributes")) {
-                    mineShopify.getLogger().info("Order " + orderId + " has 'note_attributes' field: " + orderJson.get("note_attributes"));
-                } else {
-                    mineShopify.getLogger().info("Order " + orderId + " has NO 'note_attributes' field");
+                for (String field : new String[]{"attributes", "cart_attributes", "note_attributes"}) {
+                    eventLog.log(EventCategory.PARSE, Level.FINEST, "order_field", () -> orderJson.has(field)
+                            ? "Order " + orderId + " has '" + field + "' field: " + orderJson.get(field)
+                            : "Order " + orderId + " has NO '" + field + "' field");
                 }
                 
                 // Suche speziell nach den Attributen aus dem HTML-Formular
-                mineShopify.getLogger().info("[DEBUG] Suche nach HTML-Formular-Attributen in Bestellung " + orderId);
+                eventLog.log(EventCategory.PARSE, Level.FINEST, "html_form", () -> "Suche nach HTML-Formular-Attributen in Bestellung " + orderId);
                 searchForHtmlFormAttributes(orderJson);
             }
             
             // Use the new extractUsername method to get the username
-            String username = extractUsername(orderJson);
-            String accountType = "Java"; // Default to Java if not specified
-            
-            // Try to find account type in various locations
-            // First check note_attributes
-            JsonArray noteAttributes = getJsonArrayFromJson(orderJson, FIELD_NOTE_ATTRIBUTES);
-            if (noteAttributes != null && noteAttributes.size() > 0) {
-                for (int i = 0; i < noteAttributes.size(); i++) {
-                    JsonObject attribute = noteAttributes.get(i).getAsJsonObject();
-                    String name = getStringFromJson(attribute, "name");
-                    String value = getStringFromJson(attribute, FIELD_VALUE);
-                    
-                    if (name != null && value != null && !value.isEmpty() && name.equalsIgnoreCase("account_type")) {
-                        accountType = value;
-                        break;
-                    }
-                }
-            }
-            
-            // Then check line item properties for account type
-            if (orderJson.has(FIELD_LINE_ITEMS)) {
-                JsonArray lineItems = getJsonArrayFromJson(orderJson, FIELD_LINE_ITEMS);
-                if (lineItems != null && lineItems.size() > 0) {
-                    for (int i = 0; i < lineItems.size(); i++) {
-                        JsonObject lineItem = lineItems.get(i).getAsJsonObject();
-                        if (lineItem.has("properties")) {
-                            JsonArray properties = getJsonArrayFromJson(lineItem, "properties");
-                            if (properties != null && properties.size() > 0) {
-                                for (int j = 0; j < properties.size(); j++) {
-                                    JsonObject property = properties.get(j).getAsJsonObject();
-                                    String name = getStringFromJson(property, "name");
-                                    String value = getStringFromJson(property, "value");
-                                    
-                                    if (name != null && value != null && !value.isEmpty() && 
-                                        (name.equalsIgnoreCase("account_type") || name.equalsIgnoreCase("minecraft_account_type"))) {
-                                        accountType = value;
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            
-            // Log what we found
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("Extracted username: " + username);
-                mineShopify.getLogger().info("Extracted account type: " + accountType);
-            }
+            String username = extractor.extractUsername(orderJson);
+            String accountType = extractor.extractAccountType(orderJson);
             
             // Check if username was found
             if (username == null || username.isEmpty()) {
-                // If debug is enabled, log more details about the order
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().warning("Order " + orderId + " has invalid or missing username, skipping. Order JSON: " + 
-                            orderJson.toString().substring(0, Math.min(500, orderJson.toString().length())) + "...");
-                } else {
-                    mineShopify.getLogger().warning("Order " + orderId + " has invalid or missing username, skipping.");
-                }
+                mineShopify.getLogger().warning("Order " + orderId + " has invalid or missing username, skipping.");
+                eventLog.log(EventCategory.PARSE, Level.FINE, "username_missing",
+                        () -> "Order " + orderId + " has invalid or missing username. Order JSON: " + preview(orderJson, 500));
                 return;
             }
             
-            // Log the found username if debug is enabled
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("Found username '" + username + "' for order " + orderId);
-            }
+            // Log what we found
+            String foundUsername = username;
+            eventLog.log(EventCategory.PARSE, Level.FINE, "username",
+                    () -> "Found username '" + foundUsername + "' (" + accountType + ") for order " + orderId,
+                    fields -> {
+                        fields.addProperty("order", orderId);
+                        fields.addProperty("username", foundUsername);
+                        fields.addProperty("account_type", accountType);
+                    });
             
             // Add prefix for Bedrock accounts if needed
             if (accountType.equals("Bedrock") && !username.startsWith("!")) {
                 username = "!" + username;
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("Added Bedrock prefix to username: " + username);
-                }
             }
             
             // Get line items (products purchased)
-            JsonArray lineItems = getJsonArrayFromJson(orderJson, FIELD_LINE_ITEMS);
+            JsonArray lineItems = OrderExtractor.getJsonArrayFromJson(orderJson, FIELD_LINE_ITEMS);
             if (lineItems == null || lineItems.size() == 0) {
                 mineShopify.getLogger().warning("Order " + orderId + " has no line items, skipping.");
                 return;
@@ -615,17 +296,46 @@ public class ParseManager {
                 mineShopify.getLogger().warning("Could not get player data for " + username + ", using username directly.");
             }
             
+            // Only line items with a package get a ledger record, the ledger counts them to find interrupted orders
+            int packageItems = 0;
+            for (int i = 0; i < lineItems.size(); i++) {
+                if (hasPackage(lineItems.get(i).getAsJsonObject())) {
+                    packageItems++;
+                }
+            }
+            
             // Process each line item (product)
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            boolean complete = true;
             for (int i = 0; i < lineItems.size(); i++) {
                 try {
-                    processLineItem(lineItems.get(i).getAsJsonObject(), orderId, username, playerName);
+                    CompletableFuture<Void> write = processLineItem(lineItems.get(i).getAsJsonObject(), orderId, username, playerName, i, packageItems);
+                    if (write != null) {
+                        writes.add(write);
+                    }
                 } catch (Exception e) {
+                    complete = false;
                     mineShopify.getLogger().log(Level.SEVERE, "Error processing line item for order " + orderId, e);
                 }
             }
             
-            // Record timestamp of processing this order
-            processedOrderTimestamps.put(orderId, System.currentTimeMillis());
+            // A failed line item keeps the order open, the next fetch delivers only the line items without a ledger record
+            if (complete) {
+                ledger.close(orderId);
+                processedOrderTimestamps.put(orderId, System.currentTimeMillis());
+                ordersDelivered.increment();
+            } else {
+                mineShopify.getLogger().warning("Order " + orderId + " was not delivered completely, the missing line items are retried with the next fetch.");
+            }
+            
+            // Finish the trace once something was delivered; the writes usually complete later
+            // and a failed write leaves the persist stage open
+            if (!writes.isEmpty()) {
+                TraceManager traceManager = mineShopify.getTraceManager();
+                traceManager.delivered(trace);
+                CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                        .thenRun(() -> traceManager.persisted(trace));
+            }
             
         } catch (Exception e) {
             mineShopify.getLogger().log(Level.SEVERE, "Error processing order", e);
@@ -639,103 +349,228 @@ public class ParseManager {
      * @param orderId The order ID.
      * @param username The Minecraft username.
      * @param playerName The resolved player name.
+     * @param index The position of the line item in the order.
+     * @param items The number of line items in the order that have a package.
+     * @return The write of the order to the storage, or null if nothing was delivered.
+     * @throws IOException If the delivery ledger cannot be written; nothing is dispatched then.
      */
-    private void processLineItem(JsonObject lineItem, String orderId, String username, String playerName) {
+    private CompletableFuture<Void> processLineItem(JsonObject lineItem, String orderId, String username, String playerName,
+                                                    int index, int items) throws IOException {
         // Extract product name
-        String productName = getStringFromJson(lineItem, FIELD_NAME);
+        String productName = OrderExtractor.getStringFromJson(lineItem, FIELD_NAME);
         if (productName == null || productName.isEmpty()) {
             mineShopify.getLogger().warning("Line item in order " + orderId + " has no name, skipping.");
-            return;
+            return null;
         }
         
         // Get the package configuration for this product
         ConfigurationSection packageConfig = getPackageConfig(productName);
         if (packageConfig == null) {
             // No package configuration found for this product
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("No package configuration found for product: " + productName);
-            }
-            return;
+            eventLog.log(EventCategory.DISPATCH, Level.FINE, "no_package", () -> "No package configuration found for product: " + productName);
+            return null;
         }
         
-        // Get commands to execute
+        // Get commands and actions to execute
         List<String> commands = packageConfig.getStringList("commands");
-        if (commands.isEmpty()) {
-            mineShopify.getLogger().warning("Package " + productName + " has no commands configured.");
-            return;
+        List<DeliveryAction> actions = mineShopify.getActionManager().getActions(productName);
+        if (commands.isEmpty() && actions.isEmpty()) {
+            mineShopify.getLogger().warning("Package " + productName + " has no commands or actions configured.");
+            return null;
         }
         
         // Get quantity
-        int quantity = getIntFromJson(lineItem, FIELD_QUANTITY, 1);
+        int quantity = OrderExtractor.getIntFromJson(lineItem, FIELD_QUANTITY, 1);
         quantity = Math.max(1, quantity); // Ensure at least 1
         
-        // Execute commands for each quantity
-        executeCommands(commands, playerName, quantity);
+        // Skip line items dispatched before a crash or a failed line item of the same order
+        String key = lineItemKey(lineItem, orderId, index);
+        if (ledger.isRecorded(orderId, key)) {
+            eventLog.log(EventCategory.DISPATCH, Level.FINE, "already_dispatched", () -> "Line item " + key + " was already dispatched, skipping.");
+            return null;
+        }
         
-        // Store the processed order
+        // Record the intent before anything is dispatched, so a crash can't deliver the line item twice
+        // The timed package is recorded with it, so the recovery can grant it if it was not saved
         Order order = new Order(username, productName, orderId);
-        mineShopify.getStorageManager().getStorage().addOrder(order);
+        Entitlement entitlement = mineShopify.getEntitlementManager().prepare(packageConfig, playerName, productName, orderId, quantity);
+        ledger.intent(key, index, items, order, entitlement == null ? null : entitlement.toJson());
+        
+        // Broadcasts are replaced by one digest message if broadcast coalescing is enabled
+        boolean skipBroadcasts = (commands.stream().anyMatch(ParseManager::isBroadcastCommand)
+                || actions.stream().anyMatch(action -> action.getType() == ActionType.BROADCAST))
+                && mineShopify.getNotificationManager().coalesceBroadcast(productName);
+        
+        // Run the actions once with the quantity, then the commands for each quantity
+        executeActions(actions, orderId, productName, playerName, quantity, skipBroadcasts);
+        executeCommands(commands, orderId, productName, playerName, quantity, skipBroadcasts);
+        CompletableFuture<Void> granted = entitlement == null ? CompletableFuture.completedFuture(null)
+                : mineShopify.getEntitlementManager().grant(entitlement);
+        lineItemsDelivered.increment();
+        
+        // Store the processed order without blocking the tick and commit it in the ledger once the entitlement is saved as well
+        // A failed write keeps the intent without commit, so the recovery stores it on the next start
+        CompletableFuture<Void> write = mineShopify.getStorageManager().getAsyncStorage().addOrder(order);
+        CompletableFuture.allOf(write, granted).thenRun(() -> ledger.commit(key)).exceptionally(e -> {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to store order " + orderId + " or its timed package, it is saved from the delivery ledger on the next start", e);
+            return null;
+        });
         
         // Send notification about the processed order
-        mineShopify.getNotificationManager().sendOrderNotification(order);
+        mineShopify.getTickProfiler().run(TickProfiler.NOTIFICATION,
+                () -> mineShopify.getNotificationManager().sendOrderNotification(order));
+        
+        // Log successful processing
+        eventLog.log(EventCategory.DISPATCH, Level.FINE, "delivered",
+                () -> "Successfully processed order " + orderId + " for player " + username + ", product: " + productName,
+                fields -> {
+                    fields.addProperty("order", orderId);
+                    fields.addProperty("username", username);
+                    fields.addProperty("package", productName);
+                });
+        return write;
+    }
+    
+    /**
+     * Build the idempotency key of a line item from the order id and the Shopify line item id.
+     * 
+     * @param lineItem The JSON object representing the line item.
+     * @param orderId The order ID.
+     * @param index The position of the line item, used if it has no id.
+     * @return The key, e.g. "#1001/13370000".
+     */
+    private static String lineItemKey(JsonObject lineItem, String orderId, int index) {
+        JsonElement id = lineItem.get(FIELD_ID);
+        if (id != null && id.isJsonPrimitive()) {
+            return orderId + "/" + id.getAsString();
+        }
+        return orderId + "/" + index;
+    }
+    
+    /**
+     * Run the typed actions of a purchased product through the Bukkit API.
+     * 
+     * Every action runs once with the quantity. A failed action is handed to the
+     * retry queue as the console command it replaces.
+     * 
+     * @param actions List of actions to run.
+     * @param orderId The order ID.
+     * @param productName The name of the purchased product.
+     * @param playerName The name of the buyer.
+     * @param quantity The quantity of the product purchased.
+     * @param skipBroadcasts True if broadcasts are replaced by the digest.
+     */
+    private void executeActions(List<DeliveryAction> actions, String orderId, String productName, String playerName, int quantity,
+                                boolean skipBroadcasts) {
+        ActionManager actionManager = mineShopify.getActionManager();
+        TickProfiler profiler = mineShopify.getTickProfiler();
         
-        // Log successful processing if debug is enabled
-        if (mineShopify.getConfig().getBoolean("debug", false)) {
-            mineShopify.getLogger().info("Successfully processed order " + orderId + 
-                    " for player " + username + ", product: " + productName);
+        for (DeliveryAction action : actions) {
+            if (skipBroadcasts && action.getType() == ActionType.BROADCAST) {
+                continue;
+            }
+            profiler.begin();
+            String error;
+            try {
+                error = actionManager.execute(action, orderId, playerName, quantity);
+            } catch (RuntimeException e) {
+                error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            } finally {
+                profiler.end(TickProfiler.DISPATCH);
+            }
+            if (error != null) {
+                mineShopify.getRetryManager().failed(action, quantity, orderId, productName, playerName, error);
+                continue;
+            }
+            
+            // Log action execution
+            eventLog.log(EventCategory.DISPATCH, Level.FINE, "action", () -> "Executed " + action.getType().getLabel() + " action for " + playerName);
         }
     }
     
     /**
      * Execute commands for a purchased product.
      * 
+     * Failed commands are handed to the retry queue.
+     * 
      * @param commands List of commands to execute.
+     * @param orderId The order ID.
+     * @param productName The name of the purchased product.
      * @param playerName The player name to substitute in commands.
      * @param quantity The quantity of the product purchased.
+     * @param skipBroadcasts True if broadcasts are replaced by the digest.
      */
-    private void executeCommands(List<String> commands, String playerName, int quantity) {
-        ConsoleCommandSender console = Bukkit.getServer().getConsoleSender();
+    private void executeCommands(List<String> commands, String orderId, String productName, String playerName, int quantity,
+                                 boolean skipBroadcasts) {
+        RetryManager retryManager = mineShopify.getRetryManager();
         
         for (int i = 0; i < quantity; i++) {
             for (String command : commands) {
-                try {
-                    // Replace player placeholder and execute command
-                    String finalCommand = command.replace(PLACEHOLDER_PLAYER, playerName);
-                    Bukkit.dispatchCommand(console, finalCommand);
-                    
-                    // Log command execution if debug is enabled
-                    if (mineShopify.getConfig().getBoolean("debug", false)) {
-                        mineShopify.getLogger().info("Executed command: " + finalCommand);
-                    }
-                } catch (Exception e) {
-                    mineShopify.getLogger().log(Level.SEVERE, "Failed to execute command: " + command, e);
-                }
+                if (skipBroadcasts && isBroadcastCommand(command)) {
+                    continue;
+                }
+                // Replace player placeholder and execute command
+                String finalCommand = command.replace(PLACEHOLDER_PLAYER, playerName);
+                String error = retryManager.dispatch(finalCommand);
+                if (error != null) {
+                    // Unknown commands and exceptions are retried with a backoff
+                    commandsFailed.increment();
+                    retryManager.failed(finalCommand, orderId, productName, playerName, error);
+                    continue;
+                }
+                commandsDispatched.increment();
+                
+                // Log command execution
+                eventLog.log(EventCategory.DISPATCH, Level.FINE, "command", () -> "Executed command: " + finalCommand);
             }
         }
     }
     
     /**
-     * Get package configuration from cache or config file.
+     * Check if a package command broadcasts a message to all players.
+     * 
+     * @param command The command to check.
+     * @return True if the command is a broadcast.
+     */
+    private static boolean isBroadcastCommand(String command) {
+        String lowerCommand = command.toLowerCase(Locale.ROOT);
+        return lowerCommand.startsWith("broadcast ") || lowerCommand.startsWith("bc ");
+    }
+    
+    /**
+     * Get package configuration from the package catalog.
+     * The catalog is held in memory, so edits and reloads are visible immediately.
      * 
      * @param packageName The name of the package/product.
      * @return The configuration section for the package, or null if not found.
      */
     private ConfigurationSection getPackageConfig(String packageName) {
-        // Check cache first
-        if (packageCache.containsKey(packageName)) {
-            return packageCache.get(packageName);
-        }
-        
-        // Get from config
-        ConfigurationSection packages = mineShopify.getConfig().getConfigurationSection("packages");
-        if (packages != null && packages.contains(packageName)) {
-            ConfigurationSection packageConfig = packages.getConfigurationSection(packageName);
-            // Cache for future use
-            packageCache.put(packageName, packageConfig);
-            return packageConfig;
+        return mineShopify.getPackageCatalog().getPackage(packageName);
+    }
+    
+    /**
+     * Check if a line item has a package with commands or actions, i.e. if it gets a ledger record.
+     * 
+     * @param lineItem The JSON object representing the line item.
+     * @return True if the line item is delivered.
+     */
+    private boolean hasPackage(JsonObject lineItem) {
+        String productName = OrderExtractor.getStringFromJson(lineItem, FIELD_NAME);
+        if (productName == null || productName.isEmpty()) {
+            return false;
         }
-        
-        return null;
+        ConfigurationSection packageConfig = getPackageConfig(productName);
+        return packageConfig != null && (!packageConfig.getStringList("commands").isEmpty()
+                || !mineShopify.getActionManager().getActions(productName).isEmpty());
+    }
+    
+    /**
+     * Get the number of orders waiting for the storage check or for their delivery on the main thread.
+     * 
+     * @return The number of orders in flight.
+     */
+    public int getInFlightCount() {
+        return inFlightOrders.size();
     }
     
     /**
@@ -746,6 +581,18 @@ public class ParseManager {
         processedOrderTimestamps.entrySet().removeIf(entry -> entry.getValue() < thirtyDaysAgo);
     }
     
+    /**
+     * Serialize an order once and cut it to a preview for the log.
+     * 
+     * @param orderJson The order.
+     * @param length The maximum length of the preview.
+     * @return The preview.
+     */
+    private static String preview(JsonObject orderJson, int length) {
+        String json = orderJson.toString();
+        return json.length() <= length ? json : json.substring(0, length) + "...";
+    }
+    
     /**
      * Sucht speziell nach den Attributen aus dem HTML-Formular.
      * Diese Methode ist nur für Debug-Zwecke gedacht.
@@ -764,10 +611,10 @@ public class ParseManager {
                     if (noteAttributes.get(i).isJsonObject()) {
                         JsonObject attribute = noteAttributes.get(i).getAsJsonObject();
                         if (attribute.has("name") && attribute.has("value")) {
-                            String name = getStringFromJson(attribute, "name");
-                            String value = getStringFromJson(attribute, "value");
-                            mineShopify.getLogger().info("[HTML-FORM] note_attributes[" + i + "].name = " + name);
-                            mineShopify.getLogger().info("[HTML-FORM] note_attributes[" + i + "].value = " + value);
+                            String name = OrderExtractor.getStringFromJson(attribute, "name");
+                            String value = OrderExtractor.getStringFromJson(attribute, "value");
+                            logHtmlForm("note_attributes[" + i + "].name = " + name);
+                            logHtmlForm("note_attributes[" + i + "].value = " + value);
                         }
                     }
                 }
@@ -783,7 +630,7 @@ public class ParseManager {
                     for (Map.Entry<String, JsonElement> entry : attributes.entrySet()) {
                         String key = entry.getKey();
                         JsonElement value = entry.getValue();
-                        mineShopify.getLogger().info("[HTML-FORM] attributes." + key + " = " + value);
+                        logHtmlForm("attributes." + key + " = " + value);
                     }
                 } else if (attributesElement.isJsonArray()) {
                     JsonArray attributes = attributesElement.getAsJsonArray();
@@ -791,10 +638,10 @@ public class ParseManager {
                         if (attributes.get(i).isJsonObject()) {
                             JsonObject attribute = attributes.get(i).getAsJsonObject();
                             if (attribute.has("name") && attribute.has("value")) {
-                                String name = getStringFromJson(attribute, "name");
-                                String value = getStringFromJson(attribute, "value");
-                                mineShopify.getLogger().info("[HTML-FORM] attributes[" + i + "].name = " + name);
-                                mineShopify.getLogger().info("[HTML-FORM] attributes[" + i + "].value = " + value);
+                                String name = OrderExtractor.getStringFromJson(attribute, "name");
+                                String value = OrderExtractor.getStringFromJson(attribute, "value");
+                                logHtmlForm("attributes[" + i + "].name = " + name);
+                                logHtmlForm("attributes[" + i + "].value = " + value);
                             }
                         }
                     }
@@ -810,7 +657,7 @@ public class ParseManager {
                 for (Map.Entry<String, JsonElement> entry : cartAttributes.entrySet()) {
                     String key = entry.getKey();
                     JsonElement value = entry.getValue();
-                    mineShopify.getLogger().info("[HTML-FORM] cart_attributes." + key + " = " + value);
+                    logHtmlForm("cart_attributes." + key + " = " + value);
                 }
             }
         }
@@ -832,10 +679,10 @@ public class ParseManager {
                                         if (properties.get(j).isJsonObject()) {
                                             JsonObject property = properties.get(j).getAsJsonObject();
                                             if (property.has("name") && property.has("value")) {
-                                                String name = getStringFromJson(property, "name");
-                                                String value = getStringFromJson(property, "value");
-                                                mineShopify.getLogger().info("[HTML-FORM] line_items[" + i + "].properties[" + j + "].name = " + name);
-                                                mineShopify.getLogger().info("[HTML-FORM] line_items[" + i + "].properties[" + j + "].value = " + value);
+                                                String name = OrderExtractor.getStringFromJson(property, "name");
+                                                String value = OrderExtractor.getStringFromJson(property, "value");
+                                                logHtmlForm("line_items[" + i + "].properties[" + j + "].name = " + name);
+                                                logHtmlForm("line_items[" + i + "].properties[" + j + "].value = " + value);
                                             }
                                         }
                                     }
@@ -844,7 +691,7 @@ public class ParseManager {
                                     for (Map.Entry<String, JsonElement> entry : properties.entrySet()) {
                                         String key = entry.getKey();
                                         JsonElement value = entry.getValue();
-                                        mineShopify.getLogger().info("[HTML-FORM] line_items[" + i + "].properties." + key + " = " + value);
+                                        logHtmlForm("line_items[" + i + "].properties." + key + " = " + value);
                                     }
                                 }
                             }
@@ -855,6 +702,16 @@ public class ParseManager {
         }
     }
     
+    /**
+     * Log a form attribute found by {@link #searchForHtmlFormAttributes(JsonObject)}.
+     * Only called after the level was checked, so the message is built eagerly.
+     * 
+     * @param message The message.
+     */
+    private void logHtmlForm(String message) {
+        eventLog.log(EventCategory.PARSE, Level.FINEST, "html_form", () -> message);
+    }
+    
     /**
      * Durchsucht rekursiv alle Felder eines JsonObjects nach möglichen Benutzernamen.
      * Diese Methode ist nur für Debug-Zwecke gedacht.
@@ -883,7 +740,7 @@ public class ParseManager {
                     key.toLowerCase().contains("spielername") || 
                     key.toLowerCase().contains("minecraft")) {
                     
-                    mineShopify.getLogger().info("[DEBUG] Potenzielles Benutzernamenfeld gefunden: " + newPath + " = " + value);
+                    eventLog.log(EventCategory.PARSE, Level.FINEST, "username_candidate", () -> "Potenzielles Benutzernamenfeld gefunden: " + newPath + " = " + value);
                 }
                 
                 // Rekursiv weitermachen
@@ -904,123 +761,9 @@ public class ParseManager {
                 String value = primitive.getAsString();
                 if (value != null && !value.isEmpty() && value.matches("^[\\w]{3,16}$")) {
                     // Sieht wie ein Benutzername aus (3-16 alphanumerische Zeichen)
-                    mineShopify.getLogger().info("[DEBUG] Möglicher Benutzername gefunden in " + path + ": " + value);
-                }
-            }
-        }
-    }
-    
-    /**
-     * Versucht, einen Benutzernamen aus einem Text zu extrahieren.
-     * 
-     * @param text Der Text, aus dem der Benutzername extrahiert werden soll
-     * @return Der extrahierte Benutzername oder null, wenn keiner gefunden wurde
-     */
-    private String extractUsernameFromText(String text) {
-        if (text == null || text.isEmpty()) {
-            return null;
-        }
-        
-        // Versuche, einen Benutzernamen zu finden, der typischerweise 3-16 Zeichen lang ist
-        // und nur Buchstaben, Zahlen und Unterstriche enthält
-        
-        // Prüfe auf Muster wie "username: xyz" oder "ign: xyz"
-        String[] patterns = {"username[\\s]*:[\\s]*([\\w]{3,16})", 
-                           "ign[\\s]*:[\\s]*([\\w]{3,16})", 
-                           "minecraft[\\s]*:[\\s]*([\\w]{3,16})",
-                           "spielername[\\s]*:[\\s]*([\\w]{3,16})",
-                           "mc[\\s]*:[\\s]*([\\w]{3,16})"};
-        
-        for (String pattern : patterns) {
-            java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern, java.util.regex.Pattern.CASE_INSENSITIVE);
-            java.util.regex.Matcher m = p.matcher(text);
-            if (m.find()) {
-                String username = m.group(1);
-                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                    mineShopify.getLogger().info("Extracted username '" + username + "' from text using pattern: " + pattern);
+                    eventLog.log(EventCategory.PARSE, Level.FINEST, "username_candidate", () -> "Möglicher Benutzername gefunden in " + path + ": " + value);
                 }
-                return username;
             }
         }
-        
-        // Wenn kein Muster gefunden wurde, prüfe, ob der Text selbst ein gültiger Benutzername sein könnte
-        if (text.matches("^[\\w]{3,16}$")) {
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("Text itself appears to be a valid username: " + text);
-            }
-            return text;
-        }
-        
-        return null;
-    }
-    
-    /**
-     * Safely extract a string from a JSON object.
-     * 
-     * @param json The JSON object.
-     * @param key The key to extract.
-     * @return The string value, or null if not found or not a string.
-     */
-    private String getStringFromJson(JsonObject json, String key) {
-        try {
-            if (json.has(key)) {
-                JsonElement element = json.get(key);
-                if (element.isJsonPrimitive()) {
-                    JsonPrimitive primitive = element.getAsJsonPrimitive();
-                    if (primitive.isString()) {
-                        return primitive.getAsString();
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // Silently handle and return null
-        }
-        return null;
-    }
-    
-    /**
-     * Safely extract a JSON array from a JSON object.
-     * 
-     * @param json The JSON object.
-     * @param key The key to extract.
-     * @return The JSON array, or null if not found or not an array.
-     */
-    private JsonArray getJsonArrayFromJson(JsonObject json, String key) {
-        try {
-            if (json.has(key)) {
-                JsonElement element = json.get(key);
-                if (element.isJsonArray()) {
-                    return element.getAsJsonArray();
-                }
-            }
-        } catch (Exception e) {
-            // Silently handle and return null
-        }
-        return null;
-    }
-    
-    /**
-     * Safely extract an integer from a JSON object.
-     * 
-     * @param json The JSON object.
-     * @param key The key to extract.
-     * @param defaultValue The default value if extraction fails.
-     * @return The integer value, or the default value if not found or not an integer.
-     */
-    private int getIntFromJson(JsonObject json, String key, int defaultValue) {
-        try {
-            if (json.has(key)) {
-                JsonElement element = json.get(key);
-                if (element.isJsonPrimitive()) {
-                    JsonPrimitive primitive = element.getAsJsonPrimitive();
-                    if (primitive.isNumber()) {
-                        return primitive.getAsInt();
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // Silently handle and return default
-        }
-        return defaultValue;
     }
 }
@@ -0,0 +1,294 @@
+package eu.venxu.mineshopify.shopify;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.config.Settings;
+import eu.venxu.mineshopify.log.EventCategory;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a local copy of the products and variants of the Shopify store.
+ * The products are fetched from the Admin API on an asynchronous task and cached
+ * in products-cache.json, so they are available right after a restart.
+ */
+public class ProductSync {
+
+    private static final String CACHE_FILE_NAME = "products-cache.json";
+    private static final Pattern NEXT_PAGE = Pattern.compile("<([^>]+)>;\\s*rel=\"next\"");
+
+    private final MineShopify mineShopify;
+    private final HttpClient httpClient;
+    private final File cacheFile;
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    private volatile List<ShopifyProduct> products = Collections.emptyList();
+    private volatile long lastSync;
+    private volatile int version;
+
+    /**
+     * Create the product sync and load the cached products.
+     *
+     * @param mineShopify The main plugin instance.
+     * @param httpClient The HTTP client used for the Admin API.
+     */
+    public ProductSync(MineShopify mineShopify, HttpClient httpClient) {
+        this.mineShopify = mineShopify;
+        this.httpClient = httpClient;
+        this.cacheFile = new File(mineShopify.getDataFolder(), CACHE_FILE_NAME);
+        loadCache();
+    }
+
+    /**
+     * Schedule the periodic sync if it is enabled in config.yml.
+     */
+    public void schedule() {
+        if (!mineShopify.getConfig().getBoolean("shopify.product_sync.enabled", true)) {
+            return;
+        }
+        long interval = Math.max(1, mineShopify.getConfig().getInt("shopify.product_sync.interval", 60)) * 60L * 20L;
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }.runTaskTimerAsynchronously(mineShopify, 20L, interval);
+    }
+
+    /**
+     * Fetch all products from Shopify and replace the local catalog.
+     * Must be called on an asynchronous task. Does nothing if a sync is already running.
+     *
+     * @return True if the products were synced.
+     */
+    public boolean sync() {
+        if (!syncing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            Settings settings = mineShopify.getSettings();
+            if (settings.getShopifyDomain().isEmpty() || settings.getShopifyToken().isEmpty()) {
+                return false;
+            }
+
+            List<ShopifyProduct> synced = new ArrayList<>();
+            String url = String.format("%s/admin/api/2023-10/products.json?limit=250&fields=id,title,variants",
+                    settings.getApiUrl());
+            while (url != null) {
+                HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create(url))
+                        .timeout(Duration.ofSeconds(30))
+                        .header("X-Shopify-Access-Token", settings.getShopifyToken())
+                        .GET()
+                        .build();
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 403) {
+                    mineShopify.getLogger().warning("Product sync needs the read_products permission of the Shopify app.");
+                    return false;
+                }
+                if (response.statusCode() != 200) {
+                    mineShopify.getLogger().warning("Product sync failed, Shopify API returned status code: " + response.statusCode());
+                    return false;
+                }
+                JsonArray page = JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("products");
+                if (page != null) {
+                    for (JsonElement element : page) {
+                        synced.add(readProduct(element.getAsJsonObject()));
+                    }
+                }
+                url = response.headers().firstValue("Link").map(ProductSync::nextPage).orElse(null);
+            }
+
+            publish(synced);
+            saveCache(synced);
+            mineShopify.getEventLog().log(EventCategory.FETCH, Level.FINE, "products_synced",
+                    () -> "Synced " + synced.size() + " products from Shopify.");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Failed to sync products from Shopify", e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            syncing.set(false);
+        }
+    }
+
+    /**
+     * Get the synced products.
+     *
+     * @return An immutable list of the products.
+     */
+    public List<ShopifyProduct> getProducts() {
+        return products;
+    }
+
+    /**
+     * Find a product by title, variant line item name, SKU or id, ignoring case.
+     *
+     * @param query The text to search for.
+     * @return The product, or null if no product matches.
+     */
+    public ShopifyProduct findProduct(String query) {
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        for (ShopifyProduct product : products) {
+            if (product.getTitle().toLowerCase(Locale.ROOT).equals(lowerQuery) || String.valueOf(product.getId()).equals(query)) {
+                return product;
+            }
+        }
+        ShopifyProduct.Variant variant = findVariant(query);
+        return variant == null ? null : productOf(variant);
+    }
+
+    /**
+     * Find a variant by line item name, SKU or id, ignoring case.
+     *
+     * @param query The text to search for.
+     * @return The variant, or null if no variant matches.
+     */
+    public ShopifyProduct.Variant findVariant(String query) {
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        for (ShopifyProduct product : products) {
+            for (ShopifyProduct.Variant variant : product.getVariants()) {
+                if ((variant.getSku() != null && variant.getSku().toLowerCase(Locale.ROOT).equals(lowerQuery))
+                        || String.valueOf(variant.getId()).equals(query)
+                        || variant.getLineItemName(product).toLowerCase(Locale.ROOT).equals(lowerQuery)) {
+                    return variant;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the product a variant belongs to.
+     *
+     * @param variant The variant.
+     * @return The product, or null if the variant is no longer part of the catalog.
+     */
+    public ShopifyProduct productOf(ShopifyProduct.Variant variant) {
+        for (ShopifyProduct product : products) {
+            if (product.getVariants().contains(variant)) {
+                return product;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the time of the last successful sync.
+     *
+     * @return The timestamp in milliseconds, 0 if the products were never synced.
+     */
+    public long getLastSync() {
+        return lastSync;
+    }
+
+    /**
+     * Get a counter that changes whenever the products change.
+     * Used to detect when derived indexes have to be rebuilt.
+     *
+     * @return The version of the product list.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    private void publish(List<ShopifyProduct> synced) {
+        products = Collections.unmodifiableList(synced);
+        lastSync = System.currentTimeMillis();
+        version++;
+    }
+
+    private static String nextPage(String linkHeader) {
+        Matcher matcher = NEXT_PAGE.matcher(linkHeader);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static ShopifyProduct readProduct(JsonObject json) {
+        List<ShopifyProduct.Variant> variants = new ArrayList<>();
+        JsonArray variantArray = json.getAsJsonArray("variants");
+        if (variantArray != null) {
+            for (JsonElement element : variantArray) {
+                JsonObject variant = element.getAsJsonObject();
+                variants.add(new ShopifyProduct.Variant(variant.get("id").getAsLong(),
+                        getString(variant, "title"), getString(variant, "sku")));
+            }
+        }
+        return new ShopifyProduct(json.get("id").getAsLong(), getString(json, "title"), variants);
+    }
+
+    private static String getString(JsonObject json, String field) {
+        JsonElement element = json.get(field);
+        return element == null || element.isJsonNull() ? "" : element.getAsString();
+    }
+
+    private void loadCache() {
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try {
+            String content = new String(Files.readAllBytes(cacheFile.toPath()), StandardCharsets.UTF_8);
+            JsonObject json = JsonParser.parseString(content).getAsJsonObject();
+            List<ShopifyProduct> cached = new ArrayList<>();
+            for (JsonElement element : json.getAsJsonArray("products")) {
+                cached.add(readProduct(element.getAsJsonObject()));
+            }
+            publish(cached);
+            lastSync = json.has("synced_at") ? json.get("synced_at").getAsLong() : 0;
+        } catch (IOException | RuntimeException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Could not read " + CACHE_FILE_NAME + ", products will be synced again", e);
+        }
+    }
+
+    private void saveCache(List<ShopifyProduct> synced) {
+        JsonArray productArray = new JsonArray();
+        for (ShopifyProduct product : synced) {
+            JsonObject productJson = new JsonObject();
+            productJson.addProperty("id", product.getId());
+            productJson.addProperty("title", product.getTitle());
+            JsonArray variantArray = new JsonArray();
+            for (ShopifyProduct.Variant variant : product.getVariants()) {
+                JsonObject variantJson = new JsonObject();
+                variantJson.addProperty("id", variant.getId());
+                variantJson.addProperty("title", variant.getTitle());
+                variantJson.addProperty("sku", variant.getSku());
+                variantArray.add(variantJson);
+            }
+            productJson.add("variants", variantArray);
+            productArray.add(productJson);
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("synced_at", lastSync);
+        json.add("products", productArray);
+
+        try {
+            File tempFile = new File(cacheFile.getParentFile(), CACHE_FILE_NAME + ".tmp");
+            Files.write(tempFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Could not write " + CACHE_FILE_NAME, e);
+        }
+    }
+}
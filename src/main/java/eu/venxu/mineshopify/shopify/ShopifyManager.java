@@ -4,10 +4,18 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import eu.venxu.mineshopify.MineShopify;
-import org.bukkit.Bukkit;
+import eu.venxu.mineshopify.config.Settings;
+import eu.venxu.mineshopify.log.EventCategory;
+import eu.venxu.mineshopify.log.EventLog;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.Histogram;
+import eu.venxu.mineshopify.profiler.TickProfiler;
 import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -16,31 +24,85 @@ import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 public class ShopifyManager {
 
     private JsonObject response;
+    private volatile long responseRequestedAt;
+    private volatile long responseReceivedAt;
     private final HttpClient httpClient;
+    private final Transport transport;
     private final MineShopify mineShopify;
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private final ProductSync productSync;
+    private BukkitTask fetchTask;
+    private boolean stopped;
+    private final AtomicInteger inFlightFetches = new AtomicInteger();
+    private final Counter polls;
+    private final Counter pollErrors;
+    private final Histogram pollDuration;
+    private final Histogram ordersPerPoll;
+
+    /**
+     * Sends the order polls to the Shopify API.
+     * The HTTP client is used unless the plugin runs without a server, e.g. in the load driver of the benchmarks.
+     */
+    @FunctionalInterface
+    public interface Transport {
+
+        /**
+         * Send a poll without blocking.
+         *
+         * @param request The request of the poll.
+         * @return The response; error statuses like 429 complete it normally.
+         */
+        CompletableFuture<HttpResponse<String>> send(HttpRequest request);
+    }
 
     /**
      * Initialize the Shopify Manager with an optimized HTTP client
-     * and schedule regular order fetching.
+     * and schedule regular order fetching once the storage is ready.
      * 
      * @param mineShopify The main plugin instance.
      */
     public ShopifyManager(MineShopify mineShopify) {
+        this(mineShopify, null);
+    }
+
+    /**
+     * Initialize the Shopify Manager with the given transport for the order polls.
+     * 
+     * @param mineShopify The main plugin instance.
+     * @param transport Sends the order polls, or null to send them with the HTTP client.
+     */
+    public ShopifyManager(MineShopify mineShopify, Transport transport) {
         this.mineShopify = mineShopify;
         
         // Create a reusable HttpClient with optimized settings
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
+        this.transport = transport != null ? transport
+                : request -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        
+        this.polls = mineShopify.getMetrics().counter("shopify_polls_total", "Order polls sent to the Shopify API");
+        this.pollErrors = mineShopify.getMetrics().counter("shopify_poll_errors_total", "Order polls that failed or returned an error status");
+        this.pollDuration = mineShopify.getMetrics().latency("shopify_poll_duration_seconds", "Time until the Shopify API answered an order poll");
+        this.ordersPerPoll = mineShopify.getMetrics().histogram("shopify_orders_per_poll", "Orders returned by one poll", Histogram.COUNT_BUCKETS);
+        
+        // Keep the local copy of the shop's products up to date
+        this.productSync = new ProductSync(mineShopify, httpClient);
+        productSync.schedule();
         
-        // Schedule the order fetching task
-        scheduleOrderFetching(mineShopify);
+        // Schedule the order fetching task as soon as orders can be checked against the storage
+        mineShopify.getStorageManager().whenReady()
+                .thenRun(() -> scheduleOrderFetching(mineShopify))
+                .exceptionally(e -> {
+                    mineShopify.getLogger().log(Level.SEVERE, "Storage is not available, orders will not be fetched", e);
+                    return null;
+                });
     }
     
     /**
@@ -48,13 +110,61 @@ public class ShopifyManager {
      * 
      * @param mineShopify The main plugin instance.
      */
-    private void scheduleOrderFetching(MineShopify mineShopify) {
-        new BukkitRunnable() {
+    private synchronized void scheduleOrderFetching(MineShopify mineShopify) {
+        scheduleOrderFetching(mineShopify, 0);
+    }
+    
+    /**
+     * Schedule the periodic order fetching task with the current poll interval.
+     * 
+     * @param mineShopify The main plugin instance.
+     * @param delay The delay in ticks before the first fetch.
+     */
+    private void scheduleOrderFetching(MineShopify mineShopify, long delay) {
+        if (stopped) {
+            return;
+        }
+        fetchTask = new BukkitRunnable() {
             @Override
             public void run() {
                 fetchOrders();
             }
-        }.runTaskTimerAsynchronously(mineShopify, 0, mineShopify.getConfig().getInt("shopify.scheduler") * 20L);
+        }.runTaskTimerAsynchronously(mineShopify, delay, mineShopify.getSettings().getPollInterval() * 20L);
+    }
+    
+    /**
+     * Reschedule the fetching task if the poll interval changed.
+     * 
+     * @param previous The settings before the reload.
+     * @param current The settings after the reload.
+     */
+    public synchronized void applySettings(Settings previous, Settings current) {
+        if (fetchTask == null || previous.getPollInterval() == current.getPollInterval()) {
+            return;
+        }
+        fetchTask.cancel();
+        scheduleOrderFetching(mineShopify, current.getPollInterval() * 20L);
+    }
+    
+    /**
+     * Stop polling for orders. Polls that were already sent still complete,
+     * see {@link #getInFlightFetches()}.
+     */
+    public synchronized void stopPolling() {
+        stopped = true;
+        if (fetchTask != null) {
+            fetchTask.cancel();
+            fetchTask = null;
+        }
+    }
+    
+    /**
+     * Get the number of polls that were sent and whose response has not been handed to the parser yet.
+     * 
+     * @return The number of running polls.
+     */
+    public int getInFlightFetches() {
+        return inFlightFetches.get();
     }
     
     /**
@@ -62,25 +172,27 @@ public class ShopifyManager {
      */
     private void fetchOrders() {
         try {
-            String domain = mineShopify.getConfig().getString("shopify.domain");
-            String token = mineShopify.getConfig().getString("shopify.token");
+            // Use one snapshot for the whole poll, even if config.yml is reloaded meanwhile
+            Settings settings = mineShopify.getSettings();
+            String domain = settings.getShopifyDomain();
+            String token = settings.getShopifyToken();
             
-            if (domain == null || token == null || domain.isEmpty() || token.isEmpty()) {
+            if (domain.isEmpty() || token.isEmpty()) {
                 mineShopify.getLogger().warning("Shopify domain or token not configured properly.");
                 return;
             }
             
             // Get configuration values
-            int daysToCheck = mineShopify.getConfig().getInt("shopify.days_to_check", 1);
-            int maxOrders = mineShopify.getConfig().getInt("shopify.max_orders", 50);
+            int daysToCheck = settings.getDaysToCheck();
+            int maxOrders = settings.getMaxOrders();
             
             // Calculate date based on days_to_check
             LocalDate checkDate = LocalDate.now().minusDays(daysToCheck - 1);
             String formattedDate = checkDate.format(dateFormatter);
             
             // Build the API URL with limit parameter
-            String apiUrl = String.format("https://%s/admin/api/2023-10/orders.json?status=any&created_at_min=%s&limit=%d", 
-                    domain, formattedDate, maxOrders);
+            String apiUrl = String.format("%s/admin/api/2023-10/orders.json?status=any&created_at_min=%s&limit=%d", 
+                    settings.getApiUrl(), formattedDate, maxOrders);
             
             // Create and send the HTTP request
             HttpRequest request = HttpRequest.newBuilder()
@@ -90,126 +202,151 @@ public class ShopifyManager {
                     .GET()
                     .build();
             
-            // Log the request URL (debug level)
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("Fetching orders from: " + apiUrl);
-            }
+            // Log the request URL
+            EventLog eventLog = mineShopify.getEventLog();
+            eventLog.log(EventCategory.FETCH, Level.FINE, "request", () -> "Fetching orders from: " + apiUrl);
             
             // Send the request asynchronously
-            CompletableFuture<HttpResponse<String>> responseFuture = 
-                    httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            polls.increment();
+            inFlightFetches.incrementAndGet();
+            long pollStart = System.nanoTime();
+            CompletableFuture<HttpResponse<String>> responseFuture = transport.send(request);
             
             // Process the response when it completes
             responseFuture.thenAccept(httpResponse -> {
+                long receivedAt = System.nanoTime();
+                pollDuration.observe(receivedAt - pollStart);
                 if (httpResponse.statusCode() == 200) {
                     String responseBody = httpResponse.body();
                     
                     // Parse the JSON response
                     try {
-                        // Always log the raw response for debugging
-                        mineShopify.getLogger().info("Shopify API response received with status 200");
-                        mineShopify.getLogger().info("Response length: " + responseBody.length() + " characters");
-                        mineShopify.getLogger().info("Response preview: " + responseBody.substring(0, Math.min(500, responseBody.length())) + "...");
-                        
-                        // Save response to file for debugging
-                        try {
-                            java.nio.file.Files.writeString(java.nio.file.Paths.get("plugins/MineShopify/debug_response.json"), responseBody);
-                            mineShopify.getLogger().info("Saved full API response to plugins/MineShopify/debug_response.json");
-                        } catch (Exception fileEx) {
-                            mineShopify.getLogger().warning("Could not save debug response: " + fileEx.getMessage());
+                        // Save the response to a file for debugging, only at the most detailed level
+                        if (eventLog.isLoggable(EventCategory.FETCH, Level.FINEST)) {
+                            saveDebugResponse(responseBody);
+                            eventLog.log(EventCategory.FETCH, Level.FINEST, "response_preview",
+                                    () -> "Response preview: " + responseBody.substring(0, Math.min(500, responseBody.length())) + "...");
                         }
                         
                         JsonParser parser = new JsonParser();
-                        response = parser.parse(responseBody).getAsJsonObject();
-                        
-                        // Log the parsed response structure
-                        mineShopify.getLogger().info("Parsed response has these root keys: " + response.keySet());
+                        JsonObject parsed = parser.parse(responseBody).getAsJsonObject();
+                        response = parsed;
+                        responseRequestedAt = pollStart;
+                        responseReceivedAt = receivedAt;
                         
                         // Check if orders array exists and how many orders it contains
-                        if (response.has("orders")) {
-                            JsonArray orders = response.getAsJsonArray("orders");
-                            mineShopify.getLogger().info("Found " + orders.size() + " orders in response");
+                        if (parsed.has("orders")) {
+                            JsonArray orders = parsed.getAsJsonArray("orders");
+                            ordersPerPoll.observe(orders.size());
+                            eventLog.log(EventCategory.FETCH, Level.FINE, "response",
+                                    () -> "Shopify API response with " + orders.size() + " orders, " + responseBody.length() + " characters",
+                                    fields -> {
+                                        fields.addProperty("status", httpResponse.statusCode());
+                                        fields.addProperty("orders", orders.size());
+                                        fields.addProperty("length", responseBody.length());
+                                        fields.addProperty("duration_ms", (receivedAt - pollStart) / 1_000_000);
+                                    });
                             
-                            // Log first order structure if available
-                            if (orders.size() > 0) {
-                                JsonObject firstOrder = orders.get(0).getAsJsonObject();
-                                mineShopify.getLogger().info("First order has these keys: " + firstOrder.keySet());
-                                
-                                // Detaillierte Analyse der ersten Bestellung
-                                if (mineShopify.getConfig().getBoolean("debug", false)) {
-                                    // Prüfe auf line_items und deren Struktur
-                                    if (firstOrder.has("line_items")) {
-                                        JsonArray lineItems = firstOrder.getAsJsonArray("line_items");
-                                        mineShopify.getLogger().info("First order has " + lineItems.size() + " line items");
-                                        
-                                        if (lineItems.size() > 0) {
-                                            JsonObject firstLineItem = lineItems.get(0).getAsJsonObject();
-                                            mineShopify.getLogger().info("First line item has these keys: " + firstLineItem.keySet());
-                                            
-                                            // Prüfe auf properties
-                                            if (firstLineItem.has("properties")) {
-                                                JsonArray properties = firstLineItem.getAsJsonArray("properties");
-                                                mineShopify.getLogger().info("First line item has " + properties.size() + " properties");
-                                                
-                                                // Gib alle Properties aus
-                                                for (int i = 0; i < properties.size(); i++) {
-                                                    JsonObject property = properties.get(i).getAsJsonObject();
-                                                    String name = property.has("name") ? property.get("name").getAsString() : "null";
-                                                    String value = property.has("value") ? property.get("value").getAsString() : "null";
-                                                    mineShopify.getLogger().info("Property " + i + ": name=" + name + ", value=" + value);
-                                                }
-                                            } else {
-                                                mineShopify.getLogger().info("First line item has no properties array");
-                                            }
-                                        }
-                                    }
-                                    
-                                    // Prüfe auf note_attributes
-                                    if (firstOrder.has("note_attributes")) {
-                                        JsonArray noteAttributes = firstOrder.getAsJsonArray("note_attributes");
-                                        mineShopify.getLogger().info("First order has " + noteAttributes.size() + " note attributes");
-                                        
-                                        // Gib alle Note Attributes aus
-                                        for (int i = 0; i < noteAttributes.size(); i++) {
-                                            JsonObject attribute = noteAttributes.get(i).getAsJsonObject();
-                                            String name = attribute.has("name") ? attribute.get("name").getAsString() : "null";
-                                            String value = attribute.has("value") ? attribute.get("value").getAsString() : "null";
-                                            mineShopify.getLogger().info("Note attribute " + i + ": name=" + name + ", value=" + value);
-                                        }
-                                    } else {
-                                        mineShopify.getLogger().info("First order has no note_attributes array");
-                                    }
-                                    
-                                    // Prüfe auf customer
-                                    if (firstOrder.has("customer")) {
-                                        JsonObject customer = firstOrder.getAsJsonObject("customer");
-                                        mineShopify.getLogger().info("Customer object has these keys: " + customer.keySet());
-                                    }
-                                }
+                            // Log the structure of the first order
+                            if (orders.size() > 0 && eventLog.isLoggable(EventCategory.FETCH, Level.FINEST)) {
+                                logOrderStructure(eventLog, orders.get(0).getAsJsonObject(), parsed);
                             }
                         } else {
                             mineShopify.getLogger().warning("No 'orders' array found in response!");
                         }
                         
                         // Process orders on the main thread
-                        Bukkit.getScheduler().runTask(mineShopify, () -> 
+                        mineShopify.getTickProfiler().runTask(TickProfiler.PARSE, () -> 
                             mineShopify.getParseManager().parseOrders());
                     } catch (Exception e) {
                         mineShopify.getLogger().log(Level.SEVERE, "Failed to parse Shopify API response", e);
                     }
                 } else {
+                    pollErrors.increment();
                     mineShopify.getLogger().warning("Shopify API returned status code: " + httpResponse.statusCode());
                 }
             }).exceptionally(e -> {
+                pollErrors.increment();
                 mineShopify.getLogger().log(Level.SEVERE, "Failed to fetch orders from Shopify API", e);
                 return null;
-            });
+            }).whenComplete((result, error) -> inFlightFetches.decrementAndGet());
             
         } catch (Exception e) {
             mineShopify.getLogger().log(Level.SEVERE, "Error in Shopify order fetching", e);
         }
     }
 
+    /**
+     * Save a response to debug_response.json in the plugin folder.
+     * 
+     * @param responseBody The body of the response.
+     */
+    private void saveDebugResponse(String responseBody) {
+        File file = new File(mineShopify.getDataFolder(), "debug_response.json");
+        try {
+            Files.writeString(file.toPath(), responseBody);
+        } catch (IOException e) {
+            mineShopify.getLogger().warning("Could not save debug response: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Log the keys of a response and the fields of its first order where usernames are usually stored.
+     * 
+     * @param eventLog The event log.
+     * @param firstOrder The first order of the response.
+     * @param parsed The parsed response.
+     */
+    private void logOrderStructure(EventLog eventLog, JsonObject firstOrder, JsonObject parsed) {
+        eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> "Parsed response has these root keys: " + parsed.keySet());
+        eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> "First order has these keys: " + firstOrder.keySet());
+        
+        if (firstOrder.has("line_items")) {
+            JsonArray lineItems = firstOrder.getAsJsonArray("line_items");
+            eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> "First order has " + lineItems.size() + " line items");
+            
+            if (lineItems.size() > 0) {
+                JsonObject firstLineItem = lineItems.get(0).getAsJsonObject();
+                eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> "First line item has these keys: " + firstLineItem.keySet());
+                if (firstLineItem.has("properties")) {
+                    logAttributes(eventLog, "Property", firstLineItem.getAsJsonArray("properties"));
+                } else {
+                    eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> "First line item has no properties array");
+                }
+            }
+        }
+        
+        if (firstOrder.has("note_attributes")) {
+            logAttributes(eventLog, "Note attribute", firstOrder.getAsJsonArray("note_attributes"));
+        } else {
+            eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> "First order has no note_attributes array");
+        }
+        
+        if (firstOrder.has("customer")) {
+            JsonObject customer = firstOrder.getAsJsonObject("customer");
+            eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> "Customer object has these keys: " + customer.keySet());
+        }
+    }
+    
+    private void logAttributes(EventLog eventLog, String kind, JsonArray attributes) {
+        for (int i = 0; i < attributes.size(); i++) {
+            JsonObject attribute = attributes.get(i).getAsJsonObject();
+            String name = attribute.has("name") ? attribute.get("name").getAsString() : "null";
+            String value = attribute.has("value") ? attribute.get("value").getAsString() : "null";
+            int index = i;
+            eventLog.log(EventCategory.FETCH, Level.FINEST, "response_structure", () -> kind + " " + index + ": name=" + name + ", value=" + value);
+        }
+    }
+
+    /**
+     * Get the product sync.
+     *
+     * @return The local catalog of the shop's products.
+     */
+    public ProductSync getProductSync() {
+        return productSync;
+    }
+
     /**
      * Get the response with the orders' data.
      *
@@ -218,4 +355,22 @@ public class ShopifyManager {
     public JsonObject getResponse() {
         return response;
     }
+
+    /**
+     * Get the time the request for the current response was sent.
+     *
+     * @return The time from {@link System#nanoTime()}.
+     */
+    public long getResponseRequestedAt() {
+        return responseRequestedAt;
+    }
+
+    /**
+     * Get the time the current response was received.
+     *
+     * @return The time from {@link System#nanoTime()}.
+     */
+    public long getResponseReceivedAt() {
+        return responseReceivedAt;
+    }
 }
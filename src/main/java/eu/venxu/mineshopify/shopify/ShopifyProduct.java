@@ -0,0 +1,76 @@
+package eu.venxu.mineshopify.shopify;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A product of the Shopify store as synced from the Admin API.
+ */
+public class ShopifyProduct {
+
+    private static final String DEFAULT_VARIANT_TITLE = "Default Title";
+
+    private final long id;
+    private final String title;
+    private final List<Variant> variants;
+
+    public ShopifyProduct(long id, String title, List<Variant> variants) {
+        this.id = id;
+        this.title = title;
+        this.variants = Collections.unmodifiableList(variants);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public List<Variant> getVariants() {
+        return variants;
+    }
+
+    /**
+     * A purchasable variant of a product.
+     */
+    public static class Variant {
+
+        private final long id;
+        private final String title;
+        private final String sku;
+
+        public Variant(long id, String title, String sku) {
+            this.id = id;
+            this.title = title;
+            this.sku = sku;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getSku() {
+            return sku;
+        }
+
+        /**
+         * Get the name Shopify uses for this variant in the line items of an order,
+         * which is the name a package must have to match it.
+         *
+         * @param product The product the variant belongs to.
+         * @return The product title, followed by the variant title for non-default variants.
+         */
+        public String getLineItemName(ShopifyProduct product) {
+            if (title == null || title.isEmpty() || DEFAULT_VARIANT_TITLE.equals(title)) {
+                return product.getTitle();
+            }
+            return product.getTitle() + " - " + title;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package eu.venxu.mineshopify.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Compact summary of the order ids that were moved to the archive.
+ * Every id is stored as a 64-bit hash, so a lookup is a binary search over
+ * primitive arrays and a million archived orders take about 8 MB.
+ *
+ * New hashes are appended to the end of the file and kept in a small sorted
+ * array next to the large one. The small array is merged into the large one
+ * once it holds an eighth of its size, so adding a batch never re-sorts or
+ * rewrites the whole index.
+ */
+public class ArchivedOrderIndex {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // Marks the append-only format, files of older versions start with the number of hashes
+    private static final long MAGIC = 0x4d53415243480001L;
+    private static final int MIN_MERGE_SIZE = 4096;
+
+    private final File indexFile;
+    private volatile Hashes hashes = new Hashes(new long[0], new long[0]);
+
+    /**
+     * The sorted hashes, replaced as a whole so lookups never see a half merged state.
+     */
+    private static class Hashes {
+        private final long[] base;
+        private final long[] recent;
+
+        private Hashes(long[] base, long[] recent) {
+            this.base = base;
+            this.recent = recent;
+        }
+    }
+
+    /**
+     * Create an index backed by the given file.
+     *
+     * @param indexFile The file the index is persisted to.
+     */
+    public ArchivedOrderIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Load the index from disk. An index written by an older version is converted once.
+     *
+     * @throws IOException If the index file cannot be read.
+     */
+    public synchronized void load() throws IOException {
+        if (!indexFile.exists()) {
+            return;
+        }
+        long length = indexFile.length();
+        if (length < 8) {
+            // An empty index of an older version or a torn header, either way nothing was archived
+            Files.delete(indexFile.toPath());
+            return;
+        }
+        long[] loaded;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readLong() == MAGIC) {
+                // A torn hash at the end is cut off, its batch was not removed from the storage yet
+                int size = (int) ((length - 8) / 8);
+                loaded = new long[size];
+                for (int i = 0; i < size; i++) {
+                    loaded[i] = in.readLong();
+                }
+                if (length != 8 + size * 8L) {
+                    try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+                        file.setLength(8 + size * 8L);
+                    }
+                }
+            } else {
+                loaded = null;
+            }
+        }
+        if (loaded == null) {
+            loaded = loadLegacy();
+        }
+        Arrays.sort(loaded);
+        hashes = new Hashes(unique(loaded, loaded.length), new long[0]);
+    }
+
+    /**
+     * Check if an order id has been archived.
+     *
+     * @param orderId The order id to check.
+     * @return True if the order id is part of the archive.
+     */
+    public boolean contains(String orderId) {
+        return contains(hashes, hash(orderId));
+    }
+
+    /**
+     * Add order ids to the index and append them to the index file.
+     *
+     * @param orderIds The archived order ids.
+     * @throws IOException If the index file cannot be written.
+     */
+    public synchronized void addAll(Collection<String> orderIds) throws IOException {
+        Hashes current = hashes;
+        long[] added = new long[orderIds.size()];
+        int size = 0;
+        for (String orderId : orderIds) {
+            long hash = hash(orderId);
+            if (!contains(current, hash)) {
+                added[size++] = hash;
+            }
+        }
+        if (size == 0) {
+            return;
+        }
+        // Line items of one order share the id, keep every hash once
+        Arrays.sort(added, 0, size);
+        added = unique(added, size);
+        append(added);
+
+        long[] recent = merge(current.recent, added);
+        if (recent.length >= Math.max(MIN_MERGE_SIZE, current.base.length / 8)) {
+            hashes = new Hashes(merge(current.base, recent), new long[0]);
+        } else {
+            hashes = new Hashes(current.base, recent);
+        }
+    }
+
+    /**
+     * Get the number of archived order ids.
+     *
+     * @return The size of the index.
+     */
+    public int size() {
+        Hashes current = hashes;
+        return current.base.length + current.recent.length;
+    }
+
+    private static boolean contains(Hashes current, long hash) {
+        return (current.base.length > 0 && Arrays.binarySearch(current.base, hash) >= 0)
+                || (current.recent.length > 0 && Arrays.binarySearch(current.recent, hash) >= 0);
+    }
+
+    private void append(long[] values) throws IOException {
+        indexFile.getParentFile().mkdirs();
+        boolean created = !indexFile.exists() || indexFile.length() == 0;
+        try (FileOutputStream file = new FileOutputStream(indexFile, true);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            if (created) {
+                out.writeLong(MAGIC);
+            }
+            for (long value : values) {
+                out.writeLong(value);
+            }
+            out.flush();
+            // The storage removes the orders right after this, the hashes must be on disk first
+            file.getFD().sync();
+        }
+    }
+
+    /**
+     * Read an index of an older version, which starts with the number of hashes,
+     * and write it again in the append-only format.
+     */
+    private long[] loadLegacy() throws IOException {
+        long[] loaded;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            int size = in.readInt();
+            loaded = new long[size];
+            for (int i = 0; i < size; i++) {
+                loaded[i] = in.readLong();
+            }
+        }
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+            out.writeLong(MAGIC);
+            for (long value : loaded) {
+                out.writeLong(value);
+            }
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return loaded;
+    }
+
+    /**
+     * Merge two sorted arrays of distinct hashes that share no hash.
+     */
+    private static long[] merge(long[] left, long[] right) {
+        long[] merged = new long[left.length + right.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < left.length && j < right.length) {
+            merged[k++] = left[i] <= right[j] ? left[i++] : right[j++];
+        }
+        while (i < left.length) {
+            merged[k++] = left[i++];
+        }
+        while (j < right.length) {
+            merged[k++] = right[j++];
+        }
+        return merged;
+    }
+
+    /**
+     * Keep every hash of the first size sorted values once.
+     */
+    private static long[] unique(long[] sorted, int size) {
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || sorted[unique - 1] != sorted[i]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+    }
+
+    private static long hash(String orderId) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : orderId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,325 @@
+package eu.venxu.mineshopify.storage;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.log.EventCategory;
+import eu.venxu.mineshopify.mailbox.MailItem;
+import eu.venxu.mineshopify.metrics.Counter;
+import eu.venxu.mineshopify.metrics.Histogram;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+import eu.venxu.mineshopify.order.Order;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs storage operations on a dedicated, bounded executor and exposes them as
+ * CompletableFutures, so callers on the main thread never wait for the database.
+ * The executor is sized to the connection pool. Reads fail with a TimeoutException
+ * after the configured timeout, and cancelling a read interrupts it. Writes always
+ * run to the end; a caller that stops waiting for a write does not abort it.
+ *
+ * Orders handed to the executor are tracked until their write completes, so the
+ * shutdown can keep the writes that did not run for the next start.
+ */
+public class AsyncStorage implements IAsyncStorage {
+
+    private final MineShopify mineShopify;
+    private final StorageManager storageManager;
+    private final ThreadPoolExecutor executor;
+    private final Histogram checkTimer;
+    private final Histogram writeTimer;
+    private final Histogram readTimer;
+    private final Counter failures;
+    private final Counter rejections;
+    private final Map<Long, List<Order>> pendingWrites = new ConcurrentHashMap<>();
+    private final AtomicLong writeIds = new AtomicLong();
+
+    /**
+     * Create the executor for the storage operations.
+     *
+     * @param mineShopify The main plugin instance.
+     * @param storageManager The storage manager whose active storage is used.
+     * @param threads The number of worker threads, usually the size of the connection pool.
+     */
+    public AsyncStorage(MineShopify mineShopify, StorageManager storageManager, int threads) {
+        this.mineShopify = mineShopify;
+        this.storageManager = storageManager;
+        int queueSize = Math.max(1, mineShopify.getConfig().getInt("storage.async.queue_size", 1000));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "MineShopify-Storage-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        String help = "Time spent in the storage per operation";
+        this.checkTimer = metrics.latency("storage_operation_duration_seconds", help, "operation", "check");
+        this.writeTimer = metrics.latency("storage_operation_duration_seconds", help, "operation", "write");
+        this.readTimer = metrics.latency("storage_operation_duration_seconds", help, "operation", "read");
+        this.failures = metrics.counter("storage_operation_failures_total", "Storage operations that threw an exception");
+        this.rejections = metrics.counter("storage_operation_rejections_total", "Storage operations rejected because the queue was full");
+    }
+
+    /**
+     * Check if an order has already been processed, including archived orders.
+     *
+     * @param orderId The id of the order which has to be checked.
+     * @return A future completing with the status of the order already existing.
+     */
+    @Override
+    public CompletableFuture<Boolean> checkOrder(String orderId) {
+        return submit(checkTimer, () -> storageManager.checkOrder(orderId));
+    }
+
+    /**
+     * Add an order to the active storage.
+     *
+     * @param order The order to add.
+     * @return A future completing once the order has been handed to the storage.
+     */
+    @Override
+    public CompletableFuture<Void> addOrder(Order order) {
+        return trackWrite(Collections.singletonList(order), () -> {
+            storageManager.getStorage().addOrder(order);
+            return null;
+        });
+    }
+
+    /**
+     * Add several orders to the active storage in one batch.
+     *
+     * @param orders The orders to add.
+     * @return A future completing once the batch has been written.
+     */
+    @Override
+    public CompletableFuture<Void> addOrders(List<Order> orders) {
+        return trackWrite(orders, () -> {
+            storageManager.getStorage().addOrders(orders);
+            return null;
+        });
+    }
+
+    /**
+     * Get a page of orders sorted by their id.
+     *
+     * @param afterId The id after which the page starts, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     * @return A future completing with the orders of the page.
+     */
+    @Override
+    public CompletableFuture<List<Order>> getOrders(String afterId, int limit) {
+        return submit(readTimer, () -> storageManager.getStorage().getOrders(afterId, limit));
+    }
+
+    /**
+     * Get a page of the orders of a player, newest first.
+     *
+     * @param username The name of the player.
+     * @param after The last order of the previous page, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     * @return A future completing with the orders of the page.
+     */
+    @Override
+    public CompletableFuture<List<Order>> findOrdersByUsername(String username, Order after, int limit) {
+        return submit(readTimer, () -> storageManager.getStorage().findOrdersByUsername(username, after, limit));
+    }
+
+    /**
+     * Get all stored line items of a Shopify order.
+     *
+     * @param orderId The id of the Shopify order.
+     * @return A future completing with the stored line items.
+     */
+    @Override
+    public CompletableFuture<List<Order>> findOrdersByOrderId(String orderId) {
+        return submit(readTimer, () -> storageManager.getStorage().findOrdersByOrderId(orderId));
+    }
+
+    /**
+     * Put items into the mailboxes of their players.
+     *
+     * @param items The new mailbox entries.
+     * @return A future completing once the entries have been written.
+     */
+    @Override
+    public CompletableFuture<Void> addMailItems(List<MailItem> items) {
+        return submitWrite(() -> {
+            storageManager.getStorage().addMailItems(items);
+            return null;
+        });
+    }
+
+    /**
+     * Get the oldest entries of the mailbox of a player.
+     *
+     * @param username The name of the player.
+     * @param limit The maximum number of entries.
+     * @return A future completing with the entries, oldest first.
+     */
+    @Override
+    public CompletableFuture<List<MailItem>> getMailItems(String username, int limit) {
+        return submit(readTimer, () -> storageManager.getStorage().getMailItems(username, limit));
+    }
+
+    /**
+     * Write the remaining amounts of claimed mailbox entries.
+     *
+     * @param items The claimed entries; entries without a remaining amount are removed.
+     * @return A future completing once the entries have been written.
+     */
+    @Override
+    public CompletableFuture<Void> updateMailItems(List<MailItem> items) {
+        return submitWrite(() -> {
+            storageManager.getStorage().updateMailItems(items);
+            return null;
+        });
+    }
+
+    /**
+     * Stop accepting new operations and wait for the queued ones to finish.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return True if all operations finished in time.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stop the executor at once and interrupt the running operations.
+     * Call after {@link #shutdown(long, TimeUnit)} timed out.
+     *
+     * @return The orders whose write had not completed.
+     */
+    public List<Order> shutdownNow() {
+        // Take the orders before interrupting, interrupted writes remove themselves when they fail
+        List<Order> unwritten = new ArrayList<>();
+        for (List<Order> orders : pendingWrites.values()) {
+            unwritten.addAll(orders);
+        }
+        executor.shutdownNow();
+        return unwritten;
+    }
+
+    /**
+     * Get the number of operations waiting for a worker thread.
+     *
+     * @return The length of the queue.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Run a write on the executor and remember its orders until it completes.
+     *
+     * @param orders The orders written by the operation.
+     * @param task The write to run.
+     * @return A future completing once the orders have been written.
+     */
+    private CompletableFuture<Void> trackWrite(List<Order> orders, Callable<Void> task) {
+        long id = writeIds.incrementAndGet();
+        pendingWrites.put(id, orders);
+        CompletableFuture<Void> write = new CompletableFuture<>();
+        // Removed once the write has run, not when a caller stops waiting for it
+        write.whenComplete((result, error) -> pendingWrites.remove(id));
+        execute(writeTimer, task, write);
+        return write.copy();
+    }
+
+    /**
+     * Run a write on the executor without a timeout.
+     * The returned future is a copy, so cancelling it or letting it time out does not stop the write.
+     *
+     * @param task The write to run.
+     * @param <T> The result type of the write.
+     * @return A future completing once the write has run.
+     */
+    private <T> CompletableFuture<T> submitWrite(Callable<T> task) {
+        CompletableFuture<T> write = new CompletableFuture<>();
+        execute(writeTimer, task, write);
+        return write.copy();
+    }
+
+    /**
+     * Run a read on the executor.
+     * The returned future times out after the configured timeout, and cancelling it
+     * or letting it time out interrupts the read if it is still running.
+     *
+     * @param timer The histogram the time spent in the storage is recorded in.
+     * @param task The read to run.
+     * @param <T> The result type of the read.
+     * @return A future completing with the result of the read.
+     */
+    private <T> CompletableFuture<T> submit(Histogram timer, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> running = execute(timer, () -> future.isDone() ? null : task.call(), future);
+        if (running == null) {
+            return future;
+        }
+        future.orTimeout(mineShopify.getSettings().getStorageTimeout(), TimeUnit.SECONDS);
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled() || error instanceof TimeoutException) {
+                running.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Hand an operation to the executor and complete the future with its result.
+     *
+     * @param timer The histogram the time spent in the storage is recorded in.
+     * @param task The operation to run.
+     * @param future The future completed by the operation.
+     * @param <T> The result type of the operation.
+     * @return The running operation, or null if the queue was full and the future failed.
+     */
+    private <T> Future<?> execute(Histogram timer, Callable<T> task, CompletableFuture<T> future) {
+        try {
+            return executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    failures.increment();
+                    future.completeExceptionally(t);
+                } finally {
+                    timer.observeSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            mineShopify.getEventLog().log(EventCategory.STORAGE, Level.WARNING, "queue_full", () -> "Storage queue is full, rejecting operation.");
+            future.completeExceptionally(e);
+            return null;
+        }
+    }
+}
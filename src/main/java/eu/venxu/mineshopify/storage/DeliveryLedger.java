@@ -0,0 +1,351 @@
+package eu.venxu.mineshopify.storage;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.order.Order;
+import org.bukkit.Bukkit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Write-ahead log of line item deliveries.
+ * An intent is recorded right before the commands of a line item are dispatched, and a
+ * commit once the line item is in the storage. Every line item has an idempotency key
+ * made of the order id and the Shopify line item id.
+ *
+ * The recovery pass on startup writes every line item with an intent but no commit to
+ * the storage, so it is not delivered again, and grants the timed package recorded with
+ * the intent unless it was saved before the shutdown. Orders with fewer intents than line items with
+ * a package stay open and the next poll delivers only the line items without a record.
+ * Open orders are dropped once they are older than the poll window, no poll returns them anymore.
+ * The file holds one JSON record per line and is compacted to the open records.
+ */
+public class DeliveryLedger {
+
+    private static final String INTENT = "intent";
+    private static final String COMMIT = "commit";
+
+    private final MineShopify mineShopify;
+    private final File ledgerFile;
+    private final boolean enabled;
+    private final Map<String, Intent> pending = new LinkedHashMap<>();
+    private final Map<String, Map<String, Intent>> openOrders = new HashMap<>();
+    private FileOutputStream out;
+    private int appended;
+
+    /**
+     * A line item whose commands are dispatched and which may not be stored yet.
+     */
+    private static class Intent {
+        private final String key;
+        private final int index;
+        private final int items;
+        private final Order order;
+        private final JsonObject entitlement;
+
+        private Intent(String key, int index, int items, Order order, JsonObject entitlement) {
+            this.key = key;
+            this.index = index;
+            this.items = items;
+            this.order = order;
+            this.entitlement = entitlement;
+        }
+    }
+
+    /**
+     * Create the ledger with the settings from config.yml.
+     * The file is not read until {@link #recover(IStorage)} is called.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public DeliveryLedger(MineShopify mineShopify) {
+        this.mineShopify = mineShopify;
+        this.ledgerFile = new File(mineShopify.getDataFolder(), "delivery-ledger.log");
+        this.enabled = mineShopify.getSettings().isLedgerEnabled();
+    }
+
+    /**
+     * Finish the deliveries interrupted by the last shutdown and compact the file.
+     * Runs before the first poll.
+     *
+     * @param storage The connected storage.
+     * @throws IOException If the ledger cannot be read or written.
+     * @throws StorageException If the storage cannot be read or written.
+     */
+    public synchronized void recover(IStorage storage) throws IOException, StorageException {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Intent> intents = new LinkedHashMap<>();
+        Set<String> committed = new HashSet<>();
+        for (JsonObject record : readAll()) {
+            String key = record.get("key").getAsString();
+            if (COMMIT.equals(record.get("state").getAsString())) {
+                committed.add(key);
+            } else {
+                intents.put(key, fromJson(record));
+            }
+        }
+
+        // The commands of an intent without commit ran unless the server died while dispatching them
+        int stored = 0;
+        List<JsonObject> entitlements = new ArrayList<>();
+        for (Intent intent : intents.values()) {
+            if (committed.contains(intent.key)) {
+                continue;
+            }
+            // The commit waits for the entitlement as well, the entitlement manager skips it if it was saved
+            if (intent.entitlement != null) {
+                entitlements.add(intent.entitlement);
+            }
+            if (OrderJournal.isStored(storage, intent.order)) {
+                continue;
+            }
+            storage.addOrder(intent.order);
+            stored++;
+            mineShopify.getLogger().warning("Line item " + intent.key + " (" + intent.order.getPackageName() + " for "
+                    + intent.order.getUsername() + ") was delivered before the last shutdown but not stored, it is stored now.");
+        }
+
+        // An order is open if it has fewer intents than line items with a package
+        for (Intent intent : intents.values()) {
+            openOrders.computeIfAbsent(intent.order.getOrderId(), id -> new LinkedHashMap<>()).put(intent.key, intent);
+        }
+        long pollWindowStart = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(mineShopify.getSettings().getDaysToCheck() + 1L);
+        int expired = 0;
+        Iterator<Map<String, Intent>> iterator = openOrders.values().iterator();
+        while (iterator.hasNext()) {
+            Set<Integer> indices = new HashSet<>();
+            int items = 0;
+            long lastIntent = 0;
+            for (Intent intent : iterator.next().values()) {
+                indices.add(intent.index);
+                items = intent.items;
+                lastIntent = Math.max(lastIntent, intent.order.getCreatedAt());
+            }
+            if (indices.size() >= items) {
+                iterator.remove();
+            } else if (lastIntent < pollWindowStart) {
+                iterator.remove();
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            mineShopify.getLogger().warning(expired + " orders with undelivered line items have left the poll window and are no longer retried.");
+        }
+
+        if (!entitlements.isEmpty()) {
+            Bukkit.getScheduler().runTask(mineShopify, () -> entitlements.forEach(mineShopify.getEntitlementManager()::restore));
+        }
+
+        rewrite();
+        if (stored > 0 || !openOrders.isEmpty()) {
+            mineShopify.getLogger().info("Delivery ledger recovered: " + stored + " line items stored, "
+                    + openOrders.size() + " orders with undelivered line items.");
+        }
+    }
+
+    /**
+     * Check if an order was interrupted and still has line items without a record.
+     *
+     * @param orderId The id of the Shopify order.
+     * @return True if the order has to be delivered again, skipping the recorded line items.
+     */
+    public synchronized boolean isOpen(String orderId) {
+        return openOrders.containsKey(orderId);
+    }
+
+    /**
+     * Check if the commands of a line item have been dispatched.
+     *
+     * @param orderId The id of the Shopify order.
+     * @param key The idempotency key of the line item.
+     * @return True if the line item must not be dispatched again.
+     */
+    public synchronized boolean isRecorded(String orderId, String key) {
+        Map<String, Intent> orderIntents = openOrders.get(orderId);
+        return pending.containsKey(key) || (orderIntents != null && orderIntents.containsKey(key));
+    }
+
+    /**
+     * Record that the commands of a line item are about to be dispatched.
+     * Must complete before the commands run. The order stays open until {@link #close(String)}.
+     *
+     * @param key The idempotency key of the line item.
+     * @param index The position of the line item in the order.
+     * @param items The number of line items in the order that have a package.
+     * @param order The line item as it will be stored.
+     * @param entitlement The timed package the line item grants, or null if it has none.
+     * @throws IOException If the record cannot be written; the line item must not be dispatched then.
+     */
+    public synchronized void intent(String key, int index, int items, Order order, JsonObject entitlement) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Intent intent = new Intent(key, index, items, order, entitlement);
+        append(toJson(intent));
+        pending.put(key, intent);
+        openOrders.computeIfAbsent(order.getOrderId(), id -> new LinkedHashMap<>()).put(key, intent);
+    }
+
+    /**
+     * Mark an order as complete after every line item was handled.
+     * Orders that are not closed are delivered again by the next poll, without their recorded line items.
+     *
+     * @param orderId The id of the Shopify order.
+     */
+    public synchronized void close(String orderId) {
+        openOrders.remove(orderId);
+    }
+
+    /**
+     * Record that a line item is in the storage and its timed package is saved.
+     *
+     * @param key The idempotency key of the line item.
+     */
+    public synchronized void commit(String key) {
+        if (!enabled || pending.remove(key) == null) {
+            return;
+        }
+        try {
+            append(commitRecord(key));
+            if (appended >= mineShopify.getSettings().getLedgerCompactAfter()) {
+                rewrite();
+            }
+        } catch (IOException e) {
+            // The intent is in the file, the recovery finds the line item in the storage
+            mineShopify.getLogger().log(Level.WARNING, "Failed to write a commit to the delivery ledger", e);
+        }
+    }
+
+    /**
+     * Get the number of line items dispatched but not stored yet.
+     *
+     * @return The number of pending intents.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Close the ledger file. Pending intents stay in the file for the recovery pass.
+     */
+    public synchronized void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.WARNING, "Failed to close the delivery ledger", e);
+        }
+        out = null;
+    }
+
+    private void append(JsonObject record) throws IOException {
+        if (out == null) {
+            ledgerFile.getParentFile().mkdirs();
+            out = new FileOutputStream(ledgerFile, true);
+        }
+        // One write per record, so a crash tears at most the last line
+        out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+        if (mineShopify.getSettings().isLedgerSync()) {
+            out.getChannel().force(false);
+        }
+        appended++;
+    }
+
+    /**
+     * Replace the file content with the pending intents and the intents of the open orders.
+     * Stored line items keep their commit record.
+     */
+    private void rewrite() throws IOException {
+        closeFile();
+        appended = 0;
+        Map<String, Intent> kept = new LinkedHashMap<>(pending);
+        for (Map<String, Intent> orderIntents : openOrders.values()) {
+            kept.putAll(orderIntents);
+        }
+        if (kept.isEmpty()) {
+            Files.deleteIfExists(ledgerFile.toPath());
+            return;
+        }
+        File tempFile = new File(ledgerFile.getParentFile(), ledgerFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Intent intent : kept.values()) {
+                writer.write(toJson(intent).toString());
+                writer.newLine();
+                if (!pending.containsKey(intent.key)) {
+                    writer.write(commitRecord(intent.key).toString());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(tempFile.toPath(), ledgerFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<JsonObject> readAll() throws IOException {
+        List<JsonObject> records = new ArrayList<>();
+        if (!ledgerFile.exists()) {
+            return records;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(ledgerFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    records.add(JsonParser.parseString(line).getAsJsonObject());
+                } catch (RuntimeException ignored) {
+                    // A torn last line after a crash, the intent was not complete before the dispatch
+                }
+            }
+        }
+        return records;
+    }
+
+    private static JsonObject commitRecord(String key) {
+        JsonObject record = new JsonObject();
+        record.addProperty("state", COMMIT);
+        record.addProperty("key", key);
+        return record;
+    }
+
+    private static JsonObject toJson(Intent intent) {
+        JsonObject record = OrderJournal.toJson(intent.order);
+        record.addProperty("state", INTENT);
+        record.addProperty("key", intent.key);
+        record.addProperty("index", intent.index);
+        record.addProperty("items", intent.items);
+        if (intent.entitlement != null) {
+            record.add("entitlement", intent.entitlement);
+        }
+        return record;
+    }
+
+    private static Intent fromJson(JsonObject record) {
+        return new Intent(record.get("key").getAsString(), record.get("index").getAsInt(),
+                record.get("items").getAsInt(), OrderJournal.fromJson(record),
+                record.has("entitlement") ? record.getAsJsonObject("entitlement") : null);
+    }
+}
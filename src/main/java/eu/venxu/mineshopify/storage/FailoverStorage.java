@@ -0,0 +1,438 @@
+package eu.venxu.mineshopify.storage;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.log.EventCategory;
+import eu.venxu.mineshopify.mailbox.MailItem;
+import eu.venxu.mineshopify.order.Order;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Storage that writes to MySQL while it is healthy and buffers orders in a local
+ * journal while it is not. A background probe watches the pool and replays the
+ * journal into MySQL in batches once the database is reachable again.
+ *
+ * While MySQL is unavailable, orders that are neither in the journal nor in the view of
+ * recently known orders can't be checked. They are reported as unknown instead of new,
+ * so they are not delivered until MySQL is back.
+ */
+public class FailoverStorage implements IStorage {
+
+    private static final int KNOWN_ORDERS_LIMIT = 10000;
+
+    private final MineShopify mineShopify;
+    private final MySQLStorage primary;
+    private final OrderJournal journal;
+    private final Deque<Order> bufferedOrders = new ArrayDeque<>();
+    private final Map<String, Integer> bufferedOrderIds = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> knownOrderIds = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > KNOWN_ORDERS_LIMIT;
+                }
+            });
+    private final Object replayLock = new Object();
+    private volatile boolean healthy;
+    private BukkitTask probeTask;
+
+    /**
+     * Wrap the MySQL storage with a local journal.
+     * The connection is created by the StorageManager.
+     *
+     * @param mineShopify The main plugin instance.
+     * @param primary The MySQL storage orders are written to while it is healthy.
+     */
+    public FailoverStorage(MineShopify mineShopify, MySQLStorage primary) {
+        this.mineShopify = mineShopify;
+        this.primary = primary;
+        this.journal = new OrderJournal(new File(mineShopify.getDataFolder(), "failover-journal.log"));
+    }
+
+    /**
+     * Connect to MySQL, load orders left in the journal by a previous run and start probing the pool.
+     */
+    @Override
+    public void createConnection() {
+        primary.createConnection();
+        try {
+            List<Order> pending = journal.readAll();
+            synchronized (bufferedOrders) {
+                bufferedOrders.addAll(pending);
+                for (Order order : pending) {
+                    bufferedOrderIds.merge(order.getOrderId(), 1, Integer::sum);
+                }
+            }
+            if (!pending.isEmpty()) {
+                mineShopify.getLogger().warning(pending.size() + " orders are waiting in the failover journal and will be replayed into MySQL.");
+            }
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to read the failover journal", e);
+        }
+
+        healthy = primary.isConnected();
+        if (!healthy) {
+            mineShopify.getLogger().severe("MySQL is unavailable. Orders will be buffered locally until the connection is restored.");
+        }
+
+        long probeInterval = Math.max(1, mineShopify.getConfig().getInt("storage.failover.probe_interval", 15)) * 20L;
+        probeTask = new BukkitRunnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        }.runTaskTimerAsynchronously(mineShopify, probeInterval, probeInterval);
+    }
+
+    /**
+     * Write the order to MySQL, or to the local journal if MySQL is unavailable.
+     *
+     * @param order The order to store.
+     * @throws StorageException If the order could not be written to the journal either.
+     */
+    @Override
+    public void addOrder(Order order) throws StorageException {
+        if (healthy) {
+            try {
+                primary.insertOrder(order);
+                knownOrderIds.put(order.getOrderId(), Boolean.TRUE);
+                return;
+            } catch (SQLException e) {
+                markUnhealthy(e);
+            }
+        }
+        bufferOrder(order);
+    }
+
+    /**
+     * Check if the order exists in the journal, the known order view or MySQL.
+     * While MySQL is unavailable only the local view can be consulted, and an order
+     * missing from it may still be in MySQL, e.g. after a restart during the outage.
+     *
+     * @param orderId The id of the order which has to be checked.
+     * @return The status of the order already existing.
+     * @throws StorageException If the order is not known locally and MySQL is unavailable.
+     */
+    @Override
+    public boolean checkOrder(String orderId) throws StorageException {
+        if (bufferedOrderIds.containsKey(orderId) || knownOrderIds.containsKey(orderId)) {
+            return true;
+        }
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable, order " + orderId + " can't be checked.");
+        }
+        try {
+            boolean exists = primary.containsOrder(orderId);
+            if (exists) {
+                knownOrderIds.put(orderId, Boolean.TRUE);
+            }
+            return exists;
+        } catch (SQLException e) {
+            markUnhealthy(e);
+            throw new StorageException("MySQL is unavailable, order " + orderId + " can't be checked.", e);
+        }
+    }
+
+    /**
+     * Write the orders to MySQL, or to the local journal if MySQL is unavailable.
+     *
+     * @param orders The orders to store.
+     * @throws StorageException If the orders could not be written to the journal either.
+     */
+    @Override
+    public void addOrders(List<Order> orders) throws StorageException {
+        if (healthy) {
+            try {
+                primary.insertOrders(orders);
+                for (Order order : orders) {
+                    knownOrderIds.put(order.getOrderId(), Boolean.TRUE);
+                }
+                return;
+            } catch (SQLException e) {
+                markUnhealthy(e);
+            }
+        }
+        for (Order order : orders) {
+            bufferOrder(order);
+        }
+    }
+
+    /**
+     * Get a page of orders from MySQL.
+     * Orders still waiting in the journal are not part of the pages.
+     *
+     * @param afterId The id after which the page starts, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     * @return The orders of the page.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public List<Order> getOrders(String afterId, int limit) throws StorageException {
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable.");
+        }
+        return primary.getOrders(afterId, limit);
+    }
+
+    /**
+     * Get the oldest orders in MySQL created before the given time.
+     *
+     * @param createdBefore The timestamp in milliseconds the orders must be older than.
+     * @param limit The maximum number of orders to return.
+     * @return The orders, oldest first.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public List<Order> getOrdersBefore(long createdBefore, int limit) throws StorageException {
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable.");
+        }
+        return primary.getOrdersBefore(createdBefore, limit);
+    }
+
+    /**
+     * Delete orders from MySQL.
+     *
+     * @param orders The orders to delete.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public void removeOrders(List<Order> orders) throws StorageException {
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable.");
+        }
+        primary.removeOrders(orders);
+        for (Order order : orders) {
+            knownOrderIds.remove(order.getOrderId());
+        }
+    }
+
+    /**
+     * Get a page of the orders of a player from MySQL.
+     *
+     * @param username The name of the player.
+     * @param after The last order of the previous page, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     * @return The orders of the page.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public List<Order> findOrdersByUsername(String username, Order after, int limit) throws StorageException {
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable.");
+        }
+        return primary.findOrdersByUsername(username, after, limit);
+    }
+
+    /**
+     * Get all line items of a Shopify order, including those still waiting in the journal.
+     *
+     * @param orderId The id of the Shopify order.
+     * @return The stored line items of the order.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public List<Order> findOrdersByOrderId(String orderId) throws StorageException {
+        List<Order> orders = new ArrayList<>();
+        synchronized (bufferedOrders) {
+            for (Order order : bufferedOrders) {
+                if (order.getOrderId().equals(orderId)) {
+                    orders.add(order);
+                }
+            }
+        }
+        if (!healthy) {
+            if (orders.isEmpty()) {
+                throw new StorageException("MySQL is unavailable.");
+            }
+            return orders;
+        }
+        orders.addAll(primary.findOrdersByOrderId(orderId));
+        orders.sort(NEWEST_FIRST);
+        return orders;
+    }
+
+    /**
+     * Put items into the mailboxes in MySQL.
+     * The mailbox is not buffered in the journal; callers handle the failure.
+     *
+     * @param items The new mailbox entries.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public void addMailItems(List<MailItem> items) throws StorageException {
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable.");
+        }
+        primary.addMailItems(items);
+    }
+
+    /**
+     * Get the oldest entries of the mailbox of a player from MySQL.
+     *
+     * @param username The name of the player.
+     * @param limit The maximum number of entries.
+     * @return The entries, oldest first.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public List<MailItem> getMailItems(String username, int limit) throws StorageException {
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable.");
+        }
+        return primary.getMailItems(username, limit);
+    }
+
+    /**
+     * Write the remaining amounts of claimed entries to MySQL.
+     *
+     * @param items The claimed entries; entries without a remaining amount are deleted.
+     * @throws StorageException If MySQL is unavailable.
+     */
+    @Override
+    public void updateMailItems(List<MailItem> items) throws StorageException {
+        if (!healthy) {
+            throw new StorageException("MySQL is unavailable.");
+        }
+        primary.updateMailItems(items);
+    }
+
+    /**
+     * Check if MySQL is currently considered healthy.
+     *
+     * @return True if orders are written to MySQL directly.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Get the number of orders waiting in the journal.
+     *
+     * @return The number of buffered orders.
+     */
+    public int getBufferedCount() {
+        synchronized (bufferedOrders) {
+            return bufferedOrders.size();
+        }
+    }
+
+    /**
+     * Stop the health probe and close the MySQL pool.
+     * Buffered orders stay in the journal and are replayed on the next start.
+     */
+    public void close() {
+        if (probeTask != null) {
+            probeTask.cancel();
+        }
+        primary.closePool();
+    }
+
+    /**
+     * Keep an order for the replay. It stays in memory even if the journal can't be
+     * written, but the caller learns that the order would not survive a restart.
+     */
+    private void bufferOrder(Order order) throws StorageException {
+        synchronized (bufferedOrders) {
+            bufferedOrders.add(order);
+            bufferedOrderIds.merge(order.getOrderId(), 1, Integer::sum);
+            try {
+                journal.append(order);
+            } catch (IOException e) {
+                throw new StorageException("Failed to write order " + order.getOrderId() + " to the failover journal", e);
+            }
+        }
+        mineShopify.getEventLog().log(EventCategory.STORAGE, Level.FINE, "buffered",
+                () -> "Order " + order.getOrderId() + " buffered in the failover journal.");
+    }
+
+    private void markUnhealthy(SQLException e) {
+        if (healthy) {
+            healthy = false;
+            mineShopify.getLogger().log(Level.SEVERE, "Lost connection to MySQL, buffering orders locally", e);
+        }
+    }
+
+    /**
+     * Check the pool and replay the journal once MySQL is reachable.
+     * Runs on the asynchronous probe task.
+     */
+    private void probe() {
+        if (!healthy) {
+            // The outage was logged when it started, failed attempts stay quiet
+            if (!primary.isConnected() && !primary.reconnect()) {
+                return;
+            }
+            if (!primary.ping()) {
+                return;
+            }
+            healthy = true;
+            mineShopify.getLogger().info("Connection to MySQL restored.");
+        }
+        replay();
+    }
+
+    /**
+     * Write the buffered orders to MySQL in batches.
+     * Each order stays visible to {@link #checkOrder(String)} until it is known to be in MySQL.
+     * The journal is rewritten once after the replay; orders replayed before a crash are
+     * replayed again and skipped by MySQL, as their ids already exist.
+     */
+    private void replay() {
+        synchronized (replayLock) {
+            int batchSize = Math.max(1, mineShopify.getConfig().getInt("storage.failover.replay_batch_size", 100));
+            int replayed = 0;
+            while (healthy) {
+                List<Order> batch = new ArrayList<>(batchSize);
+                synchronized (bufferedOrders) {
+                    Iterator<Order> iterator = bufferedOrders.iterator();
+                    while (iterator.hasNext() && batch.size() < batchSize) {
+                        batch.add(iterator.next());
+                    }
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                try {
+                    primary.insertOrders(batch);
+                } catch (SQLException e) {
+                    markUnhealthy(e);
+                    break;
+                }
+                synchronized (bufferedOrders) {
+                    // Line items of the same order share the order id, keep it until the last one is replayed
+                    for (Order order : batch) {
+                        bufferedOrders.removeFirst();
+                        knownOrderIds.put(order.getOrderId(), Boolean.TRUE);
+                        bufferedOrderIds.computeIfPresent(order.getOrderId(), (id, count) -> count > 1 ? count - 1 : null);
+                    }
+                }
+                replayed += batch.size();
+            }
+            if (replayed > 0) {
+                synchronized (bufferedOrders) {
+                    try {
+                        journal.rewrite(bufferedOrders);
+                    } catch (IOException e) {
+                        mineShopify.getLogger().log(Level.SEVERE, "Failed to update the failover journal", e);
+                    }
+                }
+                mineShopify.getLogger().info("Replayed " + replayed + " buffered orders into MySQL.");
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package eu.venxu.mineshopify.storage;
 
 import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.mailbox.MailItem;
 import eu.venxu.mineshopify.order.Order;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.InvalidConfigurationException;
@@ -9,21 +10,52 @@ import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
 
 public class FileStorage implements IStorage {
 
     private MineShopify mineShopify;
+    private final File dataFolder;
     private File customConfigFile;
     private FileConfiguration customConfig;
+    private NavigableSet<String> sortedIds;
+    private final Map<String, Set<String>> idsByOrderId = new HashMap<>();
+    private final Map<String, Set<String>> idsByUsername = new HashMap<>();
+    private final NavigableMap<Long, Set<String>> idsByCreatedAt = new TreeMap<>();
+    private File mailboxFile;
+    private FileConfiguration mailbox;
+    private final Map<String, Set<String>> mailIdsByUsername = new HashMap<>();
 
     /**
-     * Define MineShopify main class. Runs the connection.
+     * Define MineShopify main class.
+     * The connection is created by the StorageManager.
      *
      * @param mineShopify The main class.
      */
     public FileStorage(MineShopify mineShopify) {
         this.mineShopify = mineShopify;
-        createConnection();
+        this.dataFolder = mineShopify.getDataFolder();
+    }
+
+    /**
+     * Create a File Storage in the given folder without the plugin, e.g. for the benchmarks.
+     *
+     * @param dataFolder The folder the Orders File is written to.
+     */
+    public FileStorage(File dataFolder) {
+        this.dataFolder = dataFolder;
     }
 
     /**
@@ -32,14 +64,36 @@ public class FileStorage implements IStorage {
     @Override
     public void createConnection() {
         try {
-            customConfigFile = new File(mineShopify.getDataFolder(), "orders.yml");
+            customConfigFile = new File(dataFolder, "orders.yml");
             if (!customConfigFile.exists()) {
                 customConfigFile.getParentFile().mkdirs();
-                mineShopify.saveResource("orders.yml", false);
+                if (mineShopify != null) mineShopify.saveResource("orders.yml", false);
+                else customConfigFile.createNewFile();
             }
 
             customConfig = new YamlConfiguration();
             customConfig.load(customConfigFile);
+
+            // Orders written by older versions have no timestamp, retention starts counting now
+            boolean stamped = false;
+            long now = System.currentTimeMillis();
+            for (String id : customConfig.getKeys(false)) {
+                if (!customConfig.contains(id + ".createdAt")) {
+                    customConfig.set(id + ".createdAt", now);
+                    stamped = true;
+                }
+                index(id, customConfig.getString(id + ".orderId"), customConfig.getString(id + ".username"), customConfig.getLong(id + ".createdAt"));
+            }
+            if (stamped) customConfig.save(customConfigFile);
+
+            // The mailbox is kept in its own file, so the order ids stay the only keys of the Orders File
+            mailboxFile = new File(dataFolder, "mailbox.yml");
+            mailbox = new YamlConfiguration();
+            if (mailboxFile.exists()) mailbox.load(mailboxFile);
+            for (String id : mailbox.getKeys(false)) {
+                String username = mailbox.getString(id + ".username");
+                if (username != null) mailIdsByUsername.computeIfAbsent(username.toLowerCase(), key -> new LinkedHashSet<>()).add(id);
+            }
         } catch (IOException | InvalidConfigurationException e) {
             Bukkit.getLogger().severe("Error connecting to the File.");
         }
@@ -47,32 +101,304 @@ public class FileStorage implements IStorage {
 
     /**
      * Add an order to the Orders File.
+     *
+     * @param order The order to add.
+     * @throws StorageException If the Orders File can't be saved.
      */
     @Override
-    public void addOrder(Order order) {
+    public synchronized void addOrder(Order order) throws StorageException {
+        putOrder(order);
         try {
-            customConfig.set(order.getId() + ".username", order.getUsername());
-            customConfig.set(order.getId() + ".packageName", order.getPackageName());
-            customConfig.set(order.getId() + ".orderId", order.getOrderId());
             customConfig.save(customConfigFile);
         } catch (IOException e) {
-            Bukkit.getLogger().severe("Error connecting to the File.");
+            throw new StorageException("Error saving the Orders File.", e);
+        }
+    }
+
+    /**
+     * Add several orders to the Orders File and save it once.
+     *
+     * @param orders The orders to add.
+     * @throws StorageException If the Orders File can't be saved.
+     */
+    @Override
+    public synchronized void addOrders(List<Order> orders) throws StorageException {
+        putOrders(orders);
+        save();
+    }
+
+    /**
+     * Add several orders to the Orders File in memory without saving it.
+     * Used by the migration, which saves the file after many chunks instead of after each one.
+     *
+     * @param orders The orders to add.
+     */
+    synchronized void putOrders(List<Order> orders) {
+        for (Order order : orders) {
+            putOrder(order);
+        }
+    }
+
+    /**
+     * Save the Orders File.
+     *
+     * @throws StorageException If the Orders File can't be saved.
+     */
+    synchronized void save() throws StorageException {
+        try {
+            customConfig.save(customConfigFile);
+        } catch (IOException e) {
+            throw new StorageException("Error saving the Orders File.", e);
+        }
+    }
+
+    /**
+     * Get a page of orders sorted by their id.
+     *
+     * @param afterId The id after which the page starts, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     *
+     * @return The orders of the page.
+     */
+    @Override
+    public synchronized List<Order> getOrders(String afterId, int limit) {
+        if (sortedIds == null) {
+            sortedIds = new TreeSet<>(customConfig.getKeys(false));
+        }
+        NavigableSet<String> ids = afterId == null ? sortedIds : sortedIds.tailSet(afterId, false);
+        List<Order> orders = new ArrayList<>();
+        for (String id : ids) {
+            if (orders.size() >= limit) break;
+            Order order = readOrder(id);
+            if (order != null) orders.add(order);
+        }
+        return orders;
+    }
+
+    /**
+     * Get the oldest orders created before the given time.
+     *
+     * @param createdBefore The timestamp in milliseconds the orders must be older than.
+     * @param limit The maximum number of orders to return.
+     *
+     * @return The orders, oldest first.
+     */
+    @Override
+    public synchronized List<Order> getOrdersBefore(long createdBefore, int limit) {
+        List<Order> orders = new ArrayList<>();
+        for (Set<String> ids : idsByCreatedAt.headMap(createdBefore, false).values()) {
+            for (String id : ids) {
+                if (orders.size() >= limit) return orders;
+                Order order = readOrder(id);
+                if (order != null) orders.add(order);
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Remove orders from the Orders File and save it once.
+     *
+     * @param orders The orders to remove.
+     * @throws StorageException If the Orders File can't be saved.
+     */
+    @Override
+    public synchronized void removeOrders(List<Order> orders) throws StorageException {
+        for (Order order : orders) {
+            String id = order.getId().toString();
+            if (!customConfig.contains(id)) continue;
+            unindex(id, customConfig.getString(id + ".orderId"), customConfig.getString(id + ".username"), customConfig.getLong(id + ".createdAt"));
+            customConfig.set(id, null);
+            if (sortedIds != null) sortedIds.remove(id);
+        }
+        try {
+            customConfig.save(customConfigFile);
+        } catch (IOException e) {
+            throw new StorageException("Error saving the Orders File.", e);
         }
     }
 
+    /**
+     * Get a page of the orders of a player, newest first.
+     * Uses the in-memory username index.
+     *
+     * @param username The name of the player, case insensitive.
+     * @param after The last order of the previous page, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     *
+     * @return The orders of the page.
+     */
+    @Override
+    public synchronized List<Order> findOrdersByUsername(String username, Order after, int limit) {
+        List<Order> orders = readOrders(idsByUsername.get(username.toLowerCase()));
+        orders.sort(NEWEST_FIRST);
+        List<Order> page = new ArrayList<>();
+        for (Order order : orders) {
+            if (page.size() >= limit) break;
+            if (after == null || NEWEST_FIRST.compare(order, after) > 0) page.add(order);
+        }
+        return page;
+    }
+
+    /**
+     * Get all line items stored for a Shopify order, newest first.
+     * Uses the in-memory order id index.
+     *
+     * @param orderId The id of the Shopify order.
+     *
+     * @return The stored line items of the order.
+     */
+    @Override
+    public synchronized List<Order> findOrdersByOrderId(String orderId) {
+        List<Order> orders = readOrders(idsByOrderId.get(orderId));
+        orders.sort(NEWEST_FIRST);
+        return orders;
+    }
+
+    /**
+     * Add entries to the Mailbox File and save it once.
+     *
+     * @param items The new mailbox entries.
+     * @throws StorageException If the Mailbox File can't be saved.
+     */
+    @Override
+    public synchronized void addMailItems(List<MailItem> items) throws StorageException {
+        for (MailItem item : items) {
+            String id = item.getId().toString();
+            mailbox.set(id + ".username", item.getUsername());
+            mailbox.set(id + ".orderId", item.getOrderId());
+            mailbox.set(id + ".item", Base64.getEncoder().encodeToString(item.getItem()));
+            mailbox.set(id + ".amount", item.getAmount());
+            mailbox.set(id + ".createdAt", item.getCreatedAt());
+            mailIdsByUsername.computeIfAbsent(item.getUsername().toLowerCase(), key -> new LinkedHashSet<>()).add(id);
+        }
+        saveMailbox();
+    }
+
+    /**
+     * Get the oldest entries of the mailbox of a player.
+     * Uses the in-memory username index of the Mailbox File.
+     *
+     * @param username The name of the player, case insensitive.
+     * @param limit The maximum number of entries.
+     *
+     * @return The entries, oldest first.
+     */
+    @Override
+    public synchronized List<MailItem> getMailItems(String username, int limit) {
+        List<MailItem> items = new ArrayList<>();
+        Set<String> ids = mailIdsByUsername.get(username.toLowerCase());
+        if (ids == null) return items;
+        for (String id : ids) {
+            try {
+                items.add(new MailItem(UUID.fromString(id),
+                        mailbox.getString(id + ".username"),
+                        mailbox.getString(id + ".orderId"),
+                        Base64.getDecoder().decode(mailbox.getString(id + ".item", "")),
+                        mailbox.getInt(id + ".amount"),
+                        mailbox.getLong(id + ".createdAt")));
+            } catch (IllegalArgumentException e) {
+                Bukkit.getLogger().warning("Skipping entry " + id + " of the Mailbox File, it is not a valid mailbox entry.");
+            }
+        }
+        items.sort(Comparator.comparingLong(MailItem::getCreatedAt));
+        return items.size() > limit ? new ArrayList<>(items.subList(0, limit)) : items;
+    }
+
+    /**
+     * Write the remaining amounts of claimed entries and save the Mailbox File once.
+     *
+     * @param items The claimed entries; entries without a remaining amount are removed.
+     * @throws StorageException If the Mailbox File can't be saved.
+     */
+    @Override
+    public synchronized void updateMailItems(List<MailItem> items) throws StorageException {
+        for (MailItem item : items) {
+            String id = item.getId().toString();
+            if (!mailbox.contains(id)) continue;
+            if (item.getAmount() > 0) {
+                mailbox.set(id + ".amount", item.getAmount());
+                continue;
+            }
+            mailbox.set(id, null);
+            removeFromIndex(mailIdsByUsername, item.getUsername().toLowerCase(), id);
+        }
+        saveMailbox();
+    }
+
+    private void saveMailbox() throws StorageException {
+        try {
+            mailbox.save(mailboxFile);
+        } catch (IOException e) {
+            throw new StorageException("Error saving the Mailbox File.", e);
+        }
+    }
+
+    private List<Order> readOrders(Set<String> ids) {
+        List<Order> orders = new ArrayList<>();
+        if (ids == null) return orders;
+        for (String id : ids) {
+            Order order = readOrder(id);
+            if (order != null) orders.add(order);
+        }
+        return orders;
+    }
+
+    private void index(String id, String orderId, String username, long createdAt) {
+        if (orderId != null) idsByOrderId.computeIfAbsent(orderId, key -> new LinkedHashSet<>()).add(id);
+        if (username != null) idsByUsername.computeIfAbsent(username.toLowerCase(), key -> new LinkedHashSet<>()).add(id);
+        idsByCreatedAt.computeIfAbsent(createdAt, key -> new LinkedHashSet<>()).add(id);
+    }
+
+    private void unindex(String id, String orderId, String username, long createdAt) {
+        if (orderId != null) removeFromIndex(idsByOrderId, orderId, id);
+        if (username != null) removeFromIndex(idsByUsername, username.toLowerCase(), id);
+        removeFromIndex(idsByCreatedAt, createdAt, id);
+    }
+
+    private <K> void removeFromIndex(Map<K, Set<String>> index, K key, String id) {
+        Set<String> ids = index.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) index.remove(key);
+    }
+
+    private Order readOrder(String id) {
+        try {
+            return new Order(UUID.fromString(id),
+                    customConfig.getString(id + ".username"),
+                    customConfig.getString(id + ".packageName"),
+                    customConfig.getString(id + ".orderId"),
+                    customConfig.getLong(id + ".createdAt"));
+        } catch (IllegalArgumentException e) {
+            Bukkit.getLogger().warning("Skipping entry " + id + " of the Orders File, it is not a valid order id.");
+            return null;
+        }
+    }
+
+    private void putOrder(Order order) {
+        String id = order.getId().toString();
+        if (customConfig.contains(id)) {
+            unindex(id, customConfig.getString(id + ".orderId"), customConfig.getString(id + ".username"), customConfig.getLong(id + ".createdAt"));
+        }
+        customConfig.set(order.getId() + ".username", order.getUsername());
+        customConfig.set(order.getId() + ".packageName", order.getPackageName());
+        customConfig.set(order.getId() + ".orderId", order.getOrderId());
+        customConfig.set(order.getId() + ".createdAt", order.getCreatedAt());
+        if (sortedIds != null) sortedIds.add(order.getId().toString());
+        index(id, order.getOrderId(), order.getUsername(), order.getCreatedAt());
+    }
+
     /**
      * Check if the order already exists in the Orders File.
+     * Uses the in-memory order id index instead of scanning the file.
      *
      * @param orderId The id of the order which has to be checked.
      *
      * @return The status of the order already existing.
      */
     @Override
-    public boolean checkOrder(String orderId) {
-        for(String orders : customConfig.getKeys(false)) {
-            String orderIdString = customConfig.getString(orders + ".orderId");
-            if(orderIdString != null && orderIdString.equals(orderId)) return true;
-        }
-        return false;
+    public synchronized boolean checkOrder(String orderId) {
+        return idsByOrderId.containsKey(orderId);
     }
 }
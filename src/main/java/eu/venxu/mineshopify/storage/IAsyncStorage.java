@@ -0,0 +1,28 @@
+package eu.venxu.mineshopify.storage;
+
+import eu.venxu.mineshopify.mailbox.MailItem;
+import eu.venxu.mineshopify.order.Order;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface IAsyncStorage {
+
+    CompletableFuture<Boolean> checkOrder(String orderId);
+
+    CompletableFuture<Void> addOrder(Order order);
+
+    CompletableFuture<Void> addOrders(List<Order> orders);
+
+    CompletableFuture<List<Order>> getOrders(String afterId, int limit);
+
+    CompletableFuture<List<Order>> findOrdersByUsername(String username, Order after, int limit);
+
+    CompletableFuture<List<Order>> findOrdersByOrderId(String orderId);
+
+    CompletableFuture<Void> addMailItems(List<MailItem> items);
+
+    CompletableFuture<List<MailItem>> getMailItems(String username, int limit);
+
+    CompletableFuture<Void> updateMailItems(List<MailItem> items);
+}
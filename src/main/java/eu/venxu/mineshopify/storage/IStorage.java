@@ -1,12 +1,38 @@
 package eu.venxu.mineshopify.storage;
 
+import eu.venxu.mineshopify.mailbox.MailItem;
 import eu.venxu.mineshopify.order.Order;
 
+import java.util.Comparator;
+import java.util.List;
+
 public interface IStorage {
 
     void createConnection();
 
-    void addOrder(Order order);
+    void addOrder(Order order) throws StorageException;
+
+    boolean checkOrder(String orderId) throws StorageException;
+
+    List<Order> getOrders(String afterId, int limit) throws StorageException;
+
+    void addOrders(List<Order> orders) throws StorageException;
+
+    List<Order> getOrdersBefore(long createdBefore, int limit) throws StorageException;
+
+    void removeOrders(List<Order> orders) throws StorageException;
+
+    List<Order> findOrdersByUsername(String username, Order after, int limit) throws StorageException;
+
+    List<Order> findOrdersByOrderId(String orderId) throws StorageException;
+
+    void addMailItems(List<MailItem> items) throws StorageException;
+
+    List<MailItem> getMailItems(String username, int limit) throws StorageException;
+
+    void updateMailItems(List<MailItem> items) throws StorageException;
 
-    boolean checkOrder(String orderId);
+    Comparator<Order> NEWEST_FIRST = Comparator.comparingLong(Order::getCreatedAt)
+            .thenComparing(order -> order.getId().toString())
+            .reversed();
 }
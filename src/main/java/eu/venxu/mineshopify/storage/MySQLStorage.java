@@ -3,34 +3,97 @@ package eu.venxu.mineshopify.storage;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.log.EventCategory;
+import eu.venxu.mineshopify.log.EventLog;
+import eu.venxu.mineshopify.mailbox.MailItem;
 import eu.venxu.mineshopify.order.Order;
 import org.bukkit.Bukkit;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class MySQLStorage implements IStorage {
 
     private final MineShopify mineShopify;
+    private final Logger logger;
+    private final EventLog eventLog;
+    private final HikariConfig poolConfig;
     private HikariDataSource dataSource;
     
     // SQL statements
     private static final String CREATE_TABLE_SQL = 
-            "CREATE TABLE IF NOT EXISTS orders(id varchar(64) NOT NULL, username varchar(64), packageName varchar(64), orderId varchar(64), created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, INDEX idx_order_id (orderId));";
+            "CREATE TABLE IF NOT EXISTS orders(id varchar(64) NOT NULL, username varchar(64), packageName varchar(64), orderId varchar(64), created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (id), INDEX idx_order_id (orderId));";
     private static final String INSERT_ORDER_SQL = 
             "INSERT INTO orders(id, username, packageName, orderId) VALUES (?, ?, ?, ?);";
+    private static final String REPLAY_ORDER_SQL = 
+            "INSERT IGNORE INTO orders(id, username, packageName, orderId, created_at) VALUES (?, ?, ?, ?, ?);";
+    private static final String SELECT_EXISTING_IDS_SQL = 
+            "SELECT id FROM orders WHERE id IN (";
     private static final String CHECK_ORDER_SQL = 
             "SELECT 1 FROM orders WHERE orderId=? LIMIT 1";
+    private static final String SELECT_ORDERS_SQL = 
+            "SELECT id, username, packageName, orderId, created_at FROM orders WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_ORDERS_BEFORE_SQL = 
+            "SELECT id, username, packageName, orderId, created_at FROM orders WHERE created_at < ? ORDER BY created_at LIMIT ?";
+    private static final String SELECT_ORDERS_BY_USERNAME_SQL = 
+            "SELECT id, username, packageName, orderId, created_at FROM orders WHERE username=? ORDER BY created_at DESC, id DESC LIMIT ?";
+    private static final String SELECT_ORDERS_BY_USERNAME_AFTER_SQL = 
+            "SELECT id, username, packageName, orderId, created_at FROM orders WHERE username=? AND (created_at < ? OR (created_at = ? AND id < ?)) ORDER BY created_at DESC, id DESC LIMIT ?";
+    private static final String SELECT_ORDERS_BY_ORDER_ID_SQL = 
+            "SELECT id, username, packageName, orderId, created_at FROM orders WHERE orderId=? ORDER BY created_at DESC, id DESC";
+    private static final String CREATE_USERNAME_INDEX_SQL = 
+            "CREATE INDEX idx_username_created ON orders(username, created_at, id);";
+    private static final String DELETE_ORDER_SQL = 
+            "DELETE FROM orders WHERE id=?";
+    private static final String CREATE_ID_INDEX_SQL = 
+            "CREATE INDEX idx_id ON orders(id);";
+    private static final String CREATE_ID_UNIQUE_KEY_SQL = 
+            "CREATE UNIQUE INDEX uk_orders_id ON orders(id);";
+    private static final String CREATE_CREATED_AT_INDEX_SQL = 
+            "CREATE INDEX idx_created_at ON orders(created_at);";
+    private static final String CREATE_MAILBOX_TABLE_SQL = 
+            "CREATE TABLE IF NOT EXISTS mailbox(id varchar(64) NOT NULL, username varchar(64), orderId varchar(64), item BLOB, amount INT, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (id), INDEX idx_mailbox_username (username, created_at));";
+    private static final String INSERT_MAIL_ITEM_SQL = 
+            "INSERT IGNORE INTO mailbox(id, username, orderId, item, amount, created_at) VALUES (?, ?, ?, ?, ?, ?);";
+    private static final String SELECT_MAIL_ITEMS_SQL = 
+            "SELECT id, username, orderId, item, amount, created_at FROM mailbox WHERE username=? ORDER BY created_at, id LIMIT ?";
+    private static final String UPDATE_MAIL_ITEM_SQL = 
+            "UPDATE mailbox SET amount=? WHERE id=?";
+    private static final String DELETE_MAIL_ITEM_SQL = 
+            "DELETE FROM mailbox WHERE id=?";
 
     /**
      * Initialize MySQL storage with connection pooling.
+     * The pool is created by the StorageManager off the main thread.
      *
      * @param mineShopify The main plugin instance.
      */
     public MySQLStorage(MineShopify mineShopify) {
         this.mineShopify = mineShopify;
-        createConnection();
+        this.logger = mineShopify.getLogger();
+        this.eventLog = mineShopify.getEventLog();
+        this.poolConfig = null;
+    }
+
+    /**
+     * Initialize MySQL storage with a pool configured by the caller instead of config.yml.
+     * Used to run the storage without a server, e.g. in the benchmarks. No events are recorded.
+     *
+     * @param logger The logger for errors.
+     * @param poolConfig The configuration of the connection pool, including the JDBC URL.
+     */
+    public MySQLStorage(Logger logger, HikariConfig poolConfig) {
+        this.mineShopify = null;
+        this.logger = logger;
+        this.eventLog = null;
+        this.poolConfig = poolConfig;
     }
 
     /**
@@ -40,106 +103,541 @@ public class MySQLStorage implements IStorage {
     @Override
     public void createConnection() {
         try {
-            // Get database configuration from config
-            String host = mineShopify.getConfig().getString("storage.host", "localhost");
-            int port = mineShopify.getConfig().getInt("storage.port", 3306);
-            String database = mineShopify.getConfig().getString("storage.database", "minecraft");
-            String username = mineShopify.getConfig().getString("storage.username", "root");
-            String password = mineShopify.getConfig().getString("storage.password", "");
-            
-            // Configure HikariCP
-            HikariConfig config = new HikariConfig();
-            config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + 
-                    "?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC");
-            config.setUsername(username);
-            config.setPassword(password);
-            config.setDriverClassName("com.mysql.cj.jdbc.Driver");
+            openPool();
+            logger.info("Successfully connected to MySQL database.");
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to connect to MySQL database", e);
+            closePool();
+            dataSource = null;
+        }
+    }
+
+    /**
+     * Try to create the connection pool again without logging the failure.
+     * Used by the failover probe, which reports an outage only once.
+     *
+     * @return True if the pool was created.
+     */
+    boolean reconnect() {
+        try {
+            openPool();
+            return true;
+        } catch (Exception e) {
+            closePool();
+            dataSource = null;
+            return false;
+        }
+    }
+
+    private void openPool() {
+        HikariConfig config = poolConfig != null ? poolConfig : createPoolConfig();
+        
+        // Create the data source
+        dataSource = new HikariDataSource(config);
+        
+        // Create the table if it doesn't exist
+        createTable();
+    }
+
+    /**
+     * Read the pool configuration from config.yml.
+     *
+     * @return The configuration of the connection pool.
+     */
+    private HikariConfig createPoolConfig() {
+        // Get database configuration from config
+        String host = mineShopify.getConfig().getString("storage.host", "localhost");
+        int port = mineShopify.getConfig().getInt("storage.port", 3306);
+        String database = mineShopify.getConfig().getString("storage.database", "minecraft");
+        String username = mineShopify.getConfig().getString("storage.username", "root");
+        String password = mineShopify.getConfig().getString("storage.password", "");
+        
+        // Configure HikariCP
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + 
+                "?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC");
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setDriverClassName("com.mysql.cj.jdbc.Driver");
+        
+        // Connection pool settings from config
+        int maxConnections = mineShopify.getConfig().getInt("storage.pool.max_connections", 10);
+        int minIdle = mineShopify.getConfig().getInt("storage.pool.min_idle", 3);
+        int idleTimeout = mineShopify.getConfig().getInt("storage.pool.idle_timeout", 10);
+        int maxLifetime = mineShopify.getConfig().getInt("storage.pool.max_lifetime", 30);
+        
+        config.setMaximumPoolSize(maxConnections); // Maximum number of connections
+        config.setMinimumIdle(minIdle); // Minimum number of idle connections
+        config.setIdleTimeout(TimeUnit.MINUTES.toMillis(idleTimeout)); // How long a connection can be idle
+        config.setMaxLifetime(TimeUnit.MINUTES.toMillis(maxLifetime)); // Maximum lifetime of a connection
+        config.setConnectionTimeout(TimeUnit.SECONDS.toMillis(30)); // Connection timeout
+        
+        // Connection test query
+        config.setConnectionTestQuery("SELECT 1");
+        
+        // Pool name for easier debugging
+        config.setPoolName("MineShopifyPool");
+        
+        return config;
+    }
+
+    /**
+     * Create the orders table if it doesn't exist.
+     * Added index on orderId for faster lookups.
+     * Tables created by older versions get a unique key on id, so replays and resumed
+     * migrations can't duplicate rows, and indexes on created_at for archiving and on
+     * username for the purchase history.
+     * The mailbox table is created next to it.
+     */
+    private void createTable() {
+        try (Connection conn = getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(CREATE_TABLE_SQL)) {
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(CREATE_MAILBOX_TABLE_SQL)) {
+                stmt.executeUpdate();
+            }
+            if (!hasIndexOn(conn, "id", true)) {
+                addIdUniqueKey(conn);
+            }
+            if (!hasIndexOn(conn, "created_at", false)) {
+                try (PreparedStatement stmt = conn.prepareStatement(CREATE_CREATED_AT_INDEX_SQL)) {
+                    stmt.executeUpdate();
+                }
+            }
+            if (!hasIndexOn(conn, "username", false)) {
+                try (PreparedStatement stmt = conn.prepareStatement(CREATE_USERNAME_INDEX_SQL)) {
+                    stmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to create orders table", e);
+        }
+    }
+
+    /**
+     * Add the unique key on id to a table created before it was the primary key.
+     * Fails if the table already holds duplicate rows; inserts then skip existing ids,
+     * and the table keeps a plain index on id.
+     */
+    private void addIdUniqueKey(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(CREATE_ID_UNIQUE_KEY_SQL)) {
+            stmt.executeUpdate();
+            logger.info("Added a unique key on the id of the orders table.");
+        } catch (SQLException e) {
+            logger.warning("Could not add a unique key on the id of the orders table, it contains duplicate rows: " + e.getMessage());
+            if (!hasIndexOn(conn, "id", false)) {
+                try (PreparedStatement stmt = conn.prepareStatement(CREATE_ID_INDEX_SQL)) {
+                    stmt.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private boolean hasIndexOn(Connection conn, String column, boolean unique) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, "orders", unique, false)) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME")) && rs.getShort("ORDINAL_POSITION") == 1
+                        && (!unique || !rs.getBoolean("NON_UNIQUE"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add an order to the MySQL database.
+     * Uses connection pooling for better performance.
+     * 
+     * @param order The order to add to the database.
+     * @throws StorageException If the order could not be written.
+     */
+    @Override
+    public void addOrder(Order order) throws StorageException {
+        try {
+            insertOrder(order);
+        } catch (SQLException e) {
+            throw new StorageException("Failed to add order " + order.getOrderId() + " to database", e);
+        }
+    }
+
+    /**
+     * Check if an order already exists in the database.
+     * Optimized query using LIMIT 1 for better performance.
+     * 
+     * @param orderId The ID of the order to check.
+     * @return True if the order exists, false otherwise.
+     * @throws StorageException If the database can't be queried; the order must not be delivered then.
+     */
+    @Override
+    public boolean checkOrder(String orderId) throws StorageException {
+        try {
+            return containsOrder(orderId);
+        } catch (SQLException e) {
+            throw new StorageException("Failed to check if order " + orderId + " exists", e);
+        }
+    }
+
+    /**
+     * Add several orders to the database in a single transaction.
+     *
+     * @param orders The orders to add to the database.
+     * @throws StorageException If the batch could not be written.
+     */
+    @Override
+    public void addOrders(List<Order> orders) throws StorageException {
+        try {
+            insertOrders(orders);
+        } catch (SQLException e) {
+            throw new StorageException("Failed to add " + orders.size() + " orders to database", e);
+        }
+    }
+
+    /**
+     * Get a page of orders sorted by their id.
+     * Uses keyset pagination, so every page is an index range scan.
+     *
+     * @param afterId The id after which the page starts, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     * @return The orders of the page.
+     * @throws StorageException If the page could not be read.
+     */
+    @Override
+    public List<Order> getOrders(String afterId, int limit) throws StorageException {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_ORDERS_SQL)) {
             
-            // Connection pool settings from config
-            int maxConnections = mineShopify.getConfig().getInt("storage.pool.max_connections", 10);
-            int minIdle = mineShopify.getConfig().getInt("storage.pool.min_idle", 3);
-            int idleTimeout = mineShopify.getConfig().getInt("storage.pool.idle_timeout", 10);
-            int maxLifetime = mineShopify.getConfig().getInt("storage.pool.max_lifetime", 30);
+            stmt.setString(1, afterId == null ? "" : afterId);
+            stmt.setInt(2, limit);
+            return readOrders(stmt);
             
-            config.setMaximumPoolSize(maxConnections); // Maximum number of connections
-            config.setMinimumIdle(minIdle); // Minimum number of idle connections
-            config.setIdleTimeout(TimeUnit.MINUTES.toMillis(idleTimeout)); // How long a connection can be idle
-            config.setMaxLifetime(TimeUnit.MINUTES.toMillis(maxLifetime)); // Maximum lifetime of a connection
-            config.setConnectionTimeout(TimeUnit.SECONDS.toMillis(30)); // Connection timeout
+        } catch (SQLException e) {
+            throw new StorageException("Failed to read orders from database", e);
+        }
+    }
+
+    /**
+     * Get the oldest orders created before the given time.
+     * Uses the index on created_at.
+     *
+     * @param createdBefore The timestamp in milliseconds the orders must be older than.
+     * @param limit The maximum number of orders to return.
+     * @return The orders, oldest first.
+     * @throws StorageException If the orders could not be read.
+     */
+    @Override
+    public List<Order> getOrdersBefore(long createdBefore, int limit) throws StorageException {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_ORDERS_BEFORE_SQL)) {
             
-            // Connection test query
-            config.setConnectionTestQuery("SELECT 1");
+            stmt.setTimestamp(1, new Timestamp(createdBefore));
+            stmt.setInt(2, limit);
+            return readOrders(stmt);
             
-            // Pool name for easier debugging
-            config.setPoolName("MineShopifyPool");
+        } catch (SQLException e) {
+            throw new StorageException("Failed to read old orders from database", e);
+        }
+    }
+
+    /**
+     * Delete orders from the database in a single transaction.
+     *
+     * @param orders The orders to delete.
+     * @throws StorageException If the orders could not be deleted.
+     */
+    @Override
+    public void removeOrders(List<Order> orders) throws StorageException {
+        if (orders.isEmpty()) {
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(DELETE_ORDER_SQL)) {
+                for (Order order : orders) {
+                    stmt.setString(1, order.getId().toString());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to delete " + orders.size() + " orders from database", e);
+        }
+    }
+
+    /**
+     * Get a page of the orders of a player, newest first.
+     * Uses keyset pagination on the (username, created_at, id) index.
+     *
+     * @param username The name of the player.
+     * @param after The last order of the previous page, or null for the first page.
+     * @param limit The maximum number of orders in the page.
+     * @return The orders of the page.
+     * @throws StorageException If the orders could not be read.
+     */
+    @Override
+    public List<Order> findOrdersByUsername(String username, Order after, int limit) throws StorageException {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(after == null ? SELECT_ORDERS_BY_USERNAME_SQL : SELECT_ORDERS_BY_USERNAME_AFTER_SQL)) {
             
-            // Create the data source
-            dataSource = new HikariDataSource(config);
+            stmt.setString(1, username);
+            if (after == null) {
+                stmt.setInt(2, limit);
+            } else {
+                Timestamp createdAt = new Timestamp(after.getCreatedAt());
+                stmt.setTimestamp(2, createdAt);
+                stmt.setTimestamp(3, createdAt);
+                stmt.setString(4, after.getId().toString());
+                stmt.setInt(5, limit);
+            }
+            return readOrders(stmt);
             
-            // Create the table if it doesn't exist
-            createTable();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to read the orders of " + username + " from database", e);
+        }
+    }
+
+    /**
+     * Get all line items stored for a Shopify order, newest first.
+     *
+     * @param orderId The id of the Shopify order.
+     * @return The stored line items of the order.
+     * @throws StorageException If the orders could not be read.
+     */
+    @Override
+    public List<Order> findOrdersByOrderId(String orderId) throws StorageException {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_ORDERS_BY_ORDER_ID_SQL)) {
             
-            mineShopify.getLogger().info("Successfully connected to MySQL database.");
+            stmt.setString(1, orderId);
+            return readOrders(stmt);
             
-        } catch (Exception e) {
-            mineShopify.getLogger().log(Level.SEVERE, "Failed to connect to MySQL database", e);
-            mineShopify.getLogger().severe("Falling back to file storage.");
-            mineShopify.getStorageManager().changeStorage();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to read order " + orderId + " from database", e);
         }
     }
 
     /**
-     * Create the orders table if it doesn't exist.
-     * Added index on orderId for faster lookups.
+     * Put items into the mailboxes of their players in a single transaction.
+     *
+     * @param items The new mailbox entries.
+     * @throws StorageException If the entries could not be written.
      */
-    private void createTable() {
+    @Override
+    public void addMailItems(List<MailItem> items) throws StorageException {
+        if (items.isEmpty()) {
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(INSERT_MAIL_ITEM_SQL)) {
+                for (MailItem item : items) {
+                    stmt.setString(1, item.getId().toString());
+                    stmt.setString(2, item.getUsername());
+                    stmt.setString(3, item.getOrderId());
+                    stmt.setBytes(4, item.getItem());
+                    stmt.setInt(5, item.getAmount());
+                    stmt.setTimestamp(6, new Timestamp(item.getCreatedAt()));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to add " + items.size() + " mailbox entries to database", e);
+        }
+    }
+
+    /**
+     * Get the oldest entries of the mailbox of a player.
+     * Uses the (username, created_at) index of the mailbox table.
+     *
+     * @param username The name of the player.
+     * @param limit The maximum number of entries.
+     * @return The entries, oldest first.
+     * @throws StorageException If the entries could not be read.
+     */
+    @Override
+    public List<MailItem> getMailItems(String username, int limit) throws StorageException {
         try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(CREATE_TABLE_SQL)) {
+             PreparedStatement stmt = conn.prepareStatement(SELECT_MAIL_ITEMS_SQL)) {
             
-            stmt.executeUpdate();
+            stmt.setString(1, username);
+            stmt.setInt(2, limit);
+            List<MailItem> items = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp createdAt = rs.getTimestamp("created_at");
+                    try {
+                        items.add(new MailItem(UUID.fromString(rs.getString("id")), rs.getString("username"),
+                                rs.getString("orderId"), rs.getBytes("item"), rs.getInt("amount"),
+                                createdAt != null ? createdAt.getTime() : System.currentTimeMillis()));
+                    } catch (IllegalArgumentException e) {
+                        logger.warning("Skipping mailbox row " + rs.getString("id") + ", it is not a valid mailbox entry.");
+                    }
+                }
+            }
+            return items;
             
         } catch (SQLException e) {
-            mineShopify.getLogger().log(Level.SEVERE, "Failed to create orders table", e);
+            throw new StorageException("Failed to read the mailbox of " + username + " from database", e);
         }
     }
 
     /**
-     * Add an order to the MySQL database.
-     * Uses connection pooling for better performance.
-     * 
-     * @param order The order to add to the database.
+     * Write the remaining amounts of claimed entries in a single transaction.
+     *
+     * @param items The claimed entries; entries without a remaining amount are deleted.
+     * @throws StorageException If the entries could not be written.
      */
     @Override
-    public void addOrder(Order order) {
+    public void updateMailItems(List<MailItem> items) throws StorageException {
+        if (items.isEmpty()) {
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement update = conn.prepareStatement(UPDATE_MAIL_ITEM_SQL);
+                 PreparedStatement delete = conn.prepareStatement(DELETE_MAIL_ITEM_SQL)) {
+                for (MailItem item : items) {
+                    if (item.getAmount() > 0) {
+                        update.setInt(1, item.getAmount());
+                        update.setString(2, item.getId().toString());
+                        update.addBatch();
+                    } else {
+                        delete.setString(1, item.getId().toString());
+                        delete.addBatch();
+                    }
+                }
+                update.executeBatch();
+                delete.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to update " + items.size() + " mailbox entries in database", e);
+        }
+    }
+
+    private List<Order> readOrders(PreparedStatement stmt) throws SQLException {
+        List<Order> orders = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Timestamp createdAt = rs.getTimestamp("created_at");
+                try {
+                    orders.add(new Order(UUID.fromString(rs.getString("id")), rs.getString("username"),
+                            rs.getString("packageName"), rs.getString("orderId"),
+                            createdAt != null ? createdAt.getTime() : System.currentTimeMillis()));
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Skipping row " + rs.getString("id") + ", it is not a valid order id.");
+                }
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Insert a single order and propagate database errors to the caller.
+     *
+     * @param order The order to insert.
+     * @throws SQLException If the insert fails.
+     */
+    void insertOrder(Order order) throws SQLException {
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(INSERT_ORDER_SQL)) {
             
-            stmt.setString(1, order.getId().toString());
-            stmt.setString(2, order.getUsername());
-            stmt.setString(3, order.getPackageName());
-            stmt.setString(4, order.getOrderId());
-            
+            bindOrder(stmt, order);
             stmt.executeUpdate();
             
-            // Log success if debug is enabled
-            if (mineShopify.getConfig().getBoolean("debug", false)) {
-                mineShopify.getLogger().info("Order " + order.getOrderId() + " successfully saved to database.");
+            if (eventLog != null) {
+                eventLog.log(EventCategory.STORAGE, Level.FINE, "order_saved",
+                        () -> "Order " + order.getOrderId() + " successfully saved to database.");
             }
-            
-        } catch (SQLException e) {
-            mineShopify.getLogger().log(Level.SEVERE, "Failed to add order " + order.getOrderId() + " to database", e);
         }
     }
 
     /**
-     * Check if an order already exists in the database.
-     * Optimized query using LIMIT 1 for better performance.
-     * 
+     * Insert a batch of orders in a single transaction.
+     * Rows whose id already exists are skipped, so a batch can safely be replayed twice,
+     * also on tables from older versions that have no unique key on id.
+     *
+     * @param orders The orders to insert.
+     * @throws SQLException If the batch fails; nothing of the batch is committed in that case.
+     */
+    void insertOrders(List<Order> orders) throws SQLException {
+        if (orders.isEmpty()) {
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(REPLAY_ORDER_SQL)) {
+                Set<String> existing = existingIds(conn, orders);
+                for (Order order : orders) {
+                    if (!existing.add(order.getId().toString())) {
+                        continue;
+                    }
+                    bindOrder(stmt, order);
+                    stmt.setTimestamp(5, new Timestamp(order.getCreatedAt()));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private Set<String> existingIds(Connection conn, List<Order> orders) throws SQLException {
+        StringBuilder sql = new StringBuilder(SELECT_EXISTING_IDS_SQL).append('?');
+        for (int i = 1; i < orders.size(); i++) {
+            sql.append(",?");
+        }
+        sql.append(')');
+        Set<String> ids = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < orders.size(); i++) {
+                stmt.setString(i + 1, orders.get(i).getId().toString());
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString("id"));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Check if an order exists and propagate database errors to the caller.
+     *
      * @param orderId The ID of the order to check.
      * @return True if the order exists, false otherwise.
+     * @throws SQLException If the query fails.
      */
-    @Override
-    public boolean checkOrder(String orderId) {
+    boolean containsOrder(String orderId) throws SQLException {
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(CHECK_ORDER_SQL)) {
             
@@ -148,12 +646,37 @@ public class MySQLStorage implements IStorage {
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next(); // If there's a result, the order exists
             }
-            
+        }
+    }
+
+    /**
+     * Check if the pool can hand out a valid connection.
+     *
+     * @return True if the database is reachable, false otherwise.
+     */
+    boolean ping() {
+        try (Connection conn = getConnection()) {
+            return conn.isValid(5);
         } catch (SQLException e) {
-            mineShopify.getLogger().log(Level.SEVERE, "Failed to check if order " + orderId + " exists", e);
-            return false; // Assume order doesn't exist on error
+            return false;
         }
     }
+
+    /**
+     * Check if the connection pool has been created successfully.
+     *
+     * @return True if the pool is open, false otherwise.
+     */
+    public boolean isConnected() {
+        return dataSource != null && !dataSource.isClosed();
+    }
+
+    private void bindOrder(PreparedStatement stmt, Order order) throws SQLException {
+        stmt.setString(1, order.getId().toString());
+        stmt.setString(2, order.getUsername());
+        stmt.setString(3, order.getPackageName());
+        stmt.setString(4, order.getOrderId());
+    }
     
     /**
      * Get a connection from the connection pool.
@@ -0,0 +1,176 @@
+package eu.venxu.mineshopify.storage;
+
+import eu.venxu.mineshopify.order.Order;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes archived orders to one gzip compressed JSON lines file per month,
+ * e.g. archive/orders-2025-01.jsonl.gz. Every write appends a new gzip member,
+ * which standard tools read as one continuous stream.
+ *
+ * The ids of the orders written but not yet removed from the storage are kept in
+ * archive/pending.ids, so a batch interrupted before the removal is not appended a
+ * second time. While an append runs, the file also holds the previous sizes of the
+ * archive files, and an append interrupted halfway is cut off again on the next run.
+ */
+public class OrderArchive {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC);
+    private static final String SIZE_PREFIX = "size ";
+
+    private final File archiveFolder;
+    private final File pendingFile;
+    private Set<String> pending;
+
+    /**
+     * Create an archive in the given folder.
+     *
+     * @param archiveFolder The folder the monthly archive files are written to.
+     */
+    public OrderArchive(File archiveFolder) {
+        this.archiveFolder = archiveFolder;
+        this.pendingFile = new File(archiveFolder, "pending.ids");
+    }
+
+    /**
+     * Append orders to the archive file of the month they were created in.
+     * Orders that were already written by an interrupted run are skipped.
+     * Call {@link #commit(List)} once the orders are removed from the storage.
+     *
+     * @param orders The orders to archive.
+     * @throws IOException If an archive file cannot be written.
+     */
+    public synchronized void write(List<Order> orders) throws IOException {
+        Set<String> written = getPending();
+        Map<String, List<Order>> ordersByMonth = new LinkedHashMap<>();
+        for (Order order : orders) {
+            if (written.contains(order.getId().toString())) {
+                continue;
+            }
+            String month = MONTH_FORMATTER.format(Instant.ofEpochMilli(order.getCreatedAt()));
+            ordersByMonth.computeIfAbsent(month, key -> new ArrayList<>()).add(order);
+        }
+        if (ordersByMonth.isEmpty()) {
+            return;
+        }
+
+        archiveFolder.mkdirs();
+        Map<File, Long> sizes = new LinkedHashMap<>();
+        for (String month : ordersByMonth.keySet()) {
+            File archiveFile = getArchiveFile(month);
+            sizes.put(archiveFile, archiveFile.length());
+        }
+        savePending(written, sizes);
+        try {
+            for (Map.Entry<String, List<Order>> entry : ordersByMonth.entrySet()) {
+                append(getArchiveFile(entry.getKey()), entry.getValue());
+                for (Order order : entry.getValue()) {
+                    written.add(order.getId().toString());
+                }
+            }
+            savePending(written, Collections.emptyMap());
+        } catch (IOException e) {
+            // Read archive/pending.ids again on the next write, which cuts off the failed append
+            pending = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Forget the orders of a batch after they were removed from the storage.
+     *
+     * @param orders The archived orders.
+     * @throws IOException If archive/pending.ids cannot be written.
+     */
+    public synchronized void commit(List<Order> orders) throws IOException {
+        Set<String> written = getPending();
+        for (Order order : orders) {
+            written.remove(order.getId().toString());
+        }
+        savePending(written, Collections.emptyMap());
+    }
+
+    private File getArchiveFile(String month) {
+        return new File(archiveFolder, "orders-" + month + ".jsonl.gz");
+    }
+
+    /**
+     * Load archive/pending.ids. If an append was interrupted, the archive files are cut back to their previous size.
+     */
+    private Set<String> getPending() throws IOException {
+        if (pending != null) {
+            return pending;
+        }
+        Set<String> ids = new HashSet<>();
+        if (pendingFile.exists()) {
+            boolean truncated = false;
+            for (String line : Files.readAllLines(pendingFile.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith(SIZE_PREFIX)) {
+                    int separator = line.indexOf(' ', SIZE_PREFIX.length());
+                    long size = Long.parseLong(line.substring(SIZE_PREFIX.length(), separator));
+                    File archiveFile = new File(archiveFolder, line.substring(separator + 1));
+                    if (archiveFile.exists() && archiveFile.length() > size) {
+                        try (RandomAccessFile file = new RandomAccessFile(archiveFile, "rw")) {
+                            file.setLength(size);
+                        }
+                    }
+                    truncated = true;
+                } else if (!line.isEmpty()) {
+                    ids.add(line);
+                }
+            }
+            if (truncated) {
+                savePending(ids, Collections.emptyMap());
+            }
+        }
+        pending = ids;
+        return ids;
+    }
+
+    private void savePending(Set<String> ids, Map<File, Long> sizes) throws IOException {
+        if (ids.isEmpty() && sizes.isEmpty()) {
+            Files.deleteIfExists(pendingFile.toPath());
+            return;
+        }
+        List<String> lines = new ArrayList<>(sizes.size() + ids.size());
+        for (Map.Entry<File, Long> size : sizes.entrySet()) {
+            lines.add(SIZE_PREFIX + size.getValue() + " " + size.getKey().getName());
+        }
+        lines.addAll(ids);
+        archiveFolder.mkdirs();
+        File tempFile = new File(archiveFolder, pendingFile.getName() + ".tmp");
+        Files.write(tempFile.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(tempFile.toPath(), pendingFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void append(File archiveFile, List<Order> orders) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(archiveFile, true)), StandardCharsets.UTF_8))) {
+            for (Order order : orders) {
+                writer.write(OrderJournal.toJson(order).toString());
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package eu.venxu.mineshopify.storage;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.venxu.mineshopify.order.Order;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only local journal of orders that could not be written to the primary storage.
+ * Every line holds one order as a JSON object.
+ */
+public class OrderJournal {
+
+    private final File journalFile;
+
+    /**
+     * Create a journal backed by the given file.
+     *
+     * @param journalFile The file the journal is written to.
+     */
+    public OrderJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Append an order to the end of the journal.
+     *
+     * @param order The order to append.
+     * @throws IOException If the journal cannot be written.
+     */
+    public synchronized void append(Order order) throws IOException {
+        journalFile.getParentFile().mkdirs();
+        try (BufferedWriter writer = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(toJson(order).toString());
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Read all orders currently stored in the journal.
+     * Lines that cannot be parsed are skipped.
+     *
+     * @return The journaled orders in the order they were written.
+     * @throws IOException If the journal cannot be read.
+     */
+    public synchronized List<Order> readAll() throws IOException {
+        List<Order> orders = new ArrayList<>();
+        if (!journalFile.exists()) {
+            return orders;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    orders.add(fromJson(JsonParser.parseString(line).getAsJsonObject()));
+                } catch (RuntimeException ignored) {
+                    // A torn last line after a crash, nothing to recover from it
+                }
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Replace the journal content with the given orders.
+     * The new content is written to a temporary file first and then moved over the journal.
+     *
+     * @param orders The orders that are still pending.
+     * @throws IOException If the journal cannot be written.
+     */
+    public synchronized void rewrite(Collection<Order> orders) throws IOException {
+        if (orders.isEmpty()) {
+            Files.deleteIfExists(journalFile.toPath());
+            return;
+        }
+        File tempFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Order order : orders) {
+                writer.write(toJson(order).toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile.toPath(), journalFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Check if a line item recovered from a journal already reached the storage.
+     * Line items are matched by their own id, two line items of one order can share
+     * the package and the player.
+     *
+     * @param storage The storage to look in.
+     * @param order The recovered line item.
+     * @return True if the storage holds a row with the id of the line item.
+     * @throws StorageException If the storage cannot be read.
+     */
+    static boolean isStored(IStorage storage, Order order) throws StorageException {
+        for (Order existing : storage.findOrdersByOrderId(order.getOrderId())) {
+            if (existing.getId().equals(order.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convert an order to its JSON representation.
+     *
+     * @param order The order to convert.
+     * @return The order as a JSON object.
+     */
+    static JsonObject toJson(Order order) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", order.getId().toString());
+        json.addProperty("username", order.getUsername());
+        json.addProperty("packageName", order.getPackageName());
+        json.addProperty("orderId", order.getOrderId());
+        json.addProperty("createdAt", order.getCreatedAt());
+        return json;
+    }
+
+    /**
+     * Read an order from its JSON representation.
+     * Entries written before timestamps were recorded get the current time.
+     *
+     * @param json The JSON object to read.
+     * @return The order.
+     */
+    static Order fromJson(JsonObject json) {
+        return new Order(UUID.fromString(json.get("id").getAsString()),
+                json.get("username").getAsString(),
+                json.get("packageName").getAsString(),
+                json.get("orderId").getAsString(),
+                json.has("createdAt") ? json.get("createdAt").getAsLong() : System.currentTimeMillis());
+    }
+}
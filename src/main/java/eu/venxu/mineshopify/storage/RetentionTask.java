@@ -0,0 +1,75 @@
+package eu.venxu.mineshopify.storage;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.order.Order;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Moves orders older than the retention horizon from the active storage into
+ * the compressed archive. Archived order ids are added to the
+ * {@link ArchivedOrderIndex} before the orders are removed, so the dedupe check
+ * never misses an order while it is being archived. A batch interrupted before
+ * the removal is archived again without duplicating its entries.
+ */
+public class RetentionTask implements Runnable {
+
+    private final MineShopify mineShopify;
+    private final OrderArchive archive;
+    private final ArchivedOrderIndex archivedOrders;
+
+    /**
+     * Prepare the retention task.
+     *
+     * @param mineShopify The main plugin instance.
+     * @param archive The archive old orders are written to.
+     * @param archivedOrders The index of archived order ids.
+     */
+    public RetentionTask(MineShopify mineShopify, OrderArchive archive, ArchivedOrderIndex archivedOrders) {
+        this.mineShopify = mineShopify;
+        this.archive = archive;
+        this.archivedOrders = archivedOrders;
+    }
+
+    /**
+     * Archive old orders in batches. Must be called on an asynchronous task.
+     */
+    @Override
+    public void run() {
+        int retentionDays = Math.max(1, mineShopify.getConfig().getInt("storage.retention.days", 365));
+        int batchSize = Math.max(1, mineShopify.getConfig().getInt("storage.retention.batch_size", 1000));
+        long horizon = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+
+        IStorage storage = mineShopify.getStorageManager().getStorage();
+        int archived = 0;
+        try {
+            while (mineShopify.isEnabled()) {
+                List<Order> batch = storage.getOrdersBefore(horizon, batchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                archive.write(batch);
+
+                List<String> orderIds = new ArrayList<>(batch.size());
+                for (Order order : batch) {
+                    orderIds.add(order.getOrderId());
+                }
+                archivedOrders.addAll(orderIds);
+
+                storage.removeOrders(batch);
+                archive.commit(batch);
+                archived += batch.size();
+            }
+        } catch (StorageException | IOException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to archive old orders", e);
+        }
+
+        if (archived > 0) {
+            mineShopify.getLogger().info("Archived " + archived + " orders older than " + retentionDays + " days.");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package eu.venxu.mineshopify.storage;
+
+/**
+ * Thrown by bulk storage operations that must not fail silently,
+ * e.g. when a migration chunk could not be read or written.
+ */
+public class StorageException extends Exception {
+
+    public StorageException(String message) {
+        super(message);
+    }
+
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,30 +1,284 @@
 package eu.venxu.mineshopify.storage;
 
 import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.order.Order;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class StorageManager {
 
     private final MineShopify mineShopify;
-    private IStorage storage;
+    private final CompletableFuture<IStorage> ready = new CompletableFuture<>();
+    private final ArchivedOrderIndex archivedOrders;
+    private final OrderJournal unwrittenOrders;
+    private final DeliveryLedger deliveryLedger;
+    private volatile IStorage storage;
+    private volatile AsyncStorage asyncStorage;
+    private StorageMigration migration;
 
     /**
      * Set which type of storage is choosen.
+     * The storage is not connected until {@link #initialize()} is called.
      *
      * @param mineShopify The main class.
      */
     public StorageManager(MineShopify mineShopify) {
         this.mineShopify = mineShopify;
-        if(mineShopify.getConfig().getBoolean("storage.MySQL")) storage = new MySQLStorage(mineShopify);
+        this.archivedOrders = new ArchivedOrderIndex(new File(mineShopify.getDataFolder(), "archive/archived-ids.bin"));
+        this.unwrittenOrders = new OrderJournal(new File(mineShopify.getDataFolder(), "unwritten-orders.log"));
+        this.deliveryLedger = new DeliveryLedger(mineShopify);
+        if(mineShopify.getConfig().getBoolean("storage.MySQL")) {
+            MySQLStorage mySQLStorage = new MySQLStorage(mineShopify);
+            if(mineShopify.getConfig().getBoolean("storage.failover.enabled", true)) {
+                storage = new FailoverStorage(mineShopify, mySQLStorage);
+            } else {
+                storage = mySQLStorage;
+            }
+        }
         else storage = new FileStorage(mineShopify);
+        
+        mineShopify.getMetrics().gauge("storage_queue_length", "Storage operations waiting for a worker thread",
+                () -> asyncStorage == null ? 0 : asyncStorage.getQueuedCount());
+        mineShopify.getMetrics().gauge("storage_failover_buffered", "Orders waiting in the failover journal",
+                () -> storage instanceof FailoverStorage ? ((FailoverStorage) storage).getBufferedCount() : 0);
+    }
+
+    /**
+     * Connect the storage on an asynchronous task, so the server startup
+     * doesn't wait for the database. Use {@link #whenReady()} to run code once
+     * the storage can be used.
+     */
+    public void initialize() {
+        Bukkit.getScheduler().runTaskAsynchronously(mineShopify, () -> {
+            try {
+                storage.createConnection();
+                if(storage instanceof MySQLStorage && !((MySQLStorage) storage).isConnected()) changeStorage();
+                loadArchivedOrders();
+                // One worker per pooled connection, the file storage is written by a single thread
+                int threads = storage instanceof FileStorage ? 1 : Math.max(1, mineShopify.getConfig().getInt("storage.pool.max_connections", 10));
+                asyncStorage = new AsyncStorage(mineShopify, this, threads);
+                // Before the first poll, so the orders count as processed
+                writeUnwrittenOrders();
+                deliveryLedger.recover(storage);
+                scheduleRetention();
+                mineShopify.getLogger().info("Storage is ready.");
+                ready.complete(storage);
+            } catch (Exception e) {
+                mineShopify.getLogger().log(Level.SEVERE, "Failed to initialize storage", e);
+                ready.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Get the asynchronous view of the storage.
+     * Only available once the storage is ready, see {@link #whenReady()}.
+     *
+     * @return The asynchronous storage, or null if the storage is not ready yet.
+     */
+    public IAsyncStorage getAsyncStorage() {
+        return asyncStorage;
+    }
+
+    /**
+     * Get the ledger that records line items before their commands are dispatched.
+     *
+     * @return The delivery ledger.
+     */
+    public DeliveryLedger getDeliveryLedger() {
+        return deliveryLedger;
+    }
+
+    /**
+     * Check if an order has already been processed.
+     * Archived orders are answered by the in-memory archive index,
+     * all other orders by the active storage.
+     *
+     * @param orderId The id of the order which has to be checked.
+     * @return True if the order has been processed before.
+     * @throws StorageException If the storage can't tell; the order must not be delivered then.
+     */
+    public boolean checkOrder(String orderId) throws StorageException {
+        return archivedOrders.contains(orderId) || storage.checkOrder(orderId);
+    }
+
+    /**
+     * Get the index of order ids that were moved to the archive.
+     *
+     * @return The archive index.
+     */
+    public ArchivedOrderIndex getArchivedOrders() {
+        return archivedOrders;
+    }
+
+    private void loadArchivedOrders() {
+        try {
+            archivedOrders.load();
+        } catch (IOException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to load the archived order index", e);
+        }
+    }
+
+    /**
+     * Write the orders left by a shutdown that could not wait for their writes.
+     * Line items that reached the storage before the shutdown are skipped.
+     */
+    private void writeUnwrittenOrders() {
+        try {
+            List<Order> unwritten = unwrittenOrders.readAll();
+            if(unwritten.isEmpty()) return;
+            List<Order> missing = new ArrayList<>();
+            for(Order order : unwritten) {
+                if(!OrderJournal.isStored(storage, order)) missing.add(order);
+            }
+            if(!missing.isEmpty()) storage.addOrders(missing);
+            unwrittenOrders.rewrite(Collections.emptyList());
+            mineShopify.getLogger().info("Wrote " + missing.size() + " orders left unwritten by the last shutdown.");
+        } catch (Exception e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Failed to write the orders left by the last shutdown, they are kept in unwritten-orders.log", e);
+        }
+    }
+
+    /**
+     * Schedule the archiving of old orders if retention is enabled.
+     */
+    private void scheduleRetention() {
+        if(!mineShopify.getConfig().getBoolean("storage.retention.enabled", false)) return;
+        long interval = Math.max(1, mineShopify.getConfig().getInt("storage.retention.interval", 24)) * 72000L;
+        OrderArchive archive = new OrderArchive(new File(mineShopify.getDataFolder(), "archive"));
+        Bukkit.getScheduler().runTaskTimerAsynchronously(mineShopify,
+                new RetentionTask(mineShopify, archive, archivedOrders), 1200L, interval);
+    }
+
+    /**
+     * Get a future that completes with the storage once it is connected.
+     *
+     * @return The readiness gate of the storage.
+     */
+    public CompletableFuture<IStorage> whenReady() {
+        return ready;
+    }
+
+    /**
+     * Check if the storage has been connected successfully.
+     *
+     * @return True if the storage can be used.
+     */
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
     }
 
     /**
      * Change the storage to FileStorage.
-     * This will be executed when MySQL couldn't connect.
+     * This will be executed when MySQL couldn't connect and failover is disabled.
      */
     public void changeStorage() {
-        if(storage instanceof MySQLStorage)
-            storage = new FileStorage(mineShopify);
+        if(storage instanceof MySQLStorage) {
+            mineShopify.getLogger().severe("Falling back to file storage.");
+            IStorage fileStorage = new FileStorage(mineShopify);
+            fileStorage.createConnection();
+            storage = fileStorage;
+        }
+    }
+
+    /**
+     * Start copying all orders from one backend to another on an asynchronous task.
+     *
+     * @param sender The sender who receives progress reports.
+     * @param from The type of the source backend ("file" or "mysql").
+     * @param to The type of the target backend ("file" or "mysql").
+     * @return False if another migration is still running.
+     */
+    public synchronized boolean startMigration(CommandSender sender, String from, String to) {
+        if(migration != null) return false;
+        migration = new StorageMigration(mineShopify, sender, from, to);
+        Bukkit.getScheduler().runTaskAsynchronously(mineShopify, migration);
+        return true;
+    }
+
+    /**
+     * Check if a storage migration is running.
+     *
+     * @return True if a migration is running.
+     */
+    public synchronized boolean isMigrating() {
+        return migration != null;
+    }
+
+    synchronized void migrationFinished(StorageMigration finished) {
+        if(migration == finished) migration = null;
+    }
+
+    /**
+     * Get a connected storage backend by its type for a migration.
+     * The active storage is reused, so its in-memory state stays consistent.
+     *
+     * @param type The type of the backend ("file" or "mysql").
+     * @return The connected backend.
+     * @throws StorageException If the type is unknown or the backend can't connect.
+     */
+    IStorage openStorage(String type) throws StorageException {
+        IStorage active = storage;
+        if(type.equals("file")) {
+            if(active instanceof FileStorage) return active;
+            IStorage fileStorage = new FileStorage(mineShopify);
+            fileStorage.createConnection();
+            return fileStorage;
+        }
+        if(type.equals("mysql")) {
+            if(active instanceof MySQLStorage || active instanceof FailoverStorage) return active;
+            MySQLStorage mySQLStorage = new MySQLStorage(mineShopify);
+            mySQLStorage.createConnection();
+            if(!mySQLStorage.isConnected()) throw new StorageException("Could not connect to MySQL.");
+            return mySQLStorage;
+        }
+        throw new StorageException("Unknown storage type: " + type);
+    }
+
+    /**
+     * Close a backend opened by {@link #openStorage(String)} unless it is the active storage.
+     *
+     * @param opened The backend to close, may be null.
+     */
+    void closeStorage(IStorage opened) {
+        if(opened == null || opened == storage) return;
+        if(opened instanceof MySQLStorage) ((MySQLStorage) opened).closePool();
+    }
+
+    /**
+     * Wait for the pending writes and close the connections of the active storage.
+     * Orders whose write did not finish in time are saved to unwritten-orders.log
+     * and written on the next start. A running migration is stopped after its current chunk.
+     * This method should be called from the main plugin class's onDisable method.
+     *
+     * @param timeoutMillis The maximum time to wait for the pending writes.
+     */
+    public void close(long timeoutMillis) {
+        synchronized(this) {
+            if(migration != null) migration.cancel();
+        }
+        if(asyncStorage != null && !asyncStorage.shutdown(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            List<Order> unwritten = asyncStorage.shutdownNow();
+            mineShopify.getLogger().warning("Not all pending storage operations finished before shutdown, "
+                    + unwritten.size() + " orders are saved to unwritten-orders.log.");
+            try {
+                for(Order order : unwritten) unwrittenOrders.append(order);
+            } catch (IOException e) {
+                mineShopify.getLogger().log(Level.SEVERE, "Failed to save the unwritten orders", e);
+            }
+        }
+        deliveryLedger.closeFile();
+        if(storage instanceof FailoverStorage) ((FailoverStorage) storage).close();
+        else if(storage instanceof MySQLStorage) ((MySQLStorage) storage).closePool();
     }
 
     /**
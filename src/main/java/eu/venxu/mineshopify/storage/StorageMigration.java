@@ -0,0 +1,175 @@
+package eu.venxu.mineshopify.storage;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.order.Order;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Copies all orders from one storage backend to another on a background thread.
+ * Orders are streamed in chunks sorted by id and a checkpoint is written after every
+ * chunk, so an interrupted migration continues where it stopped when started again.
+ * Writing a chunk again after a crash is harmless, both backends skip ids they already hold.
+ * The Orders File is saved as a whole, so a file target is only saved, and checkpointed,
+ * every {@value #FILE_SAVE_INTERVAL} orders.
+ */
+public class StorageMigration implements Runnable {
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    private static final int FILE_SAVE_INTERVAL = 50000;
+
+    private final MineShopify mineShopify;
+    private final CommandSender sender;
+    private final String from;
+    private final String to;
+    private final File checkpointFile;
+    private volatile boolean cancelled;
+
+    /**
+     * Prepare a migration between two storage backends.
+     *
+     * @param mineShopify The main plugin instance.
+     * @param sender The sender who receives progress reports.
+     * @param from The type of the source backend ("file" or "mysql").
+     * @param to The type of the target backend ("file" or "mysql").
+     */
+    public StorageMigration(MineShopify mineShopify, CommandSender sender, String from, String to) {
+        this.mineShopify = mineShopify;
+        this.sender = sender;
+        this.from = from;
+        this.to = to;
+        this.checkpointFile = new File(mineShopify.getDataFolder(), "migration-checkpoint.yml");
+    }
+
+    /**
+     * Run the migration. Must be called on an asynchronous task.
+     */
+    @Override
+    public void run() {
+        StorageManager storageManager = mineShopify.getStorageManager();
+        IStorage source = null;
+        IStorage target = null;
+        try {
+            source = storageManager.openStorage(from);
+            target = storageManager.openStorage(to);
+            migrate(source, target);
+        } catch (StorageException e) {
+            mineShopify.getLogger().log(Level.SEVERE, "Storage migration from " + from + " to " + to + " failed", e);
+            report(ChatColor.RED + "Migration fehlgeschlagen: " + e.getMessage()
+                    + ChatColor.GRAY + " Führe den Befehl erneut aus, um ab dem letzten Checkpoint fortzufahren.");
+        } finally {
+            storageManager.closeStorage(source);
+            storageManager.closeStorage(target);
+            storageManager.migrationFinished(this);
+        }
+    }
+
+    /**
+     * Stop the migration after the current chunk. The checkpoint is kept.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void migrate(IStorage source, IStorage target) throws StorageException {
+        int chunkSize = Math.max(1, mineShopify.getConfig().getInt("storage.migration.chunk_size", 1000));
+        long pause = Math.max(0, mineShopify.getConfig().getLong("storage.migration.pause", 50));
+
+        YamlConfiguration checkpoint = YamlConfiguration.loadConfiguration(checkpointFile);
+        String lastId = null;
+        long migrated = 0;
+        if (from.equals(checkpoint.getString("from")) && to.equals(checkpoint.getString("to"))) {
+            lastId = checkpoint.getString("lastId");
+            migrated = checkpoint.getLong("migrated", 0);
+            report(MineShopify.PREFIX + "Setze Migration nach " + ChatColor.YELLOW + migrated + ChatColor.GRAY + " Bestellungen fort.");
+        } else {
+            report(MineShopify.PREFIX + "Starte Migration von " + ChatColor.YELLOW + from + ChatColor.GRAY + " nach " + ChatColor.YELLOW + to + ChatColor.GRAY + ".");
+        }
+
+        FileStorage fileTarget = target instanceof FileStorage ? (FileStorage) target : null;
+        int unsaved = 0;
+        long startedAt = System.currentTimeMillis();
+        long lastReport = startedAt;
+        long migratedThisRun = 0;
+        while (!cancelled) {
+            List<Order> chunk = source.getOrders(lastId, chunkSize);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            if (fileTarget != null) {
+                fileTarget.putOrders(chunk);
+                unsaved += chunk.size();
+            } else {
+                target.addOrders(chunk);
+            }
+
+            lastId = chunk.get(chunk.size() - 1).getId().toString();
+            migrated += chunk.size();
+            migratedThisRun += chunk.size();
+            if (fileTarget == null || unsaved >= FILE_SAVE_INTERVAL) {
+                if (fileTarget != null) {
+                    fileTarget.save();
+                    unsaved = 0;
+                }
+                saveCheckpoint(checkpoint, lastId, migrated);
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= PROGRESS_INTERVAL) {
+                lastReport = now;
+                long perSecond = migratedThisRun * 1000 / Math.max(1, now - startedAt);
+                report(MineShopify.PREFIX + ChatColor.YELLOW + migrated + ChatColor.GRAY + " Bestellungen migriert (" + perSecond + "/s)...");
+            }
+
+            if (pause > 0) {
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+            }
+        }
+
+        if (unsaved > 0) {
+            fileTarget.save();
+            saveCheckpoint(checkpoint, lastId, migrated);
+        }
+        if (cancelled) {
+            report(MineShopify.PREFIX + ChatColor.YELLOW + "Migration angehalten nach " + migrated + " Bestellungen. Der Checkpoint wurde gespeichert.");
+            return;
+        }
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            mineShopify.getLogger().warning("Could not delete the migration checkpoint " + checkpointFile.getName());
+        }
+        mineShopify.getLogger().info("Storage migration from " + from + " to " + to + " finished, " + migrated + " orders migrated.");
+        report(MineShopify.PREFIX + ChatColor.GREEN + "Migration abgeschlossen: " + migrated + " Bestellungen von " + from + " nach " + to + " migriert.");
+    }
+
+    private void saveCheckpoint(YamlConfiguration checkpoint, String lastId, long migrated) throws StorageException {
+        checkpoint.set("from", from);
+        checkpoint.set("to", to);
+        checkpoint.set("lastId", lastId);
+        checkpoint.set("migrated", migrated);
+        try {
+            checkpoint.save(checkpointFile);
+        } catch (IOException e) {
+            throw new StorageException("Could not save the migration checkpoint.", e);
+        }
+    }
+
+    private void report(String message) {
+        if (!mineShopify.isEnabled()) {
+            return;
+        }
+        Bukkit.getScheduler().runTask(mineShopify, () -> sender.sendMessage(message));
+    }
+}
@@ -0,0 +1,146 @@
+package eu.venxu.mineshopify.trace;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings of one order on its way from the Shopify poll to the player.
+ * Every stage ends with a {@link System#nanoTime()} mark and starts where the
+ * previous stage ended, so the stage durations add up to the time spent in the plugin.
+ */
+public class OrderTrace {
+
+    /**
+     * The stages an order passes, in order.
+     */
+    public enum Stage {
+        FETCH("fetch", "Abfrage"),
+        QUEUE("queue", "Warteschlange"),
+        EXTRACT("extract", "Auslesen"),
+        DEDUPE("dedupe", "Duplikatprüfung"),
+        DISPATCH("dispatch", "Befehle"),
+        PERSIST("persist", "Speichern");
+
+        private final String label;
+        private final String displayName;
+
+        Stage(String label, String displayName) {
+            this.label = label;
+            this.displayName = displayName;
+        }
+
+        /**
+         * Get the name used as metric label.
+         *
+         * @return The label, e.g. "dedupe".
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Get the name shown in commands.
+         *
+         * @return The German display name.
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final String orderId;
+    private final long createdAt;
+    private final long paidAt;
+    private final long startNanos;
+    private final AtomicLongArray marks = new AtomicLongArray(Stage.values().length);
+    private volatile long deliveredAt;
+
+    /**
+     * Start a trace for an order.
+     *
+     * @param orderId The Shopify order id.
+     * @param createdAt The time Shopify created the order in milliseconds, 0 if unknown.
+     * @param paidAt The time Shopify processed the payment in milliseconds, 0 if unknown.
+     * @param startNanos The time the poll that returned the order was sent.
+     */
+    OrderTrace(String orderId, long createdAt, long paidAt, long startNanos) {
+        this.orderId = orderId;
+        this.createdAt = createdAt;
+        this.paidAt = paidAt;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Mark the end of a stage.
+     *
+     * @param stage The stage that has ended.
+     * @param nanos The end time from {@link System#nanoTime()}.
+     */
+    public void mark(Stage stage, long nanos) {
+        marks.set(stage.ordinal(), nanos);
+    }
+
+    /**
+     * Mark the end of a stage now.
+     *
+     * @param stage The stage that has ended.
+     */
+    public void mark(Stage stage) {
+        mark(stage, System.nanoTime());
+    }
+
+    /**
+     * Get the duration of a stage.
+     *
+     * @param stage The stage.
+     * @return The duration in nanoseconds, or -1 if the stage has not ended yet.
+     */
+    public long getDuration(Stage stage) {
+        long end = marks.get(stage.ordinal());
+        if (end == 0) {
+            return -1;
+        }
+        long start = startNanos;
+        for (int i = stage.ordinal() - 1; i >= 0; i--) {
+            long previous = marks.get(i);
+            if (previous != 0) {
+                start = previous;
+                break;
+            }
+        }
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * Get the time between the payment and the delivery of the commands.
+     * Falls back to the creation time if Shopify did not report a payment time.
+     *
+     * @return The latency in milliseconds, or -1 if it is not known.
+     */
+    public long getPaymentToDelivery() {
+        long paid = paidAt > 0 ? paidAt : createdAt;
+        if (paid <= 0 || deliveredAt == 0) {
+            return -1;
+        }
+        return Math.max(0, deliveredAt - paid);
+    }
+
+    void setDeliveredAt(long deliveredAt) {
+        this.deliveredAt = deliveredAt;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getPaidAt() {
+        return paidAt;
+    }
+
+    public long getDeliveredAt() {
+        return deliveredAt;
+    }
+}
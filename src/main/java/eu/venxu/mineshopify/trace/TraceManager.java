@@ -0,0 +1,199 @@
+package eu.venxu.mineshopify.trace;
+
+import eu.venxu.mineshopify.MineShopify;
+import eu.venxu.mineshopify.metrics.Histogram;
+import eu.venxu.mineshopify.metrics.MetricsRegistry;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the traces of recently delivered orders and reports how long players
+ * waited between paying and receiving their purchase. The most recent traces
+ * and the slowest ones are kept in two bounded buffers; the latencies are also
+ * exported as histograms.
+ */
+public class TraceManager {
+
+    private static final Comparator<OrderTrace> BY_LATENCY = Comparator.comparingLong(OrderTrace::getPaymentToDelivery);
+
+    private final Histogram paymentToDelivery;
+    private final Map<OrderTrace.Stage, Histogram> stageDurations = new EnumMap<>(OrderTrace.Stage.class);
+    private final Map<String, OrderTrace> recent;
+    private final PriorityQueue<OrderTrace> slowest = new PriorityQueue<>(BY_LATENCY);
+    private final int slowestSize;
+
+    /**
+     * Initialize the trace manager.
+     *
+     * @param mineShopify The main plugin instance.
+     */
+    public TraceManager(MineShopify mineShopify) {
+        MetricsRegistry metrics = mineShopify.getMetrics();
+        this.paymentToDelivery = metrics.latency("order_payment_to_delivery_seconds",
+                "Time between the payment in Shopify and the delivery of the commands", Histogram.DELIVERY_BUCKETS);
+        for (OrderTrace.Stage stage : OrderTrace.Stage.values()) {
+            stageDurations.put(stage, metrics.latency("order_stage_duration_seconds",
+                    "Time an order spent in each stage of the plugin", "stage", stage.getLabel()));
+        }
+
+        int recentSize = Math.max(1, mineShopify.getConfig().getInt("tracing.recent_size", 500));
+        this.slowestSize = Math.max(1, mineShopify.getConfig().getInt("tracing.slowest_size", 20));
+        this.recent = new LinkedHashMap<String, OrderTrace>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, OrderTrace> eldest) {
+                return size() > recentSize;
+            }
+        };
+    }
+
+    /**
+     * Start the trace of an order that has not been processed before.
+     *
+     * @param orderId The Shopify order id.
+     * @param createdAt The created_at field of the order, may be null.
+     * @param processedAt The processed_at field of the order, may be null.
+     * @param requestedNanos The time the poll that returned the order was sent.
+     * @return The new trace.
+     */
+    public OrderTrace start(String orderId, String createdAt, String processedAt, long requestedNanos) {
+        return new OrderTrace(orderId, parseTimestamp(createdAt), parseTimestamp(processedAt), requestedNanos);
+    }
+
+    /**
+     * Record that the commands of an order have been dispatched.
+     * The trace becomes visible to {@link #find(String)} and the latency is recorded.
+     *
+     * @param trace The trace of the order.
+     */
+    public void delivered(OrderTrace trace) {
+        trace.mark(OrderTrace.Stage.DISPATCH);
+        trace.setDeliveredAt(System.currentTimeMillis());
+        observeStages(trace, OrderTrace.Stage.PERSIST);
+
+        long latency = trace.getPaymentToDelivery();
+        if (latency >= 0) {
+            paymentToDelivery.observe(latency * 1_000_000L);
+        }
+
+        synchronized (this) {
+            recent.put(trace.getOrderId(), trace);
+            if (latency >= 0) {
+                slowest.add(trace);
+                if (slowest.size() > slowestSize) {
+                    slowest.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that all line items of an order have been written to the storage.
+     *
+     * @param trace The trace of the order.
+     */
+    public void persisted(OrderTrace trace) {
+        trace.mark(OrderTrace.Stage.PERSIST);
+        stageDurations.get(OrderTrace.Stage.PERSIST).observe(trace.getDuration(OrderTrace.Stage.PERSIST));
+    }
+
+    /**
+     * Find the trace of a recently delivered or one of the slowest orders.
+     * A leading "#" of the order id is ignored.
+     *
+     * @param orderId The Shopify order id.
+     * @return The trace, or null if the order is not in one of the buffers.
+     */
+    public synchronized OrderTrace find(String orderId) {
+        String id = orderId.startsWith("#") ? orderId.substring(1) : orderId;
+        OrderTrace trace = recent.get(id);
+        if (trace != null) {
+            return trace;
+        }
+        for (OrderTrace candidate : slowest) {
+            if (candidate.getOrderId().equals(id)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the slowest orders that are still in the buffer, slowest first.
+     *
+     * @param limit The maximum number of traces.
+     * @return The traces.
+     */
+    public synchronized List<OrderTrace> getSlowest(int limit) {
+        List<OrderTrace> traces = new ArrayList<>(slowest);
+        traces.sort(BY_LATENCY.reversed());
+        return traces.subList(0, Math.min(limit, traces.size()));
+    }
+
+    /**
+     * Calculate payment to delivery percentiles over the recently delivered orders.
+     * The values are exact, unlike the bucket estimates of the exported histogram.
+     *
+     * @param quantiles The quantiles between 0 and 1, e.g. 0.5, 0.95 and 0.99.
+     * @return The latency in milliseconds for every quantile, or null if no latency is known.
+     */
+    public long[] getPercentiles(double... quantiles) {
+        long[] latencies;
+        synchronized (this) {
+            latencies = recent.values().stream()
+                    .mapToLong(OrderTrace::getPaymentToDelivery)
+                    .filter(latency -> latency >= 0)
+                    .toArray();
+        }
+        if (latencies.length == 0) {
+            return null;
+        }
+        Arrays.sort(latencies);
+        long[] result = new long[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            int rank = (int) Math.ceil(quantiles[i] * latencies.length);
+            result[i] = latencies[Math.max(0, Math.min(latencies.length - 1, rank - 1))];
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of traces the percentiles are calculated from.
+     *
+     * @return The number of recently delivered orders in the buffer.
+     */
+    public synchronized int getRecentCount() {
+        return recent.size();
+    }
+
+    private void observeStages(OrderTrace trace, OrderTrace.Stage until) {
+        for (OrderTrace.Stage stage : OrderTrace.Stage.values()) {
+            if (stage == until) {
+                break;
+            }
+            long duration = trace.getDuration(stage);
+            if (duration >= 0) {
+                stageDurations.get(stage).observe(duration);
+            }
+        }
+    }
+
+    private static long parseTimestamp(String timestamp) {
+        if (timestamp == null || timestamp.isEmpty()) {
+            return 0;
+        }
+        try {
+            return OffsetDateTime.parse(timestamp).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}